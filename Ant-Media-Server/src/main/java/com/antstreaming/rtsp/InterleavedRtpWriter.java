@@ -0,0 +1,220 @@
+package com.antstreaming.rtsp;
+
+import static org.bytedeco.javacpp.avformat.avio_alloc_context;
+import static org.bytedeco.javacpp.avutil.av_free;
+import static org.bytedeco.javacpp.avutil.av_malloc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.avformat.AVIOContext;
+import org.bytedeco.javacpp.avformat.Read_packet_Pointer_BytePointer_int;
+import org.bytedeco.javacpp.avformat.Seek_Pointer_long_int;
+import org.bytedeco.javacpp.avformat.Write_packet_Pointer_BytePointer_int;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the packets of the rtp muxers to the RTSP connection with '$' framing (RFC 2326 10.12).
+ *
+ * Each rtp muxer writes to a custom io context that flushes a single RTP or RTCP packet in each call.
+ * Packets are collected in a batch and the batch is written to the session with a single write
+ * request when {@link #flush()} is called. Caller should check {@link #isWritable()} before sending
+ * more packets so that a slow client does not grow the write queue of the session.
+ */
+public class InterleavedRtpWriter {
+
+	private static Logger logger = LoggerFactory.getLogger(InterleavedRtpWriter.class);
+
+	/**
+	 * RTP packet size that is given to the rtp muxers. Interleaved frame length is 16 bits
+	 * but packets are kept smaller than a usual MTU as in UDP delivery
+	 */
+	public static final int MAX_RTP_PACKET_SIZE = 1472;
+
+	/**
+	 * Session is not written more packets while it has more bytes than this value in its write queue
+	 */
+	public static final int DEFAULT_MAX_SCHEDULED_WRITE_BYTES = 512 * 1024;
+
+	private static final int INITIAL_BATCH_SIZE = 16 * 1024;
+
+	private static final int RTCP_SR = 200;
+	private static final int RTCP_APP = 204;
+
+	private static class Channel {
+		private final InterleavedRtpWriter writer;
+		private final int rtpChannel;
+
+		Channel(InterleavedRtpWriter writer, int rtpChannel) {
+			this.writer = writer;
+			this.rtpChannel = rtpChannel;
+		}
+	}
+
+	/**
+	 * Channels of the io contexts by the address of the opaque pointer
+	 */
+	private static final Map<Long, Channel> channels = new ConcurrentHashMap<>();
+
+	private static final Write_packet_Pointer_BytePointer_int writeCallback = new Write_packet_Pointer_BytePointer_int() {
+		@Override
+		public int call(Pointer opaque, BytePointer buffer, int bufferSize) {
+			Channel channel = channels.get(opaque.address());
+			if (channel != null) {
+				channel.writer.addNativePacket(channel.rtpChannel, buffer, bufferSize);
+			}
+			return bufferSize;
+		}
+	};
+
+	private final IoSession session;
+
+	private final int maxScheduledWriteBytes;
+
+	private final Map<Long, IntPointer> opaques = new ConcurrentHashMap<>();
+
+	private IoBuffer batch;
+
+	private byte[] packetData = new byte[MAX_RTP_PACKET_SIZE];
+
+	private long writtenBatchCount = 0;
+
+	private long droppedBatchCount = 0;
+
+	public InterleavedRtpWriter(IoSession session) {
+		this(session, DEFAULT_MAX_SCHEDULED_WRITE_BYTES);
+	}
+
+	public InterleavedRtpWriter(IoSession session, int maxScheduledWriteBytes) {
+		this.session = session;
+		this.maxScheduledWriteBytes = maxScheduledWriteBytes;
+	}
+
+	/**
+	 * Creates an io context for a rtp muxer. RTCP packets of the muxer are written to the next channel
+	 * @param rtpChannel interleaved channel of the RTP packets
+	 * @return io context that should be released with {@link #releaseIOContext(AVIOContext)}
+	 */
+	public AVIOContext createIOContext(int rtpChannel) {
+		IntPointer opaque = new IntPointer(1);
+		BytePointer ioBuffer = new BytePointer(av_malloc(MAX_RTP_PACKET_SIZE));
+		AVIOContext ioContext = avio_alloc_context(ioBuffer, MAX_RTP_PACKET_SIZE, 1, opaque,
+				(Read_packet_Pointer_BytePointer_int)null, writeCallback, (Seek_Pointer_long_int)null);
+		if (ioContext == null) {
+			av_free(ioBuffer);
+			opaque.close();
+			return null;
+		}
+		// rtp muxer uses the max packet size of the io context as the rtp packet size
+		ioContext.max_packet_size(MAX_RTP_PACKET_SIZE);
+		ioContext.seekable(0);
+
+		channels.put(opaque.address(), new Channel(this, rtpChannel));
+		opaques.put(ioContext.address(), opaque);
+		return ioContext;
+	}
+
+	/**
+	 * Frees the io context if it's created by this writer
+	 * @return true if io context is created by this writer
+	 */
+	public boolean releaseIOContext(AVIOContext ioContext) {
+		IntPointer opaque = opaques.remove(ioContext.address());
+		if (opaque == null) {
+			return false;
+		}
+		channels.remove(opaque.address());
+		opaque.close();
+		av_free(ioContext.buffer());
+		av_free(ioContext);
+		return true;
+	}
+
+	private synchronized void addNativePacket(int rtpChannel, BytePointer buffer, int size) {
+		if (size <= 0 || size > 0xFFFF) {
+			return;
+		}
+		if (packetData.length < size) {
+			packetData = new byte[size];
+		}
+		buffer.position(0).get(packetData, 0, size);
+		addPacket(rtpChannel, packetData, size);
+	}
+
+	/**
+	 * Adds a packet of a rtp muxer to the batch. RTCP packets are added to the next channel
+	 * @param rtpChannel interleaved channel of the RTP packets
+	 */
+	public synchronized void addPacket(int rtpChannel, byte[] data, int size) {
+		if (size <= 0 || size > 0xFFFF) {
+			return;
+		}
+		// rtcp packets of the muxer are written to the same io context
+		int channel = isRtcpPacket(data, size) ? rtpChannel + 1 : rtpChannel;
+
+		if (batch == null) {
+			batch = IoBuffer.allocate(INITIAL_BATCH_SIZE);
+			batch.setAutoExpand(true);
+		}
+		batch.put((byte) '$');
+		batch.put((byte) channel);
+		batch.putShort((short) size);
+		batch.put(data, 0, size);
+	}
+
+	/**
+	 * @return true if packet type of the data is one of the RTCP packet types
+	 */
+	public static boolean isRtcpPacket(byte[] data, int size) {
+		int payloadType = size > 1 ? data[1] & 0xFF : 0;
+		return payloadType >= RTCP_SR && payloadType <= RTCP_APP;
+	}
+
+	/**
+	 * Writes the packets that are collected since the last flush to the session with a single write request
+	 */
+	public synchronized void flush() {
+		if (batch == null || batch.position() == 0) {
+			return;
+		}
+		IoBuffer data = batch;
+		batch = null;
+		data.flip();
+		if (session.isConnected() && !session.isClosing()) {
+			session.write(data);
+			writtenBatchCount++;
+		}
+		else {
+			droppedBatchCount++;
+			logger.debug("Session {} is closed, dropping interleaved packets", session.getId());
+		}
+	}
+
+	/**
+	 * @return false if write queue of the session is full
+	 */
+	public boolean isWritable() {
+		return session.getScheduledWriteBytes() < maxScheduledWriteBytes;
+	}
+
+	/**
+	 * @return number of the batches that are written to the session
+	 */
+	public long getWrittenBatchCount() {
+		return writtenBatchCount;
+	}
+
+	public long getDroppedBatchCount() {
+		return droppedBatchCount;
+	}
+
+	public IoSession getSession() {
+		return session;
+	}
+}
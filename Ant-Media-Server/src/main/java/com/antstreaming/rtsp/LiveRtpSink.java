@@ -0,0 +1,171 @@
+package com.antstreaming.rtsp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the RTP packets of a {@link LiveStreamPacketizer} to a RTSP player over UDP or over the RTSP connection.
+ *
+ * UDP streams are sent from the server port pair of the stream to the client port pair. Interleaved streams
+ * are sent with an {@link InterleavedRtpWriter}. If the connection is not writable, packets are dropped until
+ * the start of the next key frame so that the player does not get a broken frame.
+ */
+public class LiveRtpSink implements LiveStreamPacketizer.RtpSink {
+
+	private static Logger logger = LoggerFactory.getLogger(LiveRtpSink.class);
+
+	private final DatagramSocket[] rtpSockets;
+
+	private final DatagramSocket[] rtcpSockets;
+
+	private final InetSocketAddress[] rtpAddresses;
+
+	private final InetSocketAddress[] rtcpAddresses;
+
+	private final int[] interleavedChannels;
+
+	private InterleavedRtpWriter interleavedWriter;
+
+	private final DatagramPacket datagramPacket = new DatagramPacket(new byte[0], 0);
+
+	private long sentPacketCount = 0;
+
+	private long sentByteCount = 0;
+
+	private long droppedPacketCount = 0;
+
+	private boolean droppingUntilKeyFrame = false;
+
+	public LiveRtpSink(int streamCount) {
+		rtpSockets = new DatagramSocket[streamCount];
+		rtcpSockets = new DatagramSocket[streamCount];
+		rtpAddresses = new InetSocketAddress[streamCount];
+		rtcpAddresses = new InetSocketAddress[streamCount];
+		interleavedChannels = new int[streamCount];
+	}
+
+	/**
+	 * Sends the stream over UDP. Server ports are allocated if they are not set
+	 * @return false if server ports cannot be bound
+	 */
+	public synchronized boolean setUdpTransport(int streamIndex, String remoteAddress, int[] clientPort, int[] serverPort) {
+		closeSockets(streamIndex);
+		interleavedChannels[streamIndex] = 0;
+		if (serverPort[0] == 0) {
+			int[] portPair = UdpPortAllocator.getInstance().allocate();
+			if (portPair == null) {
+				return false;
+			}
+			serverPort[0] = portPair[0];
+			serverPort[1] = portPair[1];
+		}
+		try {
+			rtpSockets[streamIndex] = new DatagramSocket(serverPort[0]);
+			rtcpSockets[streamIndex] = new DatagramSocket(serverPort[1]);
+		} catch (SocketException e) {
+			logger.warn("Cannot bind server ports {}-{}: {}", serverPort[0], serverPort[1], e.getMessage());
+			closeSockets(streamIndex);
+			return false;
+		}
+		rtpAddresses[streamIndex] = new InetSocketAddress(remoteAddress, clientPort[0]);
+		rtcpAddresses[streamIndex] = new InetSocketAddress(remoteAddress, clientPort[1]);
+		return true;
+	}
+
+	/**
+	 * Sends the stream over the RTSP connection
+	 * @param rtpChannel interleaved channel of the RTP packets, RTCP packets are sent over the next channel
+	 */
+	public synchronized void setInterleavedTransport(int streamIndex, IoSession session, int rtpChannel) {
+		closeSockets(streamIndex);
+		if (interleavedWriter == null || interleavedWriter.getSession() != session) {
+			interleavedWriter = new InterleavedRtpWriter(session);
+		}
+		//channel is kept with an offset so that zero means stream is not interleaved
+		interleavedChannels[streamIndex] = rtpChannel + 1;
+	}
+
+	@Override
+	public synchronized void sendRtpPacket(int streamIndex, byte[] data, int size, boolean keyFrameStart) {
+		if (streamIndex >= interleavedChannels.length) {
+			return;
+		}
+		if (interleavedChannels[streamIndex] != 0) {
+			if (droppingUntilKeyFrame && keyFrameStart && interleavedWriter.isWritable()) {
+				droppingUntilKeyFrame = false;
+			}
+			if (droppingUntilKeyFrame || !interleavedWriter.isWritable()) {
+				droppingUntilKeyFrame = true;
+				droppedPacketCount++;
+				return;
+			}
+			interleavedWriter.addPacket(interleavedChannels[streamIndex] - 1, data, size);
+			sentPacketCount++;
+			sentByteCount += size;
+			return;
+		}
+
+		boolean rtcp = InterleavedRtpWriter.isRtcpPacket(data, size);
+		DatagramSocket socket = rtcp ? rtcpSockets[streamIndex] : rtpSockets[streamIndex];
+		if (socket == null) {
+			return;
+		}
+		datagramPacket.setData(data, 0, size);
+		datagramPacket.setSocketAddress(rtcp ? rtcpAddresses[streamIndex] : rtpAddresses[streamIndex]);
+		try {
+			socket.send(datagramPacket);
+			sentPacketCount++;
+			sentByteCount += size;
+		} catch (IOException e) {
+			droppedPacketCount++;
+			logger.debug("Cannot send rtp packet to {}: {}", datagramPacket.getSocketAddress(), e.getMessage());
+		}
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (interleavedWriter != null) {
+			interleavedWriter.flush();
+		}
+	}
+
+	private void closeSockets(int streamIndex) {
+		if (rtpSockets[streamIndex] != null) {
+			rtpSockets[streamIndex].close();
+			rtpSockets[streamIndex] = null;
+		}
+		if (rtcpSockets[streamIndex] != null) {
+			rtcpSockets[streamIndex].close();
+			rtcpSockets[streamIndex] = null;
+		}
+	}
+
+	/**
+	 * Closes the sockets. Server ports are released by the connection
+	 */
+	public synchronized void close() {
+		for (int i = 0; i < rtpSockets.length; i++) {
+			closeSockets(i);
+		}
+		flush();
+	}
+
+	public long getSentPacketCount() {
+		return sentPacketCount;
+	}
+
+	public long getSentByteCount() {
+		return sentByteCount;
+	}
+
+	public long getDroppedPacketCount() {
+		return droppedPacketCount;
+	}
+}
@@ -0,0 +1,721 @@
+package com.antstreaming.rtsp;
+
+import static org.bytedeco.javacpp.avcodec.AV_CODEC_ID_AAC;
+import static org.bytedeco.javacpp.avcodec.AV_CODEC_ID_H264;
+import static org.bytedeco.javacpp.avcodec.AV_INPUT_BUFFER_PADDING_SIZE;
+import static org.bytedeco.javacpp.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.javacpp.avcodec.av_init_packet;
+import static org.bytedeco.javacpp.avformat.av_sdp_create;
+import static org.bytedeco.javacpp.avformat.av_write_frame;
+import static org.bytedeco.javacpp.avformat.av_write_trailer;
+import static org.bytedeco.javacpp.avformat.avformat_alloc_output_context2;
+import static org.bytedeco.javacpp.avformat.avformat_free_context;
+import static org.bytedeco.javacpp.avformat.avformat_new_stream;
+import static org.bytedeco.javacpp.avformat.avformat_write_header;
+import static org.bytedeco.javacpp.avformat.avio_alloc_context;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_AUDIO;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_VIDEO;
+import static org.bytedeco.javacpp.avutil.av_free;
+import static org.bytedeco.javacpp.avutil.av_malloc;
+import static org.bytedeco.javacpp.avutil.av_mallocz;
+import static org.bytedeco.javacpp.avutil.av_rescale_q;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.avcodec.AVCodecParameters;
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avformat.AVIOContext;
+import org.bytedeco.javacpp.avformat.AVStream;
+import org.bytedeco.javacpp.avformat.Read_packet_Pointer_BytePointer_int;
+import org.bytedeco.javacpp.avformat.Seek_Pointer_long_int;
+import org.bytedeco.javacpp.avformat.Write_packet_Pointer_BytePointer_int;
+import org.bytedeco.javacpp.avutil.AVRational;
+import org.red5.codec.IAudioStreamCodec;
+import org.red5.codec.IStreamCodecInfo;
+import org.red5.codec.IVideoStreamCodec;
+import org.red5.codec.StreamCodecInfo;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.stream.IBroadcastStream;
+import org.red5.server.api.stream.IClientBroadcastStream;
+import org.red5.server.api.stream.IStreamListener;
+import org.red5.server.api.stream.IStreamPacket;
+import org.red5.server.net.rtmp.message.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packetizes a live stream that is published to the server for the RTSP players.
+ *
+ * Packetizer listens the packets of the broadcast stream in the scope and writes them to a rtp muxer per
+ * media stream. RTP and RTCP packets of the muxers are given to all subscribed {@link RtpSink}s so a packet
+ * is packetized once no matter how many players play the stream. SDP is created from the decoder configurations
+ * of the stream. H264 video and AAC audio are supported.
+ *
+ * Packets of the broadcast stream are copied to a queue on the publisher's thread and they are packetized and sent
+ * by the {@link RtspPacer} workers, so players do not slow down the publisher. Packets are dropped until the next 
+ * key frame if workers do not keep up with the stream.
+ *
+ * Packetizers are shared by the stream name and they are released with {@link #release()} when the player leaves.
+ * Packetizer of a stream is closed when the stream is closed.
+ */
+public class LiveStreamPacketizer implements IStreamListener, RtspPacer.PacedTask {
+
+	private static Logger logger = LoggerFactory.getLogger(LiveStreamPacketizer.class);
+
+	/**
+	 * Receiver of the RTP and RTCP packets of the stream
+	 */
+	public interface RtpSink {
+
+		/**
+		 * Called for each RTP or RTCP packet. Data is reused after the call returns
+		 * @param streamIndex index of the media stream in the sdp
+		 * @param keyFrameStart true if it's the first RTP packet of a video key frame. Sink that drops packets 
+		 * can continue from this packet
+		 */
+		void sendRtpPacket(int streamIndex, byte[] data, int size, boolean keyFrameStart);
+
+		/**
+		 * Called after all packets of a media packet are sent
+		 */
+		void flush();
+	}
+
+	private static class Subscription {
+		private final RtpSink sink;
+
+		/**
+		 * Players start to receive the packets with a key frame
+		 */
+		private volatile boolean started;
+
+		Subscription(RtpSink sink, boolean started) {
+			this.sink = sink;
+			this.started = started;
+		}
+	}
+
+	/**
+	 * Packet of the broadcast stream that is waiting to be packetized. Instances are reused
+	 */
+	private static class QueuedPacket {
+		private byte[] data = new byte[0];
+		private int size;
+		private byte dataType;
+		private int timestamp;
+	}
+
+	private static class Output {
+		private final LiveStreamPacketizer packetizer;
+		private final int streamIndex;
+
+		Output(LiveStreamPacketizer packetizer, int streamIndex) {
+			this.packetizer = packetizer;
+			this.streamIndex = streamIndex;
+		}
+	}
+
+	private static final int FLV_CODEC_AVC = 7;
+	private static final int FLV_SOUND_FORMAT_AAC = 10;
+
+	/**
+	 * Length of the video tag header that is codec id, avc packet type and composition time
+	 */
+	private static final int AVC_TAG_HEADER_SIZE = 5;
+
+	/**
+	 * Length of the audio tag header that is sound format and aac packet type
+	 */
+	private static final int AAC_TAG_HEADER_SIZE = 2;
+
+	private static final int[] AAC_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000,
+			12000, 11025, 8000, 7350};
+
+	private static final AVRational MILLISECONDS = new AVRational().num(1).den(1000);
+
+	/**
+	 * Packets are dropped until the next key frame if the queue has this number of packets
+	 */
+	public static final int MAX_QUEUED_PACKETS = 1024;
+
+	/**
+	 * Maximum number of packets that are packetized in a single run of the pacer
+	 */
+	private static final int MAX_PACKETS_PER_RUN = 64;
+
+	/**
+	 * Outputs of the io contexts by the address of the opaque pointer
+	 */
+	private static final Map<Long, Output> outputs = new ConcurrentHashMap<>();
+
+	/**
+	 * Packetizers by the scope and stream name. Guarded by the class lock
+	 */
+	private static final Map<String, LiveStreamPacketizer> packetizers = new HashMap<>();
+
+	private static final Write_packet_Pointer_BytePointer_int writeCallback = new Write_packet_Pointer_BytePointer_int() {
+		@Override
+		public int call(Pointer opaque, BytePointer buffer, int bufferSize) {
+			Output output = outputs.get(opaque.address());
+			if (output != null) {
+				output.packetizer.dispatchRtpPacket(output.streamIndex, buffer, bufferSize);
+			}
+			return bufferSize;
+		}
+	};
+
+	private final String key;
+
+	private final IClientBroadcastStream broadcastStream;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	private final List<AVFormatContext> outputContexts = new ArrayList<>();
+
+	private final List<IntPointer> opaques = new ArrayList<>();
+
+	private AVRational[] outputTimeBases;
+
+	private int videoStreamIndex = -1;
+
+	private int audioStreamIndex = -1;
+
+	private String sdpDescription;
+
+	/**
+	 * Number of the players that use the packetizer. Guarded by the class lock
+	 */
+	private int referenceCount = 0;
+
+	private final AVPacket pkt = new AVPacket();
+
+	private BytePointer packetData = new BytePointer(av_malloc(64 * 1024));
+
+	private int packetDataCapacity = 64 * 1024;
+
+	private byte[] rtpData = new byte[InterleavedRtpWriter.MAX_RTP_PACKET_SIZE];
+
+	private final ConcurrentLinkedQueue<QueuedPacket> queue = new ConcurrentLinkedQueue<>();
+
+	private final ConcurrentLinkedQueue<QueuedPacket> freePackets = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger queueSize = new AtomicInteger();
+
+	/**
+	 * Packetizer is scheduled in the pacer to packetize the queued packets
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/**
+	 * Packets are dropped until the next key frame because queue is full. It's used by the publisher's thread
+	 */
+	private boolean droppingUntilKeyFrame = false;
+
+	private volatile long droppedPacketCount = 0;
+
+	private boolean currentKeyFrame;
+
+	/**
+	 * No RTP packet of the current media packet is dispatched yet
+	 */
+	private boolean frameStart;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Sink of the players that play the stream with multicast transport. It's created with the first multicast setup
+	 */
+	private MulticastRtpSink multicastSink;
+
+	private long packetCount = 0;
+
+	private LiveStreamPacketizer(String key, IClientBroadcastStream broadcastStream) {
+		this.key = key;
+		this.broadcastStream = broadcastStream;
+	}
+
+	/**
+	 * Returns the packetizer of the live stream in the scope
+	 * @return packetizer that should be released with {@link #release()} or null if stream is not
+	 * published or its codecs are not supported
+	 */
+	public static LiveStreamPacketizer acquire(IScope scope, String streamName) {
+		String key = scope.getName() + "/" + streamName;
+		synchronized (LiveStreamPacketizer.class) {
+			IBroadcastScope broadcastScope = scope.getBroadcastScope(streamName);
+			IClientBroadcastStream broadcastStream = broadcastScope != null ? broadcastScope.getClientBroadcastStream() : null;
+
+			LiveStreamPacketizer packetizer = packetizers.get(key);
+			if (packetizer != null) {
+				if (packetizer.broadcastStream == broadcastStream && !packetizer.closed) {
+					packetizer.referenceCount++;
+					return packetizer;
+				}
+				//stream is published again, packetizer of the previous stream is not used anymore
+				packetizers.remove(key);
+				packetizer.closeStream();
+			}
+
+			if (broadcastStream == null) {
+				logger.info("There is no live stream {} to packetize", key);
+				return null;
+			}
+
+			packetizer = new LiveStreamPacketizer(key, broadcastStream);
+			if (!packetizer.open()) {
+				packetizer.close();
+				return null;
+			}
+			packetizer.referenceCount = 1;
+			packetizers.put(key, packetizer);
+			packetizer.broadcastStream.addStreamListener(packetizer);
+			return packetizer;
+		}
+	}
+
+	/**
+	 * Decrements the reference count and closes the packetizer if it's not used anymore
+	 */
+	public void release() {
+		synchronized (LiveStreamPacketizer.class) {
+			referenceCount--;
+			if (referenceCount > 0) {
+				return;
+			}
+			if (packetizers.get(key) == this) {
+				packetizers.remove(key);
+			}
+		}
+		closeStream();
+	}
+
+	/**
+	 * Closes the packetizer of the stream when the stream is closed. Players that use the packetizer do not get 
+	 * packets anymore and they release it when they leave
+	 */
+	public static void streamClosed(IScope scope, String streamName) {
+		LiveStreamPacketizer packetizer;
+		synchronized (LiveStreamPacketizer.class) {
+			packetizer = packetizers.remove(scope.getName() + "/" + streamName);
+		}
+		if (packetizer != null) {
+			logger.info("Live stream {} is closed, its packetizer is closed", packetizer.key);
+			packetizer.closeStream();
+		}
+	}
+
+	private void closeStream() {
+		if (closed) {
+			return;
+		}
+		broadcastStream.removeStreamListener(this);
+		RtspPacer.getInstance().cancel(this);
+		close();
+	}
+
+	public static synchronized int getPacketizerCount() {
+		return packetizers.size();
+	}
+
+	private synchronized boolean open() {
+		IStreamCodecInfo codecInfo = broadcastStream.getCodecInfo();
+		if (!(codecInfo instanceof StreamCodecInfo)) {
+			return false;
+		}
+		StreamCodecInfo info = (StreamCodecInfo) codecInfo;
+
+		IVideoStreamCodec videoCodec = info.getVideoCodec();
+		if (videoCodec != null && videoCodec.getDecoderConfiguration() != null) {
+			byte[] config = getConfiguration(videoCodec.getDecoderConfiguration(), AVC_TAG_HEADER_SIZE);
+			if ((videoCodec.getDecoderConfiguration().get(0) & 0x0F) != FLV_CODEC_AVC || config == null) {
+				logger.info("Video codec {} of {} is not supported in live rtsp", videoCodec.getName(), key);
+				return false;
+			}
+			videoStreamIndex = outputContexts.size();
+			if (!addOutput(AVMEDIA_TYPE_VIDEO, AV_CODEC_ID_H264, config, 0, 0)) {
+				return false;
+			}
+		}
+
+		IAudioStreamCodec audioCodec = info.getAudioCodec();
+		if (audioCodec != null && audioCodec.getDecoderConfiguration() != null) {
+			byte[] config = getConfiguration(audioCodec.getDecoderConfiguration(), AAC_TAG_HEADER_SIZE);
+			if (((audioCodec.getDecoderConfiguration().get(0) & 0xF0) >> 4) != FLV_SOUND_FORMAT_AAC
+					|| config == null || config.length < 2) {
+				logger.info("Audio codec {} of {} is not supported in live rtsp", audioCodec.getName(), key);
+				return false;
+			}
+			//audio specific config has 5 bits object type, 4 bits sample rate index and 4 bits channel configuration
+			int sampleRateIndex = ((config[0] & 0x07) << 1) | ((config[1] & 0x80) >> 7);
+			int channels = (config[1] & 0x78) >> 3;
+			if (sampleRateIndex >= AAC_SAMPLE_RATES.length || channels == 0) {
+				logger.info("Audio configuration of {} is not supported in live rtsp", key);
+				return false;
+			}
+			audioStreamIndex = outputContexts.size();
+			if (!addOutput(AVMEDIA_TYPE_AUDIO, AV_CODEC_ID_AAC, config, AAC_SAMPLE_RATES[sampleRateIndex], channels)) {
+				return false;
+			}
+		}
+
+		if (outputContexts.isEmpty()) {
+			logger.info("Decoder configuration of {} is not available", key);
+			return false;
+		}
+
+		byte[] sdpData = new byte[16384];
+		int ret = av_sdp_create(new PointerPointer<AVFormatContext>(outputContexts.toArray(new AVFormatContext[0])),
+				outputContexts.size(), sdpData, sdpData.length);
+		if (ret < 0) {
+			logger.warn("could not create sdp of {} error code: {}", key, ret);
+			return false;
+		}
+		sdpDescription = new String(sdpData).trim();
+
+		outputTimeBases = new AVRational[outputContexts.size()];
+		for (int i = 0; i < outputContexts.size(); i++) {
+			AVFormatContext context = outputContexts.get(i);
+			ret = avformat_write_header(context, (PointerPointer<?>)null);
+			if (ret < 0) {
+				logger.warn("cannot write header of {} with error: {}", key, ret);
+				return false;
+			}
+			//time base is set by the muxer in write header and it's cached for the packets
+			AVRational timeBase = context.streams(0).time_base();
+			outputTimeBases[i] = new AVRational().num(timeBase.num()).den(timeBase.den());
+		}
+
+		av_init_packet(pkt);
+		return true;
+	}
+
+	private static byte[] getConfiguration(IoBuffer decoderConfiguration, int headerSize) {
+		int size = decoderConfiguration.limit() - headerSize;
+		if (size <= 0) {
+			return null;
+		}
+		byte[] config = new byte[size];
+		IoBuffer buffer = decoderConfiguration.asReadOnlyBuffer();
+		buffer.position(headerSize);
+		buffer.get(config);
+		return config;
+	}
+
+	private boolean addOutput(int codecType, int codecId, byte[] extradata, int sampleRate, int channels) {
+		AVFormatContext context = new AVFormatContext(null);
+		int ret = avformat_alloc_output_context2(context, null, "rtp", null);
+		if (ret < 0) {
+			logger.warn("Could not create rtp output context for {}", key);
+			return false;
+		}
+		outputContexts.add(context);
+
+		AVStream stream = avformat_new_stream(context, null);
+		AVCodecParameters codecpar = stream.codecpar();
+		codecpar.codec_type(codecType);
+		codecpar.codec_id(codecId);
+		codecpar.sample_rate(sampleRate);
+		codecpar.channels(channels);
+		BytePointer extradataPointer = new BytePointer(av_mallocz(extradata.length + AV_INPUT_BUFFER_PADDING_SIZE));
+		extradataPointer.put(extradata);
+		codecpar.extradata(extradataPointer);
+		codecpar.extradata_size(extradata.length);
+		stream.time_base(MILLISECONDS);
+
+		IntPointer opaque = new IntPointer(1);
+		BytePointer ioBuffer = new BytePointer(av_malloc(InterleavedRtpWriter.MAX_RTP_PACKET_SIZE));
+		AVIOContext ioContext = avio_alloc_context(ioBuffer, InterleavedRtpWriter.MAX_RTP_PACKET_SIZE, 1, opaque,
+				(Read_packet_Pointer_BytePointer_int)null, writeCallback, (Seek_Pointer_long_int)null);
+		if (ioContext == null) {
+			av_free(ioBuffer);
+			opaque.close();
+			return false;
+		}
+		// rtp muxer uses the max packet size of the io context as the rtp packet size
+		ioContext.max_packet_size(InterleavedRtpWriter.MAX_RTP_PACKET_SIZE);
+		ioContext.seekable(0);
+		context.pb(ioContext);
+
+		outputs.put(opaque.address(), new Output(this, outputContexts.size() - 1));
+		opaques.add(opaque);
+		return true;
+	}
+
+	private synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (multicastSink != null) {
+			multicastSink.close();
+			multicastSink = null;
+		}
+		for (int i = 0; i < outputContexts.size(); i++) {
+			AVFormatContext context = outputContexts.get(i);
+			AVIOContext ioContext = context.pb();
+			if (ioContext != null && outputTimeBases != null && outputTimeBases[i] != null) {
+				av_write_trailer(context);
+			}
+			if (ioContext != null) {
+				context.pb(null);
+				av_free(ioContext.buffer());
+				av_free(ioContext);
+			}
+			avformat_free_context(context);
+		}
+		outputContexts.clear();
+		for (IntPointer opaque : opaques) {
+			outputs.remove(opaque.address());
+			opaque.close();
+		}
+		opaques.clear();
+		subscriptions.clear();
+		queue.clear();
+		freePackets.clear();
+		queueSize.set(0);
+		if (packetData != null) {
+			av_free(packetData);
+			packetData = null;
+		}
+	}
+
+	/**
+	 * Returns the multicast sink of the stream. Sink is created if it does not exist
+	 * @param groupAddress multicast group address that the sink sends to
+	 * @param ttl time to live of the multicast packets
+	 * @return sink or null if it cannot be created
+	 */
+	public synchronized MulticastRtpSink getMulticastSink(String groupAddress, int ttl) {
+		if (multicastSink == null && !closed) {
+			multicastSink = MulticastRtpSink.create(this, groupAddress, ttl);
+		}
+		return multicastSink;
+	}
+
+	/**
+	 * Adds the sink to receive the RTP packets of the stream. Sink starts to receive packets with a key frame
+	 */
+	public void addSink(RtpSink sink) {
+		subscriptions.add(new Subscription(sink, false));
+	}
+
+	public void removeSink(RtpSink sink) {
+		for (Subscription subscription : subscriptions) {
+			if (subscription.sink == sink) {
+				subscriptions.remove(subscription);
+			}
+		}
+	}
+
+	/**
+	 * Copies the packet to the queue. It's called on the publisher's thread so it does not packetize or send
+	 */
+	@Override
+	public void packetReceived(IBroadcastStream stream, IStreamPacket packet) {
+		if (closed || subscriptions.isEmpty()) {
+			return;
+		}
+		byte dataType = packet.getDataType();
+		if (dataType != Constants.TYPE_VIDEO_DATA && dataType != Constants.TYPE_AUDIO_DATA) {
+			return;
+		}
+
+		IoBuffer data = packet.getData();
+		int size = data.limit();
+		if (queueSize.get() >= MAX_QUEUED_PACKETS) {
+			droppingUntilKeyFrame = true;
+		}
+		if (droppingUntilKeyFrame) {
+			boolean keyFrame = videoStreamIndex == -1 
+					|| (dataType == Constants.TYPE_VIDEO_DATA && size > 0 && ((data.get(0) & 0xF0) >> 4) == 1);
+			if (!keyFrame || queueSize.get() >= MAX_QUEUED_PACKETS) {
+				droppedPacketCount++;
+				return;
+			}
+			droppingUntilKeyFrame = false;
+		}
+
+		QueuedPacket queuedPacket = freePackets.poll();
+		if (queuedPacket == null) {
+			queuedPacket = new QueuedPacket();
+		}
+		if (queuedPacket.data.length < size) {
+			queuedPacket.data = new byte[size];
+		}
+		IoBuffer buffer = data.asReadOnlyBuffer();
+		buffer.position(0);
+		buffer.get(queuedPacket.data, 0, size);
+		queuedPacket.size = size;
+		queuedPacket.dataType = dataType;
+		queuedPacket.timestamp = packet.getTimestamp();
+		queue.offer(queuedPacket);
+		queueSize.incrementAndGet();
+
+		if (scheduled.compareAndSet(false, true)) {
+			RtspPacer.getInstance().schedule(this);
+		}
+	}
+
+	/**
+	 * Packetizes the queued packets and sends them to the sinks. It's called by the {@link RtspPacer} workers
+	 * @return now to run again if there are more packets or -1 if queue is empty
+	 */
+	@Override
+	public long sendDuePackets(long now) {
+		for (int i = 0; i < MAX_PACKETS_PER_RUN; i++) {
+			QueuedPacket queuedPacket = queue.poll();
+			if (queuedPacket == null) {
+				scheduled.set(false);
+				//packet that is queued before the flag is cleared is packetized here
+				if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					return -1;
+				}
+				continue;
+			}
+			queueSize.decrementAndGet();
+			packetize(queuedPacket);
+			freePackets.offer(queuedPacket);
+		}
+		return now;
+	}
+
+	private synchronized void packetize(QueuedPacket queuedPacket) {
+		if (closed) {
+			return;
+		}
+
+		byte[] tagData = queuedPacket.data;
+		int size = queuedPacket.size;
+		int streamIndex;
+		int headerSize;
+		long pts = queuedPacket.timestamp;
+		long dts = pts;
+		boolean keyFrame;
+
+		if (queuedPacket.dataType == Constants.TYPE_VIDEO_DATA && videoStreamIndex != -1) {
+			// avc packet type 1 is NAL units, sequence header and end of sequence are not sent
+			if (size <= AVC_TAG_HEADER_SIZE || tagData[1] != 1) {
+				return;
+			}
+			int compositionTime = ((tagData[2] << 16) | ((tagData[3] & 0xFF) << 8) | (tagData[4] & 0xFF));
+			pts = dts + compositionTime;
+			keyFrame = ((tagData[0] & 0xF0) >> 4) == 1;
+			streamIndex = videoStreamIndex;
+			headerSize = AVC_TAG_HEADER_SIZE;
+		}
+		else if (queuedPacket.dataType == Constants.TYPE_AUDIO_DATA && audioStreamIndex != -1) {
+			// aac packet type 1 is raw data, audio specific config is not sent
+			if (size <= AAC_TAG_HEADER_SIZE || tagData[1] != 1) {
+				return;
+			}
+			keyFrame = true;
+			streamIndex = audioStreamIndex;
+			headerSize = AAC_TAG_HEADER_SIZE;
+		}
+		else {
+			return;
+		}
+
+		int payloadSize = size - headerSize;
+		if (packetDataCapacity < payloadSize) {
+			av_free(packetData);
+			packetDataCapacity = payloadSize;
+			packetData = new BytePointer(av_malloc(packetDataCapacity));
+		}
+		packetData.position(0).put(tagData, headerSize, payloadSize);
+
+		AVRational timeBase = outputTimeBases[streamIndex];
+		pkt.data(packetData);
+		pkt.size(payloadSize);
+		pkt.stream_index(0);
+		pkt.pts(av_rescale_q(pts, MILLISECONDS, timeBase));
+		pkt.dts(av_rescale_q(dts, MILLISECONDS, timeBase));
+		pkt.flags(keyFrame ? AV_PKT_FLAG_KEY : 0);
+
+		//audio only streams start with any packet
+		currentKeyFrame = keyFrame && (streamIndex == videoStreamIndex || videoStreamIndex == -1);
+		frameStart = true;
+		int ret = av_write_frame(outputContexts.get(streamIndex), pkt);
+		if (ret < 0) {
+			logger.warn("Cannot packetize packet of {} with error: {}", key, ret);
+		}
+		pkt.data(null);
+		pkt.size(0);
+		packetCount++;
+
+		for (Subscription subscription : subscriptions) {
+			if (subscription.started) {
+				subscription.sink.flush();
+			}
+		}
+	}
+
+	private void dispatchRtpPacket(int streamIndex, BytePointer buffer, int size) {
+		if (size <= 0) {
+			return;
+		}
+		if (rtpData.length < size) {
+			rtpData = new byte[size];
+		}
+		buffer.position(0).get(rtpData, 0, size);
+
+		boolean keyFrameStart = false;
+		if (!InterleavedRtpWriter.isRtcpPacket(rtpData, size)) {
+			keyFrameStart = currentKeyFrame && frameStart;
+			frameStart = false;
+		}
+
+		for (Subscription subscription : subscriptions) {
+			if (!subscription.started) {
+				if (!keyFrameStart) {
+					continue;
+				}
+				subscription.started = true;
+			}
+			subscription.sink.sendRtpPacket(streamIndex, rtpData, size, keyFrameStart);
+		}
+	}
+
+	public String getSdpDescription() {
+		return sdpDescription;
+	}
+
+	public int getStreamCount() {
+		return outputContexts.size();
+	}
+
+	public int getSinkCount() {
+		return subscriptions.size();
+	}
+
+	public long getPacketCount() {
+		return packetCount;
+	}
+
+	public long getDroppedPacketCount() {
+		return droppedPacketCount;
+	}
+
+	public int getQueueSize() {
+		return queueSize.get();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+}
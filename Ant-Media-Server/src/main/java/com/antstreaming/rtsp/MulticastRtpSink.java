@@ -0,0 +1,190 @@
+package com.antstreaming.rtsp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the RTP packets of a {@link LiveStreamPacketizer} to a multicast group.
+ *
+ * There is one multicast sink for a live stream and it's shared by all RTSP players that set up the stream with
+ * multicast transport, so the egress of the server does not change with the number of players. Each media stream
+ * is sent to its own port pair of the group. Sink is added to the packetizer when the first player starts playing
+ * and it's removed when the last player leaves.
+ */
+public class MulticastRtpSink implements LiveStreamPacketizer.RtpSink {
+
+	private static Logger logger = LoggerFactory.getLogger(MulticastRtpSink.class);
+
+	private final LiveStreamPacketizer packetizer;
+
+	private final InetAddress group;
+
+	private final int ttl;
+
+	private final int[][] ports;
+
+	private final MulticastSocket[] sockets;
+
+	private final InetSocketAddress[] rtpAddresses;
+
+	private final InetSocketAddress[] rtcpAddresses;
+
+	private final DatagramPacket datagramPacket = new DatagramPacket(new byte[0], 0);
+
+	/**
+	 * Number of the players that are playing. Guarded by this
+	 */
+	private int viewerCount = 0;
+
+	private boolean closed = false;
+
+	private long sentPacketCount = 0;
+
+	private MulticastRtpSink(LiveStreamPacketizer packetizer, InetAddress group, int ttl, int streamCount) {
+		this.packetizer = packetizer;
+		this.group = group;
+		this.ttl = ttl;
+		ports = new int[streamCount][];
+		sockets = new MulticastSocket[streamCount];
+		rtpAddresses = new InetSocketAddress[streamCount];
+		rtcpAddresses = new InetSocketAddress[streamCount];
+	}
+
+	/**
+	 * Creates the sink and allocates a port pair of the group for each media stream
+	 * @param groupAddress multicast group address
+	 * @param ttl time to live of the packets
+	 * @return sink or null if group address is not valid or ports cannot be allocated
+	 */
+	public static MulticastRtpSink create(LiveStreamPacketizer packetizer, String groupAddress, int ttl) {
+		InetAddress group;
+		try {
+			group = InetAddress.getByName(groupAddress);
+		} catch (IOException e) {
+			logger.warn("Multicast group {} cannot be resolved", groupAddress);
+			return null;
+		}
+		if (!group.isMulticastAddress()) {
+			logger.warn("{} is not a multicast address", groupAddress);
+			return null;
+		}
+
+		MulticastRtpSink sink = new MulticastRtpSink(packetizer, group, ttl, packetizer.getStreamCount());
+		for (int i = 0; i < sink.sockets.length; i++) {
+			int[] portPair = UdpPortAllocator.getInstance().allocate();
+			if (portPair == null) {
+				sink.close();
+				return null;
+			}
+			sink.ports[i] = portPair;
+			try {
+				//packets are sent from the same port that they are sent to
+				sink.sockets[i] = new MulticastSocket(portPair[0]);
+				sink.sockets[i].setTimeToLive(ttl);
+			} catch (IOException e) {
+				logger.warn("Cannot create multicast socket on port {}: {}", portPair[0], e.getMessage());
+				sink.close();
+				return null;
+			}
+			sink.rtpAddresses[i] = new InetSocketAddress(group, portPair[0]);
+			sink.rtcpAddresses[i] = new InetSocketAddress(group, portPair[1]);
+		}
+		return sink;
+	}
+
+	/**
+	 * Called when a player starts to play. Packets are sent while there is at least one player
+	 */
+	public synchronized void join() {
+		if (closed) {
+			return;
+		}
+		viewerCount++;
+		if (viewerCount == 1) {
+			packetizer.addSink(this);
+		}
+	}
+
+	/**
+	 * Called when a player pauses or leaves
+	 */
+	public synchronized void leave() {
+		if (viewerCount == 0) {
+			return;
+		}
+		viewerCount--;
+		if (viewerCount == 0) {
+			packetizer.removeSink(this);
+		}
+	}
+
+	@Override
+	public synchronized void sendRtpPacket(int streamIndex, byte[] data, int size, boolean keyFrameStart) {
+		if (streamIndex >= sockets.length || sockets[streamIndex] == null) {
+			return;
+		}
+		boolean rtcp = InterleavedRtpWriter.isRtcpPacket(data, size);
+		datagramPacket.setData(data, 0, size);
+		datagramPacket.setSocketAddress(rtcp ? rtcpAddresses[streamIndex] : rtpAddresses[streamIndex]);
+		try {
+			sockets[streamIndex].send(datagramPacket);
+			sentPacketCount++;
+		} catch (IOException e) {
+			logger.debug("Cannot send multicast packet to {}: {}", datagramPacket.getSocketAddress(), e.getMessage());
+		}
+	}
+
+	@Override
+	public void flush() {
+		//datagrams are sent immediately
+	}
+
+	/**
+	 * Closes the sockets and releases the ports
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		packetizer.removeSink(this);
+		for (int i = 0; i < sockets.length; i++) {
+			if (sockets[i] != null) {
+				sockets[i].close();
+				sockets[i] = null;
+			}
+			if (ports[i] != null) {
+				UdpPortAllocator.getInstance().release(ports[i][0]);
+			}
+		}
+	}
+
+	/**
+	 * @return port pair of the media stream in the group
+	 */
+	public int[] getPort(int streamIndex) {
+		return ports[streamIndex];
+	}
+
+	public String getGroupAddress() {
+		return group.getHostAddress();
+	}
+
+	public int getTTL() {
+		return ttl;
+	}
+
+	public synchronized int getViewerCount() {
+		return viewerCount;
+	}
+
+	public long getSentPacketCount() {
+		return sentPacketCount;
+	}
+}
@@ -1,7 +1,6 @@
 package com.antstreaming.rtsp;
 
 import static org.bytedeco.javacpp.avcodec.AV_CODEC_FLAG_GLOBAL_HEADER;
-import static org.bytedeco.javacpp.avcodec.av_packet_unref;
 import static org.bytedeco.javacpp.avcodec.avcodec_parameters_copy;
 import static org.bytedeco.javacpp.avformat.AVFMT_GLOBALHEADER;
 import static org.bytedeco.javacpp.avformat.AVFMT_NOFILE;
@@ -10,6 +9,7 @@ import static org.bytedeco.javacpp.avformat.av_find_input_format;
 import static org.bytedeco.javacpp.avformat.av_interleaved_write_frame;
 import static org.bytedeco.javacpp.avformat.av_read_frame;
 import static org.bytedeco.javacpp.avformat.av_write_trailer;
+import static org.bytedeco.javacpp.avformat.avformat_alloc_context;
 import static org.bytedeco.javacpp.avformat.avformat_alloc_output_context2;
 import static org.bytedeco.javacpp.avformat.avformat_close_input;
 import static org.bytedeco.javacpp.avformat.avformat_find_stream_info;
@@ -17,28 +17,42 @@ import static org.bytedeco.javacpp.avformat.avformat_free_context;
 import static org.bytedeco.javacpp.avformat.avformat_new_stream;
 import static org.bytedeco.javacpp.avformat.avformat_open_input;
 import static org.bytedeco.javacpp.avformat.avformat_write_header;
+import static org.bytedeco.javacpp.avformat.avio_alloc_context;
 import static org.bytedeco.javacpp.avformat.avio_closep;
+import static org.bytedeco.javacpp.avformat.avio_open;
+import static org.bytedeco.javacpp.avutil.AVERROR_EOF;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_AUDIO;
 import static org.bytedeco.javacpp.avutil.AV_ROUND_NEAR_INF;
 import static org.bytedeco.javacpp.avutil.AV_ROUND_PASS_MINMAX;
+import static org.bytedeco.javacpp.avutil.av_dict_free;
 import static org.bytedeco.javacpp.avutil.av_dict_set;
+import static org.bytedeco.javacpp.avutil.av_free;
+import static org.bytedeco.javacpp.avutil.av_malloc;
 import static org.bytedeco.javacpp.avutil.av_rescale_q;
 import static org.bytedeco.javacpp.avutil.av_rescale_q_rnd;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
-import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.mina.core.session.IoSession;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
 import org.bytedeco.javacpp.PointerPointer;
 import org.bytedeco.javacpp.avcodec.AVPacket;
-import org.bytedeco.javacpp.avformat;
 import org.bytedeco.javacpp.avformat.AVFormatContext;
 import org.bytedeco.javacpp.avformat.AVIOContext;
+import org.bytedeco.javacpp.avformat.AVIOInterruptCB;
 import org.bytedeco.javacpp.avformat.AVInputFormat;
 import org.bytedeco.javacpp.avformat.AVStream;
+import org.bytedeco.javacpp.avformat.Read_packet_Pointer_BytePointer_int;
+import org.bytedeco.javacpp.avformat.Seek_Pointer_long_int;
+import org.bytedeco.javacpp.avformat.Write_packet_Pointer_BytePointer_int;
 import org.bytedeco.javacpp.avutil.AVDictionary;
+import org.red5.server.api.scope.IScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
@@ -48,168 +62,280 @@ import com.antstreaming.rtsp.protocol.RtspHeaderCode;
 import com.antstreaming.rtsp.protocol.RtspResponse;
 import com.antstreaming.rtsp.session.DateUtil;
 
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.muxer.MuxAdaptor;
+import io.antmedia.streamsource.AVPacketPool;
+
+/**
+ * Receives the RTP streams of an RTSP publisher. SDP of the ANNOUNCE request is given to the sdp demuxer from memory.
+ *
+ * Demuxed packets are published to the local RTMP server so that the stream has a red5 broadcast stream and it can 
+ * be played with RTMP and RTSP. If {@link AntMediaApplicationAdapter#isRtspDirectIngestEnabled()} is true, they are
+ * written directly to a {@link MuxAdaptor} instead, and such a stream can only be played from the muxer outputs
+ */
 public class PacketReceiverRunnable implements Runnable {
 
+	private static final int SDP_IO_BUFFER_SIZE = 4096;
+
+	/**
+	 * SDP contents that are being read by the sdp demuxers by the address of the opaque pointer
+	 */
+	private static final Map<Long, ByteBuffer> sdpBuffers = new ConcurrentHashMap<>();
+
+	private static final Read_packet_Pointer_BytePointer_int readSdpCallback = new Read_packet_Pointer_BytePointer_int() {
+		@Override
+		public int call(Pointer opaque, BytePointer buffer, int bufferSize) {
+			ByteBuffer sdp = sdpBuffers.get(opaque.address());
+			if (sdp == null || !sdp.hasRemaining()) {
+				return AVERROR_EOF();
+			}
+			int length = Math.min(bufferSize, sdp.remaining());
+			byte[] data = new byte[length];
+			sdp.get(data);
+			buffer.position(0).put(data, 0, length);
+			return length;
+		}
+	};
+
+	/**
+	 * Receiver that runs on the current thread. FFmpeg calls the interrupt callback on the thread 
+	 * that runs the blocking call
+	 */
+	private static final ThreadLocal<PacketReceiverRunnable> currentReceiver = new ThreadLocal<>();
+
+	/**
+	 * Interrupt callback of the input contexts. It aborts the blocking calls of the receiver after it is closed
+	 * so that a publisher that stops sending packets does not block the receiving thread forever
+	 */
+	private static final AVIOInterruptCB.Callback_Pointer interruptCallback = new AVIOInterruptCB.Callback_Pointer() {
+		@Override
+		public int call(Pointer opaque) {
+			PacketReceiverRunnable receiver = currentReceiver.get();
+			return receiver != null && receiver.closeRequest ? 1 : 0;
+		}
+	};
+
 	private AVFormatContext inputFormatCtx;
+	private AVIOContext sdpIOContext;
+	private IntPointer sdpOpaque;
 	private long[] lastDTS;
+	private MuxAdaptor muxAdaptor;
+
+	/**
+	 * Output that publishes the stream to the local RTMP server if direct ingest is not enabled
+	 */
 	private AVFormatContext outputRTMPFormatContext;
-	private boolean closeRequest = false;
-	private File sdpFile;
+	private volatile boolean closeRequest = false;
+
+	private volatile long receivedPacketCount = 0;
+
+	private volatile long receivedByteCount = 0;
+
+	/**
+	 * Time in milliseconds that the last packet is received. Publishers are active while they are sending packets
+	 */
+	private volatile long lastPacketReceivedTime = 0;
 
 	private Logger logger = LoggerFactory.getLogger(PacketReceiverRunnable.class);
-	private String url;
 	private StringBuilder liveStreamSdpDef;
 	private String announcedStreamName;
 	private IoSession session;
 	private String sessionKey;
 	private String cseq;
 	private ThreadPoolTaskScheduler mTaskScheduler;
+	private IScope scope;
 
 
 	public PacketReceiverRunnable(ThreadPoolTaskScheduler mTaskScheduler, String cseq, String sessionKey,
-			IoSession session, String announcedStreamName, StringBuilder liveStreamSdpDef, String url) {
+			IoSession session, String announcedStreamName, StringBuilder liveStreamSdpDef, IScope scope) {
 		this.mTaskScheduler = mTaskScheduler;
 		this.cseq = cseq;
 		this.sessionKey = sessionKey;
 		this.session = session;
 		this.announcedStreamName = announcedStreamName;
 		this.liveStreamSdpDef = liveStreamSdpDef;
-		this.url = url;
+		this.scope = scope;
 	}
 
-	public boolean prepare_input_context(ThreadPoolTaskScheduler mTaskScheduler, final String cseq, final String sessionKey, final IoSession session, String announcedStreamName, StringBuilder liveStreamSdpDef, String streamUrl) {
-		
-		try {
-			sdpFile = new File(announcedStreamName + ".sdp");
-			
-			try (OutputStream fos = new FileOutputStream(sdpFile)) {
-				fos.write(liveStreamSdpDef.toString().getBytes());
-			}
+	/**
+	 * Creates a custom io context that reads the SDP from memory so that no sdp file is written to disk
+	 */
+	private AVIOContext createSdpIOContext(String sdp) {
+		sdpOpaque = new IntPointer(1);
+		sdpBuffers.put(sdpOpaque.address(), ByteBuffer.wrap(sdp.getBytes(StandardCharsets.UTF_8)));
 
-			inputFormatCtx = new AVFormatContext(null);
-			
+		BytePointer ioBuffer = new BytePointer(av_malloc(SDP_IO_BUFFER_SIZE));
+		return avio_alloc_context(ioBuffer, SDP_IO_BUFFER_SIZE, 0, sdpOpaque, readSdpCallback,
+				(Write_packet_Pointer_BytePointer_int)null, (Seek_Pointer_long_int)null);
+	}
 
-			AVDictionary options = new AVDictionary();
-			int ret = av_dict_set(options, "protocol_whitelist", "file,crypto,udp,rtp", 0);
-			if (ret < 0) {
-				logger.debug("cannot set protocol_whitelist");
-				return false;
-			}
-			
-			AVInputFormat sdpFormat = av_find_input_format("sdp");
+	public boolean prepareInputContext() {
 
+		sdpIOContext = createSdpIOContext(liveStreamSdpDef.toString());
+		if (sdpIOContext == null) {
+			logger.warn("Cannot allocate sdp io context for stream {}", announcedStreamName);
+			return false;
+		}
 
-			if (avformat_open_input(inputFormatCtx, sdpFile.getAbsolutePath(), sdpFormat, options) != 0) {
-				logger.debug("Could not open rtp for demuxing");
-				return false;
-			}
-			
-			mTaskScheduler.schedule(new Runnable() {
-				@Override
-				public void run() {
-					RtspResponse response = new RtspResponse();
-					response.setCode(RtspCode.OK);
-					response.setHeader(RtspHeaderCode.CSEQ, cseq);
-					response.setHeader(RtspHeaderCode.DATE, DateUtil.getGmtDate());
-					response.setHeader(RtspHeaderCode.SESSION, sessionKey);
-					session.write(response);
-				}
-			}, new Date());
+		//custom io flag is set by avformat_open_input because pb is set in advance
+		inputFormatCtx = avformat_alloc_context();
+		inputFormatCtx.pb(sdpIOContext);
+		inputFormatCtx.interrupt_callback().callback(interruptCallback);
 
-			if (avformat_find_stream_info(inputFormatCtx, (PointerPointer<?>)null) < 0) {
-				logger.debug("Could not get stream info");
-				return false;
+		AVDictionary options = new AVDictionary();
+		int ret = av_dict_set(options, "protocol_whitelist", "crypto,udp,rtp", 0);
+		if (ret < 0) {
+			logger.debug("cannot set protocol_whitelist");
+			return false;
+		}
+
+		AVInputFormat sdpFormat = av_find_input_format("sdp");
+
+		ret = avformat_open_input(inputFormatCtx, (String)null, sdpFormat, options);
+		av_dict_free(options);
+		if (ret != 0) {
+			//context is freed by avformat_open_input on failure
+			inputFormatCtx = null;
+			logger.debug("Could not open rtp for demuxing");
+			return false;
+		}
+
+		mTaskScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				RtspResponse response = new RtspResponse();
+				response.setCode(RtspCode.OK);
+				response.setHeader(RtspHeaderCode.CSEQ, cseq);
+				response.setHeader(RtspHeaderCode.DATE, DateUtil.getGmtDate());
+				response.setHeader(RtspHeaderCode.SESSION, sessionKey);
+				session.write(response);
 			}
+		}, new Date());
 
+		if (avformat_find_stream_info(inputFormatCtx, (PointerPointer<?>)null) < 0) {
+			logger.debug("Could not get stream info");
+			return false;
+		}
 
-			outputRTMPFormatContext = new AVFormatContext(null);
+		lastDTS = new long[inputFormatCtx.nb_streams()];
+		for (int i=0; i < inputFormatCtx.nb_streams(); i++) {
+			//initialize last decoding time stamp reference value
+			lastDTS[i] = -1;
+		}
 
-			ret = avformat_alloc_output_context2(outputRTMPFormatContext, null, "flv", null);
+		if (getApplicationAdapter().isRtspDirectIngestEnabled()) {
+			return prepareMuxAdaptor();
+		}
+		return prepareRtmpOutput();
+	}
 
-			lastDTS = new long[this.inputFormatCtx.nb_streams()];
-			for (int i=0; i < inputFormatCtx.nb_streams(); i++) {
-				AVStream inStream = inputFormatCtx.streams(i);
-				AVStream outStream = avformat_new_stream(outputRTMPFormatContext, inStream.codec().codec());
+	/**
+	 * Prepares the flv output that publishes the stream to the scope over the local RTMP server
+	 */
+	private boolean prepareRtmpOutput() {
+		outputRTMPFormatContext = new AVFormatContext(null);
+		int ret = avformat_alloc_output_context2(outputRTMPFormatContext, null, "flv", null);
+		if (ret < 0) {
+			logger.warn("Cannot allocate rtmp output context for stream {}", announcedStreamName);
+			outputRTMPFormatContext = null;
+			return false;
+		}
 
-				
-				ret = avcodec_parameters_copy(outStream.codecpar(), inStream.codecpar());
-				
-				if (ret < 0) {
-					logger.debug("Cannot get codec parameters\n");
-					return false;
-				}
+		for (int i = 0; i < inputFormatCtx.nb_streams(); i++) {
+			AVStream outStream = avformat_new_stream(outputRTMPFormatContext, null);
+			if (avcodec_parameters_copy(outStream.codecpar(), inputFormatCtx.streams(i).codecpar()) < 0) {
+				logger.warn("Cannot copy codec parameters of stream {}", announcedStreamName);
+				return false;
+			}
+			outStream.codecpar().codec_tag(0);
+			if ((outputRTMPFormatContext.oformat().flags() & AVFMT_GLOBALHEADER) != 0) {
+				outStream.codec().flags(outStream.codec().flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
+			}
+		}
 
-				outStream.codec().codec_tag(0);
-				
-				if ((outputRTMPFormatContext.oformat().flags() & AVFMT_GLOBALHEADER) != 0) {
-					outStream.codec().flags(outStream.codec().flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
-				}
-				
-				//initialize last decoding time stamp reference value
-				lastDTS[i] = -1;
+		String rtmpUrl = "rtmp://127.0.0.1/" + scope.getName() + "/" + announcedStreamName;
+		if ((outputRTMPFormatContext.oformat().flags() & AVFMT_NOFILE) == 0) {
+			AVIOContext pb = new AVIOContext(null);
+			if (avio_open(pb, rtmpUrl, AVIO_FLAG_WRITE) < 0) {
+				logger.warn("Cannot open rtmp output {}", rtmpUrl);
+				return false;
 			}
+			outputRTMPFormatContext.pb(pb);
+		}
 
+		if (avformat_write_header(outputRTMPFormatContext, (AVDictionary)null) < 0) {
+			logger.warn("Cannot write header to rtmp output {}", rtmpUrl);
+			return false;
+		}
+		return true;
+	}
 
-			if ((outputRTMPFormatContext.flags() & AVFMT_NOFILE) == 0) 
-			{
-				AVIOContext pb = new AVIOContext(null);
+	private boolean prepareMuxAdaptor() {
+		boolean audioOnly = false;
+		if (inputFormatCtx.nb_streams() == 1) {
+			audioOnly = (inputFormatCtx.streams(0).codecpar().codec_type() == AVMEDIA_TYPE_AUDIO);
+		}
 
-				URI url = new URI(streamUrl);
-				String urlStr = "rtmp://" + url.getHost() + "/" + url.getPath();
-				//				logger.debug("rtmp url: " + urlStr);
-				
-				ret = avformat.avio_open(pb,  urlStr, AVIO_FLAG_WRITE);
-				outputRTMPFormatContext.pb(pb);
+		muxAdaptor = MuxAdaptor.initializeMuxAdaptor(null, true, scope);
+		// if there is only audio, firstKeyFrameReceivedChecked should be true in advance
+		// because there is no video frame
+		muxAdaptor.setFirstKeyFrameReceivedChecked(audioOnly);
+		muxAdaptor.init(scope, announcedStreamName, false);
 
-				ret = avformat_write_header(outputRTMPFormatContext, (AVDictionary)null);
-				if (ret < 0) {
-					logger.debug("Cannot write header to rtmp\n");
-					return false;
-				}
-			}
-		}
-		catch (Exception e) {
-			e.printStackTrace();
+		if (!muxAdaptor.prepareInternal(inputFormatCtx)) {
+			logger.warn("Mux adaptor cannot be prepared for rtsp stream {}", announcedStreamName);
+			muxAdaptor = null;
+			return false;
 		}
-		
+		muxAdaptor.setStartTime(System.currentTimeMillis());
 
+		getApplicationAdapter().startPublish(announcedStreamName);
 		return true;
 	}
-	
-	//TODO: check that if process interrupts soomehow, there is no memory leakage
+
+	private AntMediaApplicationAdapter getApplicationAdapter() {
+		return (AntMediaApplicationAdapter) scope.getContext().getApplicationContext().getBean(AntMediaApplicationAdapter.BEAN_NAME);
+	}
 
 	@Override
 	public void run() {
+		currentReceiver.set(this);
+		try {
+			receivePackets();
+		}
+		finally {
+			currentReceiver.remove();
+		}
+	}
 
-
-		if (!prepare_input_context(mTaskScheduler, cseq, sessionKey, session, announcedStreamName, liveStreamSdpDef, url)) {
+	private void receivePackets() {
+		if (!prepareInputContext()) {
 			closeInternal();
 			return;
 		}
-		
+
+		AVPacketPool packetPool = AVPacketPool.getInstance();
 		while(true) {
-			//TODO check garbage collection and memory allocations on jvisualvm
-			AVPacket pkt = new AVPacket();
+			AVPacket pkt = packetPool.acquire();
 
 			int ret = av_read_frame(inputFormatCtx, pkt);
 			if (ret<0) {
+				packetPool.release(pkt);
 				closeInternal();
 				break;
 			}
 			int packetIndex = pkt.stream_index();
+			receivedPacketCount++;
+			receivedByteCount += pkt.size();
+			lastPacketReceivedTime = System.currentTimeMillis();
 
-			AVStream in_stream = inputFormatCtx.streams(packetIndex);
-			AVStream out_stream2 = outputRTMPFormatContext.streams(packetIndex);
-			
-		//	if (pkt.dts() != avutil.AV_NOPTS_VALUE && lastDTS[packetIndex] == -1) {
-		//		lastDTS[packetIndex] = pkt.dts();
-		//	}
 			if (pkt.dts() < 0) {
+				packetPool.release(pkt);
 				continue;
 			}
-			
+
 			if (lastDTS[packetIndex] >= pkt.dts()) {
-				logger.warn("dts timestamps are not in correct order last dts:"  + lastDTS[packetIndex] 
+				logger.warn("dts timestamps are not in correct order last dts:"  + lastDTS[packetIndex]
 						+ " current dts:" + pkt.dts() + " fixing problem by adding offset");
 
 				pkt.dts(lastDTS[packetIndex] + 1);
@@ -220,19 +346,15 @@ public class PacketReceiverRunnable implements Runnable {
 				pkt.pts(pkt.dts());
 			}
 
-			//sending rtmp
-			pkt.pts(av_rescale_q_rnd(pkt.pts(), in_stream.time_base(), out_stream2.time_base(), AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
-			pkt.dts(av_rescale_q_rnd(pkt.dts(), in_stream.time_base(), out_stream2.time_base(), AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
-			pkt.duration(av_rescale_q(pkt.duration(), in_stream.time_base(), out_stream2.time_base()));
-			pkt.pos(-1);
-
-
-			ret = av_interleaved_write_frame(outputRTMPFormatContext, pkt);
-			if (ret < 0) {
-				logger.debug("Error muxing rtmp packet\n");
+			if (muxAdaptor != null) {
+				//mux adaptor rescales the timestamps of the input stream for each muxer
+				muxAdaptor.writePacket(inputFormatCtx.streams(packetIndex), pkt);
+			}
+			else {
+				writeRtmpPacket(packetIndex, pkt);
 			}
 
-			av_packet_unref(pkt);
+			packetPool.release(pkt);
 
 			if (closeRequest) {
 				closeInternal();
@@ -241,36 +363,73 @@ public class PacketReceiverRunnable implements Runnable {
 		}
 	}
 
+	private void writeRtmpPacket(int packetIndex, AVPacket pkt) {
+		AVStream inStream = inputFormatCtx.streams(packetIndex);
+		AVStream outStream = outputRTMPFormatContext.streams(packetIndex);
+		pkt.pts(av_rescale_q_rnd(pkt.pts(), inStream.time_base(), outStream.time_base(), AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
+		pkt.dts(av_rescale_q_rnd(pkt.dts(), inStream.time_base(), outStream.time_base(), AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
+		pkt.duration(av_rescale_q(pkt.duration(), inStream.time_base(), outStream.time_base()));
+		pkt.pos(-1);
+
+		if (av_interleaved_write_frame(outputRTMPFormatContext, pkt) < 0) {
+			logger.debug("Error muxing rtmp packet of stream {}", announcedStreamName);
+		}
+	}
+
+	public long getReceivedPacketCount() {
+		return receivedPacketCount;
+	}
+
+	public long getReceivedByteCount() {
+		return receivedByteCount;
+	}
+
+	public long getLastPacketReceivedTime() {
+		return lastPacketReceivedTime;
+	}
+
 	public void closeInternal() {
-		logger.warn("closing rtmp format context");
-		av_write_trailer(outputRTMPFormatContext);
+		if (muxAdaptor != null) {
+			logger.warn("closing mux adaptor of rtsp stream {}", announcedStreamName);
+			muxAdaptor.writeTrailer(inputFormatCtx);
+			getApplicationAdapter().closeBroadcast(announcedStreamName);
+			muxAdaptor = null;
+		}
 
+		if (outputRTMPFormatContext != null) {
+			logger.warn("closing rtmp format context of rtsp stream {}", announcedStreamName);
+			if (outputRTMPFormatContext.pb() != null) {
+				av_write_trailer(outputRTMPFormatContext);
+				if ((outputRTMPFormatContext.oformat().flags() & AVFMT_NOFILE) == 0) {
+					avio_closep(outputRTMPFormatContext.pb());
+				}
+			}
+			avformat_free_context(outputRTMPFormatContext);
+			outputRTMPFormatContext = null;
+		}
 
 		logger.warn("closing rtsp input format context");
-		// Close the video file
 		if (inputFormatCtx != null) {
 			avformat_close_input(inputFormatCtx);
+			inputFormatCtx = null;
 		}
 
-
-		// close output 
-		if (outputRTMPFormatContext != null && ((outputRTMPFormatContext.oformat().flags() & AVFMT_NOFILE) == 0)) {
-			logger.warn("closing rtmp format context pb");
-			avio_closep(outputRTMPFormatContext.pb());
+		//custom io context is not freed by avformat_close_input
+		if (sdpIOContext != null) {
+			av_free(sdpIOContext.buffer());
+			av_free(sdpIOContext);
+			sdpIOContext = null;
 		}
-		avformat_free_context(outputRTMPFormatContext);
 
-
-		logger.debug("deleting sdpfile");
-		if (sdpFile != null && sdpFile.exists()) {
-			sdpFile.delete();
-			sdpFile = null;
+		if (sdpOpaque != null) {
+			sdpBuffers.remove(sdpOpaque.address());
+			sdpOpaque.close();
+			sdpOpaque = null;
 		}
 	}
 
-	public synchronized void closeMuxer() {
+	public void closeMuxer() {
 		closeRequest = true;
-
 	}
 
 }
@@ -1,21 +1,16 @@
 package com.antstreaming.rtsp;
 
 import static org.bytedeco.javacpp.avcodec.AV_CODEC_FLAG_GLOBAL_HEADER;
-import static org.bytedeco.javacpp.avcodec.av_packet_unref;
 import static org.bytedeco.javacpp.avcodec.avcodec_parameters_copy;
+import static org.bytedeco.javacpp.avformat.AVFMT_FLAG_CUSTOM_IO;
 import static org.bytedeco.javacpp.avformat.AVFMT_GLOBALHEADER;
 import static org.bytedeco.javacpp.avformat.AVFMT_NOFILE;
 import static org.bytedeco.javacpp.avformat.AVIO_FLAG_WRITE;
-import static org.bytedeco.javacpp.avformat.av_read_frame;
-import static org.bytedeco.javacpp.avformat.av_sdp_create;
 import static org.bytedeco.javacpp.avformat.av_write_frame;
 import static org.bytedeco.javacpp.avformat.av_write_trailer;
 import static org.bytedeco.javacpp.avformat.avformat_alloc_output_context2;
-import static org.bytedeco.javacpp.avformat.avformat_close_input;
-import static org.bytedeco.javacpp.avformat.avformat_find_stream_info;
 import static org.bytedeco.javacpp.avformat.avformat_free_context;
 import static org.bytedeco.javacpp.avformat.avformat_new_stream;
-import static org.bytedeco.javacpp.avformat.avformat_open_input;
 import static org.bytedeco.javacpp.avformat.avformat_write_header;
 import static org.bytedeco.javacpp.avformat.avio_closep;
 import static org.bytedeco.javacpp.avutil.AV_ROUND_NEAR_INF;
@@ -26,6 +21,7 @@ import static org.bytedeco.javacpp.avutil.av_rescale_q_rnd;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.mina.core.session.IoSession;
 import org.bytedeco.javacpp.PointerPointer;
 import org.bytedeco.javacpp.avcodec.AVPacket;
 import org.bytedeco.javacpp.avformat;
@@ -33,16 +29,19 @@ import org.bytedeco.javacpp.avformat.AVFormatContext;
 import org.bytedeco.javacpp.avformat.AVIOContext;
 import org.bytedeco.javacpp.avformat.AVOutputFormat;
 import org.bytedeco.javacpp.avformat.AVStream;
-import org.bytedeco.javacpp.avutil;
 import org.bytedeco.javacpp.avutil.AVRational;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.antmedia.streamsource.AVPacketPool;
 
-public class PacketSenderRunnable implements Runnable {
+public class PacketSenderRunnable implements Runnable, RtspPacer.PacedTask {
 
 
-	AVPacket pkt = new AVPacket();
+	/**
+	 * Packet that is waiting for its time to be sent or null
+	 */
+	AVPacket pkt;
 
 	int packetIndex = 0;
 
@@ -50,10 +49,16 @@ public class PacketSenderRunnable implements Runnable {
 	long firstPacketSentTime = 0;
 
 	long startTime = 0;
-	boolean bufferFree = true;
 	boolean endOfFile = false;
 	private AtomicBoolean isRunning = new AtomicBoolean(false);
-	private AVFormatContext inputFormatContext;
+
+	/**
+	 * Shared reader of the stream that packets are received from
+	 */
+	private SharedStreamReader reader;
+
+	private SharedStreamReader.Subscriber subscriber;
+
 	private AVFormatContext[] outputFormatContext;
 	private static Logger logger = LoggerFactory.getLogger(PacketSenderRunnable.class);
 	private boolean closeRequest = false;
@@ -64,23 +69,87 @@ public class PacketSenderRunnable implements Runnable {
 
 	private AVRational[] streamTimeBase;
 
+	/**
+	 * Time bases of the rtp outputs. They are cached after the headers are written so that
+	 * timestamps of the packets are rescaled without allocating a time base for each packet
+	 */
+	private AVRational[] outputTimeBase;
+
+	private static final AVRational MICROSECONDS = new AVRational().num(1).den(AV_TIME_BASE);
+
+	/**
+	 * Time in milliseconds that the waiting packet should be sent or negative value if sender is closed
+	 */
+	private long nextSendTime = 0;
+
+	private volatile long sentPacketCount = 0;
+
+	private volatile long sentByteCount = 0;
+
+	/**
+	 * Maximum delay in milliseconds between the time that a packet should be sent and the time it's sent
+	 */
+	private volatile long maxSendLagMs = 0;
+
+	/**
+	 * Writer of the streams that are sent over the RTSP connection. It's null if all streams are sent over UDP
+	 */
+	private InterleavedRtpWriter interleavedWriter;
+
+	/**
+	 * Maximum number of packets that are sent in a single run if their times have come
+	 */
+	private static final int MAX_PACKETS_PER_RUN = 32;
+
+	private static final int MAX_PORT_ALLOCATION_ATTEMPTS = 8;
+
+	private UdpPortAllocator portAllocator = UdpPortAllocator.getInstance();
+
 
 	public PacketSenderRunnable(IMuxerListener muxerListener) {
 		this.muxerListener = muxerListener;
 	}
 
-	public int seek(long seekTime) {
-		return avformat.av_seek_frame(inputFormatContext, -1, seekTime, avformat.AVSEEK_FLAG_FRAME);
+	/**
+	 * Switches to the reader that starts from the seek time. Players that seek to the same time share the reader
+	 * @param seekTime in micro seconds
+	 * @return negative value if stream cannot be read from the seek time
+	 */
+	public synchronized int seek(long seekTime) {
+		SharedStreamReader seekReader = SharedStreamReader.acquire(rtmpUrl, seekTime);
+		if (seekReader == null) {
+			return -1;
+		}
+		releaseReader();
+		reader = seekReader;
+		return 0;
 	}
 
 
 	public long getDuration() {
-		return inputFormatContext.duration();
+		return reader.getDuration();
 	}
 
-	public boolean prepareOutputContext(int streamId, String remoteAddress, int[] clientPort, int[] serverPort) {
+	public long getSentPacketCount() {
+		return sentPacketCount;
+	}
+
+	public long getSentByteCount() {
+		return sentByteCount;
+	}
+
+	public long getMaxSendLagMs() {
+		return maxSendLagMs;
+	}
+
+	/**
+	 * Creates the rtp output context of the stream without its io context
+	 */
+	private boolean createOutputContext(int streamId) {
+		AVFormatContext inputFormatContext = reader.getInputFormatContext();
 		if (outputFormatContext == null) {
 			outputFormatContext = new AVFormatContext[inputFormatContext.nb_streams()];
+			outputTimeBase = new AVRational[inputFormatContext.nb_streams()];
 		}
 		outputFormatContext[streamId] = new AVFormatContext(null);
 
@@ -89,11 +158,11 @@ public class PacketSenderRunnable implements Runnable {
 			logger.debug("Could not create output context\n");
 			return false;
 		}
-		AVOutputFormat ofmt = outputFormatContext[streamId].oformat();
 		AVStream in_stream = inputFormatContext.streams(streamId);
 		AVStream out_stream = avformat_new_stream(outputFormatContext[streamId], in_stream.codec().codec());
 
-		streamTimeBase[streamId] = in_stream.time_base();
+		//time base is copied because input context belongs to the reader and reader may change with seek
+		streamTimeBase[streamId] = new AVRational().num(in_stream.time_base().num()).den(in_stream.time_base().den());
 
 		ret = avcodec_parameters_copy(out_stream.codecpar(), in_stream.codecpar());
 
@@ -107,6 +176,49 @@ public class PacketSenderRunnable implements Runnable {
 			//out_stream->codec->flags |= AV_CODEC_FLAG_GLOBAL_HEADER;
 			out_stream.codec().flags(out_stream.codec().flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
 		}
+		return true;
+	}
+
+	private boolean writeHeader(int streamId) {
+		int ret = avformat_write_header(outputFormatContext[streamId], (PointerPointer<?>)null);
+		if (ret < 0) {
+			logger.warn("cannot write header with error: " + ret);
+			return false;
+		}
+		AVRational timeBase = outputFormatContext[streamId].streams(0).time_base();
+		outputTimeBase[streamId] = new AVRational().num(timeBase.num()).den(timeBase.den());
+		return true;
+	}
+
+	/**
+	 * Prepares the output of the stream to send rtp packets over the RTSP connection
+	 * @param streamId index of the stream
+	 * @param session RTSP connection of the client
+	 * @param rtpChannel interleaved channel of the RTP packets, RTCP packets are sent over the next channel
+	 */
+	public boolean prepareInterleavedOutputContext(int streamId, IoSession session, int rtpChannel) {
+		if (!createOutputContext(streamId)) {
+			return false;
+		}
+		if (interleavedWriter == null || interleavedWriter.getSession() != session) {
+			interleavedWriter = new InterleavedRtpWriter(session);
+		}
+		AVIOContext pb = interleavedWriter.createIOContext(rtpChannel);
+		if (pb == null) {
+			logger.warn("Cannot create interleaved io context for stream {}", streamId);
+			return false;
+		}
+		outputFormatContext[streamId].pb(pb);
+		outputFormatContext[streamId].flags(outputFormatContext[streamId].flags() | AVFMT_FLAG_CUSTOM_IO);
+		return writeHeader(streamId);
+	}
+
+	public boolean prepareOutputContext(int streamId, String remoteAddress, int[] clientPort, int[] serverPort) {
+		if (!createOutputContext(streamId)) {
+			return false;
+		}
+		AVOutputFormat ofmt = outputFormatContext[streamId].oformat();
+		int ret;
 
 		if ((ofmt.flags() & AVFMT_NOFILE) == 0) {
 			AVIOContext pb = new AVIOContext(null);
@@ -114,29 +226,31 @@ public class PacketSenderRunnable implements Runnable {
 			String rtpUrl = null;
 			if (serverPort[0] == 0) 
 			{
-				while (RtspConnection.PORT_NUMBER.get() <= RtspConnection.UDP_PORT_MAX) 
+				//allocator checks the ports by binding so a few attempts are enough if some ports are taken meanwhile
+				for (int attempt = 0; attempt < MAX_PORT_ALLOCATION_ATTEMPTS; attempt++) 
 				{
-					serverPort[0] = RtspConnection.PORT_NUMBER.getAndAdd(2);
-					serverPort[1] = serverPort[0] + 1;
-					// need to +2 because rtp port must be even and rtcp port must be odd
-					//rtcp port is automatically set to rtp port + 1
-
-					rtpUrl = "rtp://"+ remoteAddress +":" + clientPort[0] + "?localrtpport=" + serverPort[0]; // + "&localrtcpport=" + rtcpLocalPort; // + "&connect=1";
+					int[] portPair = portAllocator.allocate();
+					if (portPair == null) {
+						return false;
+					}
+					//rtp port is even and rtcp port is automatically set to rtp port + 1
+					rtpUrl = "rtp://"+ remoteAddress +":" + clientPort[0] + "?localrtpport=" + portPair[0]; // + "&localrtcpport=" + rtcpLocalPort; // + "&connect=1";
 
 					ret = avformat.avio_open(pb, rtpUrl, AVIO_FLAG_WRITE);
 
 					if (ret < 0) {
 						logger.debug("Could not open url " + rtpUrl);
+						portAllocator.release(portPair[0]);
 						continue;
 					}
-					else {
-						logger.warn("Opened url " + rtpUrl);
-						outputFormatContext[streamId].pb(pb);
-						break;
-					}
+					logger.warn("Opened url " + rtpUrl);
+					serverPort[0] = portPair[0];
+					serverPort[1] = portPair[1];
+					outputFormatContext[streamId].pb(pb);
+					break;
 				}
-				if (RtspConnection.PORT_NUMBER.get() >= RtspConnection.UDP_PORT_MAX) {
-					RtspConnection.PORT_NUMBER.set(RtspConnection.UDP_PORT_MIN);
+				if (serverPort[0] == 0) {
+					return false;
 				}
 			}
 			else {
@@ -149,107 +263,168 @@ public class PacketSenderRunnable implements Runnable {
 				outputFormatContext[streamId].pb(pb);
 			}
 		}
-		ret = avformat_write_header(outputFormatContext[streamId], (PointerPointer<?>)null);
-		if (ret < 0) {
-			logger.warn("cannot write header with error: " + ret);
-			return false;
-		}
-		return true;
+		return writeHeader(streamId);
 	}
 
 	@Override
 	public void run() {
+		sendDuePackets(System.currentTimeMillis());
+	}
+
+	/**
+	 * Sends the packets whose times have come. It's called by the {@link RtspPacer}
+	 * @return time that sender should run again or negative value if sender is closed
+	 */
+	@Override
+	public long sendDuePackets(long now) {
+		if (!isRunning.compareAndSet(false, true)) {
+			return now + RtspPacer.TICK_MS;
+		}
 		try {
-			if (!isRunning.compareAndSet(false, true) || inputFormatContext == null) {
-				return;
+			if (reader == null) {
+				return -1;
 			}
 
 			synchronized (this) {
+				if (subscriber == null && reader != null) {
+					subscriber = reader.subscribe();
+				}
 
-				AVStream in_stream, out_stream;
-				if (bufferFree) 
-				{
-					int ret = av_read_frame(inputFormatContext, pkt);
-					if (ret < 0) {
-						byte[] data = new byte[4096];
-						avutil.av_strerror(ret, data, data.length);
-						logger.warn("cannot read frame, closing muxer. Error: " + new String(data));
-
-						closeMuxer(true);
-						return;
-					}
-					packetIndex = pkt.stream_index();
-
-					//in_stream  = inputFormatContext.streams(packetIndex);
-
-					if (outputFormatContext[packetIndex] == null) {
-						//pass this packet, stream is likely not supported in rtp
-						return;
-					}
-					out_stream = outputFormatContext[packetIndex].streams(0);
-
-					AVRational inStreamTimeBase = streamTimeBase[packetIndex]; 
-					/* copy packet */
-					try (AVRational avRational = new AVRational()) {
-						avRational.num(1);
-						avRational.den(AV_TIME_BASE);
-
-						packetSentTime = av_rescale_q(pkt.dts(), inStreamTimeBase, avRational); // + pkt.duration(); 
-						if (firstPacketSentTime == 0) {
-							firstPacketSentTime = packetSentTime;
-						}
-
-						//pkt.dts() + pkt.duration();
-						pkt.pts(av_rescale_q_rnd(pkt.pts(), inStreamTimeBase, out_stream.time_base(), AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
-						pkt.dts(av_rescale_q_rnd(pkt.dts(), inStreamTimeBase, out_stream.time_base(), AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
-						pkt.duration(av_rescale_q(pkt.duration(), inStreamTimeBase, out_stream.time_base()));
-						pkt.pos(-1);
-
-						//stream index is always zero because rtp can contain one stream
-						pkt.stream_index(0);
+				//run again as soon as possible if all packets of this run are sent
+				long nextRunTime = now;
+				for (int i = 0; i < MAX_PACKETS_PER_RUN && outputFormatContext != null; i++) {
+					if (interleavedWriter != null && !interleavedWriter.isWritable()) {
+						//client does not read fast enough, wait for the write queue of the session
+						nextRunTime = now + RtspPacer.TICK_MS;
+						break;
 					}
-					catch (Exception e) {
-						e.printStackTrace();
+					if (!sendPacket(now)) {
+						nextRunTime = nextSendTime;
+						break;
 					}
-
 				}
 
-
-				if (startTime == 0) {
-					startTime = System.currentTimeMillis(); 
-					//logger.debug("start time :" + startTime + " offset:" + offset);
-				}
-
-				long timeDiff = (System.currentTimeMillis() - startTime) * 1000; // convert milli seconds to micro seconds
-
-				if (packetSentTime <= (firstPacketSentTime + timeDiff)) 
-				{
-					int ret = av_write_frame(outputFormatContext[packetIndex], pkt);
-					if (ret < 0) {
-						logger.warn("Error muxing packet with error: " + ret);
-					}
-					av_packet_unref(pkt);
-					bufferFree = true;
-				}
-				else {
-					//logger.debug("waiting to send");
-					bufferFree = false;
+				if (interleavedWriter != null) {
+					//packets of this run are written to the connection with a single write
+					interleavedWriter.flush();
 				}
 
 				if (closeRequest) {
 					closeInternal(finish);
 					closeRequest = false;
 				}
+				return outputFormatContext != null && reader != null ? nextRunTime : -1;
 			}
 		}
 		catch (Exception e) {
 			logger.warn("exception");
 			e.printStackTrace();
+			return -1;
 		}finally {
 			isRunning.compareAndSet(true, false);
 		}
 	}
 
+	/**
+	 * Takes a packet if there is no packet waiting and sends it if its time has come.
+	 * Reader reads the next packets for all subscribers on its own thread when the queue of this player is getting empty
+	 * @param now current time in milliseconds
+	 * @return true if a packet is sent or skipped and next packet can be sent in this run
+	 */
+	private boolean sendPacket(long now) {
+		if (pkt == null) 
+		{
+			//end of stream is checked before polling so that packets that are read before it are not missed
+			boolean endOfStream = reader.isEndOfStream();
+			pkt = subscriber.poll();
+			if (subscriber.getQueueSize() < SharedStreamReader.READ_AHEAD_PACKETS / 2) {
+				reader.requestPackets();
+			}
+			if (pkt == null) {
+				if (endOfStream) {
+					logger.warn("end of stream, closing muxer");
+					closeMuxer(true);
+					nextSendTime = -1;
+				}
+				else {
+					nextSendTime = now + RtspPacer.TICK_MS;
+				}
+				return false;
+			}
+			packetIndex = pkt.stream_index();
+
+			if (packetIndex >= outputFormatContext.length || outputFormatContext[packetIndex] == null || outputTimeBase[packetIndex] == null) {
+				//pass this packet, stream is likely not supported in rtp
+				releasePacket();
+				return true;
+			}
+
+			AVRational inStreamTimeBase = streamTimeBase[packetIndex]; 
+			AVRational outStreamTimeBase = outputTimeBase[packetIndex];
+
+			packetSentTime = av_rescale_q(pkt.dts(), inStreamTimeBase, MICROSECONDS); // + pkt.duration(); 
+			if (firstPacketSentTime == 0) {
+				firstPacketSentTime = packetSentTime;
+			}
+
+			pkt.pts(av_rescale_q_rnd(pkt.pts(), inStreamTimeBase, outStreamTimeBase, AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
+			pkt.dts(av_rescale_q_rnd(pkt.dts(), inStreamTimeBase, outStreamTimeBase, AV_ROUND_NEAR_INF|AV_ROUND_PASS_MINMAX));
+			pkt.duration(av_rescale_q(pkt.duration(), inStreamTimeBase, outStreamTimeBase));
+			pkt.pos(-1);
+
+			//stream index is always zero because rtp can contain one stream
+			pkt.stream_index(0);
+		}
+
+
+		if (startTime == 0) {
+			startTime = now; 
+		}
+
+		long timeDiff = (now - startTime) * 1000; // convert milli seconds to micro seconds
+
+		if (packetSentTime <= (firstPacketSentTime + timeDiff)) 
+		{
+			long lag = (firstPacketSentTime + timeDiff - packetSentTime) / 1000;
+			if (lag > maxSendLagMs) {
+				maxSendLagMs = lag;
+			}
+			int size = pkt.size();
+			int ret = av_write_frame(outputFormatContext[packetIndex], pkt);
+			if (ret < 0) {
+				logger.warn("Error muxing packet with error: " + ret);
+			}
+			else {
+				sentPacketCount++;
+				sentByteCount += size;
+			}
+			releasePacket();
+			return true;
+		}
+
+		//convert micro seconds to milli seconds
+		nextSendTime = startTime + (packetSentTime - firstPacketSentTime) / 1000;
+		return false;
+	}
+
+	private void releasePacket() {
+		if (pkt != null) {
+			//packet data is freed when the last subscriber releases its reference
+			AVPacketPool.getInstance().release(pkt);
+			pkt = null;
+		}
+	}
+
+	private void releaseReader() {
+		if (reader != null) {
+			reader.unsubscribe(subscriber);
+			subscriber = null;
+			releasePacket();
+			reader.release();
+			reader = null;
+		}
+	}
+
 	public void closeInternal(boolean finishProcess) 
 	{
 		logger.warn("closeInternal called.");
@@ -264,7 +439,10 @@ public class PacketSenderRunnable implements Runnable {
 					av_write_trailer(avFormatContext);
 				}
 				/* close output */
-				if (avFormatContext != null && ((avFormatContext.oformat().flags() & AVFMT_NOFILE) == 0)) {
+				if (interleavedWriter != null && interleavedWriter.releaseIOContext(avFormatContext.pb())) {
+					avFormatContext.pb(null);
+				}
+				else if ((avFormatContext.oformat().flags() & AVFMT_NOFILE) == 0) {
 					logger.warn(" avio_closep(avFormatContext.pb()); ");
 					avio_closep(avFormatContext.pb());
 				}
@@ -273,9 +451,16 @@ public class PacketSenderRunnable implements Runnable {
 			}
 			outputFormatContext = null;
 		}
-		if (inputFormatContext != null && finishProcess) {
-			avformat_close_input(inputFormatContext);
-			inputFormatContext = null;
+		if (interleavedWriter != null) {
+			interleavedWriter.flush();
+		}
+		if (reader != null) {
+			reader.unsubscribe(subscriber);
+			subscriber = null;
+		}
+		releasePacket();
+		if (finishProcess) {
+			releaseReader();
 		}
 		if (this.muxerListener != null) {
 			this.muxerListener.muxingFinished(this);
@@ -297,70 +482,47 @@ public class PacketSenderRunnable implements Runnable {
 
 
 	public int getStreamCount() {
-		return inputFormatContext.nb_streams();
-	}
-
-	public String getSdpDescription(String rtmpUrl) {
-		return getSdpDescription(rtmpUrl, true);
+		return reader.getStreamCount();
 	}
 
-	public String getSdpDescription(String rtmpUrl, boolean createSDP) {
+	/**
+	 * Gets the reader of the stream from the beginning and returns its sdp. Reader is shared with the other players
+	 * of the stream
+	 * @return sdp description or null if stream cannot be read
+	 */
+	public synchronized String getSdpDescription(String rtmpUrl) {
 		this.rtmpUrl = rtmpUrl;
-		inputFormatContext = avformat.avformat_alloc_context();
-		int ret = avformat_open_input(inputFormatContext, rtmpUrl, null, null);
-		if (ret < 0) {
-			byte[] data = new byte[4096];
-			avutil.av_strerror(ret, data, data.length);
-			logger.warn("could not open input " + rtmpUrl + " error code:" + ret
-					+ " description: " + new String(data));
+		releaseReader();
+		reader = SharedStreamReader.acquire(rtmpUrl, 0);
+		if (reader == null) {
 			return null;
 		}
-
-
-		if (createSDP) 
-		{
-
-			ret = avformat_find_stream_info(inputFormatContext, (PointerPointer<?>)null); 
-			if (ret < 0) {
-				byte[] data = new byte[4096];
-				avutil.av_strerror(ret, data, data.length);
-				logger.warn("could not find stream info " + rtmpUrl + " error code:" + ret
-						+ " description: " + new String(data));
-				return null;
-			}
-
-			byte[] sdpData = new byte[16384];
-
-			ret = av_sdp_create(inputFormatContext, 1, sdpData, 2048) ;
-			if (ret < 0) {
-				byte[] data = new byte[4096];
-				avutil.av_strerror(ret, data, data.length);
-				logger.warn("could not create sdp " + rtmpUrl + " error code:" + ret
-						+ " description: " + new String(data));
-				return null;
-			}
-
-			String sdpString = new String(sdpData);
-
-			if (sdpString.indexOf("rtpmap") == -1) {
-				logger.warn("sdp description does not have rtpmap field");
-				return null;
-			}
-
-			streamTimeBase = new AVRational[inputFormatContext.nb_streams()];
-
-			return sdpString.trim();
-		}
-		return null;
+		streamTimeBase = new AVRational[reader.getStreamCount()];
+		return reader.getSdpDescription();
 	}
 
-	public void reinitialize() {
-		if (inputFormatContext != null) {
-			avformat_close_input(inputFormatContext);
-			inputFormatContext = null;
+	/**
+	 * Prepares the player to start playing from the position. Another reader is acquired if the current reader 
+	 * cannot deliver the packets from the position because it's already read by other players
+	 * @param startPositionUs start position in micro seconds, it's ignored for the live streams
+	 */
+	public synchronized void reinitialize(long startPositionUs) {
+		if (reader != null) {
+			reader.unsubscribe(subscriber);
+			subscriber = null;
 		}
-		getSdpDescription(rtmpUrl, false);
-
+		releasePacket();
+		if (reader == null || !reader.canStartFrom(startPositionUs)) {
+			releaseReader();
+			reader = SharedStreamReader.acquire(rtmpUrl, startPositionUs);
+		}
+		if (reader != null) {
+			//player subscribes before it's scheduled so that it does not miss the first packets
+			subscriber = reader.subscribe();
+			reader.requestPackets();
+		}
+		startTime = 0;
+		firstPacketSentTime = 0;
 	}
 
-}
\ No newline at end of file
+}
@@ -4,9 +4,11 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.mina.core.session.IoSession;
@@ -16,6 +18,8 @@ import org.red5.server.api.scope.IGlobalScope;
 import org.red5.server.api.scope.IScope;
 import org.red5.server.api.stream.IStreamFilenameGenerator;
 import org.red5.server.api.stream.IStreamFilenameGenerator.GenerationType;
+import org.red5.server.api.stream.IStreamPublishSecurity;
+import org.red5.server.api.stream.IStreamSecurityService;
 import org.red5.server.net.rtmp.RTMPMinaConnection;
 import org.red5.server.scope.Scope;
 import org.red5.server.stream.DefaultStreamFilenameGenerator;
@@ -27,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import com.antstreaming.rtsp.protocol.RTSPTransport;
+import com.antstreaming.rtsp.protocol.RTSPTransport.DeliveryType;
 import com.antstreaming.rtsp.protocol.RTSPTransport.LowerTransport;
 import com.antstreaming.rtsp.protocol.RtspCode;
 import com.antstreaming.rtsp.protocol.RtspHeaderCode;
@@ -47,7 +52,10 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 
 	public static final int UDP_PORT_MAX = 65000;
 
-	public static AtomicInteger PORT_NUMBER = new AtomicInteger(UDP_PORT_MIN);
+	/**
+	 * Timeout of the session that is sent to the players. Players keep the session alive with GET_PARAMETER requests
+	 */
+	public static final int SESSION_TIMEOUT_SECONDS = 60;
 
 
 	private ThreadPoolTaskScheduler mTaskScheduler;
@@ -63,6 +71,11 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 
 	private int[][] clientPort;
 
+	/**
+	 * RTP channels of the streams that are sent over the RTSP connection or -1 for the streams that are sent over UDP
+	 */
+	private int[] interleavedChannels;
+
 	private StringBuilder liveStreamSdpDef;
 
 	//	private File streamFile;
@@ -73,10 +86,34 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 
 	private PacketSenderRunnable frameSender;
 
+	/**
+	 * Packetizer of the live stream that is played. It's null if a file is played
+	 */
+	private LiveStreamPacketizer livePacketizer;
+
+	private LiveRtpSink liveSink;
+
+	/**
+	 * Shared sink of the live stream if the player sets up the stream with multicast transport
+	 */
+	private MulticastRtpSink multicastSink;
+
+	private boolean multicastJoined = false;
+
 	private String announcedStreamName;
 
+	/**
+	 * Name of the stream that is described to the player
+	 */
+	private String playStreamName;
+
 	private String mode;
 
+	/**
+	 * Time in milliseconds that the last request is received
+	 */
+	private volatile long lastActivityTime = System.currentTimeMillis();
+
 	//private ClientBroadcastStream bs;
 
 
@@ -85,6 +122,7 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 		//rtsp connection should receive this message from a task queue
 		//do not forget to add this job to a task queue as rtmp conn does
 
+		lastActivityTime = System.currentTimeMillis();
 		RtspRequest request = (RtspRequest) message;
 		String cseq = request.getHeader(RtspHeaderCode.CSEQ);
 		session.setAttribute(CSEQ, cseq);
@@ -135,13 +173,43 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 		}
 
 
-		frameReceiver = new PacketReceiverRunnable(mTaskScheduler, cseq, sessionKey, session, announcedStreamName, liveStreamSdpDef, request.getUrl());
+		frameReceiver = new PacketReceiverRunnable(mTaskScheduler, cseq, sessionKey, session, announcedStreamName, liveStreamSdpDef, scope);
 		mPacketReceiverScheduledFuture = mTaskScheduler.schedule(frameReceiver, new Date());
 
 	}
 
+	/**
+	 * Runs the publish security handlers of the scope like the RTMP publish does.
+	 * Query parameters of the ANNOUNCE url are passed to the handlers, e.g. token
+	 */
+	private boolean isPublishAllowed(IScope scope, String streamName, String query) {
+		IStreamSecurityService security = (IStreamSecurityService) ScopeUtils.getScopeService(scope, IStreamSecurityService.class);
+		if (security == null) {
+			return true;
+		}
+
+		Map<String, String> queryParams = new HashMap<>();
+		if (query != null) {
+			for (String param : query.split("&")) {
+				int index = param.indexOf('=');
+				if (index > 0) {
+					queryParams.put(param.substring(0, index), param.substring(index + 1));
+				}
+				else if (!param.isEmpty()) {
+					queryParams.put(param, "");
+				}
+			}
+		}
+
+		for (IStreamPublishSecurity handler : security.getStreamPublishSecurity()) {
+			if (!handler.isPublishAllowed(scope, streamName, "live", queryParams)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private void onAnnounce(IoSession session, RtspRequest request) {
-		// TODO: execute scope publish security function
 
 		String contentType = request.getHeader(RtspHeaderCode.CONTENT_TYPE);
 		String cseq = request.getHeader(RtspHeaderCode.CSEQ);
@@ -166,6 +234,12 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 				handleError(session, cseq, RtspCode.DestinationUnreachable);
 				return;
 			}
+
+			if (!isPublishAllowed(scope, announcedStreamName, url.getQuery())) {
+				logger.warn("RTSP publish is not allowed for stream {}", announcedStreamName);
+				handleError(session, cseq, RtspCode.Unauthorized);
+				return;
+			}
 			/*
 			INPUT_TYPE type = getProviderService(scope).lookupProviderInput(scope, streamName, -2);
 			//TODO: test case try to resend the same  file and check that server returns error
@@ -278,6 +352,24 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 		response.setHeader(RtspHeaderCode.SESSION, sessionKey);
 
 
+		if (livePacketizer != null) {
+			//live stream cannot be seeked, player starts with the next key frame
+			response.setHeader(RtspHeaderCode.RANGE, "npt=0.000-");
+			response.setHeader(RtspHeaderCode.SCALE, "1.00");
+			session.write(response);
+			if (multicastSink != null) {
+				if (!multicastJoined) {
+					multicastSink.join();
+					multicastJoined = true;
+				}
+			}
+			else {
+				livePacketizer.removeSink(liveSink);
+				livePacketizer.addSink(liveSink);
+			}
+			return;
+		}
+
 		String rangeValue = request.getHeader(RtspHeaderCode.RANGE);
 		long duration = frameSender.getDuration();
 		float durationInSeconds =  (float)duration/1000000;
@@ -327,12 +419,15 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 
 		if (response.getCode() == RtspCode.OK) {
 			logger.warn("starting to play");
+			//player starts from the beginning if range is not requested or it's not in the stream
+			final long startPosition = seekTime <= duration ? seekTime : 0;
 			mTaskScheduler.schedule(new Runnable() {
 				
 				@Override
 				public void run() {
-					frameSender.reinitialize();
-					mPacketSenderScheduledFuture = mTaskScheduler.scheduleAtFixedRate(frameSender, 10);
+					frameSender.reinitialize(startPosition);
+					//packets are sent by the shared pacer instead of a scheduled task per connection
+					RtspPacer.getInstance().schedule(frameSender);
 					
 				}
 			}, new Date());
@@ -349,7 +444,7 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 	private void onOptions(IoSession session, RtspRequest request) {
 		RtspResponse response = new RtspResponse();
 		response.setHeader(RtspHeaderCode.CSEQ, request.getHeader(RtspHeaderCode.CSEQ));
-		response.setHeader(RtspHeaderCode.PUBLIC, "DESCRIBE, SETUP, TEARDOWN, PLAY, PAUSE, ANNOUNCE");
+		response.setHeader(RtspHeaderCode.PUBLIC, "DESCRIBE, SETUP, TEARDOWN, PLAY, PAUSE, ANNOUNCE, GET_PARAMETER");
 		response.setHeader(RtspHeaderCode.SERVER, "RtspServer");
 		response.setHeader(RtspHeaderCode.CONTENT_LENGTH, "0");
 		session.write(response);
@@ -391,7 +486,31 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 			INPUT_TYPE input = providerService.lookupProviderInput(scope, streamName, -2);
 			logger.debug("input type is " + input + " live wait is:" + INPUT_TYPE.LIVE_WAIT);
 
-			if (input != INPUT_TYPE.LIVE_WAIT) 
+			playStreamName = streamName;
+			releaseLiveStream();
+			if (input == INPUT_TYPE.LIVE) {
+				//live streams are packetized from the packets of the broadcast stream without reading them over rtmp
+				livePacketizer = LiveStreamPacketizer.acquire(scope, streamName);
+			}
+
+			if (livePacketizer != null) 
+			{
+				int streamCount = livePacketizer.getStreamCount();
+				serverPort = new int[streamCount][2];
+				clientPort = new int[streamCount][2];
+				interleavedChannels = new int[streamCount];
+				Arrays.fill(interleavedChannels, -1);
+				liveSink = new LiveRtpSink(streamCount);
+
+				StringBuilder sdp = new StringBuilder(livePacketizer.getSdpDescription());
+				response.setHeader(RtspHeaderCode.DATE, DateUtil.getGmtDate());
+				response.setHeader(RtspHeaderCode.CONTENT_TYPE, "application/sdp");
+				response.setHeader(RtspHeaderCode.SERVER, "RtspServer");
+				response.setHeader(RtspHeaderCode.CONTENT_LENGTH, String.valueOf(sdp.length()));
+				response.setBuffer(sdp);
+				session.write(response);
+			}
+			else if (input != INPUT_TYPE.LIVE_WAIT) 
 			{
 				response.setHeader(RtspHeaderCode.DATE, DateUtil.getGmtDate());
 				response.setHeader(RtspHeaderCode.CONTENT_TYPE, "application/sdp");
@@ -411,6 +530,8 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 							int streamCount = frameSender.getStreamCount();
 							serverPort = new int[streamCount][2];
 							clientPort = new int[streamCount][2];
+							interleavedChannels = new int[streamCount];
+							Arrays.fill(interleavedChannels, -1);
 							StringBuilder sdp = new StringBuilder();
 							sdp.append(new String(sdpDescription));
 							response.setHeader(RtspHeaderCode.CONTENT_LENGTH, String.valueOf(sdp.length()));
@@ -496,22 +617,36 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 		// get Transport
 		String transport = request.getHeader(RtspHeaderCode.TRANSPORT);
 		RTSPTransport rtspTransport = new RTSPTransport(transport);
+		mode = rtspTransport.getMode();
+		boolean recordMode = mode != null && mode.equals("record");
 		if (rtspTransport.getLowerTransport() == LowerTransport.NONE) {
 			rtspTransport.setLowerTransport(LowerTransport.UDP);
 		}
-		else if (rtspTransport.getLowerTransport() != LowerTransport.UDP) {
+		else if (rtspTransport.getLowerTransport() == LowerTransport.TCP && recordMode) {
+			//interleaved transport is only supported for playing
+			handleError(session, cseq, RtspCode.UnsupportedTransport);
+			return;
+		}
+		else if (rtspTransport.getLowerTransport() != LowerTransport.UDP && rtspTransport.getLowerTransport() != LowerTransport.TCP) {
 			handleError(session, cseq, RtspCode.UnsupportedTransport);
 			return;
 		}
 		clientPort[streamId] = rtspTransport.getClientPort();
-		mode = rtspTransport.getMode();
 
-		if (mode != null && mode.equals("record")) {
+		if (recordMode) {
 			//TODO check the url and do this operation according to the control parameter in the sdp
 
-			int portNo = PORT_NUMBER.getAndAdd(2);
+			if (serverPort[streamId][0] != 0) {
+				UdpPortAllocator.getInstance().release(serverPort[streamId][0]);
+			}
+			int[] portPair = UdpPortAllocator.getInstance().allocate();
+			if (portPair == null) {
+				handleError(session, cseq, RtspCode.InternalServerError);
+				return;
+			}
+			int portNo = portPair[0];
 			serverPort[streamId][0] = portNo;
-			serverPort[streamId][1] = portNo + 1;
+			serverPort[streamId][1] = portPair[1];
 
 			if (streamId == 0) {
 				String videoDef = "m=video 0";
@@ -539,13 +674,31 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 			}
 
 
-			if (frameSender.prepareOutputContext(streamId, remoteAddress, clientPort[streamId], serverPort[streamId])) {
+			if (rtspTransport.getDeliveryType() == DeliveryType.MULTICAST) {
+				setupMulticast(session, cseq, streamId, rtspTransport, response);
+				return;
+			}
+
+			if (rtspTransport.getLowerTransport() == LowerTransport.TCP) {
+				int[] channels = rtspTransport.getInterleavedChannels();
+				//use the next free channels if client does not request any channel
+				interleavedChannels[streamId] = channels != null ? channels[0] : streamId * 2;
+			}
+			else {
+				interleavedChannels[streamId] = -1;
+			}
+
+			if (prepareOutputContext(session, streamId)) {
 				response.setCode(RtspCode.OK);
 				response.setHeader(RtspHeaderCode.CSEQ, cseq);
-				response.setHeader(RtspHeaderCode.SESSION, mSessionKey);
+				response.setHeader(RtspHeaderCode.SESSION, mSessionKey + ";timeout=" + SESSION_TIMEOUT_SECONDS);
 
-				rtspTransport.setServerPort(serverPort[streamId]);
-				rtspTransport.setLowerTransport(LowerTransport.UDP);
+				if (interleavedChannels[streamId] != -1) {
+					rtspTransport.setInterleavedChannels(interleavedChannels[streamId]);
+				}
+				else {
+					rtspTransport.setServerPort(serverPort[streamId]);
+				}
 
 				response.setHeader(RtspHeaderCode.TRANSPORT, rtspTransport.toString());
 
@@ -562,6 +715,52 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 
 
 
+	/**
+	 * Sets up the stream to be received from the multicast group. All multicast players of a live stream
+	 * share a single sender, so multicast is only supported for live streams
+	 */
+	private void setupMulticast(IoSession session, String cseq, int streamId, RTSPTransport rtspTransport, RtspResponse response) {
+		String multicastGroup = RtspConnectionManager.getInstance().getMulticastGroup();
+		if (livePacketizer == null || multicastGroup == null || multicastGroup.isEmpty()) {
+			handleError(session, cseq, RtspCode.UnsupportedTransport);
+			return;
+		}
+		if (multicastSink == null) {
+			multicastSink = livePacketizer.getMulticastSink(multicastGroup, RtspConnectionManager.getInstance().getMulticastTtl());
+			if (multicastSink == null) {
+				handleError(session, cseq, RtspCode.InternalServerError);
+				return;
+			}
+		}
+
+		rtspTransport.setDestination(multicastSink.getGroupAddress());
+		rtspTransport.setPort(multicastSink.getPort(streamId).clone());
+		rtspTransport.setTTL(multicastSink.getTTL());
+		rtspTransport.setClientPort(new int[2]);
+
+		response.setCode(RtspCode.OK);
+		response.setHeader(RtspHeaderCode.SESSION, mSessionKey + ";timeout=" + SESSION_TIMEOUT_SECONDS);
+		response.setHeader(RtspHeaderCode.TRANSPORT, rtspTransport.toString());
+		session.write(response);
+	}
+
+	/**
+	 * Prepares the output of the stream for the transport that is negotiated in setup
+	 */
+	private boolean prepareOutputContext(IoSession session, int streamId) {
+		if (liveSink != null) {
+			if (interleavedChannels[streamId] != -1) {
+				liveSink.setInterleavedTransport(streamId, session, interleavedChannels[streamId]);
+				return true;
+			}
+			return liveSink.setUdpTransport(streamId, remoteAddress, clientPort[streamId], serverPort[streamId]);
+		}
+		if (interleavedChannels[streamId] != -1) {
+			return frameSender.prepareInterleavedOutputContext(streamId, session, interleavedChannels[streamId]);
+		}
+		return frameSender.prepareOutputContext(streamId, remoteAddress, clientPort[streamId], serverPort[streamId]);
+	}
+
 	private void onPause(IoSession session, RtspRequest request) {
 		// get cesq
 		String cseq = request.getHeader(RtspHeaderCode.CSEQ);
@@ -588,15 +787,27 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 			response.setHeader(RtspHeaderCode.SCALE, "1.00");
 
 
-			frameSender.closeMuxer(false);
-			mPacketSenderScheduledFuture.cancel(true);
-			int streamCount = frameSender.getStreamCount();
-			for (int i = 0; i < streamCount; i++) {
-				if (!frameSender.prepareOutputContext(i, remoteAddress, clientPort[i], serverPort[i])) {
-					logger.debug("prepare output context failed...");
+			if (multicastSink != null) {
+				if (multicastJoined) {
+					multicastSink.leave();
+					multicastJoined = false;
 				}
-				else {
-					logger.debug("prepare output context is ok");
+			}
+			else if (livePacketizer != null) {
+				//sink keeps its transport and it's added again in play
+				livePacketizer.removeSink(liveSink);
+			}
+			else {
+				RtspPacer.getInstance().cancel(frameSender);
+				frameSender.closeMuxer(false);
+				int streamCount = frameSender.getStreamCount();
+				for (int i = 0; i < streamCount; i++) {
+					if (!prepareOutputContext(session, i)) {
+						logger.debug("prepare output context failed...");
+					}
+					else {
+						logger.debug("prepare output context is ok");
+					}
 				}
 			}
 			//mPacketSendScheduledFuture.cancel(true);
@@ -617,6 +828,10 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 		}
 	}
 
+	/**
+	 * GET_PARAMETER without a body is used by the players to keep the session alive, especially by the multicast
+	 * players that do not send RTCP reports to the server
+	 */
 	private void onGP(IoSession session, RtspRequest request) {
 		// get cesq
 		String cseq = request.getHeader(RtspHeaderCode.CSEQ);
@@ -626,10 +841,10 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 			return;
 		}
 
-		// get require
+		// get require, it's only sent by the ngod clients
 		String requireValue = request.getHeader(RtspHeaderCode.REQUIRE);
-		if (null == requireValue || "".equals(requireValue)
-				|| (!requireValue.equals(REQUIRE_VALUE_NGOD_C1))) {
+		boolean ngodRequest = null != requireValue && !"".equals(requireValue);
+		if (ngodRequest && !requireValue.equals(REQUIRE_VALUE_NGOD_C1)) {
 			logger.error("require value ==> {} ", requireValue);
 			handleError(session, "0", RtspCode.HeaderFieldNotValidForResource);
 			return;
@@ -642,19 +857,23 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 			handleError(session, cseq, RtspCode.SessionNotFound);
 		}
 		else {
-			// sdp
-			StringBuilder sdp = new StringBuilder();
-			sdp.append("position: 22\r\n");
-			sdp.append("presentation state: play\r\n\r\n");
-			sdp.append("scale: 1\r\n");
-
 			RtspResponse response = new RtspResponse();
 			response.setCode(RtspCode.OK);
 			response.setHeader(RtspHeaderCode.CSEQ, cseq);
 			response.setHeader(RtspHeaderCode.DATE, DateUtil.getGmtDate());
-			response.setHeader(RtspHeaderCode.SESSION, sessionKey);
-			response.setHeader(RtspHeaderCode.CONTENT_LENGTH, String.valueOf(sdp.length()));
-			response.appendToBuffer(sdp);
+			response.setHeader(RtspHeaderCode.SESSION, sessionKey + ";timeout=" + SESSION_TIMEOUT_SECONDS);
+			if (ngodRequest) {
+				// sdp
+				StringBuilder sdp = new StringBuilder();
+				sdp.append("position: 22\r\n");
+				sdp.append("presentation state: play\r\n\r\n");
+				sdp.append("scale: 1\r\n");
+				response.setHeader(RtspHeaderCode.CONTENT_LENGTH, String.valueOf(sdp.length()));
+				response.appendToBuffer(sdp);
+			}
+			else {
+				response.setHeader(RtspHeaderCode.CONTENT_LENGTH, "0");
+			}
 			session.write(response);
 		}
 	}
@@ -752,6 +971,55 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 		return mSession;
 	}
 
+	/**
+	 * Returns the last time in milliseconds that the connection is active. Players are active while they are
+	 * sending requests or RTCP reports over the connection and publishers are active while they are sending packets.
+	 * 
+	 * RTCP reports of the UDP players are not read, so UDP players should send keep-alive requests, e.g. 
+	 * GET_PARAMETER or OPTIONS, in the session timeout that is advertised in the SETUP response
+	 */
+	public long getLastActivityTime() {
+		long activityTime = lastActivityTime;
+		IoSession session = mSession;
+		if (session != null) {
+			activityTime = Math.max(activityTime, session.getLastReadTime());
+		}
+		PacketReceiverRunnable receiver = frameReceiver;
+		if (receiver != null) {
+			activityTime = Math.max(activityTime, receiver.getLastPacketReceivedTime());
+		}
+		return activityTime;
+	}
+
+	public RtspConnectionStats getStats() {
+		IoSession session = mSession;
+		String remoteAddress = null;
+		if (session != null && session.getRemoteAddress() instanceof InetSocketAddress) {
+			remoteAddress = ((InetSocketAddress) session.getRemoteAddress()).getAddress().getHostAddress();
+		}
+		RtspConnectionStats stats = new RtspConnectionStats(getSessionId(), remoteAddress,
+				announcedStreamName != null ? announcedStreamName : playStreamName);
+
+		PacketSenderRunnable sender = frameSender;
+		if (sender != null) {
+			stats.setSentPacketCount(sender.getSentPacketCount());
+			stats.setSentByteCount(sender.getSentByteCount());
+			stats.setMaxSendLagMs(sender.getMaxSendLagMs());
+		}
+		LiveRtpSink sink = liveSink;
+		if (sink != null) {
+			stats.setSentPacketCount(stats.getSentPacketCount() + sink.getSentPacketCount());
+			stats.setSentByteCount(stats.getSentByteCount() + sink.getSentByteCount());
+		}
+		PacketReceiverRunnable receiver = frameReceiver;
+		if (receiver != null) {
+			stats.setReceivedPacketCount(receiver.getReceivedPacketCount());
+			stats.setReceivedByteCount(receiver.getReceivedByteCount());
+		}
+		stats.setIdleTimeMs(Math.max(0, System.currentTimeMillis() - getLastActivityTime()));
+		return stats;
+	}
+
 	public void close() {
 
 		if (mPacketSenderScheduledFuture != null && mPacketSenderScheduledFuture.isDone() == false) {
@@ -760,11 +1028,14 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 		}
 		
 		if (frameSender != null) {
+			RtspPacer.getInstance().cancel(frameSender);
 			frameSender.closeMuxer(true);
 			frameSender = null;
 		}
 
 
+		releaseLiveStream();
+
 		if (frameReceiver != null) {
 			frameReceiver.closeMuxer();
 			frameReceiver = null;
@@ -775,6 +1046,44 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 			mPacketReceiverScheduledFuture.cancel(false);
 		}
 
+		releaseServerPorts();
+	}
+
+	private void releaseLiveStream() {
+		if (multicastSink != null) {
+			//multicast sink belongs to the packetizer and it's closed with the packetizer
+			if (multicastJoined) {
+				multicastSink.leave();
+				multicastJoined = false;
+			}
+			multicastSink = null;
+		}
+		if (livePacketizer != null) {
+			livePacketizer.removeSink(liveSink);
+			livePacketizer.release();
+			livePacketizer = null;
+		}
+		if (liveSink != null) {
+			liveSink.close();
+			liveSink = null;
+		}
+	}
+
+	/**
+	 * Gives back the udp ports of the streams. Allocator does not give them to other sessions during the quarantine
+	 * period so late packets of this session are not received by another session
+	 */
+	private void releaseServerPorts() {
+		if (serverPort == null) {
+			return;
+		}
+		for (int[] portPair : serverPort) {
+			if (portPair[0] != 0) {
+				UdpPortAllocator.getInstance().release(portPair[0]);
+				portPair[0] = 0;
+				portPair[1] = 0;
+			}
+		}
 	}
 	
 	public void muxingFinished(Runnable runnable) {
@@ -782,6 +1091,9 @@ public class RtspConnection  extends RTMPMinaConnection implements IMuxerListene
 			logger.debug("cancelling packet sender scheduledFuture");
 			mPacketSenderScheduledFuture.cancel(false);
 		}
+		if (runnable instanceof RtspPacer.PacedTask) {
+			RtspPacer.getInstance().cancel((RtspPacer.PacedTask) runnable);
+		}
 	}
 
 
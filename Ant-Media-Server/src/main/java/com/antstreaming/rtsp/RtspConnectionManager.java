@@ -1,11 +1,20 @@
 package com.antstreaming.rtsp;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.mina.core.session.IoSession;
 import org.red5.server.api.Red5;
 import org.red5.server.net.IConnectionManager;
 import org.slf4j.Logger;
@@ -15,7 +24,15 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
-public class RtspConnectionManager implements IConnectionManager<RtspConnection>, ApplicationContextAware {
+/**
+ * Keeps the RTSP connections and closes the connections that are idle longer than the session timeout.
+ *
+ * Connections are kept in a hashed timing wheel by the time that their sessions time out. The wheel is advanced
+ * every {@link #REAPER_TICK_MS} and a connection is checked only when its slot comes, so the cost of a tick
+ * does not change with the number of connections. A connection that has been active since it's put to the wheel
+ * is put back by its new timeout.
+ */
+public class RtspConnectionManager implements IConnectionManager<RtspConnection>, ApplicationContextAware, RtspConnectionManagerMXBean {
 
 	private static Logger logger = LoggerFactory.getLogger(RtspConnectionManager.class);
 
@@ -29,6 +46,42 @@ public class RtspConnectionManager implements IConnectionManager<RtspConnection>
 
 	private ThreadPoolTaskScheduler taskScheduler;
 
+	/**
+	 * Multicast group that live streams are sent to. Multicast transport is not supported if it's not set
+	 */
+	private String multicastGroup;
+
+	private int multicastTtl = 16;
+
+	public static final int REAPER_TICK_MS = 1000;
+
+	/**
+	 * Number of slots in the wheel. Timeouts that are longer than a turn of the wheel wait for more turns
+	 */
+	public static final int REAPER_WHEEL_SIZE = 64;
+
+	/**
+	 * Time in milliseconds that a connection is closed after its last activity
+	 */
+	private long sessionTimeoutMs = RtspConnection.SESSION_TIMEOUT_SECONDS * 1000L;
+
+	private final List<List<RtspConnection>> reaperSlots = new ArrayList<>(REAPER_WHEEL_SIZE);
+
+	/**
+	 * Tick of the next slot that is checked. Guarded by the reaper slots
+	 */
+	private long reaperTick = -1;
+
+	private ScheduledFuture<?> reaperFuture;
+
+	private final AtomicLong reapedConnectionCount = new AtomicLong();
+
+	public RtspConnectionManager() {
+		for (int i = 0; i < REAPER_WHEEL_SIZE; i++) {
+			reaperSlots.add(new ArrayList<>());
+		}
+	}
+
 	public static RtspConnectionManager getInstance() {
 		if (instance == null) {
 			logger.trace("Connection manager instance does not exist");
@@ -74,6 +127,30 @@ public class RtspConnectionManager implements IConnectionManager<RtspConnection>
 		logger.debug("setting task scheduler");
 	}
 
+	public String getMulticastGroup() {
+		return multicastGroup;
+	}
+
+	public void setMulticastGroup(String multicastGroup) {
+		this.multicastGroup = multicastGroup;
+	}
+
+	public int getMulticastTtl() {
+		return multicastTtl;
+	}
+
+	public void setMulticastTtl(int multicastTtl) {
+		this.multicastTtl = multicastTtl;
+	}
+
+	public long getSessionTimeoutMs() {
+		return sessionTimeoutMs;
+	}
+
+	public void setSessionTimeoutMs(long sessionTimeoutMs) {
+		this.sessionTimeoutMs = sessionTimeoutMs;
+	}
+
 	@Override
 	public RtspConnection getConnection(int clientId) {
 		throw new UnsupportedOperationException("Not implemented");
@@ -104,11 +181,10 @@ public class RtspConnectionManager implements IConnectionManager<RtspConnection>
 		try {
 			// create connection
 			conn = (RtspConnection) connCls.newInstance();
-			connMap.put(conn.getSessionId(), conn);
 			// add to local map
-			logger.trace("Connections: {}", conns.incrementAndGet());
+			addConnection(conn);
 			// set the scheduler
-			logger.debug("applicationContext.containsBean(rtmpScheduler) : " + applicationContext.containsBean("rtmpScheduler"));
+			logger.debug("applicationContext.containsBean(rtmpScheduler) : " + (applicationContext != null && applicationContext.containsBean("rtmpScheduler")));
 			logger.debug("connection scheduler : "  + conn.getScheduler() + " manager scheduler:" + getTaskScheduler());
 			conn.setScheduler(getTaskScheduler());
 			logger.trace("Connection created: {}", conn);
@@ -118,6 +194,16 @@ public class RtspConnectionManager implements IConnectionManager<RtspConnection>
 		return conn;
 	}
 
+	/**
+	 * Adds the connection to the map and to the idle reaper
+	 */
+	public void addConnection(RtspConnection conn) {
+		connMap.put(conn.getSessionId(), conn);
+		logger.trace("Connections: {}", conns.incrementAndGet());
+		addToReaper(conn, System.currentTimeMillis() + sessionTimeoutMs);
+		startReaper();
+	}
+
 	@Override
 	public RtspConnection createConnection(Class<?> connCls, String sessionId) {
 		throw new UnsupportedOperationException("Not implemented");
@@ -143,4 +229,94 @@ public class RtspConnectionManager implements IConnectionManager<RtspConnection>
 		return conn;
 	}
 
+	/**
+	 * Starts advancing the reaper wheel with the task scheduler
+	 */
+	private synchronized void startReaper() {
+		if (reaperFuture != null || taskScheduler == null) {
+			return;
+		}
+		reaperFuture = taskScheduler.scheduleAtFixedRate(() -> reapIdleConnections(System.currentTimeMillis()), REAPER_TICK_MS);
+		try {
+			ObjectName objectName = new ObjectName("org.red5.server:type=RtspConnectionManager");
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			if (!mbs.isRegistered(objectName)) {
+				mbs.registerMBean(new StandardMBean(this, RtspConnectionManagerMXBean.class, true), objectName);
+			}
+		} catch (Exception e) {
+			logger.warn("Error on jmx registration {}", e.getMessage());
+		}
+	}
+
+	private void addToReaper(RtspConnection conn, long timeoutTime) {
+		synchronized (reaperSlots) {
+			long tick = timeoutTime / REAPER_TICK_MS;
+			if (tick < reaperTick) {
+				tick = reaperTick;
+			}
+			reaperSlots.get((int) (tick % REAPER_WHEEL_SIZE)).add(conn);
+		}
+	}
+
+	/**
+	 * Checks the slots until now and closes the connections that are idle longer than the session timeout
+	 * @param now current time in milliseconds
+	 */
+	public void reapIdleConnections(long now) {
+		List<RtspConnection> checkedConnections = new ArrayList<>();
+		synchronized (reaperSlots) {
+			long nowTick = now / REAPER_TICK_MS;
+			if (reaperTick == -1) {
+				reaperTick = nowTick;
+			}
+			//at most one turn is checked because all slots are visited in a turn
+			long lastTick = Math.min(nowTick, reaperTick + REAPER_WHEEL_SIZE - 1);
+			for (; reaperTick <= lastTick; reaperTick++) {
+				List<RtspConnection> slot = reaperSlots.get((int) (reaperTick % REAPER_WHEEL_SIZE));
+				checkedConnections.addAll(slot);
+				slot.clear();
+			}
+			reaperTick = Math.max(reaperTick, nowTick);
+		}
+
+		for (RtspConnection conn : checkedConnections) {
+			if (connMap.get(conn.getSessionId()) != conn) {
+				//connection is already removed
+				continue;
+			}
+			long timeoutTime = conn.getLastActivityTime() + sessionTimeoutMs;
+			if (timeoutTime > now) {
+				addToReaper(conn, timeoutTime);
+			}
+			else if (removeConnection(conn.getSessionId()) == conn) {
+				logger.info("Closing rtsp connection {} that is idle for {} ms", conn.getSessionId(), now - conn.getLastActivityTime());
+				reapedConnectionCount.incrementAndGet();
+				IoSession session = conn.getSession();
+				if (session != null) {
+					session.closeNow();
+				}
+				conn.close();
+			}
+		}
+	}
+
+	@Override
+	public int getConnectionCount() {
+		return connMap.size();
+	}
+
+	@Override
+	public long getReapedConnectionCount() {
+		return reapedConnectionCount.get();
+	}
+
+	@Override
+	public List<RtspConnectionStats> getConnectionStats() {
+		List<RtspConnectionStats> statsList = new ArrayList<>(connMap.size());
+		for (RtspConnection conn : connMap.values()) {
+			statsList.add(conn.getStats());
+		}
+		return statsList;
+	}
+
 }
@@ -0,0 +1,33 @@
+package com.antstreaming.rtsp;
+
+import java.util.List;
+
+import javax.management.MXBean;
+
+/**
+ * JMX view of the RTSP connections that are kept by the {@link RtspConnectionManager}
+ */
+@MXBean
+public interface RtspConnectionManagerMXBean {
+
+	/**
+	 * Returns number of the open RTSP connections
+	 */
+	int getConnectionCount();
+
+	/**
+	 * Returns number of the connections that are closed because they are idle longer than the session timeout
+	 */
+	long getReapedConnectionCount();
+
+	/**
+	 * Returns time in milliseconds that an idle connection is closed after its last activity
+	 */
+	long getSessionTimeoutMs();
+
+	/**
+	 * Returns packet, byte and send lag counters of the open connections
+	 */
+	List<RtspConnectionStats> getConnectionStats();
+
+}
@@ -0,0 +1,104 @@
+package com.antstreaming.rtsp;
+
+public class RtspConnectionStats {
+
+	private String sessionId;
+
+	private String remoteAddress;
+
+	private String streamName;
+
+	private long sentPacketCount;
+
+	private long sentByteCount;
+
+	private long receivedPacketCount;
+
+	private long receivedByteCount;
+
+	private long maxSendLagMs;
+
+	private long idleTimeMs;
+
+	public RtspConnectionStats() {
+	}
+
+	public RtspConnectionStats(String sessionId, String remoteAddress, String streamName) {
+		this.setSessionId(sessionId);
+		this.setRemoteAddress(remoteAddress);
+		this.setStreamName(streamName);
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public void setSessionId(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public void setRemoteAddress(String remoteAddress) {
+		this.remoteAddress = remoteAddress;
+	}
+
+	public String getStreamName() {
+		return streamName;
+	}
+
+	public void setStreamName(String streamName) {
+		this.streamName = streamName;
+	}
+
+	public long getSentPacketCount() {
+		return sentPacketCount;
+	}
+
+	public void setSentPacketCount(long sentPacketCount) {
+		this.sentPacketCount = sentPacketCount;
+	}
+
+	public long getSentByteCount() {
+		return sentByteCount;
+	}
+
+	public void setSentByteCount(long sentByteCount) {
+		this.sentByteCount = sentByteCount;
+	}
+
+	public long getReceivedPacketCount() {
+		return receivedPacketCount;
+	}
+
+	public void setReceivedPacketCount(long receivedPacketCount) {
+		this.receivedPacketCount = receivedPacketCount;
+	}
+
+	public long getReceivedByteCount() {
+		return receivedByteCount;
+	}
+
+	public void setReceivedByteCount(long receivedByteCount) {
+		this.receivedByteCount = receivedByteCount;
+	}
+
+	public long getMaxSendLagMs() {
+		return maxSendLagMs;
+	}
+
+	public void setMaxSendLagMs(long maxSendLagMs) {
+		this.maxSendLagMs = maxSendLagMs;
+	}
+
+	public long getIdleTimeMs() {
+		return idleTimeMs;
+	}
+
+	public void setIdleTimeMs(long idleTimeMs) {
+		this.idleTimeMs = idleTimeMs;
+	}
+
+}
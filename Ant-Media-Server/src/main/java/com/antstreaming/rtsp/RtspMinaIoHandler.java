@@ -75,7 +75,10 @@ public class RtspMinaIoHandler extends IoHandlerAdapter {
 		String sessionId = (String) session.getAttribute(RTMPConnection.RTMP_SESSION_ID);
 		RtspConnection rtspConnection = RtspConnectionManager.getInstance().removeConnection(sessionId);
 		session.closeNow();
-		rtspConnection.close();
+		//connection is already closed if it's reaped by the connection manager
+		if (rtspConnection != null) {
+			rtspConnection.close();
+		}
 	}
 
 	public void exceptionCaught(IoSession session, Throwable cause) {
@@ -0,0 +1,259 @@
+package com.antstreaming.rtsp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the packet senders of all RTSP players by their due times.
+ *
+ * Senders are kept in a hashed timing wheel that is advanced every {@link #TICK_MS} by a single thread.
+ * Senders whose time has come are run by a fixed number of worker threads, so the number of threads does
+ * not change with the number of players. A sender returns its next due time after each run and it's put back
+ * to the wheel. A sender is never run by two threads at the same time.
+ */
+public class RtspPacer implements RtspPacerMXBean {
+
+	protected static Logger logger = LoggerFactory.getLogger(RtspPacer.class);
+
+	/**
+	 * Sender of a player
+	 */
+	public interface PacedTask {
+
+		/**
+		 * Sends the packets whose times have come
+		 * @param now current time in milliseconds
+		 * @return next due time in milliseconds or negative value if task should not be run anymore
+		 */
+		long sendDuePackets(long now);
+	}
+
+	public static final int TICK_MS = 5;
+
+	/**
+	 * Number of slots in the wheel. Due times that are later than a turn of the wheel wait for more turns
+	 */
+	public static final int WHEEL_SIZE = 512;
+
+	private static RtspPacer instance;
+
+	private static class Entry {
+		private final PacedTask task;
+		private long dueTime;
+		private volatile boolean cancelled = false;
+
+		Entry(PacedTask task, long dueTime) {
+			this.task = task;
+			this.dueTime = dueTime;
+		}
+	}
+
+	private final List<List<Entry>> slots = new ArrayList<>(WHEEL_SIZE);
+
+	private final Map<PacedTask, Entry> entries = new ConcurrentHashMap<>();
+
+	private final ExecutorService workers;
+
+	private final int workerCount;
+
+	private ScheduledExecutorService ticker;
+
+	/**
+	 * Tick of the next slot that is processed. Guarded by the slots
+	 */
+	private long currentTick = -1;
+
+	private final AtomicLong runCount = new AtomicLong();
+
+	private volatile long maxLagMs = 0;
+
+	/**
+	 * @param workers executor that runs the senders whose time has come
+	 * @param workerCount number of the threads of the executor
+	 */
+	public RtspPacer(ExecutorService workers, int workerCount) {
+		this.workers = workers;
+		this.workerCount = workerCount;
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			slots.add(new ArrayList<>());
+		}
+	}
+
+	public static synchronized RtspPacer getInstance() {
+		if (instance == null) {
+			int workerCount = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+			instance = new RtspPacer(Executors.newFixedThreadPool(workerCount), workerCount);
+			instance.start();
+			try {
+				ObjectName objectName = new ObjectName("org.red5.server:type=RtspPacer");
+				MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+				if (!mbs.isRegistered(objectName)) {
+					mbs.registerMBean(new StandardMBean(instance, RtspPacerMXBean.class, true), objectName);
+				}
+			} catch (Exception e) {
+				logger.warn("Error on jmx registration {}", e.getMessage());
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Starts the thread that advances the wheel
+	 */
+	public synchronized void start() {
+		if (ticker == null) {
+			ticker = Executors.newSingleThreadScheduledExecutor();
+			ticker.scheduleAtFixedRate(() -> advance(System.currentTimeMillis()), TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+			ticker = null;
+		}
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Schedules the task to run as soon as possible. Task that is already scheduled is scheduled again
+	 */
+	public void schedule(PacedTask task) {
+		Entry entry = new Entry(task, System.currentTimeMillis());
+		Entry oldEntry = entries.put(task, entry);
+		if (oldEntry != null) {
+			oldEntry.cancelled = true;
+		}
+		addToWheel(entry);
+	}
+
+	/**
+	 * Stops running the task. A run that has already started is completed
+	 */
+	public void cancel(PacedTask task) {
+		Entry entry = entries.remove(task);
+		if (entry != null) {
+			entry.cancelled = true;
+		}
+	}
+
+	public boolean isScheduled(PacedTask task) {
+		return entries.containsKey(task);
+	}
+
+	private void addToWheel(Entry entry) {
+		synchronized (slots) {
+			long tick = entry.dueTime / TICK_MS;
+			if (tick < currentTick) {
+				tick = currentTick;
+			}
+			slots.get((int) (tick % WHEEL_SIZE)).add(entry);
+		}
+	}
+
+	/**
+	 * Processes the slots until now and gives the due tasks to the workers
+	 * @param now current time in milliseconds
+	 */
+	public void advance(long now) {
+		List<Entry> dueEntries = null;
+		synchronized (slots) {
+			long nowTick = now / TICK_MS;
+			if (currentTick == -1) {
+				currentTick = nowTick;
+			}
+			//at most one turn is processed because all slots are visited in a turn
+			long lastTick = Math.min(nowTick, currentTick + WHEEL_SIZE - 1);
+			for (; currentTick <= lastTick; currentTick++) {
+				List<Entry> slot = slots.get((int) (currentTick % WHEEL_SIZE));
+				Iterator<Entry> iterator = slot.iterator();
+				while (iterator.hasNext()) {
+					Entry entry = iterator.next();
+					if (entry.cancelled) {
+						iterator.remove();
+					}
+					else if (entry.dueTime / TICK_MS <= nowTick) {
+						iterator.remove();
+						if (dueEntries == null) {
+							dueEntries = new ArrayList<>();
+						}
+						dueEntries.add(entry);
+					}
+				}
+			}
+			currentTick = Math.max(currentTick, nowTick);
+		}
+
+		if (dueEntries != null) {
+			for (Entry entry : dueEntries) {
+				workers.execute(() -> runEntry(entry));
+			}
+		}
+	}
+
+	private void runEntry(Entry entry) {
+		if (entry.cancelled) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long lag = now - entry.dueTime;
+		if (lag > maxLagMs) {
+			maxLagMs = lag;
+		}
+		runCount.incrementAndGet();
+
+		long nextDueTime;
+		try {
+			nextDueTime = entry.task.sendDuePackets(now);
+		}
+		catch (Exception e) {
+			logger.warn("Exception in rtsp sender {}", e.getMessage());
+			nextDueTime = -1;
+		}
+
+		if (nextDueTime < 0) {
+			entries.remove(entry.task, entry);
+			return;
+		}
+		if (!entry.cancelled) {
+			entry.dueTime = nextDueTime;
+			addToWheel(entry);
+		}
+	}
+
+	@Override
+	public int getScheduledTaskCount() {
+		return entries.size();
+	}
+
+	@Override
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	@Override
+	public long getRunCount() {
+		return runCount.get();
+	}
+
+	@Override
+	public long getMaxLagMs() {
+		return maxLagMs;
+	}
+}
@@ -0,0 +1,31 @@
+package com.antstreaming.rtsp;
+
+import javax.management.MXBean;
+
+/**
+ * JMX view of the {@link RtspPacer} that sends the packets of the RTSP players
+ */
+@MXBean
+public interface RtspPacerMXBean {
+
+	/**
+	 * Returns number of the senders that are waiting in the timing wheel or running
+	 */
+	int getScheduledTaskCount();
+
+	/**
+	 * Returns number of the threads that run the senders
+	 */
+	int getWorkerCount();
+
+	/**
+	 * Returns total number of the sender runs
+	 */
+	long getRunCount();
+
+	/**
+	 * Returns maximum delay in milliseconds between the due time and the start of a sender run
+	 */
+	long getMaxLagMs();
+
+}
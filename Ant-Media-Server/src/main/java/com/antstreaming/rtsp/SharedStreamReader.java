@@ -0,0 +1,541 @@
+package com.antstreaming.rtsp;
+
+import static org.bytedeco.javacpp.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.javacpp.avcodec.av_packet_ref;
+import static org.bytedeco.javacpp.avformat.av_read_frame;
+import static org.bytedeco.javacpp.avformat.av_sdp_create;
+import static org.bytedeco.javacpp.avformat.avformat_close_input;
+import static org.bytedeco.javacpp.avformat.avformat_find_stream_info;
+import static org.bytedeco.javacpp.avformat.avformat_open_input;
+import static org.bytedeco.javacpp.avutil.AV_NOPTS_VALUE;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_VIDEO;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avformat;
+import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avutil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.streamsource.AVPacketPool;
+
+/**
+ * Reads and demuxes a stream once for all RTSP players that play it from the same start position.
+ *
+ * Readers are shared by (url, start position). Players that join a reader get the packets that are read after
+ * they join, so a reader of a file is only joined before it reads its first packet. A player that joins later
+ * or seeks to another position gets a new reader. Readers of the live streams are always joined and the players
+ * that join after the first packet start with the next key frame.
+ *
+ * Note that reads of a file are not shared by the players that start playing it at different times. Only the players
+ * that start within the same read-ahead window share a reader, e.g. the players that send PLAY at the same time, 
+ * because there is no packet cache that a later player can start from. Demuxing is shared for live streams only.
+ *
+ * Reading is requested by the players whose queues are getting empty and packets are read on the reader threads
+ * so that blocking demux calls do not block the pacer workers. Each packet is given to all subscribers with 
+ * av_packet_ref so that packet data is shared and it's freed when the last subscriber releases its packet.
+ */
+public class SharedStreamReader {
+
+	private static Logger logger = LoggerFactory.getLogger(SharedStreamReader.class);
+
+	/**
+	 * Subscriber that has this number of packets in its queue does not consume fast enough. Its queue is 
+	 * dropped and it continues with the next key frame
+	 */
+	public static final int MAX_QUEUED_PACKETS = 512;
+
+	/**
+	 * Reader reads packets while a subscriber has less packets than this value in its queue
+	 */
+	public static final int READ_AHEAD_PACKETS = 64;
+
+	/**
+	 * Maximum number of packets that are read in a single read task so that a reader does not keep a thread
+	 */
+	private static final int MAX_PACKETS_PER_READ_TASK = 32;
+
+	public static final int MAX_READER_THREADS = 256;
+
+	/**
+	 * Rejected read requests are logged once in this period because they are repeated on each tick of the players
+	 */
+	private static final long REJECTION_LOG_PERIOD_MS = 10000;
+
+	private static final AtomicLong lastRejectionLogTime = new AtomicLong();
+
+	private static final AtomicInteger rejectedReadCount = new AtomicInteger();
+
+	/**
+	 * Runs the read tasks. A reader has at most one task so the number of threads is limited by the number of 
+	 * readers that are being read at the same time
+	 */
+	private static final ExecutorService readExecutor = createReadExecutor();
+
+	/**
+	 * Readers that can be joined by (url, start position). Guarded by the class lock
+	 */
+	private static final Map<String, SharedStreamReader> readers = new HashMap<>();
+
+	public static class Subscriber {
+		private final ConcurrentLinkedQueue<AVPacket> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger queueSize = new AtomicInteger();
+		private volatile long droppedPacketCount = 0;
+
+		/**
+		 * Packets are dropped until the next key frame. Guarded by the subscriber lock
+		 */
+		private boolean waitingKeyFrame = false;
+
+		private boolean closed = false;
+
+		/**
+		 * @return next packet or null if queue is empty. Packet should be given back to the {@link AVPacketPool}
+		 */
+		public AVPacket poll() {
+			AVPacket packet = queue.poll();
+			if (packet != null) {
+				queueSize.decrementAndGet();
+			}
+			return packet;
+		}
+
+		/**
+		 * Adds a reference of the packet to the queue
+		 * @return false if packet is dropped
+		 */
+		private synchronized boolean offer(AVPacket source, boolean keyPacket, AVPacketPool packetPool) {
+			if (closed) {
+				return false;
+			}
+			if (queueSize.get() >= MAX_QUEUED_PACKETS) {
+				//dropping a single packet would break the decoding until the next key frame anyway
+				droppedPacketCount += clear(packetPool);
+				waitingKeyFrame = true;
+			}
+			if (waitingKeyFrame) {
+				if (!keyPacket) {
+					droppedPacketCount++;
+					return false;
+				}
+				waitingKeyFrame = false;
+			}
+			AVPacket packet = packetPool.acquire();
+			av_packet_ref(packet, source);
+			queue.offer(packet);
+			queueSize.incrementAndGet();
+			return true;
+		}
+
+		private int clear(AVPacketPool packetPool) {
+			int count = 0;
+			AVPacket packet;
+			while ((packet = poll()) != null) {
+				packetPool.release(packet);
+				count++;
+			}
+			return count;
+		}
+
+		private synchronized void close(AVPacketPool packetPool) {
+			closed = true;
+			clear(packetPool);
+		}
+
+		public int getQueueSize() {
+			return queueSize.get();
+		}
+
+		public long getDroppedPacketCount() {
+			return droppedPacketCount;
+		}
+
+		public synchronized boolean isWaitingKeyFrame() {
+			return waitingKeyFrame;
+		}
+	}
+
+	private final String url;
+
+	private final long startPositionUs;
+
+	private final String key;
+
+	private final AVPacketPool packetPool = AVPacketPool.getInstance();
+
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+	private AVFormatContext inputFormatContext;
+
+	private String sdpDescription;
+
+	/**
+	 * Index of the video stream whose key frames are waited by the subscribers or -1 if there is no video stream
+	 */
+	private int keyStreamIndex = -1;
+
+	/**
+	 * Number of the players that use the reader. Guarded by the class lock
+	 */
+	private int referenceCount = 0;
+
+	private volatile boolean endOfStream = false;
+
+	/**
+	 * Reader is released by all players. Input is closed after the read that is in progress. Guarded by the reader lock
+	 */
+	private boolean closed = false;
+
+	/**
+	 * A packet is being read. Guarded by the reader lock
+	 */
+	private boolean reading = false;
+
+	/**
+	 * A read task is scheduled or running. Guarded by the reader lock
+	 */
+	private boolean readScheduled = false;
+
+	private volatile long readPacketCount = 0;
+
+	private SharedStreamReader(String url, long startPositionUs) {
+		this.url = url;
+		this.startPositionUs = startPositionUs;
+		this.key = getKey(url, startPositionUs);
+	}
+
+	private static String getKey(String url, long startPositionUs) {
+		return url + "@" + startPositionUs;
+	}
+
+	private static ExecutorService createReadExecutor() {
+		return new ThreadPoolExecutor(0, MAX_READER_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "rtsp-stream-reader");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns a reader of the url that starts from the position. Existing reader is returned if it can be joined.
+	 * Reader should be released with {@link #release()}
+	 * @param url url of the stream
+	 * @param startPositionUs start position in microseconds
+	 * @return reader or null if stream cannot be opened
+	 */
+	public static SharedStreamReader acquire(String url, long startPositionUs) {
+		synchronized (SharedStreamReader.class) {
+			SharedStreamReader reader = readers.get(getKey(url, startPositionUs));
+			if (reader != null && reader.isJoinable()) {
+				reader.referenceCount++;
+				return reader;
+			}
+		}
+
+		//stream is opened without holding the lock because opening may take time
+		SharedStreamReader reader = new SharedStreamReader(url, startPositionUs);
+		if (!reader.open()) {
+			reader.closeInput();
+			return null;
+		}
+
+		synchronized (SharedStreamReader.class) {
+			reader.referenceCount = 1;
+			readers.put(reader.key, reader);
+		}
+		return reader;
+	}
+
+	/**
+	 * @return number of the readers that can be joined
+	 */
+	public static synchronized int getReaderCount() {
+		return readers.size();
+	}
+
+	/**
+	 * Decrements the reference count and closes the reader if it's not used anymore
+	 */
+	public void release() {
+		synchronized (SharedStreamReader.class) {
+			referenceCount--;
+			if (referenceCount > 0) {
+				return;
+			}
+			if (readers.get(key) == this) {
+				readers.remove(key);
+			}
+		}
+		synchronized (this) {
+			closed = true;
+			if (reading) {
+				//input is closed by the reader thread when the read returns
+				return;
+			}
+		}
+		closeInput();
+	}
+
+	private synchronized boolean open() {
+		inputFormatContext = avformat.avformat_alloc_context();
+		int ret = avformat_open_input(inputFormatContext, url, null, null);
+		if (ret < 0) {
+			logger.warn("could not open input {} error: {}", url, getErrorDefinition(ret));
+			//context is freed by avformat_open_input on failure
+			inputFormatContext = null;
+			return false;
+		}
+
+		ret = avformat_find_stream_info(inputFormatContext, (PointerPointer<?>)null);
+		if (ret < 0) {
+			logger.warn("could not find stream info {} error: {}", url, getErrorDefinition(ret));
+			return false;
+		}
+
+		byte[] sdpData = new byte[16384];
+		ret = av_sdp_create(inputFormatContext, 1, sdpData, sdpData.length);
+		if (ret < 0) {
+			logger.warn("could not create sdp {} error: {}", url, getErrorDefinition(ret));
+			return false;
+		}
+
+		String sdpString = new String(sdpData);
+		if (sdpString.indexOf("rtpmap") == -1) {
+			logger.warn("sdp description does not have rtpmap field");
+			return false;
+		}
+		sdpDescription = sdpString.trim();
+
+		for (int i = 0; i < inputFormatContext.nb_streams(); i++) {
+			if (inputFormatContext.streams(i).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO) {
+				keyStreamIndex = i;
+				break;
+			}
+		}
+
+		if (startPositionUs > 0) {
+			ret = avformat.av_seek_frame(inputFormatContext, -1, startPositionUs, avformat.AVSEEK_FLAG_FRAME);
+			if (ret < 0) {
+				logger.warn("cannot seek {} to {} error: {}", url, startPositionUs, getErrorDefinition(ret));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized void closeInput() {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.close(packetPool);
+		}
+		subscribers.clear();
+		if (inputFormatContext != null) {
+			avformat_close_input(inputFormatContext);
+			inputFormatContext = null;
+		}
+	}
+
+	private static String getErrorDefinition(int errorCode) {
+		byte[] data = new byte[1024];
+		avutil.av_strerror(errorCode, data, data.length);
+		return new String(data).trim();
+	}
+
+	/**
+	 * Live streams do not have duration and they are always joined
+	 */
+	private boolean isLive() {
+		return inputFormatContext == null || inputFormatContext.duration() == AV_NOPTS_VALUE || inputFormatContext.duration() <= 0;
+	}
+
+	private synchronized boolean isJoinable() {
+		if (closed || endOfStream || inputFormatContext == null) {
+			return false;
+		}
+		return isLive() || readPacketCount == 0;
+	}
+
+	/**
+	 * @return true if a player that plays from the position gets the packets from the position by subscribing to this reader
+	 */
+	public synchronized boolean canStartFrom(long positionUs) {
+		if (closed || endOfStream || inputFormatContext == null) {
+			return false;
+		}
+		return isLive() || (startPositionUs == positionUs && readPacketCount == 0);
+	}
+
+	/**
+	 * Subscriber of a reader that has already read packets starts with the next key frame
+	 */
+	public synchronized Subscriber subscribe() {
+		Subscriber subscriber = new Subscriber();
+		subscriber.waitingKeyFrame = readPacketCount > 0;
+		subscribers.add(subscriber);
+		return subscriber;
+	}
+
+	public synchronized void unsubscribe(Subscriber subscriber) {
+		if (subscriber != null) {
+			subscribers.remove(subscriber);
+			subscriber.close(packetPool);
+		}
+	}
+
+	/**
+	 * Schedules a read task if it's not scheduled. It's called by the players whose queues are getting empty 
+	 * and it does not block
+	 */
+	public void requestPackets() {
+		synchronized (this) {
+			if (readScheduled || closed || endOfStream) {
+				return;
+			}
+			readScheduled = true;
+		}
+		try {
+			readExecutor.execute(this::readPackets);
+		}
+		catch (RejectedExecutionException e) {
+			logRejectedRead();
+			synchronized (this) {
+				readScheduled = false;
+			}
+		}
+	}
+
+	private void logRejectedRead() {
+		rejectedReadCount.incrementAndGet();
+		long now = System.currentTimeMillis();
+		long lastLogTime = lastRejectionLogTime.get();
+		if (now - lastLogTime >= REJECTION_LOG_PERIOD_MS && lastRejectionLogTime.compareAndSet(lastLogTime, now)) {
+			logger.warn("Reader threads are busy, {} read requests are rejected since the last log. Last one is {}", 
+					rejectedReadCount.getAndSet(0), url);
+		}
+	}
+
+	private void readPackets() {
+		try {
+			for (int i = 0; i < MAX_PACKETS_PER_READ_TASK && needsPackets(); i++) {
+				if (!readPacket()) {
+					break;
+				}
+			}
+		}
+		finally {
+			synchronized (this) {
+				readScheduled = false;
+			}
+		}
+	}
+
+	private boolean needsPackets() {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.getQueueSize() < READ_AHEAD_PACKETS) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the next packet and gives it to all subscribers. It blocks until the packet is read so it's called on 
+	 * the reader threads
+	 * @return false if a packet is not read
+	 */
+	public boolean readPacket() {
+		AVFormatContext context;
+		synchronized (this) {
+			if (closed || endOfStream || reading || inputFormatContext == null) {
+				return false;
+			}
+			reading = true;
+			context = inputFormatContext;
+		}
+
+		AVPacket pkt = packetPool.acquire();
+		int ret = av_read_frame(context, pkt);
+
+		boolean closeInput;
+		synchronized (this) {
+			reading = false;
+			closeInput = closed;
+			if (ret < 0) {
+				if (!closed) {
+					logger.warn("cannot read frame from {}, end of stream. Error: {}", url, getErrorDefinition(ret));
+				}
+				endOfStream = true;
+			}
+			else if (!closed) {
+				//packet is given to the subscribers under the lock so that a new subscriber does not miss a part of it
+				distribute(pkt);
+			}
+		}
+		packetPool.release(pkt);
+
+		if (closeInput) {
+			closeInput();
+			return false;
+		}
+		return ret >= 0;
+	}
+
+	private void distribute(AVPacket pkt) {
+		readPacketCount++;
+
+		boolean keyPacket = (pkt.flags() & AV_PKT_FLAG_KEY) != 0 
+				&& (keyStreamIndex == -1 || pkt.stream_index() == keyStreamIndex);
+		for (Subscriber subscriber : subscribers) {
+			subscriber.offer(pkt, keyPacket, packetPool);
+		}
+	}
+
+	public AVFormatContext getInputFormatContext() {
+		return inputFormatContext;
+	}
+
+	public String getSdpDescription() {
+		return sdpDescription;
+	}
+
+	public long getDuration() {
+		return inputFormatContext != null ? inputFormatContext.duration() : 0;
+	}
+
+	public int getStreamCount() {
+		return inputFormatContext != null ? inputFormatContext.nb_streams() : 0;
+	}
+
+	public boolean isEndOfStream() {
+		return endOfStream;
+	}
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	public long getReadPacketCount() {
+		return readPacketCount;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public long getStartPositionUs() {
+		return startPositionUs;
+	}
+}
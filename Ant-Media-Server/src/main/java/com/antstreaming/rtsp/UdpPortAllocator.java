@@ -0,0 +1,197 @@
+package com.antstreaming.rtsp;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.BitSet;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates even/odd UDP port pairs for the RTP and RTCP packets of the RTSP sessions.
+ *
+ * Pairs are kept in a bitmap and they are given back with {@link #release(int)} when the session
+ * is closed. A released pair is not allocated again during the quarantine period so that late packets
+ * of the old session are not received by a new session. Ports of a pair are checked by binding a datagram
+ * socket before they are returned because other processes may use some ports in the range.
+ */
+public class UdpPortAllocator implements UdpPortAllocatorMXBean {
+
+	protected static Logger logger = LoggerFactory.getLogger(UdpPortAllocator.class);
+
+	public static final int DEFAULT_QUARANTINE_MS = 30000;
+
+	private static UdpPortAllocator instance;
+
+	private final int minPort;
+
+	private final int pairCount;
+
+	private final long quarantineMs;
+
+	/**
+	 * Bit of a pair is set while it's allocated
+	 */
+	private final BitSet allocatedPairs;
+
+	/**
+	 * Release time of the pairs in milliseconds, zero if pair is never released
+	 */
+	private final long[] releaseTimes;
+
+	/**
+	 * Pair index that search starts so that ports are used in round robin
+	 */
+	private int nextPairIndex = 0;
+
+	private int allocatedPairCount = 0;
+
+	private long failedAllocationCount = 0;
+
+	/**
+	 * @param minPort first port of the range, it's rounded up to an even number
+	 * @param maxPort last port of the range
+	 * @param quarantineMs duration that a released pair is not allocated
+	 */
+	public UdpPortAllocator(int minPort, int maxPort, long quarantineMs) {
+		this.minPort = minPort + (minPort % 2);
+		this.pairCount = Math.max((maxPort - this.minPort + 1) / 2, 0);
+		this.quarantineMs = quarantineMs;
+		this.allocatedPairs = new BitSet(pairCount);
+		this.releaseTimes = new long[pairCount];
+	}
+
+	public static synchronized UdpPortAllocator getInstance() {
+		if (instance == null) {
+			instance = new UdpPortAllocator(RtspConnection.UDP_PORT_MIN, RtspConnection.UDP_PORT_MAX, DEFAULT_QUARANTINE_MS);
+			try {
+				ObjectName objectName = new ObjectName("org.red5.server:type=UdpPortAllocator");
+				MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+				if (!mbs.isRegistered(objectName)) {
+					mbs.registerMBean(new StandardMBean(instance, UdpPortAllocatorMXBean.class, true), objectName);
+				}
+			} catch (Exception e) {
+				logger.warn("Error on jmx registration {}", e.getMessage());
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Allocates a port pair
+	 * @return array of the even RTP port and the odd RTCP port or null if there is no available pair
+	 */
+	public int[] allocate() {
+		return allocate(System.currentTimeMillis());
+	}
+
+	public synchronized int[] allocate(long now) {
+		for (int i = 0; i < pairCount; i++) {
+			int pairIndex = (nextPairIndex + i) % pairCount;
+			if (allocatedPairs.get(pairIndex) || isQuarantined(pairIndex, now)) {
+				continue;
+			}
+
+			int rtpPort = minPort + pairIndex * 2;
+			if (!isBindable(rtpPort) || !isBindable(rtpPort + 1)) {
+				logger.debug("Port pair {}-{} is in use by another process", rtpPort, rtpPort + 1);
+				continue;
+			}
+
+			allocatedPairs.set(pairIndex);
+			allocatedPairCount++;
+			nextPairIndex = (pairIndex + 1) % pairCount;
+			return new int[] {rtpPort, rtpPort + 1};
+		}
+
+		failedAllocationCount++;
+		logger.warn("There is no available udp port pair in {}-{}", minPort, minPort + pairCount * 2 - 1);
+		return null;
+	}
+
+	/**
+	 * Gives back the pair of the port. Releasing a port that is not allocated is ignored
+	 * @param rtpPort even port of the pair
+	 */
+	public void release(int rtpPort) {
+		release(rtpPort, System.currentTimeMillis());
+	}
+
+	public synchronized void release(int rtpPort, long now) {
+		int pairIndex = getPairIndex(rtpPort);
+		if (pairIndex == -1 || !allocatedPairs.get(pairIndex)) {
+			return;
+		}
+		allocatedPairs.clear(pairIndex);
+		allocatedPairCount--;
+		releaseTimes[pairIndex] = now;
+	}
+
+	public synchronized boolean isAllocated(int rtpPort) {
+		int pairIndex = getPairIndex(rtpPort);
+		return pairIndex != -1 && allocatedPairs.get(pairIndex);
+	}
+
+	private int getPairIndex(int rtpPort) {
+		if (rtpPort < minPort || (rtpPort - minPort) % 2 != 0) {
+			return -1;
+		}
+		int pairIndex = (rtpPort - minPort) / 2;
+		return pairIndex < pairCount ? pairIndex : -1;
+	}
+
+	private boolean isQuarantined(int pairIndex, long now) {
+		return releaseTimes[pairIndex] != 0 && now - releaseTimes[pairIndex] < quarantineMs;
+	}
+
+	/**
+	 * Checks the port by binding a datagram socket without opening an io context
+	 */
+	protected boolean isBindable(int port) {
+		try (DatagramSocket socket = new DatagramSocket(null)) {
+			socket.setReuseAddress(false);
+			socket.bind(new InetSocketAddress(port));
+			return true;
+		} catch (SocketException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized int getAllocatedPairCount() {
+		return allocatedPairCount;
+	}
+
+	@Override
+	public int getPairCount() {
+		return pairCount;
+	}
+
+	@Override
+	public synchronized int getQuarantinedPairCount() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (int i = 0; i < pairCount; i++) {
+			if (!allocatedPairs.get(i) && isQuarantined(i, now)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized double getUtilization() {
+		return pairCount == 0 ? 1 : (double) allocatedPairCount / pairCount;
+	}
+
+	@Override
+	public synchronized long getFailedAllocationCount() {
+		return failedAllocationCount;
+	}
+}
@@ -0,0 +1,36 @@
+package com.antstreaming.rtsp;
+
+import javax.management.MXBean;
+
+/**
+ * JMX view of the UDP port pairs allocated by {@link UdpPortAllocator}
+ */
+@MXBean
+public interface UdpPortAllocatorMXBean {
+
+	/**
+	 * Returns number of port pairs that are allocated by the RTSP sessions
+	 */
+	int getAllocatedPairCount();
+
+	/**
+	 * Returns number of port pairs in the port range
+	 */
+	int getPairCount();
+
+	/**
+	 * Returns number of released port pairs that are not allocated during the quarantine period
+	 */
+	int getQuarantinedPairCount();
+
+	/**
+	 * Returns ratio of the allocated port pairs to all port pairs
+	 */
+	double getUtilization();
+
+	/**
+	 * Returns number of allocations that fail because there is no available pair
+	 */
+	long getFailedAllocationCount();
+
+}
@@ -307,6 +307,42 @@ public class RTSPTransport {
 		this.interleaved = interleaved;
 	}
 
+	/**
+	 * @return RTP and RTCP channels of the interleaved parameter like "0-1" or null if it's not set or not valid.
+	 *         RTCP channel is the next channel if only one channel is set
+	 */
+	public int[] getInterleavedChannels() {
+		if (interleaved == null) {
+			return null;
+		}
+		try {
+			int separator = interleaved.indexOf('-');
+			int[] channels = new int[2];
+			if (separator == -1) {
+				channels[0] = Integer.parseInt(interleaved.trim());
+				channels[1] = channels[0] + 1;
+			}
+			else {
+				channels[0] = Integer.parseInt(interleaved.substring(0, separator).trim());
+				channels[1] = Integer.parseInt(interleaved.substring(separator + 1).trim());
+			}
+			if (channels[0] < 0 || channels[0] > 255 || channels[1] < 0 || channels[1] > 255) {
+				return null;
+			}
+			return channels;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param rtpChannel
+	 *        RTP channel of the interleaved parameter. RTCP channel is the next channel
+	 */
+	public void setInterleavedChannels(int rtpChannel) {
+		this.interleaved = rtpChannel + "-" + (rtpChannel + 1);
+	}
+
 	/**
 	 * @return Returns the layers.
 	 */
@@ -66,7 +66,16 @@ public enum RtspCode {
    * @return enum values
    */
   public static RtspCode fromString(String strCode) {
-    int intCode = Integer.valueOf(strCode);
+    return fromValue(Integer.valueOf(strCode));
+  }
+
+  /**
+   * Try to translare a numeric RTSP status code to the corresponding enum value.
+   * 
+   * @param intCode numeric code
+   * @return enum values
+   */
+  public static RtspCode fromValue(int intCode) {
     for (RtspCode code : RtspCode.values()) {
       if (code.value() == intCode) return code;
     }
@@ -1,12 +1,6 @@
 package com.antstreaming.rtsp.protocol;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.nio.CharBuffer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -16,7 +10,17 @@ import org.apache.mina.filter.codec.ProtocolDecoderOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
+/**
+ * Incremental RTSP message decoder that parses the bytes of the cumulative buffer directly.
+ *
+ * Complete lines are consumed from the buffer as soon as they are parsed and the decoder keeps the
+ * number of bytes that are already scanned in the current line, so partial messages are not parsed
+ * again when more data arrives. Known header names and methods are matched byte by byte without
+ * creating strings. Interleaved binary packets ('$' framing) that are sent by the clients over the RTSP
+ * connection are skipped.
+ *
+ * A decoder instance keeps the state of a single session and it's created per session by {@link MessageCodecFactory}
+ */
 public class RtspDecoder extends CumulativeProtocolDecoder {
 	private static Logger logger = LoggerFactory.getLogger(RtspDecoder.class);
 
@@ -24,195 +28,415 @@ public class RtspDecoder extends CumulativeProtocolDecoder {
 	 * State enumerator that indicates the reached state in the RTSP message decoding process.
 	 */
 	public enum ReadState {
-		/** Unrecoverable error occurred */
-		Failed,
-		/** Trying to resync */
-		Sync,
-		/** Waiting for a command */
-		Ready,
-		/** Reading interleaved packet */
-		Packet,
 		/** Reading command (request or command line) */
 		Command,
 		/** Reading headers */
 		Header,
 		/** Reading body (entity) */
-		Body,
-		/** Fully formed message */
-		Dispatch
+		Body
 	}
 
-	private static final Pattern rtspRequestPattern = Pattern.compile("([A-Z_]+) +([^ ]+) +RTSP/1.0");
-	private static final Pattern rtspResponsePattern = Pattern.compile("RTSP/1.0 ([0-9]+) .+");
-	private static final Pattern rtspHeaderPattern = Pattern
-			.compile("([a-zA-Z\\-\\_]+[0-9]?):\\s?(.*)");
+	public static final int MAX_LINE_LENGTH = 8192;
+
+	public static final int MAX_CONTENT_LENGTH = 1024 * 1024;
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	private static final byte SP = ' ';
+	private static final byte HT = '\t';
+	private static final byte COLON = ':';
+	private static final byte INTERLEAVED_MARKER = '$';
+
+	private static final byte[] RTSP_VERSION = "RTSP/1.0".getBytes(StandardCharsets.US_ASCII);
+
+	private static final RtspRequest.Verb[] VERBS = RtspRequest.Verb.values();
+	private static final byte[][] VERB_NAMES = new byte[VERBS.length][];
+
+	private static final RtspHeaderCode[] HEADERS = RtspHeaderCode.values();
+	private static final byte[][] HEADER_NAMES = new byte[HEADERS.length][];
+
+	static {
+		for (int i = 0; i < VERBS.length; i++) {
+			VERB_NAMES[i] = VERBS[i].name().getBytes(StandardCharsets.US_ASCII);
+		}
+		for (int i = 0; i < HEADERS.length; i++) {
+			HEADER_NAMES[i] = HEADERS[i].value().getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	private ReadState state = ReadState.Command;
+
+	private RtspMessage rtspMessage;
+
+	/**
+	 * Number of bytes from the start of the current line that are scanned and do not contain a line feed
+	 */
+	private int scannedLength = 0;
+
+	private int contentLength = 0;
+
+	/**
+	 * Reusable buffer for the header values. First byte is reserved for the leading space of the value
+	 */
+	private final byte[] valueBuffer = new byte[MAX_LINE_LENGTH + 1];
+
+	/**
+	 * Last decoded value of each known header. Values of the headers like Session, Transport and User-Agent 
+	 * do not change between the requests of a session so their strings are reused
+	 */
+	private final String[] lastHeaderValues = new String[HEADERS.length];
 
 	@Override
 	protected boolean doDecode(IoSession session, IoBuffer in, ProtocolDecoderOutput out)
 			throws Exception {
-		// logger.debug("开始解码RTSP Message { ... ");
-		// logger.debug("SM SEND bytes = {}", in.getHexDump());
-		in.mark();
-		// logger.debug("markvalue ==> " + in.markValue());
-		BufferedReader reader = null;
-		StringBuilder originMsg = new StringBuilder();
-		try {
-			reader = new BufferedReader(new InputStreamReader(in.asInputStream(), "US-ASCII"));
-		} catch (UnsupportedEncodingException e) {
-			logger.error("UnsupportedEncodingException", e);
-		}
-
-		// Retrieve status from session
-		ReadState state = (ReadState) session.getAttribute("state");
-		if (state == null) {
-			state = ReadState.Command;
-		}
-
-		RtspMessage rtspMessage = (RtspMessage) session.getAttribute("rtspMessage");
-
-		try {
-			// logger.debug("开始解析COMMAND AND HEADER内容................");
-			while (true) {
-				if (state != ReadState.Command && state != ReadState.Header) {
-					// the "while" loop is only used to read commands and headers
-					break;
-				}
 
-				String line = reader.readLine();
-				// logger.debug("line ==> " + line);
-				if (line == null) {
-					// there's no more data in the buffer
-					break;
+		while (true) {
+			switch (state) {
+			case Command:
+				if (!skipEmptyLinesAndPackets(in)) {
+					return false;
 				}
+				int lineEnd = findLineEnd(in);
+				if (lineEnd == -1) {
+					return false;
+				}
+				int start = in.position();
+				int end = contentEnd(in, lineEnd);
+				// line is consumed before parsing so that a malformed line is not parsed again
+				in.position(lineEnd + 1);
+				parseCommandLine(session, in, start, end);
+				state = ReadState.Header;
+				break;
 
-				if (line.length() == 0) {
-					originMsg.append("\r\n");
+			case Header:
+				lineEnd = findLineEnd(in);
+				if (lineEnd == -1) {
+					return false;
+				}
+				start = in.position();
+				end = contentEnd(in, lineEnd);
+				in.position(lineEnd + 1);
+				if (end == start) {
 					// This is the empty line that marks the end of the headers section
-					if (null == rtspMessage) {
-						// state = ReadState.Command;
-						continue;
-					} else {
-						state = ReadState.Body;
-						// 保存原始请求信息
-						rtspMessage.saveOriginRequest("\r\n");
-						break;
-					}
+					state = ReadState.Body;
+				}
+				else {
+					parseHeader(in, start, end);
 				}
+				break;
 
-				switch (state) {
-				case Command:
-					if (line.startsWith("RTSP")) { // this is a RTSP response
-						Matcher m = rtspResponsePattern.matcher(line);
-						if (!m.matches()) {
-							session.removeAttribute("state");
-							session.removeAttribute("rtspMessage");
-							throw new ProtocolDecoderException("Malformed response line: " + line);
-						}
-
-						RtspCode code = RtspCode.fromString(m.group(1));
-						rtspMessage = new RtspResponse();
-						((RtspResponse) (rtspMessage)).setCode(code);
-						RtspRequest.Verb verb = (RtspRequest.Verb) session.getAttribute("lastRequestVerb");
-						((RtspResponse) (rtspMessage)).setRequestVerb(verb);
-					} else { // this is a RTSP request
-						Matcher m = rtspRequestPattern.matcher(line);
-						if (!m.matches()) {
-							session.removeAttribute("state");
-							session.removeAttribute("rtspMessage");
-							throw new ProtocolDecoderException("Malformed request line: " + line);
-						}
-
-						String verb = m.group(1);
-						String strUrl = m.group(2);
-						String url = null;
-						if (!strUrl.equalsIgnoreCase("*")) {
-							url = new String(strUrl);
-						}
-
-						rtspMessage = new RtspRequest();
-
-						((RtspRequest) rtspMessage).setVerb(verb);
-
-						if (((RtspRequest) rtspMessage).getVerb() == RtspRequest.Verb.None) {
-							session.removeAttribute("state");
-							session.removeAttribute("rtspMessage");
-							logger.error("Invalid method: " + verb);
-							throw new ProtocolDecoderException("Invalid method: " + verb);
-						}
-						((RtspRequest) rtspMessage).setUrl(url);
+			case Body:
+				if (contentLength > 0) {
+					if (in.remaining() < contentLength) {
+						return false;
 					}
-					rtspMessage.saveOriginRequest(originMsg.toString() + line + "\r\n");
-					state = ReadState.Header;
-					break;
-
-				case Header:
-					Matcher m = rtspHeaderPattern.matcher(line);
-
-					if (!m.matches()) {
-						session.removeAttribute("state");
-						session.removeAttribute("rtspMessage");
-						// logger.error("RTSP header not valid line:" + line);
-						throw new ProtocolDecoderException("RTSP header not valid line:" + line);
+					// buffer is not compacted or expanded in place after it's sliced so the content is not overwritten, 
+					// remaining bytes are copied to a new cumulative buffer instead
+					if (in.isAutoExpand()) {
+						in.setAutoExpand(false);
 					}
+					rtspMessage.setBody(in.getSlice(contentLength).buf());
+				}
 
-					rtspMessage.setHeader(m.group(1), m.group(2));
+				// The message is already formed, send it
+				RtspMessage message = rtspMessage;
+				reset();
+				out.write(message);
+				return true;
+			}
+		}
+	}
 
-					rtspMessage.saveOriginRequest(line + "\r\n");
+	/**
+	 * Skips the line breaks between the messages and interleaved binary packets
+	 * @return true if there is data to be parsed as a command line
+	 */
+	private boolean skipEmptyLinesAndPackets(IoBuffer in) {
+		while (in.hasRemaining()) {
+			int position = in.position();
+			byte first = in.get(position);
+			if (first == CR || first == LF) {
+				in.position(position + 1);
+			}
+			else if (first == INTERLEAVED_MARKER) {
+				// $ channel(1 byte) length(2 bytes) data
+				if (in.remaining() < 4) {
+					return false;
+				}
+				int packetLength = ((in.get(position + 2) & 0xFF) << 8) | (in.get(position + 3) & 0xFF);
+				if (in.remaining() < 4 + packetLength) {
+					return false;
+				}
+				in.position(position + 4 + packetLength);
+			}
+			else {
+				return true;
+			}
+		}
+		return false;
+	}
 
-					break;
-				default:
-					break;
+	/**
+	 * @return absolute index of the line feed of the current line or -1 if the line is not complete
+	 */
+	private int findLineEnd(IoBuffer in) throws ProtocolDecoderException {
+		int start = in.position();
+		int limit = in.limit();
+		for (int i = start + scannedLength; i < limit; i++) {
+			if (in.get(i) == LF) {
+				scannedLength = 0;
+				if (i - start > MAX_LINE_LENGTH) {
+					in.position(i + 1);
+					fail("RTSP line is longer than " + MAX_LINE_LENGTH + " bytes");
 				}
+				return i;
 			}
+		}
+		scannedLength = limit - start;
+		if (scannedLength > MAX_LINE_LENGTH) {
+			in.position(limit);
+			fail("RTSP line is longer than " + MAX_LINE_LENGTH + " bytes");
+		}
+		return -1;
+	}
 
-			if (state == ReadState.Body) {
-				int contentLength = Integer.parseInt(rtspMessage.getHeader("Content-Length", "0"));
-				if (contentLength == 0) { // there's no buffer to be read
-					state = ReadState.Dispatch;
-				} else {
-
-					int bytesToRead = contentLength - rtspMessage.getBufferSize();
-					
-					// read the content buffer
-					CharBuffer bufferContent = CharBuffer.allocate(bytesToRead);
-					reader.read(bufferContent);
-					bufferContent.flip();
-					rtspMessage.appendToBuffer(bufferContent);
-					if (rtspMessage.getBufferSize() >= contentLength) {
-						// The RTSP message parsing is completed
-						state = ReadState.Dispatch;
-					}
+	/**
+	 * @return end index of the line content without the carriage return
+	 */
+	private static int contentEnd(IoBuffer in, int lineEnd) {
+		if (lineEnd > in.position() && in.get(lineEnd - 1) == CR) {
+			return lineEnd - 1;
+		}
+		return lineEnd;
+	}
+
+	private void parseCommandLine(IoSession session, IoBuffer in, int start, int end) throws ProtocolDecoderException {
+		if (startsWith(in, start, end, RTSP_VERSION)) {
+			// RTSP/1.0 SP code SP reason
+			int index = start + RTSP_VERSION.length;
+			if (index + 4 > end || in.get(index) != SP) {
+				failLine("Malformed response line: ", in, start, end);
+			}
+			int code = 0;
+			for (int i = index + 1; i < index + 4; i++) {
+				byte digit = in.get(i);
+				if (digit < '0' || digit > '9') {
+					failLine("Malformed response line: ", in, start, end);
 				}
+				code = code * 10 + (digit - '0');
+			}
+
+			RtspResponse response = new RtspResponse();
+			response.setCode(RtspCode.fromValue(code));
+			response.setRequestVerb((RtspRequest.Verb) session.getAttribute("lastRequestVerb"));
+			rtspMessage = response;
+		}
+		else {
+			// method SP url SP RTSP/1.0
+			int methodEnd = indexOf(in, start, end, SP);
+			int urlStart = skipSpaces(in, methodEnd, end);
+			int urlEnd = indexOf(in, urlStart, end, SP);
+			int versionStart = skipSpaces(in, urlEnd, end);
+			if (methodEnd <= start || urlEnd <= urlStart || end - versionStart != RTSP_VERSION.length
+					|| !startsWith(in, versionStart, end, RTSP_VERSION)) {
+				failLine("Malformed request line: ", in, start, end);
+			}
+
+			RtspRequest.Verb verb = findVerb(in, start, methodEnd);
+			if (verb == RtspRequest.Verb.None) {
+				failLine("Invalid method: ", in, start, methodEnd);
+			}
+
+			RtspRequest request = new RtspRequest();
+			request.setVerb(verb);
+			if (urlEnd - urlStart != 1 || in.get(urlStart) != '*') {
+				request.setUrl(getString(in, urlStart, urlEnd));
 			}
+			rtspMessage = request;
+		}
+	}
+
+	private void parseHeader(IoBuffer in, int start, int end) throws ProtocolDecoderException {
+		int nameEnd = start;
+		while (nameEnd < end && isHeaderNameChar(in.get(nameEnd))) {
+			nameEnd++;
+		}
+		if (nameEnd == start || nameEnd == end || in.get(nameEnd) != COLON) {
+			failLine("RTSP header not valid line:", in, start, end);
+		}
 
-		} catch (IOException e) {
-			/*
-			 * error on input stream should not happen since the input stream is coming from a bytebuffer.
-			 */
-			// Exceptions.logStackTrace(e);
-			e.printStackTrace();
+		int valueStart = nameEnd + 1;
+		if (valueStart < end && (in.get(valueStart) == SP || in.get(valueStart) == HT)) {
+			valueStart++;
+		}
+
+		RtspHeaderCode header = findHeader(in, start, nameEnd);
+		if (header == RtspHeaderCode.CONTENT_LENGTH) {
+			contentLength = parseContentLength(in, valueStart, end);
+		}
+
+		String value = getHeaderValue(in, valueStart, end, header);
+		if (header != null) {
+			rtspMessage.setHeader(header, value);
+		}
+		else {
+			rtspMessage.setHeader(getString(in, start, nameEnd), value);
+		}
+	}
+
+	/**
+	 * @return value with a leading space as the message does for the values that are set. Last value of the 
+	 * known header is returned if it's the same
+	 */
+	private String getHeaderValue(IoBuffer in, int start, int end, RtspHeaderCode header) {
+		if (header != null) {
+			String lastValue = lastHeaderValues[header.ordinal()];
+			if (lastValue != null && isSameValue(in, start, end, lastValue)) {
+				return lastValue;
+			}
+		}
+
+		valueBuffer[0] = SP;
+		int valueLength = end - start;
+		for (int i = 0; i < valueLength; i++) {
+			valueBuffer[i + 1] = in.get(start + i);
+		}
+		String value = new String(valueBuffer, 0, valueLength + 1, StandardCharsets.ISO_8859_1);
+		if (header != null) {
+			lastHeaderValues[header.ordinal()] = value;
+		}
+		return value;
+	}
+
+	private static boolean isSameValue(IoBuffer in, int start, int end, String value) {
+		if (value.length() != end - start + 1) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if ((in.get(i) & 0xFF) != value.charAt(i - start + 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int parseContentLength(IoBuffer in, int start, int end) throws ProtocolDecoderException {
+		start = skipSpaces(in, start, end);
+		while (end > start && (in.get(end - 1) == SP || in.get(end - 1) == HT)) {
+			end--;
+		}
+		if (start == end) {
+			failLine("Invalid Content-Length: ", in, start, end);
+		}
+		long length = 0;
+		for (int i = start; i < end; i++) {
+			byte digit = in.get(i);
+			if (digit < '0' || digit > '9') {
+				failLine("Invalid Content-Length: ", in, start, end);
+			}
+			length = length * 10 + (digit - '0');
+			if (length > MAX_CONTENT_LENGTH) {
+				failLine("Content-Length is too big: ", in, start, end);
+			}
+		}
+		return (int) length;
+	}
+
+	private static boolean isHeaderNameChar(byte c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.';
+	}
+
+	private static RtspRequest.Verb findVerb(IoBuffer in, int start, int end) {
+		for (int i = 0; i < VERB_NAMES.length; i++) {
+			if (VERB_NAMES[i].length == end - start && startsWith(in, start, end, VERB_NAMES[i])) {
+				return VERBS[i];
+			}
+		}
+		return RtspRequest.Verb.None;
+	}
+
+	/**
+	 * @return known header with the name in case insensitive comparison or null
+	 */
+	private static RtspHeaderCode findHeader(IoBuffer in, int start, int end) {
+		for (int i = 0; i < HEADER_NAMES.length; i++) {
+			byte[] name = HEADER_NAMES[i];
+			if (name.length != end - start) {
+				continue;
+			}
+			int j = 0;
+			while (j < name.length && toLowerCase(in.get(start + j)) == toLowerCase(name[j])) {
+				j++;
+			}
+			if (j == name.length) {
+				return HEADERS[i];
+			}
+		}
+		return null;
+	}
+
+	private static byte toLowerCase(byte c) {
+		return (c >= 'A' && c <= 'Z') ? (byte)(c + ('a' - 'A')) : c;
+	}
+
+	private static boolean startsWith(IoBuffer in, int start, int end, byte[] prefix) {
+		if (end - start < prefix.length) {
 			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (in.get(start + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-		} finally {
-			try {
-				reader.close();
-			} catch (Exception e) {}
+	private static int indexOf(IoBuffer in, int start, int end, byte value) {
+		for (int i = start; i < end; i++) {
+			if (in.get(i) == value) {
+				return i;
+			}
 		}
+		return end;
+	}
 
-		if (state == ReadState.Dispatch) {
-			// The message is already formed
-			// send it
-			session.removeAttribute("state");
-			session.removeAttribute("rtspMessage");
-			out.write(rtspMessage);
-			return true;
+	private static int skipSpaces(IoBuffer in, int start, int end) {
+		while (start < end && (in.get(start) == SP || in.get(start) == HT)) {
+			start++;
 		}
+		return start;
+	}
 
-		// log.debug( "INCOMPLETE MESSAGE \n" + rtspMessage );
+	private static String getString(IoBuffer in, int start, int end) {
+		byte[] data = new byte[end - start];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = in.get(start + i);
+		}
+		return new String(data, StandardCharsets.ISO_8859_1);
+	}
 
-		// Save attributes in session
-		session.setAttribute("state", state);
-		session.setAttribute("rtspMessage", rtspMessage);
-		return false;
+	private void failLine(String message, IoBuffer in, int start, int end) throws ProtocolDecoderException {
+		fail(message + getString(in, start, Math.min(end, start + 256)));
+	}
+
+	/**
+	 * Resets the state and throws the exception. Line that causes the error is already consumed
+	 * so that next message can be parsed
+	 */
+	private void fail(String message) throws ProtocolDecoderException {
+		logger.warn(message);
+		reset();
+		throw new ProtocolDecoderException(message);
+	}
+
+	private void reset() {
+		state = ReadState.Command;
+		rtspMessage = null;
+		scannedLength = 0;
+		contentLength = 0;
+	}
+
+	public ReadState getState() {
+		return state;
 	}
 }
@@ -1,6 +1,8 @@
 package com.antstreaming.rtsp.protocol;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Base abstract class for RTSP messages.
@@ -25,6 +27,8 @@ public abstract class RtspMessage {
   private Long sequenceNumber;
   private SafeProperties headers;
   private StringBuilder buffer;
+  private ByteBuffer body;
+  private boolean bodyDecoded;
   private StringBuilder originRequest;
 
   /**
@@ -164,9 +168,29 @@ public abstract class RtspMessage {
    * @return the content buffer
    */
   public StringBuilder getBuffer() {
+    if (body != null && !bodyDecoded) {
+      // content that is read by the decoder is converted to characters only when it's requested
+      buffer.append(StandardCharsets.UTF_8.decode(body.duplicate()));
+      bodyDecoded = true;
+    }
     return buffer;
   }
 
+  /**
+   * @param body content bytes of the message that are read by the decoder
+   */
+  public void setBody(ByteBuffer body) {
+    this.body = body;
+    this.bodyDecoded = false;
+  }
+
+  /**
+   * @return read only view of the content bytes that are read by the decoder or null if there is no content
+   */
+  public ByteBuffer getBody() {
+    return body != null ? body.asReadOnlyBuffer() : null;
+  }
+
   /**
    * @param other buffer with content to be appended
    */
@@ -185,7 +209,10 @@ public abstract class RtspMessage {
    * @return the size of the content buffer
    */
   public int getBufferSize() {
-    return buffer.toString().length();
+    if (body != null && !bodyDecoded) {
+      return buffer.length() + body.remaining();
+    }
+    return buffer.length();
   }
 
   /**
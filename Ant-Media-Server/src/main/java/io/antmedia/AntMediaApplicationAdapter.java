@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -14,6 +15,10 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.http.HttpEntity;
@@ -35,6 +40,8 @@ import org.red5.server.api.stream.ISubscriberStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.antstreaming.rtsp.LiveStreamPacketizer;
+
 import io.antmedia.datastore.db.DataStoreFactory;
 import io.antmedia.datastore.db.IDataStore;
 import io.antmedia.datastore.db.types.Broadcast;
@@ -47,8 +54,15 @@ import io.antmedia.rest.BroadcastRestService;
 import io.antmedia.social.endpoint.PeriscopeEndpoint;
 import io.antmedia.social.endpoint.VideoServiceEndpoint;
 import io.antmedia.social.endpoint.VideoServiceEndpoint.DeviceAuthParameters;
+import io.antmedia.statistic.BandwidthStats;
+import io.antmedia.statistic.BandwidthStatsMXBean;
+import io.antmedia.statistic.HlsViewerStats;
+import io.antmedia.statistic.ViewerStatsRecorder;
 import io.antmedia.streamsource.StreamFetcher;
 import io.antmedia.streamsource.StreamFetcherManager;
+import io.antmedia.streamsource.StreamInfoCache;
+import io.antmedia.webrtc.api.IWebRTCAdaptor;
+import io.antmedia.webresource.StreamWebRoot;
 import io.vertx.core.Vertx;
 
 public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter implements IAntMediaStreamHandler {
@@ -83,6 +97,23 @@ public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter
 
 	private AppSettings appSettings;
 	private Vertx vertx;
+	private ViewerStatsRecorder viewerStatsRecorder;
+	private BandwidthStats bandwidthStats;
+	private long viewerStatsTimerId = -1;
+	private long bandwidthStatsTimerId = -1;
+	private StreamInfoCache streamInfoCache;
+
+	/**
+	 * WebRTC publishers are written to a mux adaptor instead of the local rtmp server if it's true. 
+	 * Directly ingested streams have no broadcast stream so they cannot be played with RTMP or RTSP
+	 */
+	private boolean webRTCDirectIngestEnabled = false;
+
+	/**
+	 * RTSP publishers are written to a mux adaptor instead of the local rtmp server if it's true.
+	 * Directly ingested streams have no broadcast stream so they cannot be played with RTMP or RTSP
+	 */
+	private boolean rtspDirectIngestEnabled = false;
 
 
 	@Override
@@ -97,12 +128,39 @@ public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter
 				registerStreamPublishSecurity(streamPublishSecurity);
 			}
 		}
+		viewerStatsRecorder = new ViewerStatsRecorder(app, new File(String.format("webapps/%s/WEB-INF/viewer_history", app.getName())));
+		if (getContext().hasBean(HlsViewerStats.BEAN_NAME)) {
+			HlsViewerStats hlsViewerStats = (HlsViewerStats) getContext().getBean(HlsViewerStats.BEAN_NAME);
+			hlsViewerStats.setViewerStatsRecorder(viewerStatsRecorder);
+			viewerStatsRecorder.setHlsViewerStats(hlsViewerStats);
+		}
+		if (getContext().hasBean(IWebRTCAdaptor.BEAN_NAME)) {
+			viewerStatsRecorder.setWebRTCAdaptor((IWebRTCAdaptor) getContext().getBean(IWebRTCAdaptor.BEAN_NAME));
+		}
+		viewerStatsTimerId = vertx.setPeriodic(ViewerStatsRecorder.DEFAULT_SAMPLE_PERIOD_MS, timerId -> viewerStatsRecorder.sample());
+
+		streamInfoCache = new StreamInfoCache(new File(String.format("webapps/%s/WEB-INF/stream_info", app.getName())));
+
+		bandwidthStats = new BandwidthStats();
+		bandwidthStatsTimerId = vertx.setPeriodic(BandwidthStats.DEFAULT_RATE_PERIOD_MS, timerId -> bandwidthStats.calculateRates(BandwidthStats.DEFAULT_RATE_PERIOD_MS));
+		try {
+			ObjectName objectName = new ObjectName("org.red5.server:type=BandwidthStats,name=" + app.getName());
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			if (!mbs.isRegistered(objectName)) {
+				mbs.registerMBean(new StandardMBean(bandwidthStats, BandwidthStatsMXBean.class, true), objectName);
+			}
+		} catch (Exception e) {
+			logger.warn("Error on jmx registration {}", e.getMessage());
+		}
+
 		String scheduledJobName = addScheduledOnceJob(0, new IScheduledJob() {
 
 			@Override
 			public void execute(ISchedulingService service) throws CloneNotSupportedException {
 				streamFetcherManager = new StreamFetcherManager(AntMediaApplicationAdapter.this, getDataStore(),app);
 				streamFetcherManager.setRestartStreamFetcherPeriod(appSettings.getRestartStreamFetcherPeriod());
+				streamFetcherManager.setPullOnDemandFile(new File(String.format("webapps/%s/WEB-INF/pull_on_demand_streams", app.getName())));
+				streamFetcherManager.setBackupSourcesFile(new File(String.format("webapps/%s/WEB-INF/backup_sources.json", app.getName())));
 				List<Broadcast> streams = getDataStore().getExternalStreamsList();
 				logger.info("Stream source size: {}", streams.size());
 				streamFetcherManager.startStreams(streams);
@@ -202,6 +260,7 @@ public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter
 
 
 		String streamName = stream.getPublishedName();
+		LiveStreamPacketizer.streamClosed(getScope(), streamName);
 		vertx.executeBlocking(future -> {
 			try {
 				closeBroadcast(streamName);
@@ -223,6 +282,15 @@ public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter
 	public void closeBroadcast(String streamName) {
 
 		try {
+			if (viewerStatsRecorder != null) {
+				viewerStatsRecorder.streamFinished(streamName);
+			}
+			if (bandwidthStats != null) {
+				bandwidthStats.removeStream(streamName);
+			}
+			if (getScope() != null) {
+				StreamWebRoot.evictStream(getScope().getName(), streamName);
+			}
 
 			if (dataStore != null) {
 				getDataStore().updateStatus(streamName, BROADCAST_STATUS_FINISHED);
@@ -318,6 +386,9 @@ public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter
 	@Override
 	public void streamPlayItemPlay(ISubscriberStream stream, IPlayItem item, boolean isLive) {
 		super.streamPlayItemPlay(stream, item, isLive);
+		if (streamFetcherManager != null) {
+			streamFetcherManager.viewerRequested(item.getName());
+		}
 		addScheduledOnceJob(0, service -> {
 			if (dataStore != null) {
 				dataStore.updateRtmpViewerCount(item.getName(), true);
@@ -357,6 +428,9 @@ public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter
 	}
 
 	public void startPublish(String streamName) {
+		if (viewerStatsRecorder != null) {
+			viewerStatsRecorder.streamStarted(streamName);
+		}
 		addScheduledOnceJob(0, new IScheduledJob() {
 
 			@Override
@@ -779,12 +853,84 @@ public class AntMediaApplicationAdapter extends MultiThreadedApplicationAdapter
 		return onvifCamera;
 	}
 
+	@Override
+	public void appStop(IScope app) {
+		if (vertx != null) {
+			if (viewerStatsTimerId != -1) {
+				vertx.cancelTimer(viewerStatsTimerId);
+				viewerStatsTimerId = -1;
+			}
+			if (bandwidthStatsTimerId != -1) {
+				vertx.cancelTimer(bandwidthStatsTimerId);
+				bandwidthStatsTimerId = -1;
+			}
+		}
+		try {
+			ObjectName objectName = new ObjectName("org.red5.server:type=BandwidthStats,name=" + app.getName());
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			if (mbs.isRegistered(objectName)) {
+				mbs.unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			logger.warn("Error on jmx unregistration {}", e.getMessage());
+		}
+		super.appStop(app);
+	}
+
+	/**
+	 * Deletes the files that are kept for the broadcast. It's called after the broadcast is deleted from data store
+	 * @param streamId
+	 */
+	public void broadcastDeleted(String streamId) {
+		if (viewerStatsRecorder != null) {
+			viewerStatsRecorder.deleteHistory(streamId);
+		}
+		if (streamInfoCache != null) {
+			streamInfoCache.remove(streamId);
+		}
+		if (streamFetcherManager != null) {
+			streamFetcherManager.streamDeleted(streamId);
+		}
+	}
+
+	public ViewerStatsRecorder getViewerStatsRecorder() {
+		return viewerStatsRecorder;
+	}
+
+	public BandwidthStats getBandwidthStats() {
+		return bandwidthStats;
+	}
+
+	public StreamInfoCache getStreamInfoCache() {
+		return streamInfoCache;
+	}
+
 	public StreamFetcherManager getStreamFetcherManager() {
 		return streamFetcherManager;
 	}
 
+	public boolean isWebRTCDirectIngestEnabled() {
+		return webRTCDirectIngestEnabled;
+	}
+
+	public void setWebRTCDirectIngestEnabled(boolean webRTCDirectIngestEnabled) {
+		this.webRTCDirectIngestEnabled = webRTCDirectIngestEnabled;
+	}
+
+	public boolean isRtspDirectIngestEnabled() {
+		return rtspDirectIngestEnabled;
+	}
+
+	public void setRtspDirectIngestEnabled(boolean rtspDirectIngestEnabled) {
+		this.rtspDirectIngestEnabled = rtspDirectIngestEnabled;
+	}
+
 	@Override
 	public void setQualityParameters(String id, String quality, double speed, int pendingPacketSize) {
+		if (streamFetcherManager != null && streamFetcherManager.isStreamFetched(id)) {
+			//quality of the pulled streams is updated by the stream fetcher manager in each check interval
+			return;
+		}
 		logger.info("update source quality for stream: {} quality:{} speed:{}", id, quality, speed);
 		getDataStore().updateSourceQualityParameters(id, quality, speed, pendingPacketSize);
 
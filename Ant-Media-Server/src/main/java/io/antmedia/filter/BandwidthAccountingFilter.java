@@ -0,0 +1,101 @@
+package io.antmedia.filter;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.WebApplicationContext;
+
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.statistic.BandwidthStats;
+import io.antmedia.statistic.ViewerStatsRecorder;
+
+/**
+ * Counts the bytes delivered for the HLS and MP4 requests per stream and rendition.
+ * It's designed to stay enabled in production, it only wraps the response and adds the count
+ * to a striped counter per request
+ */
+public class BandwidthAccountingFilter implements javax.servlet.Filter {
+
+	protected static Logger logger = LoggerFactory.getLogger(BandwidthAccountingFilter.class);
+	private FilterConfig filterConfig;
+	private AntMediaApplicationAdapter application;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		this.filterConfig = filterConfig;
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+
+		HttpServletRequest httpRequest = (HttpServletRequest)request;
+
+		if (httpRequest.getMethod().equals("GET")) {
+			CountingResponseWrapper responseWrapper = new CountingResponseWrapper((HttpServletResponse) response);
+
+			chain.doFilter(request, responseWrapper);
+
+			if (request.isAsyncStarted()) {
+				//request is parked, it's counted in the async dispatch if filter is mapped for ASYNC dispatcher
+				return;
+			}
+
+			long bytes = responseWrapper.getByteCount();
+			if (bytes > 0) {
+				String requestURI = httpRequest.getRequestURI();
+				String streamId = TokenFilterManager.getStreamId(requestURI);
+				if (streamId != null) {
+					addBytes(streamId, BandwidthStats.getRendition(requestURI, streamId), bytes);
+				}
+			}
+		}
+		else {
+			chain.doFilter(request, response);
+		}
+	}
+
+	private void addBytes(String streamId, String rendition, long bytes) {
+		AntMediaApplicationAdapter app = getApplication();
+		if (app != null) {
+			BandwidthStats bandwidthStats = app.getBandwidthStats();
+			if (bandwidthStats != null) {
+				bandwidthStats.addBytes(streamId, rendition, bytes);
+			}
+			ViewerStatsRecorder viewerStatsRecorder = app.getViewerStatsRecorder();
+			if (viewerStatsRecorder != null) {
+				viewerStatsRecorder.addBytesServed(streamId, bytes);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		//There is no need to implement destroy right now
+	}
+
+	public AntMediaApplicationAdapter getApplication() {
+		if (application == null) {
+			ApplicationContext context = (ApplicationContext) filterConfig.getServletContext().getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+			if (context != null && context.containsBean(AntMediaApplicationAdapter.BEAN_NAME)) {
+				application = (AntMediaApplicationAdapter) context.getBean(AntMediaApplicationAdapter.BEAN_NAME);
+			}
+		}
+		return application;
+	}
+
+	public void setApplication(AntMediaApplicationAdapter application) {
+		this.application = application;
+	}
+
+}
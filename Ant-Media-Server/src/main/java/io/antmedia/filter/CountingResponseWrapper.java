@@ -0,0 +1,124 @@
+package io.antmedia.filter;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper that counts the bytes written to the output stream.
+ * 
+ * Content may be sent with sendfile without passing through the output stream, so declared
+ * content length is used if nothing is written to the stream
+ */
+public class CountingResponseWrapper extends HttpServletResponseWrapper {
+
+	private static final String CONTENT_LENGTH = "Content-Length";
+
+	private CountingOutputStream outputStream;
+
+	private long contentLength = -1;
+
+	private class CountingOutputStream extends ServletOutputStream {
+
+		private final ServletOutputStream stream;
+		private long count = 0;
+
+		CountingOutputStream(ServletOutputStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			stream.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			stream.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			stream.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return stream.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			stream.setWriteListener(writeListener);
+		}
+	}
+
+	public CountingResponseWrapper(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null) {
+			outputStream = new CountingOutputStream(super.getOutputStream());
+		}
+		return outputStream;
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		super.setContentLength(len);
+		contentLength = len;
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+		super.setContentLengthLong(len);
+		contentLength = len;
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		super.setHeader(name, value);
+		checkContentLength(name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		super.addHeader(name, value);
+		checkContentLength(name, value);
+	}
+
+	private void checkContentLength(String name, String value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name) && value != null) {
+			try {
+				contentLength = Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException e) {
+				contentLength = -1;
+			}
+		}
+	}
+
+	/**
+	 * Returns number of bytes in the response body
+	 */
+	public long getByteCount() {
+		long count = outputStream != null ? outputStream.count : 0;
+		if (count == 0 && contentLength > 0) {
+			count = contentLength;
+		}
+		return count;
+	}
+
+}
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.web.context.WebApplicationContext;
 
+import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.statistic.HlsViewerStats;
 import io.antmedia.statistic.IStreamStats;
 
@@ -23,6 +24,7 @@ public class HlsStatisticsFilter implements javax.servlet.Filter {
 	protected static Logger logger = LoggerFactory.getLogger(HlsStatisticsFilter.class);
 	private IStreamStats streamStats;
 	private FilterConfig filterConfig;
+	private AntMediaApplicationAdapter application;
 
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
@@ -41,6 +43,9 @@ public class HlsStatisticsFilter implements javax.servlet.Filter {
 			//only accept GET methods
 			String sessionId = httpRequest.getSession().getId();
 
+			if (httpRequest.getRequestURI().endsWith(".m3u8")) {
+				startPullOnDemandStream(TokenFilterManager.getStreamId(httpRequest.getRequestURI()));
+			}
 		
 			chain.doFilter(request, response);
 
@@ -64,6 +69,18 @@ public class HlsStatisticsFilter implements javax.servlet.Filter {
 
 
 
+	/**
+	 * Starts the stream if it's pulled on demand and it's not being fetched
+	 */
+	private void startPullOnDemandStream(String streamId) {
+		if (streamId != null) {
+			AntMediaApplicationAdapter application = getApplication();
+			if (application != null && application.getStreamFetcherManager() != null) {
+				application.getStreamFetcherManager().viewerRequested(streamId);
+			}
+		}
+	}
+
 	@Override
 	public void destroy() {
 		//There is no need to implement destroy right now
@@ -79,4 +96,14 @@ public class HlsStatisticsFilter implements javax.servlet.Filter {
 		return streamStats;
 	}
 
+	public AntMediaApplicationAdapter getApplication() {
+		if (application == null) {
+			ApplicationContext context = (ApplicationContext) filterConfig.getServletContext().getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
+			if (context != null && context.containsBean(AntMediaApplicationAdapter.BEAN_NAME)) {
+				application = (AntMediaApplicationAdapter) context.getBean(AntMediaApplicationAdapter.BEAN_NAME);
+			}
+		}
+		return application;
+	}
+
 }
@@ -54,7 +54,7 @@ public class TokenFilterManager implements javax.servlet.Filter   {
 
 		if (method.equals("GET") && getAppSettings().isTokenControlEnabled()) {
 
-			boolean result = getTokenService().checkToken(tokenId, streamId, sessionId, Token.PLAY_TOKEN);
+			boolean result = getTokenService().checkToken(tokenId, streamId, sessionId, Token.PLAY_TOKEN, clientIP);
 			if(!result) {
 				httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN,"Invalid Token");
 				logger.warn("token {} is not valid", tokenId);
@@ -10,6 +10,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -43,6 +44,8 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
+import com.antstreaming.rtsp.RtspConnectionManager;
+import com.antstreaming.rtsp.RtspConnectionStats;
 import com.drew.lang.annotations.Nullable;
 
 import io.antmedia.AntMediaApplicationAdapter;
@@ -66,6 +69,7 @@ import io.antmedia.social.LiveComment;
 import io.antmedia.social.endpoint.PeriscopeEndpoint;
 import io.antmedia.social.endpoint.VideoServiceEndpoint;
 import io.antmedia.social.endpoint.VideoServiceEndpoint.DeviceAuthParameters;
+import io.antmedia.statistic.ViewerTimeSeries;
 import io.antmedia.storage.StorageClient;
 import io.antmedia.storage.StorageClient.FileType;
 import io.antmedia.webrtc.api.IWebRTCAdaptor;
@@ -102,6 +106,17 @@ public class BroadcastRestService {
 		}
 	}
 
+	public static class BandwidthStatistics {
+
+		public final Map<String, Long> totalBytes;
+		public final Map<String, Long> bytesPerSecond;
+
+		public BandwidthStatistics(Map<String, Long> totalBytes, Map<String, Long> bytesPerSecond) {
+			this.totalBytes = totalBytes;
+			this.bytesPerSecond = bytesPerSecond;
+		}
+	}
+
 	public static class LiveStatistics  {
 
 		public final long totalLiveStreamCount;
@@ -658,6 +673,24 @@ public class BroadcastRestService {
 		return vod;
 	}
 
+	/**
+	 * Get packet, byte and send lag counters of the RTSP connections
+	 * @param id
+	 *            id of the stream, counters of all connections are returned if it's not set
+	 * @return list of the connection counters
+	 */
+	@ApiOperation(value = "Get packet, byte and send lag counters of the RTSP connections", notes = "", responseContainer = "List", response = RtspConnectionStats.class)
+	@GET
+	@Path("/broadcast/getRtspConnectionStats")
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<RtspConnectionStats> getRtspConnectionStats(@ApiParam(value = "id of the stream", required = false) @QueryParam("id") String id) {
+		List<RtspConnectionStats> statsList = RtspConnectionManager.getInstance().getConnectionStats();
+		if (id != null) {
+			statsList.removeIf(stats -> !id.equals(stats.getStreamName()));
+		}
+		return statsList;
+	}
+
 
 	/**
 	 * Get Detected objects
@@ -1049,7 +1082,8 @@ public class BroadcastRestService {
 			token = tokenService.createToken(streamId, expireDate, type);
 
 			//if it is  MockService, returns null
-			if(token != null) {
+			//stateless tokens are verified by their signature so they are not saved
+			if(token != null && !tokenService.isStateless()) {
 				getDataStore().saveToken(token);
 			}	 
 		}
@@ -1191,6 +1225,49 @@ public class BroadcastRestService {
 
 
 
+	/**
+	 * Get the bytes delivered over HTTP (HLS and MP4) for each rendition of the broadcast
+	 * 
+	 * @param id
+	 * @return {@link BandwidthStatistics} having total bytes and bytes per second in the last period
+	 * for each rendition
+	 */
+	@ApiOperation(value = "Get the bytes delivered over HTTP for each rendition of the broadcast", notes = "", response = BandwidthStatistics.class)
+	@GET
+	@Path("/broadcast/getBandwidthStatistics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public BandwidthStatistics getBandwidthStatistics(@ApiParam(value = "stream Id", required = true) @QueryParam("id") String id) {
+		Map<String, Long> totalBytes = new HashMap<>();
+		Map<String, Long> bytesPerSecond = new HashMap<>();
+		AntMediaApplicationAdapter application = getApplication();
+		if (id != null && application != null && application.getBandwidthStats() != null) {
+			totalBytes = application.getBandwidthStats().getBytes(id);
+			bytesPerSecond = application.getBandwidthStats().getBytesPerSecond(id);
+		}
+		return new BandwidthStatistics(totalBytes, bytesPerSecond);
+	}
+
+	/**
+	 * Get the viewer history of the broadcast. Samples of the live broadcasts are returned
+	 * in full resolution and saved downsampled history is returned for finished broadcasts
+	 * 
+	 * @param streamId
+	 * @return {@link ViewerTimeSeries.Samples} ordered from the oldest to the newest or null
+	 * if there is no record for the stream
+	 */
+	@ApiOperation(value = "Get the viewer history of the broadcast as arrays of samples", notes = "", response = ViewerTimeSeries.Samples.class)
+	@GET
+	@Path("/broadcast/getViewerHistory/{stream_id}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ViewerTimeSeries.Samples getViewerHistory(@ApiParam(value = "stream id", required = true) @PathParam("stream_id") String streamId) {
+		ViewerTimeSeries.Samples samples = null;
+		AntMediaApplicationAdapter application = getApplication();
+		if (application != null && application.getViewerStatsRecorder() != null) {
+			samples = application.getViewerStatsRecorder().getSamples(streamId);
+		}
+		return samples;
+	}
+
 	@ApiOperation(value = "", notes = "", responseContainer = "List",response = WebRTCClientStats.class)
 	@GET
 	@Path("/broadcast/getWebRTCClientStats/{stream_id}")
@@ -1394,6 +1471,9 @@ public class BroadcastRestService {
 				}
 				result.setSuccess(getDataStore().delete(id));
 				boolean stopResult = stopBroadcast(id).isSuccess();
+				if (result.isSuccess()) {
+					getApplication().broadcastDeleted(id);
+				}
 
 				if(result.isSuccess() && stopResult) {
 					result.setMessage("brodcast is deleted and stopped successfully");
@@ -40,6 +40,7 @@ import io.antmedia.ipcamera.OnvifCamera;
 import io.antmedia.ipcamera.onvifdiscovery.OnvifDiscovery;
 import io.antmedia.rest.model.Result;
 import io.antmedia.streamsource.StreamFetcher;
+import io.antmedia.streamsource.StreamSourceMetrics;
 
 @Api(value = "StreamsSourceRestService")
 @Component
@@ -177,6 +178,68 @@ public class StreamsSourceRestService {
 		return result;
 	}
 
+	@ApiOperation(value = "Get restart history of the stream source", notes = "", responseContainer = "List", response = StreamFetcher.RestartRecord.class)
+	@GET
+	@Path("/getRestartHistory")
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<StreamFetcher.RestartRecord> getRestartHistory(@ApiParam(value = "id of the stream", required = true) @QueryParam("id") String id) {
+		List<StreamFetcher.RestartRecord> restartHistory = null;
+		StreamFetcher streamFetcher = getInstance().getStreamFetcherManager().getStreamFetcher(id);
+		if (streamFetcher != null) {
+			restartHistory = streamFetcher.getRestartHistory();
+		}
+		return restartHistory;
+	}
+
+	@ApiOperation(value = "Set backup source urls of the stream source that are fetched in order when the stream url does not deliver packets", notes = "", response = Result.class)
+	@POST
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Path("/setBackupSources")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Result setBackupSources(@ApiParam(value = "id of the stream", required = true) @QueryParam("id") String id,
+			@ApiParam(value = "backup source urls in order, backup sources are removed if it's empty", required = true) List<String> backupSourceUrls) {
+		Result result = new Result(false);
+		Broadcast broadcast = getStore().get(id);
+		if (broadcast != null && (AntMediaApplicationAdapter.IP_CAMERA.equals(broadcast.getType()) 
+				|| AntMediaApplicationAdapter.STREAM_SOURCE.equals(broadcast.getType()))) 
+		{
+			getInstance().getStreamFetcherManager().setBackupSources(id, backupSourceUrls);
+			result.setSuccess(true);
+		}
+		else {
+			result.setMessage("No stream source with id " + id);
+		}
+		return result;
+	}
+
+	@ApiOperation(value = "Get bitrate, fps, speed, jitter, timestamp correction and reconnect metrics of the stream source in the last check interval", notes = "", response = StreamSourceMetrics.Snapshot.class)
+	@GET
+	@Path("/getSourceMetrics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public StreamSourceMetrics.Snapshot getSourceMetrics(@ApiParam(value = "id of the stream", required = true) @QueryParam("id") String id) {
+		return getInstance().getStreamFetcherManager().getSourceMetrics(id);
+	}
+
+	@ApiOperation(value = "Enable or disable pulling the stream source only when there are viewers", notes = "", response = Result.class)
+	@POST
+	@Path("/setPullOnDemand")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Result setPullOnDemand(@ApiParam(value = "id of the stream", required = true) @QueryParam("id") String id,
+			@ApiParam(value = "true to pull on demand, false to pull continuously", required = true) @QueryParam("enabled") boolean enabled) {
+		Result result = new Result(false);
+		Broadcast broadcast = getStore().get(id);
+		if (broadcast != null && (AntMediaApplicationAdapter.IP_CAMERA.equals(broadcast.getType()) 
+				|| AntMediaApplicationAdapter.STREAM_SOURCE.equals(broadcast.getType()))) 
+		{
+			getInstance().getStreamFetcherManager().setPullOnDemand(broadcast, enabled);
+			result.setSuccess(true);
+		}
+		else {
+			result.setMessage("No stream source with id " + id);
+		}
+		return result;
+	}
+
 	@ApiOperation(value = "", notes = "Notes here", response = Result.class)
 	@GET
 	@Path("/synchUserVoDList")
@@ -214,6 +277,8 @@ public class StreamsSourceRestService {
 		logger.debug("update cam info for stream {}", broadcast.getStreamId());
 
 		if( checkStreamUrl(broadcast.getStreamUrl()) && broadcast.getStatus()!=null){
+			Broadcast oldBroadcast = getStore().get(broadcast.getStreamId());
+			String oldStreamUrl = oldBroadcast != null ? oldBroadcast.getStreamUrl() : null;
 			getInstance().stopStreaming(broadcast);
 			try {
 				Thread.sleep(1000);
@@ -241,6 +306,11 @@ public class StreamsSourceRestService {
 			}
 
 			result = getStore().editStreamSourceInfo(broadcast);
+			if (result && getInstance().getStreamInfoCache() != null 
+					&& (oldStreamUrl == null || !oldStreamUrl.equals(broadcast.getStreamUrl()))) {
+				//codec parameters of the old source should not be used for the new one
+				getInstance().getStreamInfoCache().remove(broadcast.getStreamId());
+			}
 			getInstance().startStreaming(broadcast);
 		}
 		return new Result(result);
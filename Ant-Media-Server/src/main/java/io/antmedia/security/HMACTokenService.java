@@ -0,0 +1,258 @@
+package io.antmedia.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.red5.server.api.IConnection;
+import org.red5.server.api.Red5;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.stream.IStreamPublishSecurity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import io.antmedia.datastore.db.types.Token;
+
+/**
+ * Stateless token service. Tokens are signed with HMAC-SHA256 over stream id, type,
+ * expire date and optionally the client IP by using a per-app secret, so they are verified
+ * without any datastore access and can be validated on any node of the cluster.
+ *
+ * Token format is {expireDate}.{base64url(clientIP)}.{base64url(signature)}. IP part is empty
+ * if token is not bound to a client.
+ *
+ * If replay filter is enabled, each token is accepted only once per node until it expires or until
+ * it's evicted as the oldest entry of the full filter.
+ */
+public class HMACTokenService implements IStreamPublishSecurity, ITokenService, InitializingBean {
+
+	public static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	private static final String SEPARATOR = ".";
+
+	private static final int DEFAULT_REPLAY_FILTER_SIZE = 10000;
+
+	protected static Logger logger = LoggerFactory.getLogger(HMACTokenService.class);
+
+	private Map<String, String> authenticatedMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Keeps signatures of used tokens with their expire dates in insertion order. Guarded by itself
+	 */
+	private final LinkedHashMap<String, Long> usedTokenMap = new LinkedHashMap<String, Long>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > replayFilterSize;
+		}
+	};
+
+	private boolean replayFilterEnabled = false;
+
+	private int replayFilterSize = DEFAULT_REPLAY_FILTER_SIZE;
+
+	/**
+	 * Mac instances are not thread safe so each thread keeps its own one
+	 */
+	private ThreadLocal<Mac> macHolder;
+
+	@Override
+	public void afterPropertiesSet() {
+		if (macHolder == null) {
+			throw new IllegalStateException("Secret key is not set for " + HMACTokenService.class.getSimpleName());
+		}
+	}
+
+	@Override
+	public boolean checkToken(String tokenId, String streamId, String sessionId, String type) {
+		return checkToken(tokenId, streamId, sessionId, type, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Client IP is required for the tokens bound to an IP
+	 */
+	@Override
+	public boolean checkToken(String tokenId, String streamId, String sessionId, String type, String clientIP) {
+
+		if (sessionId != null && streamId != null && streamId.equals(authenticatedMap.get(sessionId))) {
+			//session is already authenticated for this stream
+			return true;
+		}
+
+		boolean result = verify(tokenId, streamId, type, clientIP);
+
+		if (result && sessionId != null) {
+			authenticatedMap.put(sessionId, streamId);
+		}
+		return result;
+	}
+
+	private boolean verify(String tokenId, String streamId, String type, String clientIP) {
+
+		if (tokenId == null || streamId == null || type == null) {
+			return false;
+		}
+
+		String[] parts = tokenId.split("\\" + SEPARATOR, -1);
+		if (parts.length != 3) {
+			logger.warn("Malformed token for stream {}", streamId);
+			return false;
+		}
+
+		long expireDate;
+		String boundIP;
+		byte[] signature;
+		try {
+			expireDate = Long.parseLong(parts[0]);
+			boundIP = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+			signature = Base64.getUrlDecoder().decode(parts[2]);
+		}
+		catch (IllegalArgumentException e) {
+			logger.warn("Malformed token for stream {}", streamId);
+			return false;
+		}
+
+		long now = System.currentTimeMillis() / 1000;
+		if (expireDate < now) {
+			logger.info("Token is expired for stream {}", streamId);
+			return false;
+		}
+
+		if (!boundIP.isEmpty() && !boundIP.equals(clientIP)) {
+			logger.warn("Token of stream {} is bound to {} but it is used by {}", streamId, boundIP, clientIP);
+			return false;
+		}
+
+		if (!MessageDigest.isEqual(signature, sign(streamId, type, expireDate, boundIP))) {
+			logger.warn("Token signature does not match for stream {}", streamId);
+			return false;
+		}
+
+		if (replayFilterEnabled && !markUsed(parts[2], expireDate, now)) {
+			logger.warn("Token is already used for stream {}", streamId);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Registers the signature to the replay filter. Expired entries at the head of the filter are removed and
+	 * the oldest entry is evicted when the filter is full, so the filter never keeps more than its size
+	 * @return false if the signature is already used
+	 */
+	private boolean markUsed(String signature, long expireDate, long now) {
+		synchronized (usedTokenMap) {
+			Iterator<Long> iterator = usedTokenMap.values().iterator();
+			while (iterator.hasNext() && iterator.next() < now) {
+				iterator.remove();
+			}
+			return usedTokenMap.putIfAbsent(signature, expireDate) == null;
+		}
+	}
+
+	/**
+	 * Signs the fields with their lengths so that a separator in a field cannot be used to forge another field
+	 */
+	private byte[] sign(String streamId, String type, long expireDate, String clientIP) {
+		StringBuilder payload = new StringBuilder();
+		for (String field : new String[] {streamId, type, String.valueOf(expireDate), clientIP}) {
+			payload.append(field.length()).append(':').append(field);
+		}
+		return macHolder.get().doFinal(payload.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public Token createToken(String streamId, long expireDate, String type) {
+		return createToken(streamId, expireDate, type, null);
+	}
+
+	@Override
+	public Token createToken(String streamId, long expireDate, String type, String clientIP) {
+		String boundIP = clientIP != null ? clientIP : "";
+
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		String tokenId = expireDate + SEPARATOR
+				+ encoder.encodeToString(boundIP.getBytes(StandardCharsets.UTF_8)) + SEPARATOR
+				+ encoder.encodeToString(sign(streamId, type, expireDate, boundIP));
+
+		Token token = new Token();
+		token.setTokenId(tokenId);
+		token.setStreamId(streamId);
+		token.setExpireDate(expireDate);
+		token.setType(type);
+		return token;
+	}
+
+	@Override
+	public boolean isPublishAllowed(IScope scope, String name, String mode, Map<String, String> queryParams) {
+
+		String tokenId = queryParams != null ? queryParams.get("token") : null;
+		IConnection connection = Red5.getConnectionLocal();
+		String clientIP = connection != null ? connection.getRemoteAddress() : null;
+
+		boolean result = verify(tokenId, name, Token.PUBLISH_TOKEN, clientIP);
+		if (!result) {
+			logger.info("Publish token is not valid for stream {}", name);
+			if (connection != null) {
+				connection.close();
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, String> getAuthenticatedMap() {
+		return authenticatedMap;
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+
+	public void setSecretKey(String secretKey) {
+		if (secretKey == null || secretKey.isEmpty()) {
+			throw new IllegalArgumentException("Secret key of " + HMACTokenService.class.getSimpleName() + " cannot be empty");
+		}
+		final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+		macHolder = ThreadLocal.withInitial(() -> {
+			try {
+				Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+				mac.init(keySpec);
+				return mac;
+			}
+			catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	public boolean isReplayFilterEnabled() {
+		return replayFilterEnabled;
+	}
+
+	public void setReplayFilterEnabled(boolean replayFilterEnabled) {
+		this.replayFilterEnabled = replayFilterEnabled;
+	}
+
+	public int getReplayFilterSize() {
+		return replayFilterSize;
+	}
+
+	public void setReplayFilterSize(int replayFilterSize) {
+		this.replayFilterSize = replayFilterSize;
+	}
+
+}
@@ -34,6 +34,19 @@ public interface ITokenService {
 
 	boolean checkToken (String tokenId, String streamId, String sessionId, String type);
 
+	/**
+	 * checks the token validity for the client
+	 * @param tokenId - requested token id
+	 * @param streamId - id of the stream
+	 * @param sessionId - id of the current session
+	 * @param type - type of the token (play/publish)
+	 * @param clientIP - address of the client
+	 * @return true or false
+	 */
+	default boolean checkToken (String tokenId, String streamId, String sessionId, String type, String clientIP) {
+		return checkToken(tokenId, streamId, sessionId, type);
+	}
+
 	/**
 	 * creates token according to the provided parameters
 	 * @param streamId - id of the requested stream for token creation
@@ -44,6 +57,26 @@ public interface ITokenService {
 
 	Token createToken(String streamId, long exprireDate, String type);
 
+	/**
+	 * creates token that is bound to the client
+	 * @param streamId - id of the requested stream for token creation
+	 * @param exprireDate - expire date of the token
+	 * @param type type of the token (play/publish)
+	 * @param clientIP - address of the client that token is bound to, it may be null
+	 * @return token
+	 */
+	default Token createToken(String streamId, long exprireDate, String type, String clientIP) {
+		return createToken(streamId, exprireDate, type);
+	}
+
+	/**
+	 * stateless tokens are verified without the datastore so they are not saved
+	 * @return true if tokens are not kept in the datastore
+	 */
+	default boolean isStateless() {
+		return false;
+	}
+
 	/**
 	 * gets  map of authenticated sessions
 	 * @return list
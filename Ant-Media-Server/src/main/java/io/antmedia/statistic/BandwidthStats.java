@@ -0,0 +1,194 @@
+package io.antmedia.statistic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps bytes delivered over HTTP per stream and rendition. Counters are striped
+ * so that they can be updated by lots of request threads without contention.
+ * 
+ * Rates are calculated periodically by {@link #calculateRates(long)}. Counters of the streams that are not 
+ * requested for {@link #getIdleEvictionPeriods()} rate periods are removed so that the requests for the VoD files 
+ * or for the streams that do not exist do not keep counters forever
+ */
+public class BandwidthStats implements BandwidthStatsMXBean {
+
+	public static final int DEFAULT_RATE_PERIOD_MS = 5000;
+
+	/**
+	 * Rendition of the files that do not have resolution in their names
+	 */
+	public static final String SOURCE_RENDITION = "source";
+
+	/**
+	 * 5 minutes with the default rate period
+	 */
+	public static final int DEFAULT_IDLE_EVICTION_PERIODS = 60;
+
+	private final Map<String, Map<String, LongAdder>> streamCounters = new ConcurrentHashMap<>();
+
+	private final LongAdder totalBytes = new LongAdder();
+
+	/**
+	 * Values in the last rate calculation, they are only accessed in {@link #calculateRates(long)}
+	 */
+	private final Map<String, Long> lastValues = new HashMap<>();
+
+	/**
+	 * Number of consecutive rate periods that the streams are not requested, it's only accessed in {@link #calculateRates(long)}
+	 */
+	private final Map<String, Integer> idlePeriods = new HashMap<>();
+
+	private int idleEvictionPeriods = DEFAULT_IDLE_EVICTION_PERIODS;
+
+	private long lastTotalBytes = 0;
+
+	private volatile Map<String, Map<String, Long>> rates = new HashMap<>();
+
+	private volatile long totalBytesPerSecond = 0;
+
+	public void addBytes(String streamId, String rendition, long bytes) {
+		Map<String, LongAdder> renditionCounters = streamCounters.get(streamId);
+		if (renditionCounters == null) {
+			renditionCounters = streamCounters.computeIfAbsent(streamId, k -> new ConcurrentHashMap<>());
+		}
+		LongAdder counter = renditionCounters.get(rendition);
+		if (counter == null) {
+			counter = renditionCounters.computeIfAbsent(rendition, k -> new LongAdder());
+		}
+		counter.add(bytes);
+		totalBytes.add(bytes);
+	}
+
+	/**
+	 * Calculates bytes per second of each stream and rendition since the last call
+	 * @param periodMS - time passed since the last call
+	 */
+	public synchronized void calculateRates(long periodMS) {
+		if (periodMS <= 0) {
+			return;
+		}
+		Map<String, Map<String, Long>> newRates = new HashMap<>();
+		List<String> idleStreams = new ArrayList<>();
+		for (Entry<String, Map<String, LongAdder>> streamEntry : streamCounters.entrySet()) {
+			Map<String, Long> renditionRates = new HashMap<>();
+			boolean requested = false;
+			for (Entry<String, LongAdder> renditionEntry : streamEntry.getValue().entrySet()) {
+				String key = streamEntry.getKey() + "/" + renditionEntry.getKey();
+				long value = renditionEntry.getValue().sum();
+				Long lastValue = lastValues.put(key, value);
+				long delta = value - (lastValue != null ? lastValue : 0);
+				renditionRates.put(renditionEntry.getKey(), delta * 1000 / periodMS);
+				requested |= delta > 0;
+			}
+			newRates.put(streamEntry.getKey(), renditionRates);
+
+			if (requested) {
+				idlePeriods.remove(streamEntry.getKey());
+			}
+			else if (idlePeriods.merge(streamEntry.getKey(), 1, Integer::sum) >= idleEvictionPeriods) {
+				idleStreams.add(streamEntry.getKey());
+			}
+		}
+		for (String streamId : idleStreams) {
+			removeStream(streamId);
+			newRates.remove(streamId);
+		}
+		long total = totalBytes.sum();
+		totalBytesPerSecond = (total - lastTotalBytes) * 1000 / periodMS;
+		lastTotalBytes = total;
+		rates = newRates;
+	}
+
+	/**
+	 * Removes the counters of a stream
+	 */
+	public synchronized void removeStream(String streamId) {
+		streamCounters.remove(streamId);
+		lastValues.keySet().removeIf(key -> key.startsWith(streamId + "/"));
+		idlePeriods.remove(streamId);
+	}
+
+	/**
+	 * Returns total bytes of each rendition of the stream
+	 * @param streamId
+	 * @return rendition to bytes map, it's empty if stream does not have any record
+	 */
+	public Map<String, Long> getBytes(String streamId) {
+		Map<String, Long> bytes = new HashMap<>();
+		Map<String, LongAdder> renditionCounters = streamCounters.get(streamId);
+		if (renditionCounters != null) {
+			for (Entry<String, LongAdder> entry : renditionCounters.entrySet()) {
+				bytes.put(entry.getKey(), entry.getValue().sum());
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns bytes per second of each rendition of the stream in the last period
+	 * @param streamId
+	 * @return rendition to rate map, it's empty if stream does not have any record
+	 */
+	public Map<String, Long> getBytesPerSecond(String streamId) {
+		Map<String, Long> renditionRates = rates.get(streamId);
+		return renditionRates != null ? new HashMap<>(renditionRates) : new HashMap<>();
+	}
+
+	@Override
+	public long getTotalBytes() {
+		return totalBytes.sum();
+	}
+
+	@Override
+	public long getTotalBytesPerSecond() {
+		return totalBytesPerSecond;
+	}
+
+	@Override
+	public Map<String, Long> getStreamBytesPerSecond() {
+		Map<String, Long> streamRates = new HashMap<>();
+		for (Entry<String, Map<String, Long>> entry : rates.entrySet()) {
+			long sum = 0;
+			for (Long rate : entry.getValue().values()) {
+				sum += rate;
+			}
+			streamRates.put(entry.getKey(), sum);
+		}
+		return streamRates;
+	}
+
+	public int getIdleEvictionPeriods() {
+		return idleEvictionPeriods;
+	}
+
+	public void setIdleEvictionPeriods(int idleEvictionPeriods) {
+		this.idleEvictionPeriods = idleEvictionPeriods;
+	}
+
+	/**
+	 * Returns the rendition of the requested file, e.g. 240p for stream_240p0001.ts
+	 * @param requestURI
+	 * @param streamId
+	 * @return rendition or {@link #SOURCE_RENDITION}
+	 */
+	public static String getRendition(String requestURI, String streamId) {
+		int index = requestURI.lastIndexOf('/') + 1 + streamId.length();
+		if (index < requestURI.length() && requestURI.charAt(index) == '_') {
+			int start = index + 1;
+			int end = start;
+			while (end < requestURI.length() && Character.isDigit(requestURI.charAt(end))) {
+				end++;
+			}
+			if (end > start && end < requestURI.length() && requestURI.charAt(end) == 'p') {
+				return requestURI.substring(start, end + 1);
+			}
+		}
+		return SOURCE_RENDITION;
+	}
+}
@@ -0,0 +1,28 @@
+package io.antmedia.statistic;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * JMX view of the bytes delivered over HTTP
+ */
+@MXBean
+public interface BandwidthStatsMXBean {
+
+	/**
+	 * Returns total bytes delivered since application is started
+	 */
+	long getTotalBytes();
+
+	/**
+	 * Returns bytes per second of the application in the last period
+	 */
+	long getTotalBytesPerSecond();
+
+	/**
+	 * Returns bytes per second of each stream in the last period
+	 */
+	Map<String, Long> getStreamBytesPerSecond();
+
+}
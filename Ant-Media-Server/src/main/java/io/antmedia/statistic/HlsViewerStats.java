@@ -38,6 +38,8 @@ public class HlsViewerStats implements IStreamStats, ApplicationContextAware{
 	 */
 	private int timeoutMS = 20000;
 
+	private ViewerStatsRecorder viewerStatsRecorder;
+
 	@Override
 	public void registerNewViewer(String streamId, String sessionId) 
 	{
@@ -49,6 +51,9 @@ public class HlsViewerStats implements IStreamStats, ApplicationContextAware{
 			//if sessionId is not in the map, this is the first time for getting stream,
 			//increment viewer count
 			getDataStore().updateHLSViewerCount(streamId, 1);
+			if (viewerStatsRecorder != null) {
+				viewerStatsRecorder.viewerJoined(streamId);
+			}
 		}
 		viewerMap.put(sessionId, System.currentTimeMillis());
 
@@ -104,6 +109,10 @@ public class HlsViewerStats implements IStreamStats, ApplicationContextAware{
 							}
 						}
 						
+						if (viewerStatsRecorder != null && numberOfDecrement > 0) {
+							viewerStatsRecorder.viewerLeft(streamViewerEntry.getKey(), numberOfDecrement);
+						}
+
 						numberOfDecrement = -1 * numberOfDecrement;
 						
 						getDataStoreFactory().getDataStore().updateHLSViewerCount(streamViewerEntry.getKey(), numberOfDecrement);
@@ -150,6 +159,14 @@ public class HlsViewerStats implements IStreamStats, ApplicationContextAware{
 	}
 	
 	
+	public ViewerStatsRecorder getViewerStatsRecorder() {
+		return viewerStatsRecorder;
+	}
+
+	public void setViewerStatsRecorder(ViewerStatsRecorder viewerStatsRecorder) {
+		this.viewerStatsRecorder = viewerStatsRecorder;
+	}
+
 	public DataStoreFactory getDataStoreFactory() {
 		return dataStoreFactory;
 	}
@@ -0,0 +1,240 @@
+package io.antmedia.statistic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import io.antmedia.webrtc.api.IWebRTCAdaptor;
+
+/**
+ * Records per-interval viewer samples of the live streams into {@link ViewerTimeSeries}
+ * and saves the downsampled history of the streams when they are finished.
+ *
+ * Recent samples of a live stream are kept in full resolution. Samples are also merged into coarser points
+ * as the stream runs so that the history of the whole broadcast is saved.
+ *
+ * HLS joins and leaves are reported by {@link HlsViewerStats}. RTMP and WebRTC joins and leaves
+ * are calculated from the changes of the viewer counts between samples.
+ */
+public class ViewerStatsRecorder {
+
+	protected static Logger logger = LoggerFactory.getLogger(ViewerStatsRecorder.class);
+
+	public static final int DEFAULT_SAMPLE_PERIOD_MS = 10000;
+
+	/**
+	 * One hour of recent samples with the default sample period
+	 */
+	public static final int DEFAULT_CAPACITY = 360;
+
+	public static final int DEFAULT_HISTORY_POINTS = 120;
+
+	private static class StreamRecord {
+		private final ViewerTimeSeries series;
+		private final ViewerTimeSeries history;
+		private final AtomicInteger joins = new AtomicInteger();
+		private final AtomicInteger leaves = new AtomicInteger();
+		private final AtomicLong bytesServed = new AtomicLong();
+		private int lastRtmpViewers = 0;
+		private int lastWebRTCViewers = 0;
+
+		StreamRecord(int capacity) {
+			series = new ViewerTimeSeries(capacity);
+			history = new ViewerTimeSeries(capacity, true);
+		}
+	}
+
+	private final Map<String, StreamRecord> records = new ConcurrentHashMap<>();
+
+	private final IScope scope;
+
+	private final File historyDirectory;
+
+	private IStreamStats hlsViewerStats;
+
+	private IWebRTCAdaptor webRTCAdaptor;
+
+	private int capacity = DEFAULT_CAPACITY;
+
+	private int historyPoints = DEFAULT_HISTORY_POINTS;
+
+	private final Gson gson = new Gson();
+
+	public ViewerStatsRecorder(IScope scope, File historyDirectory) {
+		this.scope = scope;
+		this.historyDirectory = historyDirectory;
+	}
+
+	/**
+	 * Starts recording samples of the stream
+	 */
+	public void streamStarted(String streamId) {
+		records.computeIfAbsent(streamId, id -> new StreamRecord(capacity));
+	}
+
+	/**
+	 * Stops recording samples of the stream and saves the downsampled history
+	 */
+	public void streamFinished(String streamId) {
+		StreamRecord record = records.remove(streamId);
+		if (record != null && record.history.getCount() > 0) {
+			saveHistory(streamId, ViewerTimeSeries.downsample(record.history.getSamples(), historyPoints));
+		}
+	}
+
+	public void viewerJoined(String streamId) {
+		StreamRecord record = records.get(streamId);
+		if (record != null) {
+			record.joins.incrementAndGet();
+		}
+	}
+
+	public void viewerLeft(String streamId, int count) {
+		StreamRecord record = records.get(streamId);
+		if (record != null) {
+			record.leaves.addAndGet(count);
+		}
+	}
+
+	public void addBytesServed(String streamId, long bytes) {
+		StreamRecord record = records.get(streamId);
+		if (record != null) {
+			record.bytesServed.addAndGet(bytes);
+		}
+	}
+
+	/**
+	 * Records one sample for each live stream. It's called periodically by the scheduler
+	 */
+	public void sample() {
+		long now = System.currentTimeMillis();
+		for (Entry<String, StreamRecord> entry : records.entrySet()) {
+			String streamId = entry.getKey();
+			StreamRecord record = entry.getValue();
+
+			int hlsViewers = hlsViewerStats != null ? hlsViewerStats.getViewerCount(streamId) : 0;
+
+			int rtmpViewers = 0;
+			IBroadcastScope broadcastScope = scope.getBroadcastScope(streamId);
+			if (broadcastScope != null) {
+				rtmpViewers = broadcastScope.getConsumers().size();
+			}
+
+			int webRTCViewers = webRTCAdaptor != null ? webRTCAdaptor.getNumberOfViewers(streamId) : 0;
+
+			int joins = record.joins.getAndSet(0);
+			int leaves = record.leaves.getAndSet(0);
+			//changes are counted per protocol, so a join of one protocol does not cancel a leave of the other
+			int rtmpChange = rtmpViewers - record.lastRtmpViewers;
+			int webRTCChange = webRTCViewers - record.lastWebRTCViewers;
+			joins += Math.max(rtmpChange, 0) + Math.max(webRTCChange, 0);
+			leaves += Math.max(-rtmpChange, 0) + Math.max(-webRTCChange, 0);
+			record.lastRtmpViewers = rtmpViewers;
+			record.lastWebRTCViewers = webRTCViewers;
+
+			long bytesServed = record.bytesServed.getAndSet(0);
+			record.series.add(now, hlsViewers, rtmpViewers, webRTCViewers, joins, leaves, bytesServed);
+			record.history.add(now, hlsViewers, rtmpViewers, webRTCViewers, joins, leaves, bytesServed);
+		}
+	}
+
+	/**
+	 * Returns recent samples of a live stream or saved history of a finished stream
+	 * @param streamId
+	 * @return samples or null if there is no record of the stream
+	 */
+	public ViewerTimeSeries.Samples getSamples(String streamId) {
+		StreamRecord record = records.get(streamId);
+		if (record != null) {
+			return record.series.getSamples();
+		}
+		return readHistory(streamId);
+	}
+
+	private File getHistoryFile(String streamId) {
+		if (streamId == null || streamId.contains("/") || streamId.contains("\\") || streamId.contains("..")) {
+			return null;
+		}
+		return new File(historyDirectory, streamId + ".json");
+	}
+
+	private void saveHistory(String streamId, ViewerTimeSeries.Samples samples) {
+		File file = getHistoryFile(streamId);
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.createDirectories(historyDirectory.toPath());
+			Files.write(file.toPath(), gson.toJson(samples).getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			logger.error(ExceptionUtils.getStackTrace(e));
+		}
+	}
+
+	private ViewerTimeSeries.Samples readHistory(String streamId) {
+		File file = getHistoryFile(streamId);
+		if (file != null && file.exists()) {
+			try {
+				String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+				return gson.fromJson(json, ViewerTimeSeries.Samples.class);
+			} catch (IOException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+		return null;
+	}
+
+	public void deleteHistory(String streamId) {
+		File file = getHistoryFile(streamId);
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file.toPath());
+			} catch (IOException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+
+	public boolean isRecording(String streamId) {
+		return records.containsKey(streamId);
+	}
+
+	public void setHlsViewerStats(IStreamStats hlsViewerStats) {
+		this.hlsViewerStats = hlsViewerStats;
+	}
+
+	public void setWebRTCAdaptor(IWebRTCAdaptor webRTCAdaptor) {
+		this.webRTCAdaptor = webRTCAdaptor;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public int getHistoryPoints() {
+		return historyPoints;
+	}
+
+	public void setHistoryPoints(int historyPoints) {
+		this.historyPoints = historyPoints;
+	}
+
+}
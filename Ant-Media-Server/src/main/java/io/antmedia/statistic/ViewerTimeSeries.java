@@ -0,0 +1,213 @@
+package io.antmedia.statistic;
+
+/**
+ * Fixed size ring buffer of per-interval viewer samples of a stream.
+ * Samples are kept in primitive arrays so recording a sample does not allocate.
+ *
+ * If it's created in merging mode, samples are not overwritten when the buffer is full. Consecutive points are 
+ * merged in pairs instead and each point keeps twice as many samples from then on, so the series covers the whole 
+ * recording with a resolution that decreases as the recording runs.
+ */
+public class ViewerTimeSeries {
+
+	/**
+	 * Compact representation of the samples ordered from the oldest to the newest
+	 */
+	public static class Samples {
+		public final long[] time;
+		public final int[] hlsViewers;
+		public final int[] rtmpViewers;
+		public final int[] webRTCViewers;
+		public final int[] joins;
+		public final int[] leaves;
+		public final long[] bytesServed;
+
+		public Samples(int size) {
+			time = new long[size];
+			hlsViewers = new int[size];
+			rtmpViewers = new int[size];
+			webRTCViewers = new int[size];
+			joins = new int[size];
+			leaves = new int[size];
+			bytesServed = new long[size];
+		}
+
+		public int size() {
+			return time.length;
+		}
+	}
+
+	private final long[] time;
+	private final int[] hlsViewers;
+	private final int[] rtmpViewers;
+	private final int[] webRTCViewers;
+	private final int[] joins;
+	private final int[] leaves;
+	private final long[] bytesServed;
+
+	/**
+	 * Index of the next sample
+	 */
+	private int head = 0;
+
+	private int count = 0;
+
+	private final boolean merging;
+
+	/**
+	 * Number of samples that are merged into a point in merging mode
+	 */
+	private int samplesPerPoint = 1;
+
+	/**
+	 * Number of samples that are merged into the last point in merging mode
+	 */
+	private int lastPointSamples = 0;
+
+	public ViewerTimeSeries(int capacity) {
+		this(capacity, false);
+	}
+
+	/**
+	 * @param capacity - maximum number of points
+	 * @param merging - merges the points instead of overwriting the oldest one if it's true
+	 */
+	public ViewerTimeSeries(int capacity, boolean merging) {
+		this.merging = merging;
+		time = new long[capacity];
+		hlsViewers = new int[capacity];
+		rtmpViewers = new int[capacity];
+		webRTCViewers = new int[capacity];
+		joins = new int[capacity];
+		leaves = new int[capacity];
+		bytesServed = new long[capacity];
+	}
+
+	/**
+	 * Records a sample, the oldest one is overwritten if buffer is full and it's not in merging mode
+	 */
+	public synchronized void add(long sampleTime, int hls, int rtmp, int webRTC, int joinCount, int leaveCount, long bytes) {
+		if (merging) {
+			if (lastPointSamples == samplesPerPoint && count == time.length) {
+				mergePairs();
+			}
+			if (count > 0 && lastPointSamples < samplesPerPoint) {
+				merge(count - 1, hls, rtmp, webRTC, joinCount, leaveCount, bytes);
+				lastPointSamples++;
+				return;
+			}
+			lastPointSamples = 1;
+		}
+
+		time[head] = sampleTime;
+		hlsViewers[head] = hls;
+		rtmpViewers[head] = rtmp;
+		webRTCViewers[head] = webRTC;
+		joins[head] = joinCount;
+		leaves[head] = leaveCount;
+		bytesServed[head] = bytes;
+
+		head = (head + 1) % time.length;
+		if (count < time.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * Merges the sample into the point. Viewer counts are the peak values, joins, leaves and bytes are summed up
+	 * and time is the time of the first merged sample
+	 */
+	private void merge(int index, int hls, int rtmp, int webRTC, int joinCount, int leaveCount, long bytes) {
+		hlsViewers[index] = Math.max(hlsViewers[index], hls);
+		rtmpViewers[index] = Math.max(rtmpViewers[index], rtmp);
+		webRTCViewers[index] = Math.max(webRTCViewers[index], webRTC);
+		joins[index] += joinCount;
+		leaves[index] += leaveCount;
+		bytesServed[index] += bytes;
+	}
+
+	/**
+	 * Merges consecutive points in pairs and doubles the number of samples per point. 
+	 * Points are not wrapped around in merging mode so they start from index zero
+	 */
+	private void mergePairs() {
+		int mergedCount = (count + 1) / 2;
+		for (int i = 0; i < mergedCount; i++) {
+			int first = i * 2;
+			time[i] = time[first];
+			hlsViewers[i] = hlsViewers[first];
+			rtmpViewers[i] = rtmpViewers[first];
+			webRTCViewers[i] = webRTCViewers[first];
+			joins[i] = joins[first];
+			leaves[i] = leaves[first];
+			bytesServed[i] = bytesServed[first];
+			if (first + 1 < count) {
+				int second = first + 1;
+				merge(i, hlsViewers[second], rtmpViewers[second], webRTCViewers[second], joins[second], leaves[second], bytesServed[second]);
+			}
+		}
+		//last point has the samples of a single point if the number of points is odd
+		lastPointSamples = count % 2 == 0 ? samplesPerPoint * 2 : samplesPerPoint;
+		samplesPerPoint *= 2;
+		count = mergedCount;
+		head = count % time.length;
+	}
+
+	public synchronized Samples getSamples() {
+		Samples samples = new Samples(count);
+		int start = (head - count + time.length) % time.length;
+		for (int i = 0; i < count; i++) {
+			int index = (start + i) % time.length;
+			samples.time[i] = time[index];
+			samples.hlsViewers[i] = hlsViewers[index];
+			samples.rtmpViewers[i] = rtmpViewers[index];
+			samples.webRTCViewers[i] = webRTCViewers[index];
+			samples.joins[i] = joins[index];
+			samples.leaves[i] = leaves[index];
+			samples.bytesServed[i] = bytesServed[index];
+		}
+		return samples;
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	public int getCapacity() {
+		return time.length;
+	}
+
+	public synchronized int getSamplesPerPoint() {
+		return samplesPerPoint;
+	}
+
+	/**
+	 * Merges consecutive samples so that there are at most maxPoints samples.
+	 * Viewer counts are the peak values of the merged samples, joins, leaves and bytes are summed up
+	 * and time is the time of the first merged sample
+	 */
+	public static Samples downsample(Samples samples, int maxPoints) {
+		int size = samples.size();
+		if (size <= maxPoints) {
+			return samples;
+		}
+		int bucketSize = (size + maxPoints - 1) / maxPoints;
+		int bucketCount = (size + bucketSize - 1) / bucketSize;
+		Samples result = new Samples(bucketCount);
+
+		for (int i = 0; i < size; i++) {
+			int bucket = i / bucketSize;
+			if (i % bucketSize == 0) {
+				result.time[bucket] = samples.time[i];
+			}
+			result.hlsViewers[bucket] = Math.max(result.hlsViewers[bucket], samples.hlsViewers[i]);
+			result.rtmpViewers[bucket] = Math.max(result.rtmpViewers[bucket], samples.rtmpViewers[i]);
+			result.webRTCViewers[bucket] = Math.max(result.webRTCViewers[bucket], samples.webRTCViewers[i]);
+			result.joins[bucket] += samples.joins[i];
+			result.leaves[bucket] += samples.leaves[i];
+			result.bytesServed[bucket] += samples.bytesServed[i];
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,290 @@
+package io.antmedia.streamsource;
+
+import static org.bytedeco.javacpp.avcodec.av_packet_alloc;
+import static org.bytedeco.javacpp.avcodec.av_packet_free;
+import static org.bytedeco.javacpp.avcodec.av_packet_unref;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of native AVPackets that is shared by the packet loops of the stream fetchers and RTSP sessions.
+ *
+ * Released packets are kept in a small per thread cache first so that a loop that acquires and releases
+ * packets on the same thread does not contend with the others. Packets that do not fit in the thread cache
+ * are kept in the shared pool up to {@link #maxPooledPackets} and the rest are freed. Thread caches of the
+ * threads that are terminated are freed by {@link #reclaimDeadThreadCaches()}.
+ *
+ * Number of packets that are acquired and not released yet is always counted. A sample of the acquired packets
+ * is also tracked with their acquire time so that native packet leaks can be seen in the metrics before the process 
+ * runs out of memory. All packets are tracked if debug log is enabled.
+ */
+public class AVPacketPool implements AVPacketPoolMXBean {
+
+	protected static Logger logger = LoggerFactory.getLogger(AVPacketPool.class);
+
+	public static final int DEFAULT_MAX_POOLED_PACKETS = 4096;
+
+	public static final int DEFAULT_THREAD_CACHE_SIZE = 32;
+
+	/**
+	 * One of this number of acquired packets is tracked by default
+	 */
+	public static final int DEFAULT_TRACKING_SAMPLE_RATE = 64;
+
+	private static AVPacketPool instance;
+
+	private static class OutstandingPacket {
+		private final AVPacket packet;
+		private final long acquireTime;
+
+		OutstandingPacket(AVPacket packet, long acquireTime) {
+			this.packet = packet;
+			this.acquireTime = acquireTime;
+		}
+	}
+
+	private final int maxPooledPackets;
+
+	private final int threadCacheSize;
+
+	private static class ThreadCache {
+		private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+		private final ArrayDeque<AVPacket> packets = new ArrayDeque<>();
+
+		boolean isOwnerAlive() {
+			Thread thread = owner.get();
+			return thread != null && thread.isAlive();
+		}
+	}
+
+	/**
+	 * Thread caches of all threads that use the pool
+	 */
+	private final ConcurrentLinkedQueue<ThreadCache> threadCaches = new ConcurrentLinkedQueue<>();
+
+	private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial(() -> {
+		ThreadCache cache = new ThreadCache();
+		threadCaches.add(cache);
+		return cache;
+	});
+
+	private final ConcurrentLinkedQueue<AVPacket> sharedPool = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger sharedPoolSize = new AtomicInteger();
+
+	private final AtomicInteger pooledPacketCount = new AtomicInteger();
+
+	/**
+	 * Sampled packets that are acquired and not released yet
+	 */
+	private final Map<AVPacket, OutstandingPacket> outstandingPackets = new ConcurrentHashMap<>();
+
+	/**
+	 * One of this number of acquired packets is tracked. All packets are tracked if it's 1 and none is tracked if it's 0
+	 */
+	private volatile int trackingSampleRate = DEFAULT_TRACKING_SAMPLE_RATE;
+
+	private final LongAdder acquiredPacketCount = new LongAdder();
+
+	private final LongAdder releasedPacketCount = new LongAdder();
+
+	private final AtomicLong allocatedPacketCount = new AtomicLong();
+
+	private final AtomicLong freedPacketCount = new AtomicLong();
+
+	public AVPacketPool(int maxPooledPackets, int threadCacheSize) {
+		this.maxPooledPackets = maxPooledPackets;
+		this.threadCacheSize = threadCacheSize;
+	}
+
+	public static synchronized AVPacketPool getInstance() {
+		if (instance == null) {
+			instance = new AVPacketPool(DEFAULT_MAX_POOLED_PACKETS, DEFAULT_THREAD_CACHE_SIZE);
+			if (logger.isDebugEnabled()) {
+				instance.setTrackingSampleRate(1);
+			}
+			try {
+				ObjectName objectName = new ObjectName("org.red5.server:type=AVPacketPool");
+				MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+				if (!mbs.isRegistered(objectName)) {
+					mbs.registerMBean(new StandardMBean(instance, AVPacketPoolMXBean.class, true), objectName);
+				}
+			} catch (Exception e) {
+				logger.warn("Error on jmx registration {}", e.getMessage());
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns an empty packet. It should be given back with {@link #release(AVPacket)}
+	 */
+	public AVPacket acquire() {
+		AVPacket packet = threadCache.get().packets.pollLast();
+		if (packet == null) {
+			packet = sharedPool.poll();
+			if (packet != null) {
+				sharedPoolSize.decrementAndGet();
+			}
+		}
+
+		if (packet != null) {
+			pooledPacketCount.decrementAndGet();
+		}
+		else {
+			packet = av_packet_alloc();
+			allocatedPacketCount.incrementAndGet();
+		}
+
+		acquiredPacketCount.increment();
+		int sampleRate = trackingSampleRate;
+		if (sampleRate == 1 || (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) == 0)) {
+			outstandingPackets.put(packet, new OutstandingPacket(packet, System.currentTimeMillis()));
+		}
+		return packet;
+	}
+
+	/**
+	 * Unreferences the data of the packet and gives the packet back to the pool.
+	 * If all packets are tracked, a packet that is not acquired from the pool or that is released twice 
+	 * is only unreferenced so that its data does not leak
+	 */
+	public void release(AVPacket packet) {
+		if (packet == null) {
+			return;
+		}
+
+		boolean tracked = !outstandingPackets.isEmpty() && outstandingPackets.remove(packet) != null;
+		av_packet_unref(packet);
+
+		if (!tracked && trackingSampleRate == 1) {
+			logger.warn("Packet is not acquired from the pool or it's released twice");
+			return;
+		}
+		releasedPacketCount.increment();
+
+		ArrayDeque<AVPacket> cache = threadCache.get().packets;
+		if (cache.size() < threadCacheSize) {
+			cache.addLast(packet);
+			pooledPacketCount.incrementAndGet();
+		}
+		else if (sharedPoolSize.incrementAndGet() <= maxPooledPackets) {
+			sharedPool.offer(packet);
+			pooledPacketCount.incrementAndGet();
+		}
+		else {
+			sharedPoolSize.decrementAndGet();
+			av_packet_free(packet);
+			freedPacketCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Frees the packets in the thread caches of the threads that are terminated
+	 * @return number of packets that are freed
+	 */
+	public int reclaimDeadThreadCaches() {
+		int count = 0;
+		Iterator<ThreadCache> iterator = threadCaches.iterator();
+		while (iterator.hasNext()) {
+			ThreadCache cache = iterator.next();
+			if (!cache.isOwnerAlive()) {
+				iterator.remove();
+				AVPacket packet;
+				while ((packet = cache.packets.poll()) != null) {
+					av_packet_free(packet);
+					pooledPacketCount.decrementAndGet();
+					freedPacketCount.incrementAndGet();
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of sampled packets that are not released for longer than the duration
+	 */
+	public int getOutstandingPacketCount(long olderThanMs) {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (OutstandingPacket outstandingPacket : outstandingPackets.values()) {
+			if (now - outstandingPacket.acquireTime > olderThanMs) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int getOutstandingPacketCount() {
+		return (int) (acquiredPacketCount.sum() - releasedPacketCount.sum());
+	}
+
+	@Override
+	public long getEstimatedOutstandingBytes() {
+		long sampledBytes = 0;
+		int sampledCount = 0;
+		for (OutstandingPacket outstandingPacket : outstandingPackets.values()) {
+			sampledBytes += outstandingPacket.packet.size();
+			sampledCount++;
+		}
+		if (sampledCount == 0) {
+			return 0;
+		}
+		//average size of the sampled packets is scaled to all outstanding packets
+		return sampledBytes * Math.max(getOutstandingPacketCount(), sampledCount) / sampledCount;
+	}
+
+	@Override
+	public long getOldestOutstandingAgeMs() {
+		long now = System.currentTimeMillis();
+		long age = 0;
+		for (OutstandingPacket outstandingPacket : outstandingPackets.values()) {
+			age = Math.max(age, now - outstandingPacket.acquireTime);
+		}
+		return age;
+	}
+
+	@Override
+	public int getPooledPacketCount() {
+		return pooledPacketCount.get();
+	}
+
+	@Override
+	public long getAllocatedPacketCount() {
+		return allocatedPacketCount.get();
+	}
+
+	@Override
+	public long getFreedPacketCount() {
+		return freedPacketCount.get();
+	}
+
+	public int getTrackingSampleRate() {
+		return trackingSampleRate;
+	}
+
+	public void setTrackingSampleRate(int trackingSampleRate) {
+		this.trackingSampleRate = trackingSampleRate;
+	}
+
+}
@@ -0,0 +1,43 @@
+package io.antmedia.streamsource;
+
+import javax.management.MXBean;
+
+/**
+ * JMX view of the native packets allocated by {@link AVPacketPool}
+ */
+@MXBean
+public interface AVPacketPoolMXBean {
+
+	/**
+	 * Returns number of packets that are acquired and not released yet
+	 */
+	int getOutstandingPacketCount();
+
+	/**
+	 * Returns estimated payload size of the packets that are acquired and not released yet.
+	 * Average payload size of the sampled packets is multiplied by the number of outstanding packets, 
+	 * so it's exact only if all packets are tracked
+	 */
+	long getEstimatedOutstandingBytes();
+
+	/**
+	 * Returns age of the oldest sampled packet that is not released yet in milliseconds
+	 */
+	long getOldestOutstandingAgeMs();
+
+	/**
+	 * Returns number of packets that are kept in the pool for reuse
+	 */
+	int getPooledPacketCount();
+
+	/**
+	 * Returns number of packets that are allocated since application is started
+	 */
+	long getAllocatedPacketCount();
+
+	/**
+	 * Returns number of packets that are freed since application is started
+	 */
+	long getFreedPacketCount();
+
+}
@@ -0,0 +1,62 @@
+package io.antmedia.streamsource;
+
+/**
+ * Decides whether a source delivers packets steadily. Stream fetcher keeps reading the primary source 
+ * in background while a backup source is active and switches back to the primary only when it's stable
+ * so that a flapping primary source does not cause switches back and forth.
+ */
+public class SourceStabilityTracker {
+
+	/**
+	 * Source should deliver packets at least for this duration without a gap to be stable
+	 */
+	private final long stablePeriodMs;
+
+	/**
+	 * Maximum time between two packets of a stable source
+	 */
+	private final long maxGapMs;
+
+	private long startTime = -1;
+
+	private long firstPacketTime = -1;
+
+	private long lastPacketTime = -1;
+
+	public SourceStabilityTracker(long stablePeriodMs, long maxGapMs) {
+		this.stablePeriodMs = stablePeriodMs;
+		this.maxGapMs = maxGapMs;
+	}
+
+	/**
+	 * Starts tracking a newly opened source
+	 */
+	public void start(long now) {
+		startTime = now;
+		firstPacketTime = -1;
+		lastPacketTime = -1;
+	}
+
+	public void packetReceived(long now) {
+		if (firstPacketTime == -1 || now - lastPacketTime > maxGapMs) {
+			//stable period starts again after a gap
+			firstPacketTime = now;
+		}
+		lastPacketTime = now;
+	}
+
+	/**
+	 * @return true if source delivered packets for the stable period without a gap
+	 */
+	public boolean isStable() {
+		return firstPacketTime != -1 && lastPacketTime - firstPacketTime >= stablePeriodMs;
+	}
+
+	/**
+	 * @return true if source did not deliver any packet for longer than the max gap
+	 */
+	public boolean isFailed(long now) {
+		long lastTime = lastPacketTime != -1 ? lastPacketTime : startTime;
+		return lastTime != -1 && now - lastTime > maxGapMs;
+	}
+}
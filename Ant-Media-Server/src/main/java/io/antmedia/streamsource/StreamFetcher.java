@@ -1,24 +1,56 @@
 package io.antmedia.streamsource;
 
-import static org.bytedeco.javacpp.avcodec.av_packet_free;
+import static org.bytedeco.javacpp.avcodec.AV_INPUT_BUFFER_PADDING_SIZE;
+import static org.bytedeco.javacpp.avcodec.AV_PKT_FLAG_KEY;
 import static org.bytedeco.javacpp.avcodec.av_packet_ref;
 import static org.bytedeco.javacpp.avcodec.av_packet_unref;
+import static org.bytedeco.javacpp.avformat.AVFMT_FLAG_NONBLOCK;
 import static org.bytedeco.javacpp.avformat.av_read_frame;
+import static org.bytedeco.javacpp.avformat.avformat_alloc_context;
 import static org.bytedeco.javacpp.avformat.avformat_close_input;
+import static org.bytedeco.javacpp.avformat.avformat_free_context;
 import static org.bytedeco.javacpp.avformat.avformat_find_stream_info;
 import static org.bytedeco.javacpp.avformat.avformat_open_input;
 import static org.bytedeco.javacpp.avutil.av_dict_free;
 import static org.bytedeco.javacpp.avutil.av_dict_set;
+import static org.bytedeco.javacpp.avutil.av_mallocz;
 import static org.bytedeco.javacpp.avutil.av_rescale_q;
+import static org.bytedeco.javacpp.avutil.AVERROR_EAGAIN;
+import static org.bytedeco.javacpp.avutil.AV_NOPTS_VALUE;
 import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_AUDIO;
-
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_VIDEO;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.avcodec.AVCodecParameters;
 import org.bytedeco.javacpp.avcodec.AVPacket;
 import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avformat.AVIOInterruptCB;
+import org.bytedeco.javacpp.avformat.AVStream;
 import org.bytedeco.javacpp.avutil;
 import org.bytedeco.javacpp.avutil.AVDictionary;
 import org.bytedeco.javacpp.avutil.AVRational;
@@ -38,7 +70,7 @@ public class StreamFetcher {
 
 	protected static Logger logger = LoggerFactory.getLogger(StreamFetcher.class);
 	private Broadcast stream;
-	private WorkerThread thread;
+	private FetchTask fetchTask;
 	/**
 	 * Connection setup timeout value
 	 */
@@ -50,6 +82,121 @@ public class StreamFetcher {
 	 */
 	private long lastPacketReceivedTime = 0;
 	private boolean threadActive = false;
+
+	/**
+	 * It's true if start is requested while a fetch task is running
+	 */
+	private boolean startPending = false;
+
+	/**
+	 * Delay before starting a new fetch task after stop or restart
+	 */
+	private static final int RESTART_DELAY_IN_MS = 2000;
+
+	private StreamFetcherWorkerPool workerPool;
+
+	/**
+	 * Probe size and analyze duration that are used when there is a cached stream info of the source
+	 */
+	public static final int FAST_PROBE_SIZE = 32 * 1024;
+
+	public static final int FAST_ANALYZE_DURATION_US = 500000;
+
+	/**
+	 * FFmpeg's default values that are used when cached stream info does not match
+	 */
+	public static final int DEFAULT_PROBE_SIZE = 5000000;
+
+	public static final int DEFAULT_ANALYZE_DURATION_US = 5000000;
+
+	private StreamInfoCache streamInfoCache;
+
+	public static final String RESTART_REASON_PERIODIC = "periodic";
+
+	public static final String RESTART_REASON_RECONNECT = "reconnect";
+
+	public static final String RESTART_REASON_MANUAL = "manual";
+
+	public static final String RESTART_REASON_FAILOVER = "failover";
+
+	public static final String RESTART_REASON_FAILBACK = "failback";
+
+	/**
+	 * Initial period of probing the primary source while a backup source is fetched. Period is doubled 
+	 * after each failed probe up to {@link #MAX_PRIMARY_PROBE_INTERVAL_MS}
+	 */
+	public static final int PRIMARY_PROBE_INTERVAL_MS = 10000;
+
+	public static final int MAX_PRIMARY_PROBE_INTERVAL_MS = 160000;
+
+	/**
+	 * Primary source should deliver packets for this duration before fetcher switches back to it
+	 */
+	public static final int PRIMARY_STABLE_PERIOD_MS = 5000;
+
+	/**
+	 * Gap between the last packet of the previous source and the first packet of the new source
+	 * in milliseconds. It's about one frame duration
+	 */
+	public static final int SOURCE_SWITCH_TIMESTAMP_GAP_MS = 40;
+
+	public static final int SOURCE_OPENER_THREAD_COUNT = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+	public static final int SOURCE_OPENER_QUEUE_SIZE = 1024;
+
+	/**
+	 * Opens the sources in background so that workers are not blocked by connection setup. 
+	 * Open requests are rejected when the queue is full and they are retried later by the fetchers
+	 */
+	private static final ExecutorService sourceOpenExecutor = createSourceOpenExecutor();
+
+	/**
+	 * Urls that are fetched in order when the active source stops delivering packets.
+	 * Stream url of the broadcast is the primary source
+	 */
+	private volatile List<String> backupSourceUrls = new ArrayList<>();
+
+	/**
+	 * Stream url followed by the backup source urls. It's rebuilt when they are changed
+	 */
+	private volatile List<String> sourceUrls;
+
+	/**
+	 * Index of the source that is being fetched in {@link #getSourceUrls()}
+	 */
+	private volatile int activeSourceIndex = 0;
+
+	public static final int RESTART_HISTORY_SIZE = 20;
+
+	/**
+	 * Quality value of the source in datastore when it's unreachable and circuit is open
+	 */
+	public static final String QUALITY_CIRCUIT_OPEN = "circuit_open";
+
+	private final StreamSourceCircuitBreaker circuitBreaker = new StreamSourceCircuitBreaker();
+
+	private final StreamSourceMetrics metrics = new StreamSourceMetrics();
+
+	public static class RestartRecord {
+		public final long time;
+		public final String reason;
+
+		public RestartRecord(long time, String reason) {
+			this.time = time;
+			this.reason = reason;
+		}
+	}
+
+	/**
+	 * Last {@link #RESTART_HISTORY_SIZE} restarts of the fetcher
+	 */
+	private final Deque<RestartRecord> restartHistory = new ArrayDeque<>();
+
+	/**
+	 * Streams that have the same url with this fetcher's stream. They are fed from the 
+	 * same connection instead of connecting to the source again
+	 */
+	private final Map<String, Broadcast> subscriberStreams = new ConcurrentHashMap<>();
 	private Result cameraError=new Result(false,"");
 	private static final int PACKET_RECEIVED_INTERVAL_TIMEOUT = 3000;
 	private IScope scope;
@@ -68,9 +215,65 @@ public class StreamFetcher {
 	 */
 	private int bufferTime = 0;
 
-	private ConcurrentLinkedQueue<AVPacket> availableBufferQueue = new ConcurrentLinkedQueue<>();
+	public static final long DEFAULT_BUFFER_MAX_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Maximum total size of the buffered packets in bytes. Non-keyframe packets are dropped
+	 * when buffer reaches this size so that a source faster than real time cannot exhaust the memory
+	 */
+	private long bufferMaxSize = DEFAULT_BUFFER_MAX_SIZE;
+
+	private AtomicInteger bufferedPacketCount = new AtomicInteger();
+
+	private AtomicLong bufferedBytes = new AtomicLong();
+
+	private AtomicLong droppedPacketCount = new AtomicLong();
+
+	/**
+	 * Duration between the first and the last packets in the buffer in milliseconds
+	 */
+	private volatile long bufferDuration = 0;
+
+	private AVPacketPool packetPool = AVPacketPool.getInstance();
 
 	private ISchedulingService scheduler;
+
+	/**
+	 * Fetch task and deadline of the blocking call that runs on the current thread.
+	 * FFmpeg calls the interrupt callback on the thread that runs the blocking call so
+	 * the callback does not need any allocation to find the task
+	 */
+	private static class InterruptContext {
+		private FetchTask task;
+		private long deadline;
+
+		void set(FetchTask task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		void clear() {
+			task = null;
+			deadline = 0;
+		}
+
+		boolean isInterrupted() {
+			return task != null && (task.isInterruptRequested() || (deadline > 0 && System.currentTimeMillis() > deadline));
+		}
+	}
+
+	private static final ThreadLocal<InterruptContext> interruptContext = ThreadLocal.withInitial(InterruptContext::new);
+
+	/**
+	 * Interrupt callback of all input contexts. It aborts the blocking call if the task is stopped or 
+	 * the deadline of the call is passed
+	 */
+	private static final AVIOInterruptCB.Callback_Pointer interruptCallback = new AVIOInterruptCB.Callback_Pointer() {
+		@Override
+		public int call(Pointer opaque) {
+			return interruptContext.get().isInterrupted() ? 1 : 0;
+		}
+	};
 	private AVRational avRationalTimeBaseMS;
 	private AppSettings appSettings;
 
@@ -91,6 +294,7 @@ public class StreamFetcher {
 		this.stream = stream;
 		this.scope = scope;
 		this.scheduler = scheduler;
+		updateSourceUrls();
 
 
 		if (getAppSettings() == null) {
@@ -119,7 +323,7 @@ public class StreamFetcher {
 
 		AVDictionary optionsDictionary = new AVDictionary();
 
-		String streamUrl = stream.getStreamUrl();
+		String streamUrl = getActiveSourceUrl();
 		if (streamUrl.startsWith("rtsp://")) {
 			av_dict_set(optionsDictionary, "rtsp_transport", "tcp", 0);
 		}
@@ -127,11 +331,23 @@ public class StreamFetcher {
 		String timeoutStr = String.valueOf(this.timeout);
 		av_dict_set(optionsDictionary, "stimeout", timeoutStr, 0);
 
+		StreamInfoCache.StreamInfo cachedStreamInfo = null;
+		if (getStreamInfoCache() != null) {
+			cachedStreamInfo = getStreamInfoCache().get(stream.getStreamId());
+			if (cachedStreamInfo != null && streamUrl.equals(cachedStreamInfo.streamUrl)) {
+				av_dict_set(optionsDictionary, "probesize", String.valueOf(FAST_PROBE_SIZE), 0);
+				av_dict_set(optionsDictionary, "analyzeduration", String.valueOf(FAST_ANALYZE_DURATION_US), 0);
+			}
+			else {
+				cachedStreamInfo = null;
+			}
+		}
+
 		int ret;
 
-		logger.debug("stream url: {}  " , stream.getStreamUrl());
+		logger.debug("stream url: {}  " , streamUrl);
 
-		if ((ret = avformat_open_input(inputFormatContext, stream.getStreamUrl(), null, optionsDictionary)) < 0) {
+		if ((ret = avformat_open_input(inputFormatContext, streamUrl, null, optionsDictionary)) < 0) {
 
 			byte[] data = new byte[1024];
 			avutil.av_strerror(ret, data, data.length);
@@ -147,6 +363,15 @@ public class StreamFetcher {
 		av_dict_free(optionsDictionary);
 
 		ret = avformat_find_stream_info(inputFormatContext, (AVDictionary) null);
+
+		if (cachedStreamInfo != null && (ret < 0 || !applyCachedStreamInfo(inputFormatContext, cachedStreamInfo))) {
+			logger.info("Stream info of {} does not match the cached info, probing with default values", stream.getStreamId());
+			inputFormatContext.probesize(DEFAULT_PROBE_SIZE);
+			inputFormatContext.max_analyze_duration(DEFAULT_ANALYZE_DURATION_US);
+			ret = avformat_find_stream_info(inputFormatContext, (AVDictionary) null);
+			cachedStreamInfo = null;
+		}
+
 		if (ret < 0) {
 
 			result.setMessage("Could not find stream information\n");
@@ -154,6 +379,10 @@ public class StreamFetcher {
 			return result;
 		}
 
+		if (cachedStreamInfo == null && getStreamInfoCache() != null) {
+			getStreamInfoCache().put(stream.getStreamId(), getStreamInfo(inputFormatContext));
+		}
+
 		lastDTS = new long[inputFormatContext.nb_streams()];
 
 		for (int i = 0; i < lastDTS.length; i++) {
@@ -165,295 +394,1352 @@ public class StreamFetcher {
 
 	}
 
-	public Result prepare(AVFormatContext inputFormatContext) {
-		Result result = prepareInput(inputFormatContext);
+	/**
+	 * Creates the stream info from the probed codec parameters of the input
+	 */
+	public StreamInfoCache.StreamInfo getStreamInfo(AVFormatContext inputFormatContext) {
+		StreamInfoCache.StreamInfo streamInfo = new StreamInfoCache.StreamInfo();
+		streamInfo.streamUrl = getActiveSourceUrl();
+		for (int i = 0; i < inputFormatContext.nb_streams(); i++) {
+			AVStream avStream = inputFormatContext.streams(i);
+			AVCodecParameters codecpar = avStream.codecpar();
+
+			StreamInfoCache.CodecInfo codecInfo = new StreamInfoCache.CodecInfo();
+			codecInfo.codecType = codecpar.codec_type();
+			codecInfo.codecId = codecpar.codec_id();
+			codecInfo.profile = codecpar.profile();
+			codecInfo.width = codecpar.width();
+			codecInfo.height = codecpar.height();
+			codecInfo.sampleRate = codecpar.sample_rate();
+			codecInfo.channels = codecpar.channels();
+			codecInfo.timeBaseNum = avStream.time_base().num();
+			codecInfo.timeBaseDen = avStream.time_base().den();
+			if (codecpar.extradata_size() > 0) {
+				codecInfo.extradata = new byte[codecpar.extradata_size()];
+				codecpar.extradata().get(codecInfo.extradata);
+			}
+			streamInfo.codecs.add(codecInfo);
+		}
+		return streamInfo;
+	}
 
-		setCameraError(result);
+	/**
+	 * Short probe may not find all parameters of the codecs. Missing dimensions, audio parameters and
+	 * extradata are filled from the cached stream info. Extradata is reused only if the probe found the profile
+	 * or the resolution of the codec and they match with the cached ones
+	 * @return false if the probed streams do not match the cached ones
+	 */
+	private boolean applyCachedStreamInfo(AVFormatContext inputFormatContext, StreamInfoCache.StreamInfo cachedStreamInfo) {
+		StreamInfoCache.StreamInfo probedStreamInfo = getStreamInfo(inputFormatContext);
+		if (!cachedStreamInfo.isCompatible(probedStreamInfo)) {
+			return false;
+		}
 
-		return result;
+		for (int i = 0; i < inputFormatContext.nb_streams(); i++) {
+			StreamInfoCache.CodecInfo probedCodecInfo = probedStreamInfo.codecs.get(i);
+			if (probedCodecInfo.extradata == null && cachedStreamInfo.codecs.get(i).extradata != null 
+					&& !probedCodecInfo.isIdentified()) {
+				//cached extradata cannot be checked against the source
+				return false;
+			}
+		}
+
+		for (int i = 0; i < inputFormatContext.nb_streams(); i++) {
+			AVCodecParameters codecpar = inputFormatContext.streams(i).codecpar();
+			StreamInfoCache.CodecInfo codecInfo = cachedStreamInfo.codecs.get(i);
 
+			if (codecpar.width() == 0 || codecpar.height() == 0) {
+				codecpar.width(codecInfo.width);
+				codecpar.height(codecInfo.height);
+			}
+			if (codecpar.sample_rate() == 0) {
+				codecpar.sample_rate(codecInfo.sampleRate);
+			}
+			if (codecpar.channels() == 0) {
+				codecpar.channels(codecInfo.channels);
+			}
+			if (codecpar.extradata_size() == 0 && codecInfo.extradata != null && codecInfo.extradata.length > 0) {
+				BytePointer extradata = new BytePointer(av_mallocz(codecInfo.extradata.length + AV_INPUT_BUFFER_PADDING_SIZE));
+				extradata.put(codecInfo.extradata);
+				codecpar.extradata(extradata);
+				codecpar.extradata_size(codecInfo.extradata.length);
+			}
+		}
+		return true;
 	}
 
-	public class WorkerThread extends Thread implements IScheduledJob {
+	private static ExecutorService createSourceOpenExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(SOURCE_OPENER_THREAD_COUNT, SOURCE_OPENER_THREAD_COUNT, 
+				60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(SOURCE_OPENER_QUEUE_SIZE), runnable -> {
+					Thread thread = new Thread(runnable, "stream-source-opener");
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
 
-		private static final int PACKET_WRITER_PERIOD_IN_MS = 10;
+	/**
+	 * Opens the source and finds its stream info. It's used for preparing the backup and primary sources in background
+	 * and it's called on the thread that the interrupt context is set for the task
+	 * @param fastProbe - probes with {@link #FAST_PROBE_SIZE} instead of FFmpeg's defaults, it's used for the periodic
+	 * probes of the primary source
+	 * @return opened context or null if source cannot be opened
+	 */
+	private AVFormatContext openSource(String url, boolean fastProbe) {
+		AVFormatContext context = avformat_alloc_context();
+		context.interrupt_callback().callback(interruptCallback);
 
-		private volatile boolean stopRequestReceived = false;
+		AVDictionary optionsDictionary = new AVDictionary();
+		if (url.startsWith("rtsp://")) {
+			av_dict_set(optionsDictionary, "rtsp_transport", "tcp", 0);
+		}
+		av_dict_set(optionsDictionary, "stimeout", String.valueOf(this.timeout), 0);
+		if (fastProbe) {
+			av_dict_set(optionsDictionary, "probesize", String.valueOf(FAST_PROBE_SIZE), 0);
+			av_dict_set(optionsDictionary, "analyzeduration", String.valueOf(FAST_ANALYZE_DURATION_US), 0);
+		}
 
-		private volatile boolean streamPublished = false;
-		protected AtomicBoolean isJobRunning = new AtomicBoolean(false);
-		AVFormatContext inputFormatContext = null;
+		int ret = avformat_open_input(context, url, null, optionsDictionary);
+		av_dict_free(optionsDictionary);
+		if (ret < 0) {
+			logger.info("Cannot open source {} of stream {}", url, stream.getStreamId());
+			return null;
+		}
 
-		private volatile boolean buffering = false;
-		private ConcurrentLinkedQueue<AVPacket> bufferQueue = new ConcurrentLinkedQueue<>();
+		if (avformat_find_stream_info(context, (AVDictionary) null) < 0) {
+			logger.info("Cannot find stream info of source {} of stream {}", url, stream.getStreamId());
+			avformat_close_input(context);
+			return null;
+		}
+		return context;
+	}
 
-		@Override
-		public void run() {
+	/**
+	 * @return true if sources have the same type of codecs in the same order so that they can feed the same muxers
+	 */
+	public static boolean isSourceCompatible(AVFormatContext context, AVFormatContext other) {
+		if (context.nb_streams() != other.nb_streams()) {
+			return false;
+		}
+		for (int i = 0; i < context.nb_streams(); i++) {
+			AVCodecParameters codecpar = context.streams(i).codecpar();
+			AVCodecParameters otherCodecpar = other.streams(i).codecpar();
+			if (codecpar.codec_type() != otherCodecpar.codec_type() || codecpar.codec_id() != otherCodecpar.codec_id()) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-			setThreadActive(true);
-			long lastPacketTime = 0;
-			long firstPacketTime = 0;
-			long bufferDuration = 0;
+	/**
+	 * @return offset in milliseconds that is added to the timestamps of the new source so that its first packet
+	 * is written {@link #SOURCE_SWITCH_TIMESTAMP_GAP_MS} after the last packet of the previous source
+	 */
+	public static long getSwitchTimestampOffset(long lastWrittenDtsMs, long firstPacketDtsMs) {
+		return lastWrittenDtsMs + SOURCE_SWITCH_TIMESTAMP_GAP_MS - firstPacketDtsMs;
+	}
 
-			AVPacket pkt = null;
-			String packetWriterJobName = null;
-			try {
-				inputFormatContext = new AVFormatContext(null); 
-				pkt = avcodec.av_packet_alloc();
-				Result result = prepare(inputFormatContext);
+	public Result prepare(AVFormatContext inputFormatContext) {
+		Result result = prepareInput(inputFormatContext);
 
+		setCameraError(result);
 
-				if (result.isSuccess()) {
-					boolean audioOnly = false;
-					if(inputFormatContext.nb_streams() == 1) {
-						audioOnly  = (inputFormatContext.streams(0).codecpar().codec_type() == AVMEDIA_TYPE_AUDIO);
-					}
+		return result;
 
-					muxAdaptor = MuxAdaptor.initializeMuxAdaptor(null,true, scope);
-					// if there is only audio, firstKeyFrameReceivedChecked should be true in advance
-					// because there is no video frame
-					muxAdaptor.setFirstKeyFrameReceivedChecked(audioOnly); 
+	}
 
+	/**
+	 * Fetches the stream on a worker of {@link StreamFetcherWorkerPool}. A new task is created
+	 * for each connection to the source. Source is opened and probed in background so that a slow source
+	 * does not block the other fetchers of the worker
+	 */
+	public class FetchTask implements Runnable, IScheduledJob {
 
-					muxAdaptor.init(scope, stream.getStreamId(), false);
+		private static final int PACKET_WRITER_PERIOD_IN_MS = 10;
 
+		/**
+		 * Maximum time that a task reads packets before giving the worker to other tasks
+		 */
+		private static final int READ_SLICE_IN_MS = 20;
+
+		/**
+		 * Delay before trying to read again when non-blocking source has no data
+		 */
+		private static final int NONBLOCKING_READ_RETRY_IN_MS = 10;
+
+		/**
+		 * Task is moved to a dedicated worker if a read call blocks the worker longer than this time. Demuxers that 
+		 * do not support non-blocking mode are not interrupted, because aborting a read in the middle of a packet 
+		 * breaks the input context
+		 */
+		private static final int BLOCKING_READ_THRESHOLD_IN_MS = 100;
+
+		/**
+		 * Period of checking whether the source that is opening in background is ready
+		 */
+		private static final int OPEN_CHECK_PERIOD_IN_MS = 20;
+
+		/**
+		 * Delay before submitting the opening again when the source opener queue is full
+		 */
+		private static final int OPEN_RETRY_PERIOD_IN_MS = 1000;
 
-					logger.info("{} stream count in stream {} is {}", stream.getStreamId(), stream.getStreamUrl(), inputFormatContext.nb_streams());
+		private volatile boolean stopRequestReceived = false;
 
-					if(muxAdaptor.prepareInternal(inputFormatContext)) {
+		/**
+		 * Worker that runs the steps. It's replaced with a dedicated worker if the source blocks the reads
+		 */
+		private volatile StreamFetcherWorkerPool.Worker worker;
 
-						long currentTime = System.currentTimeMillis();
-						muxAdaptor.setStartTime(currentTime);
+		/**
+		 * Result of opening and probing the source in background
+		 */
+		private Future<Result> openResult;
 
-						getInstance().startPublish(stream.getStreamId());
+		private boolean opened = false;
 
-						if (bufferTime > 0) {
-							packetWriterJobName = scheduler.addScheduledJob(PACKET_WRITER_PERIOD_IN_MS, this);
-						}
+		private volatile boolean finished = false;
 
-						int bufferLogCounter = 0;
-						while (av_read_frame(inputFormatContext, pkt) >= 0) {
+		private AVPacket pkt = null;
 
-							streamPublished = true;
-							lastPacketReceivedTime = System.currentTimeMillis();
+		private String packetWriterJobName = null;
 
-							/**
-							 * Check that dts values are monotically increasing for each stream
-							 */
-							int packetIndex = pkt.stream_index();
-							if (lastDTS[packetIndex] >= pkt.dts()) {
-								pkt.dts(lastDTS[packetIndex] + 1);
-							}
-							lastDTS[packetIndex] = pkt.dts();
-							if (pkt.dts() > pkt.pts()) {
-								logger.info("dts ({}) is bigger than pts({})", pkt.dts(), pkt.pts());
-								pkt.pts(pkt.dts());
-							}
+		private int bufferLogCounter = 0;
 
-							/***************************************************
-							 *  Memory of being paranoid or failing while looking for excellence without understanding the whole picture
-							 *  
-							 *  Increasing pkt.dts plus 1 is a simple hack for fixing dts error if current dts has a value lower 
-							 *  than the last received dts. Because dts should be monotonically increasing. I made this simple hack and it is working. 
-							 *  After that I thought the same may happen for the pts value as well and I have added below fix. 
-							 *  Actually not a fix, it is a bug. Because pts values does not have to be monotonically increasing
-							 *  and if stream has B-Frames then pts value can be lower than the last PTS value. So below
-							 *  code snippet make the stream does not play smoothly. It took about 10 hours to find it this error.
-							 *  
-							 *  I have written this simple memory for me
-							 *  and for the guys who is developing or reviewing this code. 
-							 *  Even if it is time consuming or not reasonable, these kind of tryouts sometimes makes me excited. 
-							 *  I think I may expect to find something great by trying something crazy :) 
-							 *  
-							 *  @mekya - June 12, 2018
-							 *  
-							 *  ---------------------------------------------------
-							 *  
-							 *  if (lastPTS[packetIndex] >= pkt.pts()) {
-							 * 	   pkt.pts(lastPTS[packetIndex] + 1);
-							 *  }
-							 *  lastPTS[packetIndex] = pkt.pts();
-							 *
-							 ******************************************************/
-							if (bufferTime > 0) 
-							{
-								AVPacket packet = getAVPacket();
-								av_packet_ref(packet, pkt);
-								bufferQueue.add(packet);
-
-								AVPacket pktHead = bufferQueue.peek();
-								/**
-								 * BufferQueue may be polled in writer thread. 
-								 * It's a very rare case to happen so that check if it's null
-								 */
-								if (pktHead != null) {
-									lastPacketTime = av_rescale_q(pkt.pts(), inputFormatContext.streams(pkt.stream_index()).time_base(), avRationalTimeBaseMS);
-									firstPacketTime = av_rescale_q(pktHead.pts(), inputFormatContext.streams(pktHead.stream_index()).time_base(), avRationalTimeBaseMS);
-									bufferDuration = (lastPacketTime - firstPacketTime);
-
-									if ( bufferDuration > bufferTime) {
-										buffering = false;
-									}
-
-									bufferLogCounter++;
-									if (bufferLogCounter % 100 == 0) {
-										logger.info("Buffer status {}, buffer duration {}ms buffer time {}ms", buffering, bufferDuration, bufferTime);
-										bufferLogCounter = 0;
-									}
-								}
-							}
-							else {
-								muxAdaptor.writePacket(inputFormatContext.streams(pkt.stream_index()), pkt);
-							}
-							av_packet_unref(pkt);
-							if (stopRequestReceived) {
-								logger.warn("Stop request received, breaking the loop for {} ", stream.getStreamId());
-								break;
-							}
-						}
-						logger.info("Leaving the loop for {}", stream.getStreamId());
+		private volatile boolean streamPublished = false;
 
-					}
+		/**
+		 * It's true if any packet is received in this task. Unlike streamPublished it's not reset when task is closed
+		 */
+		private volatile boolean packetReceived = false;
 
-				}
-				else {
-					logger.debug("Prepare for {} returned false", stream.getName());
-				}
+		/**
+		 * Receive times of the first and the last packets of the task
+		 */
+		private volatile long firstPacketTime = 0;
+		private volatile long lastPacketTime = 0;
+		protected AtomicBoolean isJobRunning = new AtomicBoolean(false);
+		AVFormatContext inputFormatContext = null;
 
-				setCameraError(result);
-			} 
+		private volatile boolean buffering = false;
+		private ConcurrentLinkedQueue<AVPacket> bufferQueue = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Wall clock time and packet time in ms that packets are paced against.
+		 * They are set when writer starts to drain the buffer and reset when buffer is empty.
+		 * They are only accessed in the writer job
+		 */
+		private long anchorWallTime = -1;
+		private long anchorPacketTime = -1;
+
+		/**
+		 * Keeps whether the stream's packets are being dropped until the next keyframe
+		 * because buffer is full
+		 */
+		private boolean[] waitingKeyFrame;
+
+		/**
+		 * Index of the stream that is used for frame rate, jitter and speed metrics
+		 */
+		private int referenceStreamIndex = 0;
+
+		/**
+		 * Source that is being opened in background and its index
+		 */
+		private Future<AVFormatContext> pendingSource;
+		private int pendingSourceIndex;
+
+		/**
+		 * Backup source that is opened and ready to switch
+		 */
+		private AVFormatContext preparedSource;
+		private int preparedSourceIndex;
+
+		/**
+		 * It's true if active source is disconnected and task waits for a backup source
+		 */
+		private boolean sourceLost = false;
+
+		/**
+		 * Number of backup sources that cannot be opened since the active source stopped delivering packets
+		 */
+		private int failedSourceCount = 0;
+
+		private long lastSourcePacketTime;
+
+		private long lastPrimaryProbeTime;
+
+		private long primaryProbeIntervalMs = PRIMARY_PROBE_INTERVAL_MS;
+
+		/**
+		 * Primary source that is opened while a backup source is active and the background check 
+		 * of whether it delivers packets steadily
+		 */
+		private AVFormatContext checkingPrimarySource;
+		private Future<Boolean> primaryStabilityCheck;
+
+		/**
+		 * It's true after a source switch until the first keyframe of the new source
+		 */
+		private boolean waitingSourceKeyFrame = false;
+
+		/**
+		 * Offset in milliseconds that is added to the timestamps of the new source after a switch
+		 * so that timestamps are continuous in the mux adaptors
+		 */
+		private long timestampOffsetMs = 0;
+
+		private long lastWrittenDtsMs = -1;
+
+		/**
+		 * Mux adaptors of the subscriber streams. They are created and removed on the worker
+		 */
+		private final Map<String, MuxAdaptor> subscriberMuxAdaptors = new ConcurrentHashMap<>();
+
+		/**
+		 * Subscribers whose mux adaptors cannot be prepared in this task
+		 */
+		private final Set<String> failedSubscribers = new HashSet<>();
+
+		public FetchTask(StreamFetcherWorkerPool.Worker worker) {
+			this.worker = worker;
+		}
+
+		/**
+		 * Runs one step of the fetcher on the assigned worker. First step starts opening the source in background
+		 * and following steps check whether it's opened. After that, steps read packets for at most {@link #READ_SLICE_IN_MS} 
+		 * and then give the worker back to the other fetchers by rescheduling themselves.
+		 */
+		@Override
+		public void run() {
+			if (finished) {
+				return;
+			}
+			try {
+				if (!opened) {
+					if (openResult == null) {
+						if (!startOpening()) {
+							close();
+							return;
+						}
+						if (openResult == null) {
+							//opener queue is full, it's not a connection attempt so it's tried again later
+							worker.execute(this, OPEN_RETRY_PERIOD_IN_MS);
+							return;
+						}
+					}
+					if (!openResult.isDone()) {
+						worker.execute(this, OPEN_CHECK_PERIOD_IN_MS);
+						return;
+					}
+					opened = true;
+					if (!open()) {
+						close();
+						return;
+					}
+				}
+				readPackets();
+			}
 			catch (OutOfMemoryError | Exception e) {
 				logger.error(ExceptionUtils.getStackTrace(e));
 				exceptionInThread  = true;
+				close();
 			}
+		}
 
-
-			if (packetWriterJobName != null) {
-				logger.info("Removing packet writer job {}", packetWriterJobName);
-				scheduler.removeScheduledJob(packetWriterJobName);
+		/**
+		 * Allocates the input context and submits opening and probing of the source to the background executor.
+		 * Open result is not set if the opener queue is full, circuit breaker does not count it as an attempt
+		 * @return false if task is stopped before opening
+		 */
+		private boolean startOpening() 
+		{
+			setThreadActive(true);
+			if (stopRequestReceived) {
+				logger.info("Stop request is received before opening {}", stream.getStreamId());
+				return false;
 			}
 
-			writeAllBufferedPackets();
+			inputFormatContext = avformat_alloc_context();
+			inputFormatContext.interrupt_callback().callback(interruptCallback);
 
-
-			if (muxAdaptor != null) {
-				logger.info("Writing trailer in Muxadaptor {}", stream.getStreamId());
-				muxAdaptor.writeTrailer(inputFormatContext);
-				muxAdaptor = null;
+			AVFormatContext context = inputFormatContext;
+			try {
+				openResult = sourceOpenExecutor.submit(() -> {
+					InterruptContext interrupt = interruptContext.get();
+					interrupt.set(this, 0);
+					try {
+						return prepare(context);
+					}
+					finally {
+						interrupt.clear();
+					}
+				});
 			}
-
-			if (pkt != null) {
-				av_packet_free(pkt);
+			catch (RejectedExecutionException e) {
+				logger.warn("Source opener queue is full, opening of stream {} is tried again in {}ms", stream.getStreamId(), 
+						OPEN_RETRY_PERIOD_IN_MS);
+				avformat_free_context(inputFormatContext);
+				inputFormatContext = null;
+				return true;
 			}
+			circuitBreaker.attemptStarted();
+			return true;
+		}
 
-			if (inputFormatContext != null) {
-				try {
-					avformat_close_input(inputFormatContext);
-				}
-				catch (Exception e) {
-					logger.info(e.getMessage());
+		/**
+		 * Prepares the mux adaptor after the source is opened in background
+		 * @return false if source cannot be opened or mux adaptor cannot be prepared
+		 */
+		private boolean open() 
+		{
+			Result result = getOpenResult();
+
+			if (!result.isSuccess()) {
+				logger.debug("Prepare for {} returned false", stream.getName());
+				if (getSourceUrls().size() > 1) {
+					//next connection attempt is done to the next source
+					activeSourceIndex = (activeSourceIndex + 1) % getSourceUrls().size();
 				}
-				inputFormatContext = null;
+				return false;
 			}
 
-			if(streamPublished) {
-				getInstance().closeBroadcast(stream.getStreamId());
-				streamPublished=false;
-			}
+			pkt = packetPool.acquire();
+
+			/*
+			 * Demuxers supporting non-blocking mode returns EAGAIN instead of waiting for the data
+			 * so that the worker is not blocked by a slow source
+			 */
+			inputFormatContext.flags(inputFormatContext.flags() | AVFMT_FLAG_NONBLOCK);
 
+			logger.info("{} stream count in stream {} is {}", stream.getStreamId(), stream.getStreamUrl(), inputFormatContext.nb_streams());
 
-			setThreadActive(false);
-			if(!stopRequestReceived && restartStream) {
-				thread = new WorkerThread();
-				thread.start();
+			muxAdaptor = createMuxAdaptor(stream.getStreamId());
+			if (muxAdaptor == null) {
+				return false;
 			}
 
-			logger.debug("Leaving thread for {}", stream.getStreamUrl());
+			referenceStreamIndex = 0;
+			for (int i = 0; i < inputFormatContext.nb_streams(); i++) {
+				if (inputFormatContext.streams(i).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO) {
+					referenceStreamIndex = i;
+					break;
+				}
+			}
+			metrics.connectionStarted();
+			lastSourcePacketTime = System.currentTimeMillis();
+			lastPrimaryProbeTime = lastSourcePacketTime;
 
+			if (bufferTime > 0) {
+				waitingKeyFrame = new boolean[inputFormatContext.nb_streams()];
+				packetWriterJobName = scheduler.addScheduledJob(PACKET_WRITER_PERIOD_IN_MS, this);
+			}
+			return true;
+		}
 
+		/**
+		 * Waits for the source that is being opened in background
+		 * @return result of the prepare
+		 */
+		private Result getOpenResult() 
+		{
+			try {
+				return openResult.get();
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+			return new Result(false);
 		}
 
-		private void writeAllBufferedPackets() 
+		/**
+		 * Creates and prepares a mux adaptor for the stream and starts publishing it
+		 * @return mux adaptor or null if it cannot be prepared
+		 */
+		private MuxAdaptor createMuxAdaptor(String streamId) 
 		{
-			while (!bufferQueue.isEmpty()) {
-				AVPacket pkt = bufferQueue.poll();
-				muxAdaptor.writePacket(inputFormatContext.streams(pkt.stream_index()), pkt);
-				av_packet_unref(pkt);
+			boolean audioOnly = false;
+			if(inputFormatContext.nb_streams() == 1) {
+				audioOnly  = (inputFormatContext.streams(0).codecpar().codec_type() == AVMEDIA_TYPE_AUDIO);
 			}
 
-			AVPacket pkt;
-			while ((pkt = bufferQueue.poll()) != null) {
-				pkt.close();
+			MuxAdaptor streamMuxAdaptor = MuxAdaptor.initializeMuxAdaptor(null,true, scope);
+			// if there is only audio, firstKeyFrameReceivedChecked should be true in advance
+			// because there is no video frame
+			streamMuxAdaptor.setFirstKeyFrameReceivedChecked(audioOnly); 
+
+			streamMuxAdaptor.init(scope, streamId, false);
+
+			if(!streamMuxAdaptor.prepareInternal(inputFormatContext)) {
+				logger.warn("Mux adaptor cannot be prepared for stream {}", streamId);
+				return null;
 			}
-		}
 
-		public void setStopRequestReceived() {
-			logger.warn("inside of setStopRequestReceived for {}", stream.getStreamId());
-			stopRequestReceived = true;
-		}
+			long currentTime = System.currentTimeMillis();
+			streamMuxAdaptor.setStartTime(currentTime);
 
-		public boolean isStopRequestReceived() {
-			return stopRequestReceived;
+			getInstance().startPublish(streamId);
+			return streamMuxAdaptor;
 		}
 
-		@Override
-		public void execute(ISchedulingService service) throws CloneNotSupportedException 
+		/**
+		 * Creates mux adaptors of the new subscriber streams and finishes the ones that are removed.
+		 * It runs on the worker before reading packets
+		 */
+		private void updateSubscribers() 
 		{
-			if (isJobRunning.compareAndSet(false, true)) 
-			{
-				if (!buffering) {
-					AVPacket pkt = bufferQueue.poll();
-					if (pkt != null) {
-						muxAdaptor.writePacket(inputFormatContext.streams(pkt.stream_index()), pkt);
-						av_packet_unref(pkt);
-						availableBufferQueue.offer(pkt);
+			for (Broadcast subscriberStream : subscriberStreams.values()) {
+				String streamId = subscriberStream.getStreamId();
+				if (!subscriberMuxAdaptors.containsKey(streamId) && !failedSubscribers.contains(streamId)) {
+					MuxAdaptor subscriberMuxAdaptor = createMuxAdaptor(streamId);
+					if (subscriberMuxAdaptor != null) {
+						logger.info("Stream {} is fed from the source of stream {}", streamId, stream.getStreamId());
+						subscriberMuxAdaptors.put(streamId, subscriberMuxAdaptor);
 					}
 					else {
-						buffering = true;
+						failedSubscribers.add(streamId);
 					}
 				}
-				isJobRunning.compareAndSet(true, false);
 			}
-		}
-	}
 
-	public void startStream() {
-		new Thread() {
-			@Override
-			public void run() {
-				try {
-					int i = 0;
-					while (threadActive) {
-						Thread.sleep(100);
-						if (i % 50 == 0) {
-							logger.info("waiting for thread to be finished for stream {}", stream.getStreamUrl());
-							i = 0;
-						}
-						i++;
-					}
-					Thread.sleep(2000);
-				} catch (InterruptedException e) {
-					logger.error(e.getMessage());
-					Thread.currentThread().interrupt();
+			for (String streamId : subscriberMuxAdaptors.keySet()) {
+				if (!subscriberStreams.containsKey(streamId)) {
+					finishSubscriber(streamId);
 				}
-
-				exceptionInThread = false;
-				thread = new WorkerThread();
-				thread.start();
-				logger.info("StartStream called, new thread is started for {}", stream.getStreamId());
 			}
-		}.start();
+			failedSubscribers.retainAll(subscriberStreams.keySet());
+		}
 
+		private void finishSubscriber(String streamId) 
+		{
+			//wait for the packet writer job so that it does not write to the removed mux adaptor
+			while (!isJobRunning.compareAndSet(false, true)) {
+				Thread.yield();
+			}
+			MuxAdaptor subscriberMuxAdaptor = subscriberMuxAdaptors.remove(streamId);
+			isJobRunning.set(false);
+
+			writeSubscriberTrailer(streamId, subscriberMuxAdaptor);
+		}
+
+		private void writeSubscriberTrailer(String streamId, MuxAdaptor subscriberMuxAdaptor) 
+		{
+			if (subscriberMuxAdaptor != null) {
+				logger.info("Writing trailer in Muxadaptor {}", streamId);
+				subscriberMuxAdaptor.writeTrailer(inputFormatContext);
+				getInstance().closeBroadcast(streamId);
+			}
+		}
+
+		/**
+		 * Writes the packet to the mux adaptor of the stream and to the mux adaptors of the subscribers.
+		 * Subscribers get reference counted clones of the packet so that packet data is not copied
+		 * and a mux adaptor changing the packet fields does not affect the others
+		 */
+		private void writeToMuxAdaptors(AVPacket pkt) 
+		{
+			AVStream avStream = inputFormatContext.streams(pkt.stream_index());
+			for (MuxAdaptor subscriberMuxAdaptor : subscriberMuxAdaptors.values()) {
+				AVPacket clone = getAVPacket();
+				av_packet_ref(clone, pkt);
+				subscriberMuxAdaptor.writePacket(avStream, clone);
+				packetPool.release(clone);
+			}
+			muxAdaptor.writePacket(avStream, pkt);
+		}
+
+		/**
+		 * Opens a backup source in background when the active source does not deliver packets for the half of
+		 * {@link #PACKET_RECEIVED_INTERVAL_TIMEOUT} and switches to it when timeout is exceeded. While a backup 
+		 * source is active, primary source is probed periodically and task switches back to it when it's available
+		 * @return false if there is no source to read packets in this step
+		 */
+		private boolean updateSource(long now) 
+		{
+			long silentTime = now - lastSourcePacketTime;
+			boolean failing = sourceLost || silentTime > PACKET_RECEIVED_INTERVAL_TIMEOUT / 2;
+			if (!failing) {
+				failedSourceCount = 0;
+			}
+
+			if (primaryStabilityCheck != null) {
+				if (!primaryStabilityCheck.isDone()) {
+					return !sourceLost;
+				}
+				if (getPrimaryStabilityResult()) {
+					preparedSource = checkingPrimarySource;
+					preparedSourceIndex = 0;
+					checkingPrimarySource = null;
+					switchSource(now, RESTART_REASON_FAILBACK);
+					return true;
+				}
+				logger.info("Primary source of stream {} is not stable, staying on the backup source", stream.getStreamId());
+				avformat_close_input(checkingPrimarySource);
+				checkingPrimarySource = null;
+				primaryProbeFailed();
+			}
+
+			if (pendingSource != null) {
+				if (!pendingSource.isDone()) {
+					return !sourceLost;
+				}
+				AVFormatContext context = getOpenedSource();
+				if (context != null && !isSourceCompatible(inputFormatContext, context)) {
+					logger.warn("Source {} of stream {} does not have the same codecs with the active source", 
+							getSourceUrls().get(pendingSourceIndex), stream.getStreamId());
+					avformat_close_input(context);
+					context = null;
+				}
+
+				if (context != null && pendingSourceIndex == 0 && activeSourceIndex != 0 && !failing) {
+					startPrimaryStabilityCheck(context);
+					return true;
+				}
+				else if (context != null) {
+					context.flags(context.flags() | AVFMT_FLAG_NONBLOCK);
+					preparedSource = context;
+					preparedSourceIndex = pendingSourceIndex;
+				}
+				else if (failing) {
+					failedSourceCount++;
+				}
+				else if (pendingSourceIndex == 0) {
+					primaryProbeFailed();
+				}
+			}
+
+			if (preparedSource != null) {
+				if (sourceLost || silentTime > PACKET_RECEIVED_INTERVAL_TIMEOUT) {
+					switchSource(now, preparedSourceIndex == 0 ? RESTART_REASON_FAILBACK : RESTART_REASON_FAILOVER);
+				}
+				else if (!failing) {
+					//active source is delivering packets again
+					avformat_close_input(preparedSource);
+					preparedSource = null;
+				}
+				return true;
+			}
+
+			int sourceCount = getSourceUrls().size();
+			if (failing) {
+				if (failedSourceCount < sourceCount - 1) {
+					startOpeningSource((activeSourceIndex + 1 + failedSourceCount) % sourceCount);
+				}
+				else if (sourceLost) {
+					logger.warn("None of the sources of stream {} is available", stream.getStreamId());
+					close();
+					return false;
+				}
+			}
+			else if (activeSourceIndex != 0 && now - lastPrimaryProbeTime > primaryProbeIntervalMs) {
+				lastPrimaryProbeTime = now;
+				startOpeningSource(0);
+			}
+			return !sourceLost;
+		}
+
+		private void primaryProbeFailed() 
+		{
+			primaryProbeIntervalMs = Math.min(primaryProbeIntervalMs * 2, MAX_PRIMARY_PROBE_INTERVAL_MS);
+		}
+
+		/**
+		 * Reads the packets of the opened primary source in background for {@link #PRIMARY_STABLE_PERIOD_MS} and drops them. 
+		 * They are only used to decide whether primary source is stable, so reads of the source do not block the worker
+		 */
+		private void startPrimaryStabilityCheck(AVFormatContext context) 
+		{
+			checkingPrimarySource = context;
+			try {
+				primaryStabilityCheck = sourceOpenExecutor.submit(() -> {
+					InterruptContext interrupt = interruptContext.get();
+					AVPacket packet = packetPool.acquire();
+					SourceStabilityTracker tracker = new SourceStabilityTracker(PRIMARY_STABLE_PERIOD_MS, 
+							PACKET_RECEIVED_INTERVAL_TIMEOUT / 2);
+					try {
+						tracker.start(System.currentTimeMillis());
+						while (!tracker.isStable()) {
+							//read is aborted if there is a gap that makes the source unstable
+							interrupt.set(this, System.currentTimeMillis() + PACKET_RECEIVED_INTERVAL_TIMEOUT / 2);
+							int ret = av_read_frame(context, packet);
+							interrupt.clear();
+							if (ret < 0) {
+								return false;
+							}
+							av_packet_unref(packet);
+							tracker.packetReceived(System.currentTimeMillis());
+						}
+						return true;
+					}
+					finally {
+						interrupt.clear();
+						packetPool.release(packet);
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				logger.warn("Source opener queue is full, primary source of stream {} will be probed later", stream.getStreamId());
+				avformat_close_input(context);
+				checkingPrimarySource = null;
+			}
+		}
+
+		private boolean getPrimaryStabilityResult() 
+		{
+			boolean stable = false;
+			try {
+				stable = primaryStabilityCheck.get();
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+			primaryStabilityCheck = null;
+			return stable;
+		}
+
+		private void startOpeningSource(int index) 
+		{
+			String url = getSourceUrls().get(index);
+			boolean fastProbe = index == 0 && activeSourceIndex != 0;
+			logger.info("Opening source {} of stream {} in background", url, stream.getStreamId());
+			try {
+				pendingSource = sourceOpenExecutor.submit(() -> {
+					InterruptContext interrupt = interruptContext.get();
+					interrupt.set(this, 0);
+					try {
+						return openSource(url, fastProbe);
+					}
+					finally {
+						interrupt.clear();
+					}
+				});
+				pendingSourceIndex = index;
+			}
+			catch (RejectedExecutionException e) {
+				logger.warn("Source opener queue is full, source {} of stream {} will be opened later", url, stream.getStreamId());
+			}
+		}
+
+		/**
+		 * Waits for the source that is being opened
+		 * @return opened context or null
+		 */
+		private AVFormatContext getOpenedSource() 
+		{
+			AVFormatContext context = null;
+			try {
+				context = pendingSource.get();
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+			pendingSource = null;
+			return context;
+		}
+
+		/**
+		 * Replaces the input context with the prepared source. Mux adaptors are kept and 
+		 * timestamps of the new source are shifted to continue from the last written packet
+		 */
+		private void switchSource(long now, String reason) 
+		{
+			logger.info("Stream {} is switched from source {} to source {}", stream.getStreamId(), 
+					getSourceUrls().get(activeSourceIndex), getSourceUrls().get(preparedSourceIndex));
+
+			//wait for the packet writer job so that it does not use the old context
+			while (!isJobRunning.compareAndSet(false, true)) {
+				Thread.yield();
+			}
+			try {
+				writeAllBufferedPackets();
+				AVFormatContext oldContext = inputFormatContext;
+				preparedSource.flags(preparedSource.flags() | AVFMT_FLAG_NONBLOCK);
+				inputFormatContext = preparedSource;
+				avformat_close_input(oldContext);
+			}
+			finally {
+				isJobRunning.set(false);
+			}
+
+			activeSourceIndex = preparedSourceIndex;
+			preparedSource = null;
+			sourceLost = false;
+			failedSourceCount = 0;
+			lastSourcePacketTime = now;
+			lastPrimaryProbeTime = now;
+			primaryProbeIntervalMs = PRIMARY_PROBE_INTERVAL_MS;
+			lastDTS = new long[inputFormatContext.nb_streams()];
+			Arrays.fill(lastDTS, -1);
+			waitingSourceKeyFrame = true;
+			addRestartHistory(reason);
+		}
+
+		/**
+		 * Closes the source that is being opened or prepared
+		 */
+		private void closeBackgroundSources() 
+		{
+			if (pendingSource != null) {
+				//blocking calls of the opening source are aborted because task is finished
+				AVFormatContext context = getOpenedSource();
+				if (context != null) {
+					avformat_close_input(context);
+				}
+			}
+			if (preparedSource != null) {
+				avformat_close_input(preparedSource);
+				preparedSource = null;
+			}
+			if (primaryStabilityCheck != null) {
+				//reads of the check are aborted because task is finished
+				getPrimaryStabilityResult();
+				avformat_close_input(checkingPrimarySource);
+				checkingPrimarySource = null;
+			}
+		}
+
+		private void readPackets() 
+		{
+			if (!subscriberStreams.isEmpty() || !subscriberMuxAdaptors.isEmpty()) {
+				updateSubscribers();
+			}
+
+			if (getSourceUrls().size() > 1 && !updateSource(System.currentTimeMillis())) {
+				if (!finished) {
+					worker.execute(this, NONBLOCKING_READ_RETRY_IN_MS);
+				}
+				return;
+			}
+
+			long sliceStartTime = System.currentTimeMillis();
+			long sliceEndTime = sliceStartTime + READ_SLICE_IN_MS;
+			InterruptContext interrupt = interruptContext.get();
+			boolean blockingRead = false;
+			do {
+				long readStartTime = System.currentTimeMillis();
+				//read is only aborted if task is stopped or source does not send any data in the read timeout
+				interrupt.set(this, readStartTime + getReadTimeoutMs());
+				int ret;
+				try {
+					ret = av_read_frame(inputFormatContext, pkt);
+				}
+				finally {
+					interrupt.clear();
+				}
+				if (ret == AVERROR_EAGAIN()) {
+					//no data yet, try again in the next step
+					worker.execute(this, NONBLOCKING_READ_RETRY_IN_MS);
+					return;
+				}
+				if (ret < 0) {
+					if (getSourceUrls().size() > 1 && !stopRequestReceived) {
+						logger.info("Source {} of stream {} is disconnected, waiting for a backup source", getActiveSourceUrl(), stream.getStreamId());
+						sourceLost = true;
+						worker.execute(this, NONBLOCKING_READ_RETRY_IN_MS);
+						return;
+					}
+					logger.info("Leaving the loop for {}", stream.getStreamId());
+					close();
+					return;
+				}
+
+				writePacket(pkt);
+				av_packet_unref(pkt);
+
+				if (stopRequestReceived) {
+					logger.warn("Stop request received, breaking the loop for {} ", stream.getStreamId());
+					close();
+					return;
+				}
+				if (System.currentTimeMillis() - readStartTime > BLOCKING_READ_THRESHOLD_IN_MS) {
+					blockingRead = true;
+					break;
+				}
+			} while (System.currentTimeMillis() < sliceEndTime);
+
+			if (blockingRead && !worker.isDedicated()) {
+				logger.info("Source of stream {} blocks the reads, it's moved to a dedicated worker", stream.getStreamId());
+				StreamFetcherWorkerPool.Worker sharedWorker = worker;
+				worker = getWorkerPool().assignDedicated(stream.getStreamId());
+				getWorkerPool().release(sharedWorker);
+			}
+			worker.execute(this);
+		}
+
+		/**
+		 * @return time in milliseconds that a read call waits for the data before source is considered disconnected
+		 */
+		private long getReadTimeoutMs() 
+		{
+			return Math.max(PACKET_RECEIVED_INTERVAL_TIMEOUT, timeout / 1000);
+		}
+
+		private void writePacket(AVPacket pkt) 
+		{
+			streamPublished = true;
+			lastPacketReceivedTime = System.currentTimeMillis();
+			if (!packetReceived) {
+				packetReceived = true;
+				firstPacketTime = lastPacketReceivedTime;
+				circuitBreaker.connected();
+			}
+			lastPacketTime = lastPacketReceivedTime;
+
+			lastSourcePacketTime = lastPacketReceivedTime;
+
+			int packetIndex = pkt.stream_index();
+			AVRational timeBase = inputFormatContext.streams(packetIndex).time_base();
+			metrics.packetReceived(lastPacketReceivedTime, pkt.size(), packetIndex == referenceStreamIndex, 
+					av_rescale_q(pkt.dts(), timeBase, avRationalTimeBaseMS));
+
+			if (waitingSourceKeyFrame) {
+				boolean hasVideo = inputFormatContext.streams(referenceStreamIndex).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO;
+				if (hasVideo && (packetIndex != referenceStreamIndex || (pkt.flags() & AV_PKT_FLAG_KEY) == 0)) {
+					//new source is written from its first keyframe
+					return;
+				}
+				waitingSourceKeyFrame = false;
+				if (lastWrittenDtsMs != -1) {
+					timestampOffsetMs = getSwitchTimestampOffset(lastWrittenDtsMs, av_rescale_q(pkt.dts(), timeBase, avRationalTimeBaseMS));
+				}
+			}
+
+			if (timestampOffsetMs != 0) {
+				long offset = av_rescale_q(timestampOffsetMs, avRationalTimeBaseMS, timeBase);
+				pkt.dts(pkt.dts() + offset);
+				if (pkt.pts() != AV_NOPTS_VALUE) {
+					pkt.pts(pkt.pts() + offset);
+				}
+			}
+
+			/**
+			 * Check that dts values are monotically increasing for each stream
+			 */
+			if (lastDTS[packetIndex] >= pkt.dts()) {
+				pkt.dts(lastDTS[packetIndex] + 1);
+				metrics.timestampCorrected();
+			}
+			lastDTS[packetIndex] = pkt.dts();
+			lastWrittenDtsMs = Math.max(lastWrittenDtsMs, av_rescale_q(pkt.dts(), timeBase, avRationalTimeBaseMS));
+			if (pkt.dts() > pkt.pts()) {
+				logger.info("dts ({}) is bigger than pts({})", pkt.dts(), pkt.pts());
+				pkt.pts(pkt.dts());
+			}
+
+					/***************************************************
+					 *  Memory of being paranoid or failing while looking for excellence without understanding the whole picture
+					 *  
+					 *  Increasing pkt.dts plus 1 is a simple hack for fixing dts error if current dts has a value lower 
+					 *  than the last received dts. Because dts should be monotonically increasing. I made this simple hack and it is working. 
+					 *  After that I thought the same may happen for the pts value as well and I have added below fix. 
+					 *  Actually not a fix, it is a bug. Because pts values does not have to be monotonically increasing
+					 *  and if stream has B-Frames then pts value can be lower than the last PTS value. So below
+					 *  code snippet make the stream does not play smoothly. It took about 10 hours to find it this error.
+					 *  
+					 *  I have written this simple memory for me
+					 *  and for the guys who is developing or reviewing this code. 
+					 *  Even if it is time consuming or not reasonable, these kind of tryouts sometimes makes me excited. 
+					 *  I think I may expect to find something great by trying something crazy :) 
+					 *  
+					 *  @mekya - June 12, 2018
+					 *  
+					 *  ---------------------------------------------------
+					 *  
+					 *  if (lastPTS[packetIndex] >= pkt.pts()) {
+					 * 	   pkt.pts(lastPTS[packetIndex] + 1);
+					 *  }
+					 *  lastPTS[packetIndex] = pkt.pts();
+					 *
+					 ******************************************************/
+			if (bufferTime > 0) 
+			{
+				if (isPacketAcceptedToBuffer(pkt)) {
+					AVPacket packet = getAVPacket();
+					av_packet_ref(packet, pkt);
+					bufferedBytes.addAndGet(packet.size());
+					bufferedPacketCount.incrementAndGet();
+					bufferQueue.add(packet);
+				}
+
+				AVPacket pktHead = bufferQueue.peek();
+				/**
+				 * BufferQueue may be polled in writer thread. 
+				 * It's a very rare case to happen so that check if it's null
+				 */
+				if (pktHead != null) {
+					long lastPacketTime = av_rescale_q(pkt.pts(), inputFormatContext.streams(pkt.stream_index()).time_base(), avRationalTimeBaseMS);
+					long firstPacketTime = av_rescale_q(pktHead.pts(), inputFormatContext.streams(pktHead.stream_index()).time_base(), avRationalTimeBaseMS);
+					bufferDuration = (lastPacketTime - firstPacketTime);
+
+					if ( bufferDuration > bufferTime) {
+						buffering = false;
+					}
+
+					bufferLogCounter++;
+					if (bufferLogCounter % 100 == 0) {
+						logger.info("Buffer status {}, buffer duration {}ms buffer time {}ms buffered packets {} buffered bytes {} dropped packets {}", 
+								buffering, bufferDuration, bufferTime, bufferedPacketCount.get(), bufferedBytes.get(), droppedPacketCount.get());
+						bufferLogCounter = 0;
+					}
+				}
+			}
+			else {
+				writeToMuxAdaptors(pkt);
+			}
+		}
+
+		private void close() 
+		{
+			if (finished) {
+				return;
+			}
+			finished = true;
+
+			if (openResult != null && !opened) {
+				//blocking calls of the opening source are aborted because task is finished
+				getOpenResult();
+			}
+
+			if (packetWriterJobName != null) {
+				logger.info("Removing packet writer job {}", packetWriterJobName);
+				scheduler.removeScheduledJob(packetWriterJobName);
+			}
+
+			//wait for the packet writer tick that may be running, it does not start again because job is removed
+			while (!isJobRunning.compareAndSet(false, true)) {
+				Thread.yield();
+			}
+			try {
+				if (muxAdaptor != null) {
+					writeAllBufferedPackets();
+
+					for (String streamId : subscriberMuxAdaptors.keySet()) {
+						writeSubscriberTrailer(streamId, subscriberMuxAdaptors.remove(streamId));
+					}
+
+					logger.info("Writing trailer in Muxadaptor {}", stream.getStreamId());
+					muxAdaptor.writeTrailer(inputFormatContext);
+					muxAdaptor = null;
+				}
+			}
+			catch (Exception e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+			finally {
+				isJobRunning.set(false);
+			}
+
+			if (pkt != null) {
+				packetPool.release(pkt);
+				pkt = null;
+			}
+
+			closeBackgroundSources();
+
+			if (inputFormatContext != null) {
+				try {
+					avformat_close_input(inputFormatContext);
+				}
+				catch (Exception e) {
+					logger.info(e.getMessage());
+				}
+				inputFormatContext = null;
+			}
+
+			if(streamPublished) {
+				getInstance().closeBroadcast(stream.getStreamId());
+				streamPublished=false;
+			}
+
+			logger.debug("Leaving fetch task for {}", stream.getStreamUrl());
+
+			taskFinished(this);
+		}
+
+		private void writeAllBufferedPackets() 
+		{
+			while (!bufferQueue.isEmpty()) {
+				AVPacket pkt = bufferQueue.poll();
+				packetRemovedFromBuffer(pkt);
+				writeToMuxAdaptors(pkt);
+				packetPool.release(pkt);
+			}
+
+			AVPacket pkt;
+			while ((pkt = bufferQueue.poll()) != null) {
+				packetRemovedFromBuffer(pkt);
+				packetPool.release(pkt);
+			}
+			bufferDuration = 0;
+		}
+
+		/**
+		 * Checks the buffer size limit. If buffer is full, packet is dropped and the following packets
+		 * of the same stream are dropped until a keyframe that fits into the buffer is received
+		 * @return true if packet should be buffered, false if it is dropped
+		 */
+		private boolean isPacketAcceptedToBuffer(AVPacket pkt) 
+		{
+			int streamIndex = pkt.stream_index();
+			boolean keyFrame = (pkt.flags() & AV_PKT_FLAG_KEY) == AV_PKT_FLAG_KEY;
+			boolean fits = bufferedBytes.get() + pkt.size() <= bufferMaxSize;
+
+			if (waitingKeyFrame[streamIndex] && keyFrame && fits) {
+				waitingKeyFrame[streamIndex] = false;
+			}
+
+			if (waitingKeyFrame[streamIndex] || !fits) {
+				if (!waitingKeyFrame[streamIndex]) {
+					logger.warn("Buffer is full({} bytes) for stream {}, dropping packets of stream index {} until next keyframe", 
+							bufferedBytes.get(), stream.getStreamId(), streamIndex);
+				}
+				waitingKeyFrame[streamIndex] = true;
+				droppedPacketCount.incrementAndGet();
+				return false;
+			}
+			return true;
+		}
+
+		private void packetRemovedFromBuffer(AVPacket pkt) {
+			bufferedBytes.addAndGet(-pkt.size());
+			bufferedPacketCount.decrementAndGet();
+		}
+
+		private long getPacketTimeMs(AVPacket pkt) {
+			return av_rescale_q(pkt.pts(), inputFormatContext.streams(pkt.stream_index()).time_base(), avRationalTimeBaseMS);
+		}
+
+		/**
+		 * Writes all packets whose presentation time is due according to the wall clock.
+		 * Packet times are relative to the anchor which is the first packet written after buffering.
+		 * If a packet is more than buffer time early or late, there is a timestamp jump in the source
+		 * so that anchor is moved to that packet.
+		 */
+		private void writeDuePackets(long now) 
+		{
+			AVPacket pkt;
+			while ((pkt = bufferQueue.peek()) != null) 
+			{
+				long packetTime = getPacketTimeMs(pkt);
+				if (anchorWallTime == -1) {
+					anchorWallTime = now;
+					anchorPacketTime = packetTime;
+				}
+
+				long delay = (packetTime - anchorPacketTime) - (now - anchorWallTime);
+				if (delay > bufferTime || delay < -bufferTime) {
+					logger.info("Timestamp jump of {}ms in stream {}, resetting pacing anchor", delay, stream.getStreamId());
+					anchorWallTime = now;
+					anchorPacketTime = packetTime;
+					delay = 0;
+				}
+
+				if (delay > 0) {
+					break;
+				}
+
+				bufferQueue.poll();
+				packetRemovedFromBuffer(pkt);
+				writeToMuxAdaptors(pkt);
+				packetPool.release(pkt);
+			}
+
+			if (pkt == null) {
+				buffering = true;
+				anchorWallTime = -1;
+				anchorPacketTime = -1;
+				bufferDuration = 0;
+			}
+		}
+
+		public void setStopRequestReceived() {
+			logger.warn("inside of setStopRequestReceived for {}", stream.getStreamId());
+			stopRequestReceived = true;
+		}
+
+		/**
+		 * @return true if blocking calls of the task should be aborted
+		 */
+		boolean isInterruptRequested() {
+			return stopRequestReceived || finished;
+		}
+
+		public boolean isFinished() {
+			return finished;
+		}
+
+		public boolean isStopRequestReceived() {
+			return stopRequestReceived;
+		}
+
+		/**
+		 * @return duration between the first and the last packets of the task, zero if no packet is received
+		 */
+		public long getConnectedDuration() {
+			return packetReceived ? lastPacketTime - firstPacketTime : 0;
+		}
+
+		@Override
+		public void execute(ISchedulingService service) throws CloneNotSupportedException 
+		{
+			if (isJobRunning.compareAndSet(false, true)) 
+			{
+				//buffered packets of a finished task are written by close
+				if (!buffering && !finished) {
+					writeDuePackets(System.currentTimeMillis());
+				}
+				isJobRunning.compareAndSet(true, false);
+			}
+		}
 	}
 
+	/**
+	 * Starts fetching the stream. If previous task is still running, new task is started
+	 * when the previous one finishes
+	 */
+	public void startStream() {
+		startStream(RESTART_DELAY_IN_MS);
+	}
 
+	/**
+	 * Starts fetching the stream after the delay. If previous task is still running, new task is started
+	 * when the previous one finishes
+	 * @param delayMs - delay before connecting to the source
+	 */
+	public synchronized void startStream(int delayMs) {
+		if (threadActive || (fetchTask != null && !fetchTask.isFinished())) {
+			logger.info("waiting for fetch task to be finished for stream {}", stream.getStreamUrl());
+			startPending = true;
+			return;
+		}
+		startPending = false;
+		exceptionInThread = false;
+		scheduleFetchTask(delayMs);
+		logger.info("StartStream called, new fetch task is scheduled for {}", stream.getStreamId());
+	}
 
+	private void scheduleFetchTask(long delayMs) {
+		StreamFetcherWorkerPool.Worker worker = getWorkerPool().assign();
+		fetchTask = new FetchTask(worker);
+		worker.execute(fetchTask, delayMs);
+	}
 
-	public AVPacket getAVPacket() {
-		if (!availableBufferQueue.isEmpty()) {
-			return availableBufferQueue.poll();
+	/**
+	 * Called by the fetch task when it's closed. It starts the pending or automatic restart
+	 */
+	private void taskFinished(FetchTask task) {
+		if (restartTask(task)) {
+			//datastore is not accessed in the synchronized block
+			getInstance().getDataStore().updateSourceQualityParameters(stream.getStreamId(), QUALITY_CIRCUIT_OPEN, 0, 0);
+		}
+	}
+
+	/**
+	 * @return true if circuit is opened by this task
+	 */
+	private synchronized boolean restartTask(FetchTask task) {
+		getWorkerPool().release(task.worker);
+		boolean circuitOpened = false;
+		if (task != fetchTask) {
+			return circuitOpened;
+		}
+		threadActive = false;
+		if (startPending) {
+			startPending = false;
+			exceptionInThread = false;
+			scheduleFetchTask(RESTART_DELAY_IN_MS);
+		}
+		else if (!task.isStopRequestReceived() && restartStream) {
+			StreamSourceCircuitBreaker.State previousState = circuitBreaker.getState();
+			long delay = circuitBreaker.disconnected(task.getConnectedDuration());
+			StreamSourceCircuitBreaker.State state = circuitBreaker.getState();
+
+			if (state == StreamSourceCircuitBreaker.State.OPEN) {
+				String message = cameraError.getMessage();
+				cameraError = new Result(false, (message != null ? message.trim() : "") 
+						+ " (circuit is open after " + circuitBreaker.getFailureCount() + " failures, next attempt in " + delay + "ms)");
+				if (previousState != state) {
+					logger.warn("Circuit is open for stream {} after {} failures", stream.getStreamId(), circuitBreaker.getFailureCount());
+					circuitOpened = true;
+				}
+			}
+
+			logger.info("Stream {} will be reconnected in {}ms", stream.getStreamId(), delay);
+			addRestartHistory(RESTART_REASON_RECONNECT);
+			metrics.reconnected();
+			scheduleFetchTask(delay);
 		}
-		return new AVPacket();
+		return circuitOpened;
+	}
+
+	/**
+	 * @return circuit state of the source, it's open if source has failed consecutively
+	 */
+	public StreamSourceCircuitBreaker.State getCircuitState() {
+		return circuitBreaker.getState();
+	}
+
+	public StreamSourceCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	public StreamSourceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return stream url of the broadcast followed by the backup source urls
+	 */
+	public List<String> getSourceUrls() {
+		return sourceUrls;
+	}
+
+	private void updateSourceUrls() {
+		List<String> urls = new ArrayList<>();
+		urls.add(stream.getStreamUrl());
+		urls.addAll(backupSourceUrls);
+		sourceUrls = Collections.unmodifiableList(urls);
+	}
+
+	public String getActiveSourceUrl() {
+		List<String> sourceUrls = getSourceUrls();
+		return sourceUrls.get(activeSourceIndex < sourceUrls.size() ? activeSourceIndex : 0);
+	}
+
+	public int getActiveSourceIndex() {
+		return activeSourceIndex;
+	}
+
+	public List<String> getBackupSourceUrls() {
+		return backupSourceUrls;
+	}
+
+	/**
+	 * Sets the urls that are fetched in order when the active source stops delivering packets
+	 */
+	public void setBackupSourceUrls(List<String> backupSourceUrls) {
+		this.backupSourceUrls = backupSourceUrls != null ? new ArrayList<>(backupSourceUrls) : new ArrayList<>();
+		updateSourceUrls();
+		if (activeSourceIndex > this.backupSourceUrls.size()) {
+			activeSourceIndex = 0;
+		}
+	}
+
+	/**
+	 * @return empty packet from the packet pool, it should be released to the pool
+	 */
+	public AVPacket getAVPacket() {
+		return packetPool.acquire();
 	}
 
 	/**
@@ -466,30 +1752,27 @@ public class StreamFetcher {
 	}
 
 	public boolean isStopped() {
-		return thread.isInterrupted();
+		return fetchTask == null || fetchTask.isFinished();
 	}
 
-	public void stopStream() 
+	public synchronized void stopStream() 
 	{
-		if (getThread() != null) {
+		startPending = false;
+		if (getFetchTask() != null) {
 			logger.warn("stop stream called for {}", stream.getStreamId());
-			getThread().setStopRequestReceived();
+			getFetchTask().setStopRequestReceived();
 
 		}else {
-			logger.warn("stop stream is called and thread is null {}",  stream.getStreamId());
+			logger.warn("stop stream is called and fetch task is null {}",  stream.getStreamId());
 		}
 	}
 
 	public boolean isStopRequestReceived() {
-		return getThread().isStopRequestReceived();
-	}
-
-	public WorkerThread getThread() {
-		return thread;
+		return getFetchTask().isStopRequestReceived();
 	}
 
-	public void setThread(WorkerThread thread) {
-		this.thread = thread;
+	public FetchTask getFetchTask() {
+		return fetchTask;
 	}
 
 	public Broadcast getStream() {
@@ -497,25 +1780,11 @@ public class StreamFetcher {
 	}
 
 	public void restart() {
+		addRestartHistory(RESTART_REASON_MANUAL);
 		stopStream();
-		new Thread() {
-			@Override
-			public void run() {
-				try {
-					while (threadActive) {
-						Thread.sleep(100);
-					}
-
-					Thread.sleep(2000);
-				} catch (InterruptedException e) {
-					logger.error(e.getMessage());
-					Thread.currentThread().interrupt();
-				}
-				startStream();
-			}
-		}.start();
-
+		startStream();
 	}
+
 	/**
 	 * Set timeout when establishing connection
 	 * @param timeout in ms
@@ -528,8 +1797,13 @@ public class StreamFetcher {
 		return exceptionInThread;
 	}
 
-	public void setThreadActive(boolean threadActive) {
+	public synchronized void setThreadActive(boolean threadActive) {
 		this.threadActive = threadActive;
+		if (!threadActive && startPending && (fetchTask == null || fetchTask.isFinished())) {
+			startPending = false;
+			exceptionInThread = false;
+			scheduleFetchTask(RESTART_DELAY_IN_MS);
+		}
 	}
 
 	public boolean isThreadActive() {
@@ -575,6 +1849,43 @@ public class StreamFetcher {
 
 	public void setStream(Broadcast stream) {
 		this.stream = stream;
+		updateSourceUrls();
+	}
+
+	public long getBufferMaxSize() {
+		return bufferMaxSize;
+	}
+
+	public void setBufferMaxSize(long bufferMaxSize) {
+		this.bufferMaxSize = bufferMaxSize;
+	}
+
+	/**
+	 * @return number of packets waiting in the buffer
+	 */
+	public int getBufferedPacketCount() {
+		return bufferedPacketCount.get();
+	}
+
+	/**
+	 * @return total size of the packets waiting in the buffer in bytes
+	 */
+	public long getBufferedBytes() {
+		return bufferedBytes.get();
+	}
+
+	/**
+	 * @return duration of the buffered content in milliseconds
+	 */
+	public long getBufferDuration() {
+		return bufferDuration;
+	}
+
+	/**
+	 * @return number of packets dropped because buffer is full
+	 */
+	public long getDroppedPacketCount() {
+		return droppedPacketCount.get();
 	}
 
 	public int getBufferTime() {
@@ -585,6 +1896,65 @@ public class StreamFetcher {
 		this.bufferTime = bufferTime;
 	}
 
+	/**
+	 * Feeds the stream from this fetcher's source. Stream is published in the next read step
+	 */
+	public void addSubscriber(Broadcast subscriberStream) {
+		subscriberStreams.put(subscriberStream.getStreamId(), subscriberStream);
+	}
+
+	/**
+	 * Stops feeding the stream. Stream is finished in the next read step
+	 * @return true if stream was a subscriber
+	 */
+	public boolean removeSubscriber(String streamId) {
+		return subscriberStreams.remove(streamId) != null;
+	}
+
+	public Collection<Broadcast> getSubscriberStreams() {
+		return subscriberStreams.values();
+	}
+
+	public void addRestartHistory(String reason) {
+		synchronized (restartHistory) {
+			if (restartHistory.size() >= RESTART_HISTORY_SIZE) {
+				restartHistory.pollFirst();
+			}
+			restartHistory.addLast(new RestartRecord(System.currentTimeMillis(), reason));
+		}
+	}
+
+	/**
+	 * @return restarts of the fetcher from the oldest to the newest
+	 */
+	public List<RestartRecord> getRestartHistory() {
+		synchronized (restartHistory) {
+			return new ArrayList<>(restartHistory);
+		}
+	}
+
+	public StreamInfoCache getStreamInfoCache() {
+		if (streamInfoCache == null) {
+			streamInfoCache = getInstance().getStreamInfoCache();
+		}
+		return streamInfoCache;
+	}
+
+	public void setStreamInfoCache(StreamInfoCache streamInfoCache) {
+		this.streamInfoCache = streamInfoCache;
+	}
+
+	public StreamFetcherWorkerPool getWorkerPool() {
+		if (workerPool == null) {
+			workerPool = StreamFetcherWorkerPool.getDefaultInstance();
+		}
+		return workerPool;
+	}
+
+	public void setWorkerPool(StreamFetcherWorkerPool workerPool) {
+		this.workerPool = workerPool;
+	}
+
 	private AppSettings getAppSettings() {
 		if (appSettings == null) {
 			appSettings = (AppSettings) scope.getContext().getApplicationContext().getBean(AppSettings.BEAN_NAME);
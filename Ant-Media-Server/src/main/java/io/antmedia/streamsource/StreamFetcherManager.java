@@ -1,19 +1,39 @@
 package io.antmedia.streamsource;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.red5.server.api.scheduling.IScheduledJob;
 import org.red5.server.api.scheduling.ISchedulingService;
+import org.red5.server.api.scope.IBroadcastScope;
 import org.red5.server.api.scope.IScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
 import io.antmedia.datastore.db.IDataStore;
 import io.antmedia.datastore.db.types.Broadcast;
 import io.antmedia.muxer.MuxAdaptor;
+import io.antmedia.statistic.HlsViewerStats;
+import io.antmedia.statistic.IStreamStats;
+import io.antmedia.webrtc.api.IWebRTCAdaptor;
 
 
 /**
@@ -27,7 +47,100 @@ public class StreamFetcherManager {
 
 	private int streamCheckerCount = 0;
 
-	private Queue<StreamFetcher> streamFetcherList = new ConcurrentLinkedQueue<>();
+	/**
+	 * Stream fetchers by stream id
+	 */
+	private Map<String, StreamFetcher> streamFetcherMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Stream fetchers that connect to the source by stream url. Streams with the same url 
+	 * subscribe to the fetcher of the url instead of connecting to the source again.
+	 *
+	 * Each application has its own manager, so sources are only shared by the streams of the same application.
+	 * Streams of different applications connect to the same url separately because the muxers of the subscriber 
+	 * streams are created with the scope and data store of the fetcher's application
+	 */
+	private Map<String, StreamFetcher> sourceFetcherMap = new ConcurrentHashMap<>();
+
+	/**
+	 * If it's true, streams with the same url are fed from one connection
+	 */
+	private boolean deduplicateSources = true;
+
+	public static final int DEFAULT_RESTART_CONCURRENCY = 10;
+
+	/**
+	 * Time slot in milliseconds that is reserved for a group of restarting stream fetchers.
+	 * It covers the restart delay and the connection setup of a fetcher
+	 */
+	public static final int RESTART_SLOT_MS = 3000;
+
+	/**
+	 * Maximum number of stream fetchers that are restarted at the same time in periodic restart
+	 */
+	private int restartConcurrency = DEFAULT_RESTART_CONCURRENCY;
+
+	public static final int DEFAULT_ON_DEMAND_IDLE_TIME_MS = 60000;
+
+	/**
+	 * Ids of the streams that are pulled only when there are viewers
+	 */
+	private Set<String> pullOnDemandStreams = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Pull on demand sources that are not being fetched
+	 */
+	private Map<String, Broadcast> idleOnDemandSources = new ConcurrentHashMap<>();
+
+	private Map<String, Long> lastViewerTimeMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Time in milliseconds that a pull on demand stream is fetched without viewers before it's stopped
+	 */
+	private int onDemandIdleTimeMs = DEFAULT_ON_DEMAND_IDLE_TIME_MS;
+
+	/**
+	 * File that keeps the ids of pull on demand streams
+	 */
+	private File pullOnDemandFile;
+
+	/**
+	 * Backup source urls of the streams by stream id
+	 */
+	private Map<String, List<String>> backupSourcesMap = new ConcurrentHashMap<>();
+
+	/**
+	 * File that keeps the backup source urls of the streams
+	 */
+	private File backupSourcesFile;
+
+	private final Gson gson = new Gson();
+
+	/**
+	 * Quality parameters of a stream that are written to the datastore. Speed is compared with 
+	 * one decimal precision so that small fluctuations do not cause writes
+	 */
+	private static class SourceQuality {
+		private final String quality;
+		private final long speedTenths;
+		private final int pendingPacketSize;
+
+		SourceQuality(String quality, double speed, int pendingPacketSize) {
+			this.quality = quality;
+			this.speedTenths = Math.round(speed * 10);
+			this.pendingPacketSize = pendingPacketSize;
+		}
+
+		boolean isSame(SourceQuality other) {
+			return other != null && speedTenths == other.speedTenths && pendingPacketSize == other.pendingPacketSize
+					&& (quality == null ? other.quality == null : quality.equals(other.quality));
+		}
+	}
+
+	/**
+	 * Last quality parameters that are written to the datastore by stream id
+	 */
+	private Map<String, SourceQuality> writtenQualityMap = new ConcurrentHashMap<>();
 
 	/**
 	 * Time period in milli seconds for checking stream fetchers status, restart issues etc. 
@@ -88,14 +201,46 @@ public class StreamFetcherManager {
 
 
 	public StreamFetcher startStreaming(Broadcast broadcast) {	
+		return startStreaming(broadcast, -1);
+	}
+
+	/**
+	 * @param delayMs - delay before connecting to the source, fetcher's default delay is used if it's negative
+	 */
+	private StreamFetcher startStreaming(Broadcast broadcast, int delayMs) {
 
 		StreamFetcher streamScheduler = null;
 		try {
+			String streamUrl = broadcast.getStreamUrl();
+			if (deduplicateSources && streamUrl != null) {
+				StreamFetcher sourceFetcher = sourceFetcherMap.get(streamUrl);
+				if (sourceFetcher != null && hasSameBackupSources(broadcast.getStreamId(), sourceFetcher)) {
+					logger.info("Stream {} has the same url with stream {}, it's fed from the same source", 
+							broadcast.getStreamId(), sourceFetcher.getStream().getStreamId());
+					sourceFetcher.addSubscriber(broadcast);
+					streamFetcherMap.put(broadcast.getStreamId(), sourceFetcher);
+					return sourceFetcher;
+				}
+			}
+
 			streamScheduler =  make(broadcast, scope, schedulingService);
 			streamScheduler.setRestartStream(restartStreamAutomatically);
-			streamScheduler.startStream();
+			List<String> backupSourceUrls = backupSourcesMap.get(broadcast.getStreamId());
+			if (backupSourceUrls != null) {
+				streamScheduler.setBackupSourceUrls(backupSourceUrls);
+			}
+			if (delayMs < 0) {
+				streamScheduler.startStream();
+			}
+			else {
+				streamScheduler.startStream(delayMs);
+			}
 
-			streamFetcherList.add(streamScheduler);
+			streamFetcherMap.put(broadcast.getStreamId(), streamScheduler);
+			if (deduplicateSources && streamUrl != null) {
+				//stream that has different backup sources is fetched independently, source fetcher is kept
+				sourceFetcherMap.putIfAbsent(streamUrl, streamScheduler);
+			}
 			if (streamFetcherScheduleJobName == null) {
 				scheduleStreamFetcherJob();
 			}
@@ -111,16 +256,43 @@ public class StreamFetcherManager {
 	public StreamFetcher stopStreaming(Broadcast stream) {
 		logger.warn("inside of stopStreaming for {}", stream.getStreamId());
 
-		StreamFetcher streamScheduler = null;
-		for (StreamFetcher scheduler : streamFetcherList) {
-			if (scheduler.getStream().getStreamId().equals(stream.getStreamId())) {
-				scheduler.stopStream();
-				streamFetcherList.remove(scheduler);
-				streamScheduler = scheduler;
-				break;
-			}
+		//stream is not started by viewers anymore but it's still pulled on demand if it's started again
+		idleOnDemandSources.remove(stream.getStreamId());
+		lastViewerTimeMap.remove(stream.getStreamId());
+
+		return removeStreamFetcher(stream.getStreamId());
+	}
+
+	/**
+	 * Stops fetching the stream. If stream is fed from another stream's source, it's only unsubscribed.
+	 * If other streams are fed from this stream's source, one of them connects to the source and the 
+	 * others subscribe to it
+	 * @return stream fetcher of the stream or null if stream is not fetched
+	 */
+	private StreamFetcher removeStreamFetcher(String streamId) {
+		writtenQualityMap.remove(streamId);
+		StreamFetcher streamScheduler = streamFetcherMap.remove(streamId);
+		if (streamScheduler == null) {
+			return null;
 		}
-		
+
+		if (streamScheduler.removeSubscriber(streamId)) {
+			return streamScheduler;
+		}
+
+		streamScheduler.stopStream();
+		sourceFetcherMap.remove(streamScheduler.getStream().getStreamUrl(), streamScheduler);
+
+		List<Broadcast> subscriberStreams = new ArrayList<>(streamScheduler.getSubscriberStreams());
+		for (Broadcast subscriberStream : subscriberStreams) {
+			streamScheduler.removeSubscriber(subscriberStream.getStreamId());
+			streamFetcherMap.remove(subscriberStream.getStreamId(), streamScheduler);
+		}
+		for (Broadcast subscriberStream : subscriberStreams) {
+			logger.info("Stream {} is not fed from stream {} anymore, it's started again", subscriberStream.getStreamId(), streamId);
+			startStreaming(subscriberStream);
+		}
+
 		return streamScheduler;
 	}
 
@@ -134,7 +306,14 @@ public class StreamFetcherManager {
 	public void startStreams(List<Broadcast> streams) {
 
 		for (int i = 0; i < streams.size(); i++) {
-			startStreaming(streams.get(i));
+			Broadcast broadcast = streams.get(i);
+			if (isPullOnDemand(broadcast.getStreamId())) {
+				logger.info("Stream {} is pulled on demand, it will be started when a viewer arrives", broadcast.getStreamId());
+				idleOnDemandSources.put(broadcast.getStreamId(), broadcast);
+			}
+			else {
+				startStreaming(broadcast);
+			}
 		}
 
 		scheduleStreamFetcherJob();
@@ -152,12 +331,14 @@ public class StreamFetcherManager {
 			@Override
 			public void execute(ISchedulingService service) throws CloneNotSupportedException {
 
-				if (!streamFetcherList.isEmpty()) {
+				if (!streamFetcherMap.isEmpty()) {
 
 					streamCheckerCount++;
 
 					logger.warn("StreamFetcher Check Count:{}" , streamCheckerCount);
 
+					stopIdleOnDemandStreams();
+
 					int countToRestart = 0;
 					if (restartStreamFetcherPeriodSeconds > 0) 
 					{
@@ -182,30 +363,404 @@ public class StreamFetcherManager {
 	}
 	
 	public void checkStreamFetchersStatus() {
-		for (StreamFetcher streamScheduler : streamFetcherList) {
-			Broadcast stream = streamScheduler.getStream();
-			if (!streamScheduler.isStreamAlive() && datastore != null && stream.getStreamId() != null) 
+		for (StreamFetcherWorkerPool.WorkerLoad workerLoad : getWorkerLoads()) {
+			logger.info("Stream fetcher {}", workerLoad);
+		}
+
+		AVPacketPool packetPool = AVPacketPool.getInstance();
+		packetPool.reclaimDeadThreadCaches();
+		logger.info("Outstanding packets:{} estimated bytes:{} oldest:{}ms pooled packets:{}", packetPool.getOutstandingPacketCount(), 
+				packetPool.getEstimatedOutstandingBytes(), packetPool.getOldestOutstandingAgeMs(), packetPool.getPooledPacketCount());
+
+		if (datastore == null) {
+			return;
+		}
+
+		//metrics are sampled once for the fetchers that feed more than one stream
+		long now = System.currentTimeMillis();
+		Map<StreamFetcher, StreamSourceMetrics.Snapshot> snapshots = new IdentityHashMap<>();
+		for (StreamFetcher streamScheduler : streamFetcherMap.values()) {
+			StreamSourceMetrics metrics = streamScheduler.getMetrics();
+			if (metrics != null && !snapshots.containsKey(streamScheduler)) {
+				snapshots.put(streamScheduler, metrics.sample(now));
+			}
+		}
+
+		for (Map.Entry<String, StreamFetcher> entry : streamFetcherMap.entrySet()) {
+			String streamId = entry.getKey();
+			StreamFetcher streamScheduler = entry.getValue();
+			if (streamId == null) {
+				continue;
+			}
+
+			if (!streamScheduler.isStreamAlive()) 
 			{
-				logger.info("Updating stream quality to poor of stream {}", stream.getStreamId() );
-				datastore.updateSourceQualityParameters(stream.getStreamId(), MuxAdaptor.QUALITY_POOR, 0, 0);
+				String quality = MuxAdaptor.QUALITY_POOR;
+				if (streamScheduler.getCircuitState() == StreamSourceCircuitBreaker.State.OPEN) {
+					quality = StreamFetcher.QUALITY_CIRCUIT_OPEN;
+				}
+				if (updateQualityIfChanged(streamId, quality, 0, 0)) {
+					logger.info("Updated stream quality to {} of stream {}", quality, streamId);
+				}
+			}
+			else {
+				StreamSourceMetrics.Snapshot snapshot = snapshots.get(streamScheduler);
+				if (snapshot != null) {
+					logger.info("Stream {} quality:{} bitrate:{} fps:{} speed:{} jitter:{}ms timestamp corrections:{} reconnects:{}", 
+							streamId, snapshot.quality, snapshot.bitrate, snapshot.fps, snapshot.speed, snapshot.jitterMs, 
+							snapshot.timestampCorrectionCount, snapshot.reconnectCount);
+					updateQualityIfChanged(streamId, snapshot.quality, snapshot.speed, streamScheduler.getBufferedPacketCount());
+				}
 			}
 		}
 	}
+
+	/**
+	 * Writes the quality parameters to the datastore if they are different from the last written ones
+	 * @return true if parameters are written
+	 */
+	private boolean updateQualityIfChanged(String streamId, String quality, double speed, int pendingPacketSize) {
+		SourceQuality sourceQuality = new SourceQuality(quality, speed, pendingPacketSize);
+		if (sourceQuality.isSame(writtenQualityMap.get(streamId))) {
+			return false;
+		}
+		datastore.updateSourceQualityParameters(streamId, quality, speed, pendingPacketSize);
+		writtenQualityMap.put(streamId, sourceQuality);
+		return true;
+	}
 	
+	/**
+	 * Restarts stream fetchers in groups of at most {@link #restartConcurrency} fetchers so that
+	 * sources are not reconnected at the same time. Fetchers are shuffled and each group is restarted 
+	 * at a random offset in its own time slot. If all fetchers fit in one group, they are restarted immediately.
+	 * Time slots are shrunk to fit in the half of the restart period.
+	 */
 	public void restartStreamFetchers() {
-		for (StreamFetcher streamScheduler : streamFetcherList) {
+		//fetchers that feed more than one stream are restarted once
+		List<StreamFetcher> fetchers = new ArrayList<>(new HashSet<>(streamFetcherMap.values()));
+		Collections.shuffle(fetchers);
+
+		int groupCount = (fetchers.size() + restartConcurrency - 1) / restartConcurrency;
+		long slotMs = RESTART_SLOT_MS;
+		if (groupCount > 0 && restartStreamFetcherPeriodSeconds > 0) {
+			slotMs = Math.min(slotMs, restartStreamFetcherPeriodSeconds * 1000L / 2 / groupCount);
+		}
 
-			if (streamScheduler.isStreamAlive()) 
-			{
-				logger.info("Calling stop stream {}", streamScheduler.getStream().getStreamId());
-				streamScheduler.stopStream();
+		for (int i = 0; i < fetchers.size(); i++) 
+		{
+			StreamFetcher streamScheduler = fetchers.get(i);
+			if (groupCount <= 1) {
+				restartStreamFetcher(streamScheduler);
 			}
 			else {
-				logger.info("Stream is not alive {}", streamScheduler.getStream().getStreamId());
+				long offset = (i / restartConcurrency) * slotMs + ThreadLocalRandom.current().nextLong(Math.max(slotMs, 1));
+				logger.info("Stream {} will be restarted in {}ms", streamScheduler.getStream().getStreamId(), offset);
+				schedulingService.addScheduledOnceJob(offset, service -> {
+					//stream may be stopped in the meantime
+					if (streamFetcherMap.get(streamScheduler.getStream().getStreamId()) == streamScheduler) {
+						restartStreamFetcher(streamScheduler);
+					}
+				});
 			}
+		}
+	}
+
+	private void restartStreamFetcher(StreamFetcher streamScheduler) 
+	{
+		if (streamScheduler.isStreamAlive()) 
+		{
+			logger.info("Calling stop stream {}", streamScheduler.getStream().getStreamId());
+			streamScheduler.stopStream();
+		}
+		else {
+			logger.info("Stream is not alive {}", streamScheduler.getStream().getStreamId());
+		}
+
+		streamScheduler.addRestartHistory(StreamFetcher.RESTART_REASON_PERIODIC);
+		streamScheduler.startStream();
+	}
 
-			streamScheduler.startStream();
+	/**
+	 * Called when a viewer requests the stream by RTMP play, HLS playlist request or WebRTC join.
+	 * If stream is pulled on demand and it's not being fetched, fetcher is started without delay
+	 * @return true if stream is pulled on demand
+	 */
+	public boolean viewerRequested(String streamId) {
+		if (streamId == null || !pullOnDemandStreams.contains(streamId)) {
+			return false;
+		}
+		lastViewerTimeMap.put(streamId, System.currentTimeMillis());
+
+		Broadcast broadcast = idleOnDemandSources.remove(streamId);
+		if (broadcast != null) {
+			logger.info("Starting pull on demand stream {} for the first viewer", streamId);
+			StreamFetcher streamFetcher = startStreaming(broadcast, 0);
+			if (streamFetcher == null) {
+				idleOnDemandSources.put(streamId, broadcast);
+			}
 		}
+		return true;
+	}
+
+	/**
+	 * Stops the pull on demand streams that have no viewers for {@link #onDemandIdleTimeMs}
+	 */
+	public void stopIdleOnDemandStreams() {
+		long now = System.currentTimeMillis();
+		for (String streamId : pullOnDemandStreams) {
+			StreamFetcher streamFetcher = streamFetcherMap.get(streamId);
+			if (streamFetcher == null) {
+				continue;
+			}
+
+			if (getViewerCount(streamId) > 0) {
+				lastViewerTimeMap.put(streamId, now);
+			}
+			else {
+				Long lastViewerTime = lastViewerTimeMap.computeIfAbsent(streamId, id -> now);
+				if (now - lastViewerTime > onDemandIdleTimeMs) {
+					logger.info("Stopping pull on demand stream {} because there is no viewer for {}ms", streamId, now - lastViewerTime);
+					Broadcast broadcast = getFetchedStream(streamFetcher, streamId);
+					removeStreamFetcher(streamId);
+					lastViewerTimeMap.remove(streamId);
+					idleOnDemandSources.put(streamId, broadcast);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return total number of HLS, RTMP and WebRTC viewers of the stream
+	 */
+	public int getViewerCount(String streamId) {
+		int viewerCount = 0;
+		if (scope.getContext().getApplicationContext().containsBean(HlsViewerStats.BEAN_NAME)) {
+			IStreamStats hlsViewerStats = (IStreamStats) scope.getContext().getApplicationContext().getBean(HlsViewerStats.BEAN_NAME);
+			viewerCount += hlsViewerStats.getViewerCount(streamId);
+		}
+
+		IBroadcastScope broadcastScope = scope.getBroadcastScope(streamId);
+		if (broadcastScope != null) {
+			viewerCount += broadcastScope.getConsumers().size();
+		}
+
+		if (scope.getContext().getApplicationContext().containsBean(IWebRTCAdaptor.BEAN_NAME)) {
+			IWebRTCAdaptor webRTCAdaptor = (IWebRTCAdaptor) scope.getContext().getApplicationContext().getBean(IWebRTCAdaptor.BEAN_NAME);
+			viewerCount += webRTCAdaptor.getNumberOfViewers(streamId);
+		}
+		return viewerCount;
+	}
+
+	/**
+	 * @return stream of the fetcher or the subscriber stream with the stream id
+	 */
+	private Broadcast getFetchedStream(StreamFetcher streamFetcher, String streamId) {
+		for (Broadcast subscriberStream : streamFetcher.getSubscriberStreams()) {
+			if (streamId.equals(subscriberStream.getStreamId())) {
+				return subscriberStream;
+			}
+		}
+		return streamFetcher.getStream();
+	}
+
+	public boolean isPullOnDemand(String streamId) {
+		return pullOnDemandStreams.contains(streamId);
+	}
+
+	/**
+	 * Enables or disables pulling the stream on demand. If it's disabled for an idle stream, 
+	 * stream is started immediately. If it's enabled for a stream that is being fetched, stream is 
+	 * stopped when there is no viewer for {@link #onDemandIdleTimeMs}
+	 */
+	public void setPullOnDemand(Broadcast broadcast, boolean pullOnDemand) {
+		String streamId = broadcast.getStreamId();
+		if (pullOnDemand) {
+			pullOnDemandStreams.add(streamId);
+			if (!streamFetcherMap.containsKey(streamId)) {
+				idleOnDemandSources.put(streamId, broadcast);
+			}
+		}
+		else {
+			pullOnDemandStreams.remove(streamId);
+			lastViewerTimeMap.remove(streamId);
+			Broadcast idleSource = idleOnDemandSources.remove(streamId);
+			if (idleSource != null) {
+				startStreaming(idleSource);
+			}
+		}
+		savePullOnDemandStreams();
+	}
+
+	private void savePullOnDemandStreams() {
+		if (pullOnDemandFile != null) {
+			try {
+				Files.write(pullOnDemandFile.toPath(), pullOnDemandStreams, StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * Sets the file that keeps the pull on demand stream ids and loads the ids in the file.
+	 * It should be called before {@link #startStreams(List)}
+	 */
+	public void setPullOnDemandFile(File pullOnDemandFile) {
+		this.pullOnDemandFile = pullOnDemandFile;
+		if (pullOnDemandFile != null && pullOnDemandFile.exists()) {
+			try {
+				for (String streamId : Files.readAllLines(pullOnDemandFile.toPath(), StandardCharsets.UTF_8)) {
+					if (!streamId.trim().isEmpty()) {
+						pullOnDemandStreams.add(streamId.trim());
+					}
+				}
+			} catch (IOException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * Removes the pull on demand and backup source settings of the stream from memory and from the files.
+	 * It's called when the broadcast is deleted
+	 */
+	public void streamDeleted(String streamId) {
+		idleOnDemandSources.remove(streamId);
+		lastViewerTimeMap.remove(streamId);
+		if (pullOnDemandStreams.remove(streamId)) {
+			savePullOnDemandStreams();
+		}
+		if (backupSourcesMap.remove(streamId) != null) {
+			saveBackupSources();
+		}
+	}
+
+	/**
+	 * Sets the urls that are fetched in order when the stream url of the stream does not deliver packets.
+	 * Backup sources of the running fetcher are updated as well
+	 * @param backupSourceUrls - backup urls, backup sources are removed if it's null or empty
+	 */
+	public void setBackupSources(String streamId, List<String> backupSourceUrls) {
+		if (backupSourceUrls == null || backupSourceUrls.isEmpty()) {
+			backupSourcesMap.remove(streamId);
+		}
+		else {
+			backupSourcesMap.put(streamId, new ArrayList<>(backupSourceUrls));
+		}
+
+		StreamFetcher streamFetcher = streamFetcherMap.get(streamId);
+		if (streamFetcher != null) {
+			if (streamId.equals(streamFetcher.getStream().getStreamId())) {
+				streamFetcher.setBackupSourceUrls(backupSourcesMap.get(streamId));
+				for (Broadcast subscriberStream : new ArrayList<>(streamFetcher.getSubscriberStreams())) {
+					if (!hasSameBackupSources(subscriberStream.getStreamId(), streamFetcher)) {
+						fetchIndependently(subscriberStream);
+					}
+				}
+			}
+			else if (!hasSameBackupSources(streamId, streamFetcher)) {
+				for (Broadcast subscriberStream : new ArrayList<>(streamFetcher.getSubscriberStreams())) {
+					if (streamId.equals(subscriberStream.getStreamId())) {
+						fetchIndependently(subscriberStream);
+					}
+				}
+			}
+		}
+		saveBackupSources();
+	}
+
+	/**
+	 * Stream can be fed from the source fetcher of another stream if it does not have its own backup sources
+	 * or its backup sources are the same. Otherwise source fetcher would ignore them
+	 */
+	private boolean hasSameBackupSources(String streamId, StreamFetcher sourceFetcher) {
+		List<String> backupSourceUrls = backupSourcesMap.get(streamId);
+		return backupSourceUrls == null || backupSourceUrls.equals(sourceFetcher.getBackupSourceUrls());
+	}
+
+	/**
+	 * Unsubscribes the stream from the source fetcher that it's fed from and starts its own fetcher
+	 */
+	private void fetchIndependently(Broadcast subscriberStream) {
+		logger.info("Stream {} has different backup sources, it's fetched independently", subscriberStream.getStreamId());
+		removeStreamFetcher(subscriberStream.getStreamId());
+		startStreaming(subscriberStream);
+	}
+
+	/**
+	 * @return backup source urls of the stream or null if it does not have backup sources
+	 */
+	public List<String> getBackupSources(String streamId) {
+		return backupSourcesMap.get(streamId);
+	}
+
+	private void saveBackupSources() {
+		if (backupSourcesFile != null) {
+			try {
+				Files.write(backupSourcesFile.toPath(), gson.toJson(backupSourcesMap).getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * Sets the file that keeps the backup source urls and loads the urls in the file.
+	 * It should be called before {@link #startStreams(List)}
+	 */
+	public void setBackupSourcesFile(File backupSourcesFile) {
+		this.backupSourcesFile = backupSourcesFile;
+		if (backupSourcesFile != null && backupSourcesFile.exists()) {
+			try {
+				String json = new String(Files.readAllBytes(backupSourcesFile.toPath()), StandardCharsets.UTF_8);
+				Map<String, List<String>> backupSources = gson.fromJson(json, new TypeToken<Map<String, List<String>>>(){}.getType());
+				if (backupSources != null) {
+					backupSourcesMap.putAll(backupSources);
+				}
+			} catch (IOException | JsonSyntaxException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+
+	public int getOnDemandIdleTimeMs() {
+		return onDemandIdleTimeMs;
+	}
+
+	public void setOnDemandIdleTimeMs(int onDemandIdleTimeMs) {
+		this.onDemandIdleTimeMs = onDemandIdleTimeMs;
+	}
+
+	/**
+	 * @return stream fetcher of the stream or null if stream is not fetched
+	 */
+	public StreamFetcher getStreamFetcher(String streamId) {
+		return streamFetcherMap.get(streamId);
+	}
+
+	/**
+	 * @return metrics of the stream's source in the last checker interval or null if it's not fetched or not sampled yet
+	 */
+	public StreamSourceMetrics.Snapshot getSourceMetrics(String streamId) {
+		StreamFetcher streamFetcher = streamFetcherMap.get(streamId);
+		if (streamFetcher != null && streamFetcher.getMetrics() != null) {
+			return streamFetcher.getMetrics().getLastSnapshot();
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if stream is fetched by a stream fetcher
+	 */
+	public boolean isStreamFetched(String streamId) {
+		return streamId != null && streamFetcherMap.containsKey(streamId);
+	}
+
+	/**
+	 * @return load of each worker that runs the stream fetchers
+	 */
+	public List<StreamFetcherWorkerPool.WorkerLoad> getWorkerLoads() {
+		return StreamFetcherWorkerPool.getDefaultInstance().getWorkerLoads();
 	}
 
 	public IDataStore getDatastore() {
@@ -216,12 +771,24 @@ public class StreamFetcherManager {
 		this.datastore = datastore;
 	}
 
-	public Queue<StreamFetcher> getStreamFetcherList() {
-		return streamFetcherList;
+	public Collection<StreamFetcher> getStreamFetcherList() {
+		return streamFetcherMap.values();
+	}
+
+	public boolean isDeduplicateSources() {
+		return deduplicateSources;
+	}
+
+	public void setDeduplicateSources(boolean deduplicateSources) {
+		this.deduplicateSources = deduplicateSources;
+	}
+
+	public int getRestartConcurrency() {
+		return restartConcurrency;
 	}
 
-	public void setStreamFetcherList(Queue<StreamFetcher> streamFetcherList) {
-		this.streamFetcherList = streamFetcherList;
+	public void setRestartConcurrency(int restartConcurrency) {
+		this.restartConcurrency = restartConcurrency;
 	}
 
 
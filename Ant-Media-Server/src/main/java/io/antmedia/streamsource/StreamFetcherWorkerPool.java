@@ -0,0 +1,220 @@
+package io.antmedia.streamsource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fixed number of worker threads that run the stream fetchers.
+ *
+ * Each fetcher is assigned to the least loaded worker when it starts and runs its steps
+ * (open, read a slice of packets, close) on that worker. A fetcher gives the worker back
+ * to the other fetchers after each step so that thousands of sources are multiplexed over
+ * a few threads instead of having a thread per source.
+ *
+ * Fetchers whose demuxers block the read calls are moved to a dedicated worker, so a blocking source
+ * does not delay the other fetchers and its reads are not interrupted in the middle of a packet.
+ */
+public class StreamFetcherWorkerPool {
+
+	protected static Logger logger = LoggerFactory.getLogger(StreamFetcherWorkerPool.class);
+
+	public static final int DEFAULT_WORKER_COUNT = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static StreamFetcherWorkerPool defaultInstance;
+
+	public static class Worker {
+
+		private final int index;
+
+		private final boolean dedicated;
+
+		private final ScheduledExecutorService executor;
+
+		private final AtomicInteger fetcherCount = new AtomicInteger();
+
+		private final AtomicLong busyTimeNs = new AtomicLong();
+
+		private final AtomicLong stepCount = new AtomicLong();
+
+		private long lastBusyTimeNs = 0;
+
+		private long lastSampleTimeNs = System.nanoTime();
+
+		public Worker(int index) {
+			this(index, "stream-fetcher-worker-" + index, false);
+		}
+
+		private Worker(int index, String threadName, boolean dedicated) {
+			this.index = index;
+			this.dedicated = dedicated;
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		/**
+		 * Runs the step on this worker after the delay
+		 */
+		public void execute(Runnable step, long delayMs) {
+			executor.schedule(() -> {
+				long startTime = System.nanoTime();
+				try {
+					step.run();
+				}
+				catch (Exception e) {
+					logger.error(ExceptionUtils.getStackTrace(e));
+				}
+				busyTimeNs.addAndGet(System.nanoTime() - startTime);
+				stepCount.incrementAndGet();
+			}, delayMs, TimeUnit.MILLISECONDS);
+		}
+
+		public void execute(Runnable step) {
+			execute(step, 0);
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return true if worker runs a single fetcher and it's shut down when the fetcher releases it
+		 */
+		public boolean isDedicated() {
+			return dedicated;
+		}
+
+		public int getFetcherCount() {
+			return fetcherCount.get();
+		}
+
+		public long getStepCount() {
+			return stepCount.get();
+		}
+
+		/**
+		 * @return ratio of the time spent running steps since the last call of this method
+		 */
+		public synchronized double getLoad() {
+			long now = System.nanoTime();
+			long busyTime = busyTimeNs.get();
+			double load = 0;
+			if (now > lastSampleTimeNs) {
+				load = (double)(busyTime - lastBusyTimeNs) / (now - lastSampleTimeNs);
+			}
+			lastBusyTimeNs = busyTime;
+			lastSampleTimeNs = now;
+			return load;
+		}
+
+		public void shutdown() {
+			executor.shutdownNow();
+		}
+	}
+
+	public static class WorkerLoad {
+		public final int index;
+		public final int fetcherCount;
+		public final long stepCount;
+		public final double load;
+
+		public WorkerLoad(int index, int fetcherCount, long stepCount, double load) {
+			this.index = index;
+			this.fetcherCount = fetcherCount;
+			this.stepCount = stepCount;
+			this.load = load;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("worker:%d fetchers:%d steps:%d load:%.2f", index, fetcherCount, stepCount, load);
+		}
+	}
+
+	private final Worker[] workers;
+
+	private final AtomicInteger dedicatedWorkerCount = new AtomicInteger();
+
+	public StreamFetcherWorkerPool(int workerCount) {
+		workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Worker(i);
+		}
+	}
+
+	public static synchronized StreamFetcherWorkerPool getDefaultInstance() {
+		if (defaultInstance == null) {
+			defaultInstance = new StreamFetcherWorkerPool(DEFAULT_WORKER_COUNT);
+			logger.info("Stream fetcher worker pool is created with {} workers", DEFAULT_WORKER_COUNT);
+		}
+		return defaultInstance;
+	}
+
+	/**
+	 * Assigns the worker with least fetchers to a fetcher.
+	 * {@link #release(Worker)} should be called when fetcher finishes
+	 */
+	public synchronized Worker assign() {
+		Worker selected = workers[0];
+		for (Worker worker : workers) {
+			if (worker.getFetcherCount() < selected.getFetcherCount()) {
+				selected = worker;
+			}
+		}
+		selected.fetcherCount.incrementAndGet();
+		return selected;
+	}
+
+	/**
+	 * Creates a worker with its own thread for a fetcher whose source blocks the read calls.
+	 * {@link #release(Worker)} should be called when fetcher finishes or leaves the worker
+	 */
+	public Worker assignDedicated(String streamId) {
+		Worker worker = new Worker(-1, "stream-fetcher-dedicated-" + streamId, true);
+		worker.fetcherCount.incrementAndGet();
+		dedicatedWorkerCount.incrementAndGet();
+		return worker;
+	}
+
+	public synchronized void release(Worker worker) {
+		worker.fetcherCount.decrementAndGet();
+		if (worker.isDedicated()) {
+			//step that releases the worker may be running on it, so it's not interrupted
+			worker.executor.shutdown();
+			dedicatedWorkerCount.decrementAndGet();
+		}
+	}
+
+	public int getDedicatedWorkerCount() {
+		return dedicatedWorkerCount.get();
+	}
+
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	public List<WorkerLoad> getWorkerLoads() {
+		List<WorkerLoad> loads = new ArrayList<>();
+		for (Worker worker : workers) {
+			loads.add(new WorkerLoad(worker.getIndex(), worker.getFetcherCount(), worker.getStepCount(), worker.getLoad()));
+		}
+		return loads;
+	}
+
+	public void shutdown() {
+		for (Worker worker : workers) {
+			worker.shutdown();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package io.antmedia.streamsource;
+
+import static org.bytedeco.javacpp.avcodec.FF_PROFILE_UNKNOWN;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Keeps the probed codec parameters of the stream sources so that stream fetchers
+ * can start with a short probe when they are restarted. Stream infos are saved to the
+ * directory as well so that they survive server restarts.
+ */
+public class StreamInfoCache {
+
+	protected static Logger logger = LoggerFactory.getLogger(StreamInfoCache.class);
+
+	public static class CodecInfo {
+		public int codecType;
+		public int codecId;
+		public int profile = FF_PROFILE_UNKNOWN;
+		public int width;
+		public int height;
+		public int sampleRate;
+		public int channels;
+		public int timeBaseNum;
+		public int timeBaseDen;
+		public byte[] extradata;
+
+		/**
+		 * @return true if the parameters that the probe found do not conflict with the cached ones.
+		 * Parameters that the probe cannot find are not compared
+		 */
+		public boolean matches(CodecInfo probed) {
+			if (codecType != probed.codecType || codecId != probed.codecId) {
+				return false;
+			}
+			if (profile != FF_PROFILE_UNKNOWN && probed.profile != FF_PROFILE_UNKNOWN && profile != probed.profile) {
+				return false;
+			}
+			return probed.width <= 0 || probed.height <= 0 || (width == probed.width && height == probed.height);
+		}
+
+		/**
+		 * @return true if probe found the profile or the resolution so that cached extradata 
+		 * can be checked against it before it's reused
+		 */
+		public boolean isIdentified() {
+			return profile != FF_PROFILE_UNKNOWN || (width > 0 && height > 0) || sampleRate > 0;
+		}
+	}
+
+	public static class StreamInfo {
+		public String streamUrl;
+		public List<CodecInfo> codecs = new ArrayList<>();
+
+		/**
+		 * @return true if probed info has the same url and same codecs in the same order with the same profile
+		 * and resolution
+		 */
+		public boolean isCompatible(StreamInfo probed) {
+			if (probed == null || streamUrl == null || !streamUrl.equals(probed.streamUrl)
+					|| codecs.size() != probed.codecs.size()) {
+				return false;
+			}
+			for (int i = 0; i < codecs.size(); i++) {
+				if (!codecs.get(i).matches(probed.codecs.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final Map<String, StreamInfo> streamInfoMap = new ConcurrentHashMap<>();
+
+	private final File directory;
+
+	private final Gson gson = new Gson();
+
+	/**
+	 * @param directory - directory to save stream infos, it may be null to keep them only in memory
+	 */
+	public StreamInfoCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return cached stream info of the stream or null if there is no cached info
+	 */
+	public StreamInfo get(String streamId) {
+		StreamInfo streamInfo = streamInfoMap.get(streamId);
+		if (streamInfo == null) {
+			streamInfo = read(streamId);
+			if (streamInfo != null) {
+				streamInfoMap.put(streamId, streamInfo);
+			}
+		}
+		return streamInfo;
+	}
+
+	public void put(String streamId, StreamInfo streamInfo) {
+		streamInfoMap.put(streamId, streamInfo);
+		File file = getFile(streamId);
+		if (file != null) {
+			try {
+				Files.createDirectories(directory.toPath());
+				Files.write(file.toPath(), gson.toJson(streamInfo).getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+
+	public void remove(String streamId) {
+		streamInfoMap.remove(streamId);
+		File file = getFile(streamId);
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file.toPath());
+			} catch (IOException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+
+	private StreamInfo read(String streamId) {
+		File file = getFile(streamId);
+		if (file != null && file.exists()) {
+			try {
+				String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+				return gson.fromJson(json, StreamInfo.class);
+			} catch (IOException | JsonSyntaxException e) {
+				logger.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+		return null;
+	}
+
+	private File getFile(String streamId) {
+		if (directory == null || streamId == null || streamId.contains("/") || streamId.contains("\\") || streamId.contains("..")) {
+			return null;
+		}
+		return new File(directory, streamId + ".json");
+	}
+}
@@ -0,0 +1,150 @@
+package io.antmedia.streamsource;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when a stream fetcher reconnects to its source.
+ *
+ * A live source that is disconnected after a stable connection is reconnected after a short delay.
+ * Failing connection attempts and connections that drop before {@link #minStableConnectionMs}
+ * are retried with exponential backoff and jitter so that a source that sends a few packets and drops
+ * is not reconnected in a tight loop. After {@link #failureThreshold} consecutive failures
+ * circuit is opened and source is only probed once in {@link #openDurationMs}. Probe attempt is
+ * done in half open state, circuit is closed if it succeeds and opened again if it fails.
+ */
+public class StreamSourceCircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	public static final int DEFAULT_BASE_BACKOFF_MS = 1000;
+
+	public static final int DEFAULT_MAX_BACKOFF_MS = 30000;
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	public static final int DEFAULT_OPEN_DURATION_MS = 60000;
+
+	public static final int DEFAULT_MIN_STABLE_CONNECTION_MS = 10000;
+
+	public static final int DEFAULT_MIN_RECONNECT_DELAY_MS = 500;
+
+	private State state = State.CLOSED;
+
+	/**
+	 * Number of consecutive connection attempts that are failed
+	 */
+	private int failureCount = 0;
+
+	private int baseBackoffMs = DEFAULT_BASE_BACKOFF_MS;
+
+	private int maxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+
+	private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+	private int openDurationMs = DEFAULT_OPEN_DURATION_MS;
+
+	/**
+	 * Connection should deliver packets at least for this duration to reset the failure count
+	 */
+	private int minStableConnectionMs = DEFAULT_MIN_STABLE_CONNECTION_MS;
+
+	/**
+	 * Minimum delay before reconnecting a source that was delivering packets
+	 */
+	private int minReconnectDelayMs = DEFAULT_MIN_RECONNECT_DELAY_MS;
+
+	/**
+	 * Called when a connection attempt starts. Open circuit becomes half open
+	 */
+	public synchronized void attemptStarted() {
+		if (state == State.OPEN) {
+			state = State.HALF_OPEN;
+		}
+	}
+
+	/**
+	 * Called when the source delivers the first packet. Circuit is closed but failure count is kept
+	 * until the connection is proven to be stable
+	 */
+	public synchronized void connected() {
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Called when the connection is closed without a stop request
+	 * @param connectedDurationMs - duration between the first and the last packets of the connection,
+	 * it's zero if the source did not deliver any packet
+	 * @return delay in milliseconds before the next connection attempt
+	 */
+	public synchronized long disconnected(long connectedDurationMs) {
+		if (connectedDurationMs >= minStableConnectionMs) {
+			//live source is disconnected, reconnect fast
+			state = State.CLOSED;
+			failureCount = 0;
+			return minReconnectDelayMs;
+		}
+
+		failureCount++;
+		if (state == State.HALF_OPEN || failureCount >= failureThreshold) {
+			state = State.OPEN;
+			return jitter(openDurationMs);
+		}
+
+		long backoff = Math.min(maxBackoffMs, (long)baseBackoffMs << Math.min(failureCount - 1, 20));
+		return Math.max(minReconnectDelayMs, jitter(backoff));
+	}
+
+	/**
+	 * @return random value between the half of the delay and the delay
+	 */
+	private static long jitter(long delay) {
+		long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized int getFailureCount() {
+		return failureCount;
+	}
+
+	public void setBaseBackoffMs(int baseBackoffMs) {
+		this.baseBackoffMs = baseBackoffMs;
+	}
+
+	public void setMaxBackoffMs(int maxBackoffMs) {
+		this.maxBackoffMs = maxBackoffMs;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public int getMinStableConnectionMs() {
+		return minStableConnectionMs;
+	}
+
+	public void setMinStableConnectionMs(int minStableConnectionMs) {
+		this.minStableConnectionMs = minStableConnectionMs;
+	}
+
+	public int getMinReconnectDelayMs() {
+		return minReconnectDelayMs;
+	}
+
+	public void setMinReconnectDelayMs(int minReconnectDelayMs) {
+		this.minReconnectDelayMs = minReconnectDelayMs;
+	}
+
+	public int getOpenDurationMs() {
+		return openDurationMs;
+	}
+
+	public void setOpenDurationMs(int openDurationMs) {
+		this.openDurationMs = openDurationMs;
+	}
+}
@@ -0,0 +1,185 @@
+package io.antmedia.streamsource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.antmedia.muxer.MuxAdaptor;
+
+/**
+ * Rolling metrics of a stream source that are updated in the read loop of the stream fetcher.
+ *
+ * Read loop is the only writer and it uses atomic counters so that the checker can take
+ * a {@link Snapshot} of the last interval at any time without locking the read loop.
+ * Frame rate, jitter and speed are calculated from the packets of the reference stream which is
+ * the video stream or the first stream if there is no video.
+ */
+public class StreamSourceMetrics {
+
+	public static final String QUALITY_GOOD = "good";
+
+	public static final String QUALITY_AVERAGE = "average";
+
+	/**
+	 * Speed that is required for good quality. Speed is the media time received in a unit of time
+	 */
+	public static final double GOOD_SPEED = 0.9;
+
+	public static final double AVERAGE_SPEED = 0.7;
+
+	/**
+	 * Jitter in milliseconds that is allowed for good quality
+	 */
+	public static final double GOOD_JITTER_MS = 100;
+
+	/**
+	 * Timestamp gaps that are longer than this value are not counted as media time
+	 */
+	private static final long MAX_MEDIA_TIME_GAP_MS = 5000;
+
+	public static class Snapshot {
+		public final long time;
+		public final long bitrate;
+		public final double fps;
+		public final double speed;
+		public final double jitterMs;
+		public final long timestampCorrectionCount;
+		public final long reconnectCount;
+		public final String quality;
+
+		public Snapshot(long time, long bitrate, double fps, double speed, double jitterMs,
+				long timestampCorrectionCount, long reconnectCount) {
+			this.time = time;
+			this.bitrate = bitrate;
+			this.fps = fps;
+			this.speed = speed;
+			this.jitterMs = jitterMs;
+			this.timestampCorrectionCount = timestampCorrectionCount;
+			this.reconnectCount = reconnectCount;
+			if (speed >= GOOD_SPEED && jitterMs <= GOOD_JITTER_MS) {
+				quality = QUALITY_GOOD;
+			}
+			else if (speed >= AVERAGE_SPEED) {
+				quality = QUALITY_AVERAGE;
+			}
+			else {
+				quality = MuxAdaptor.QUALITY_POOR;
+			}
+		}
+	}
+
+	private final AtomicLong receivedBytes = new AtomicLong();
+
+	private final AtomicLong frameCount = new AtomicLong();
+
+	private final AtomicLong mediaTimeMs = new AtomicLong();
+
+	private final AtomicLong timestampCorrectionCount = new AtomicLong();
+
+	private final AtomicLong reconnectCount = new AtomicLong();
+
+	/**
+	 * Smoothed difference between the arrival intervals and the timestamp intervals in microseconds
+	 */
+	private volatile long jitterUs = 0;
+
+	/**
+	 * Fields that are only accessed in the read loop
+	 */
+	private long lastArrivalTime = -1;
+	private long lastDtsMs = -1;
+
+	/**
+	 * Fields that are only accessed by the checker
+	 */
+	private long lastSampleTime = System.currentTimeMillis();
+	private long lastReceivedBytes = 0;
+	private long lastFrameCount = 0;
+	private long lastMediaTimeMs = 0;
+
+	private volatile Snapshot lastSnapshot;
+
+	/**
+	 * Called when a new connection is opened to the source
+	 */
+	public void connectionStarted() {
+		lastArrivalTime = -1;
+		lastDtsMs = -1;
+	}
+
+	/**
+	 * Called for each packet that is read from the source
+	 * @param now - arrival time of the packet in milliseconds
+	 * @param size - size of the packet in bytes
+	 * @param referenceStream - true if packet belongs to the reference stream
+	 * @param dtsMs - decoding timestamp of the packet in milliseconds
+	 */
+	public void packetReceived(long now, int size, boolean referenceStream, long dtsMs) {
+		receivedBytes.addAndGet(size);
+		if (!referenceStream) {
+			return;
+		}
+
+		frameCount.incrementAndGet();
+		if (lastDtsMs != -1) {
+			long dtsInterval = dtsMs - lastDtsMs;
+			if (dtsInterval > 0 && dtsInterval < MAX_MEDIA_TIME_GAP_MS) {
+				mediaTimeMs.addAndGet(dtsInterval);
+				//interarrival jitter as in RFC 3550
+				long difference = Math.abs((now - lastArrivalTime) - dtsInterval) * 1000;
+				jitterUs += (difference - jitterUs) / 16;
+			}
+		}
+		lastArrivalTime = now;
+		lastDtsMs = dtsMs;
+	}
+
+	public void timestampCorrected() {
+		timestampCorrectionCount.incrementAndGet();
+	}
+
+	public void reconnected() {
+		reconnectCount.incrementAndGet();
+	}
+
+	/**
+	 * Calculates the metrics of the interval since the last sample. It's called by the checker
+	 */
+	public synchronized Snapshot sample(long now) {
+		long elapsed = Math.max(now - lastSampleTime, 1);
+
+		long bytes = receivedBytes.get();
+		long frames = frameCount.get();
+		long mediaTime = mediaTimeMs.get();
+
+		long bitrate = (bytes - lastReceivedBytes) * 8 * 1000 / elapsed;
+		double fps = (frames - lastFrameCount) * 1000.0 / elapsed;
+		double speed = (double)(mediaTime - lastMediaTimeMs) / elapsed;
+
+		lastSampleTime = now;
+		lastReceivedBytes = bytes;
+		lastFrameCount = frames;
+		lastMediaTimeMs = mediaTime;
+
+		lastSnapshot = new Snapshot(now, bitrate, fps, speed, jitterUs / 1000.0,
+				timestampCorrectionCount.get(), reconnectCount.get());
+		return lastSnapshot;
+	}
+
+	/**
+	 * @return the last sample or null if it's not sampled yet
+	 */
+	public Snapshot getLastSnapshot() {
+		return lastSnapshot;
+	}
+
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+
+	public long getTimestampCorrectionCount() {
+		return timestampCorrectionCount.get();
+	}
+
+	public long getReconnectCount() {
+		return reconnectCount.get();
+	}
+}
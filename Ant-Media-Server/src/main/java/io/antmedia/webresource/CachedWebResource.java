@@ -0,0 +1,145 @@
+package io.antmedia.webresource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.jar.Manifest;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+
+/**
+ * Web resource that serves the content from {@link HlsResourceCache} and delegates
+ * everything else to the file resource on disk.
+ *
+ * Content array is shared between requests and it's never modified, so the default servlet
+ * writes it directly without reading the file. ETag and last modified values come from the file
+ * so that conditional and range requests are handled by the default servlet as usual.
+ */
+public class CachedWebResource implements WebResource {
+
+	private final WebResource resource;
+	private final byte[] content;
+
+	public CachedWebResource(WebResource resource, byte[] content) {
+		this.resource = resource;
+		this.content = content;
+	}
+
+	@Override
+	public long getLastModified() {
+		return resource.getLastModified();
+	}
+
+	@Override
+	public String getLastModifiedHttp() {
+		return resource.getLastModifiedHttp();
+	}
+
+	@Override
+	public boolean exists() {
+		return resource.exists();
+	}
+
+	@Override
+	public boolean isVirtual() {
+		return resource.isVirtual();
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return false;
+	}
+
+	@Override
+	public boolean isFile() {
+		return true;
+	}
+
+	@Override
+	public boolean delete() {
+		return resource.delete();
+	}
+
+	@Override
+	public String getName() {
+		return resource.getName();
+	}
+
+	@Override
+	public long getContentLength() {
+		return content.length;
+	}
+
+	@Override
+	public String getCanonicalPath() {
+		return resource.getCanonicalPath();
+	}
+
+	@Override
+	public boolean canRead() {
+		return resource.canRead();
+	}
+
+	@Override
+	public String getWebappPath() {
+		return resource.getWebappPath();
+	}
+
+	@Override
+	public String getETag() {
+		return resource.getETag();
+	}
+
+	@Override
+	public void setMimeType(String mimeType) {
+		resource.setMimeType(mimeType);
+	}
+
+	@Override
+	public String getMimeType() {
+		return resource.getMimeType();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return new ByteArrayInputStream(content);
+	}
+
+	@Override
+	public byte[] getContent() {
+		return content;
+	}
+
+	@Override
+	public long getCreation() {
+		return resource.getCreation();
+	}
+
+	@Override
+	public URL getURL() {
+		return resource.getURL();
+	}
+
+	@Override
+	public URL getCodeBase() {
+		return resource.getCodeBase();
+	}
+
+	@Override
+	public WebResourceRoot getWebResourceRoot() {
+		return resource.getWebResourceRoot();
+	}
+
+	@Override
+	public Certificate[] getCertificates() {
+		return resource.getCertificates();
+	}
+
+	@Override
+	public Manifest getManifest() {
+		return resource.getManifest();
+	}
+
+}
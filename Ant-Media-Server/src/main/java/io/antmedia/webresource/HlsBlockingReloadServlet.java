@@ -0,0 +1,462 @@
+package io.antmedia.webresource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet for blocking playlist reloads of low latency HLS.
+ *
+ * If a playlist is requested with _HLS_msn parameter and the playlist does not have the media segment
+ * with that sequence number yet, request is parked asynchronously until the segment is added to the playlist.
+ * Requests for a segment that is not written yet are parked in the same way with _HLS_preload parameter
+ * and they are answered as soon as the segment is listed in its playlist. Playlist of a segment is found by
+ * removing the sequence number from the segment name, e.g. stream_240p000000012.ts belongs to stream_240p.m3u8
+ *
+ * Parked requests are woken up by file system events of the stream directories or by
+ * {@link #notifyPlaylistUpdated(File)}. Ready requests are forwarded to the default servlet so that
+ * caching, ranges and conditional requests are handled in the same way with the other requests.
+ *
+ * Servlet and the filters in front of it should be registered with async-supported in web.xml.
+ */
+public class HlsBlockingReloadServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	protected static Logger logger = LoggerFactory.getLogger(HlsBlockingReloadServlet.class);
+
+	public static final String MEDIA_SEQUENCE_PARAM = "_HLS_msn";
+
+	public static final String PRELOAD_PARAM = "_HLS_preload";
+
+	public static final String DEFAULT_SERVLET_NAME = "default";
+
+	private static final String READY_ATTRIBUTE = HlsBlockingReloadServlet.class.getName() + ".ready";
+
+	private static final String MEDIA_SEQUENCE_TAG = "#EXT-X-MEDIA-SEQUENCE:";
+
+	private static final String SEGMENT_TAG = "#EXTINF";
+
+	private static final String END_LIST_TAG = "#EXT-X-ENDLIST";
+
+	/**
+	 * Parked requests are answered with the current file after this timeout
+	 */
+	private long blockingTimeoutMS = 6000;
+
+	/**
+	 * Parked requests of each playlist file. Queues are removed when they are empty
+	 */
+	private final Map<Path, Queue<ParkedRequest>> parkedRequests = new ConcurrentHashMap<>();
+
+	private final Map<Path, WatchKey> watchedDirectories = new ConcurrentHashMap<>();
+
+	private WatchService watchService;
+
+	private Thread watcherThread;
+
+	/**
+	 * Summary of a playlist to decide whether parked requests are ready
+	 */
+	public static class PlaylistInfo {
+		private final long lastMediaSequence;
+		private final boolean endList;
+		private final List<String> segmentUris;
+
+		public PlaylistInfo(long lastMediaSequence, boolean endList, List<String> segmentUris) {
+			this.lastMediaSequence = lastMediaSequence;
+			this.endList = endList;
+			this.segmentUris = segmentUris;
+		}
+
+		public long getLastMediaSequence() {
+			return lastMediaSequence;
+		}
+
+		public boolean isEndList() {
+			return endList;
+		}
+
+		/**
+		 * Checks whether a segment URI of the playlist refers to the segment file
+		 */
+		public boolean containsSegment(String segmentName) {
+			for (String uri : segmentUris) {
+				if (uri.equals(segmentName) || (uri.endsWith(segmentName)
+						&& uri.charAt(uri.length() - segmentName.length() - 1) == '/')) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private class ParkedRequest {
+		private final AsyncContext asyncContext;
+		private final String segmentName;
+		private final long mediaSequence;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+
+		ParkedRequest(AsyncContext asyncContext, String segmentName, long mediaSequence) {
+			this.asyncContext = asyncContext;
+			this.segmentName = segmentName;
+			this.mediaSequence = mediaSequence;
+		}
+
+		boolean isReady(PlaylistInfo info) {
+			if (segmentName != null) {
+				return info.containsSegment(segmentName) || info.isEndList();
+			}
+			return info.isEndList() || info.getLastMediaSequence() >= mediaSequence;
+		}
+
+		/**
+		 * Forwards the request to the default servlet if it's not answered yet
+		 */
+		boolean answer() {
+			if (done.compareAndSet(false, true)) {
+				asyncContext.getRequest().setAttribute(READY_ATTRIBUTE, Boolean.TRUE);
+				asyncContext.dispatch();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		String timeout = getInitParameter("blockingTimeoutMS");
+		if (timeout != null) {
+			blockingTimeoutMS = Long.parseLong(timeout);
+		}
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+		watcherThread = new Thread(this::watchDirectories, "hls-playlist-watcher");
+		watcherThread.setDaemon(true);
+		watcherThread.start();
+	}
+
+	@Override
+	public void destroy() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.error(e.getMessage());
+		}
+		for (Queue<ParkedRequest> queue : parkedRequests.values()) {
+			for (ParkedRequest parkedRequest : queue) {
+				if (parkedRequest.done.compareAndSet(false, true)) {
+					parkedRequest.asyncContext.complete();
+				}
+			}
+		}
+		parkedRequests.clear();
+		super.destroy();
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		if (request.getAttribute(READY_ATTRIBUTE) != null) {
+			forwardToDefault(request, response);
+			return;
+		}
+
+		String path = request.getServletPath() + (request.getPathInfo() != null ? request.getPathInfo() : "");
+		String realPath = getServletContext().getRealPath(path);
+		String mediaSequence = request.getParameter(MEDIA_SEQUENCE_PARAM);
+
+		if (realPath == null || !request.isAsyncSupported()) {
+			forwardToDefault(request, response);
+			return;
+		}
+
+		File file = new File(realPath);
+
+		if (mediaSequence != null && path.endsWith(".m3u8")) {
+			long msn;
+			try {
+				msn = Long.parseLong(mediaSequence);
+			}
+			catch (NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+
+			PlaylistInfo info = readPlaylist(file.toPath());
+			if (info == null) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			}
+			else if (info.isEndList() || info.getLastMediaSequence() >= msn) {
+				forwardToDefault(request, response);
+			}
+			else if (msn > info.getLastMediaSequence() + 2) {
+				//requested segment is too far in the future
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			}
+			else {
+				park(request, file, null, msn);
+			}
+		}
+		else if (request.getParameter(PRELOAD_PARAM) != null && path.endsWith(".ts")) {
+			//segment file may exist while it's being written, it's answered when it's listed in a playlist
+			File playlist = new File(file.getParentFile(), getPlaylistName(file.getName()));
+			if (!playlist.isFile()) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+			park(request, playlist, file.getName(), 0);
+		}
+		else {
+			forwardToDefault(request, response);
+		}
+	}
+
+	private void forwardToDefault(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		RequestDispatcher dispatcher = getServletContext().getNamedDispatcher(DEFAULT_SERVLET_NAME);
+		dispatcher.forward(request, response);
+	}
+
+	/**
+	 * Returns the playlist name of the segment by removing the sequence number and the extension
+	 */
+	public static String getPlaylistName(String segmentName) {
+		int end = segmentName.lastIndexOf('.');
+		if (end < 0) {
+			end = segmentName.length();
+		}
+		while (end > 0 && Character.isDigit(segmentName.charAt(end - 1))) {
+			end--;
+		}
+		return segmentName.substring(0, end) + ".m3u8";
+	}
+
+	/**
+	 * Parks the request until the playlist is updated
+	 * @param playlist - playlist that is requested or that lists the requested segment
+	 * @param segmentName - name of the requested segment or null for a playlist request
+	 * @param msn - media sequence number that playlist request waits for
+	 */
+	private void park(HttpServletRequest request, File playlist, String segmentName, long msn)
+			throws IOException {
+		Path playlistPath = playlist.toPath();
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(blockingTimeoutMS);
+
+		ParkedRequest parkedRequest = new ParkedRequest(asyncContext, segmentName, msn);
+		//request is added in compute so that the queue is not removed concurrently before the request is added
+		parkedRequests.compute(playlistPath, (path, queue) -> {
+			if (queue == null) {
+				queue = new ConcurrentLinkedQueue<>();
+			}
+			queue.add(parkedRequest);
+			return queue;
+		});
+
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				//answer with the current file
+				removeParkedRequest(playlistPath, parkedRequest);
+				parkedRequest.answer();
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				removeParkedRequest(playlistPath, parkedRequest);
+				parkedRequest.done.set(true);
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+				removeParkedRequest(playlistPath, parkedRequest);
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+				//no need to implement
+			}
+		});
+
+		watch(playlistPath.getParent());
+
+		//playlist may be updated before the request is parked
+		notifyPlaylistUpdated(playlist);
+	}
+
+	/**
+	 * Removes the parked request and the queue of the playlist if it's empty
+	 */
+	private void removeParkedRequest(Path playlistPath, ParkedRequest parkedRequest) {
+		parkedRequests.computeIfPresent(playlistPath, (path, queue) -> {
+			queue.remove(parkedRequest);
+			return queue.isEmpty() ? null : queue;
+		});
+	}
+
+	private void watch(Path directory) throws IOException {
+		if (!watchedDirectories.containsKey(directory)) {
+			synchronized (watchedDirectories) {
+				if (!watchedDirectories.containsKey(directory)) {
+					WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY);
+					watchedDirectories.put(directory, key);
+				}
+			}
+		}
+	}
+
+	private void watchDirectories() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				Path directory = (Path) key.watchable();
+				List<WatchEvent<?>> events = key.pollEvents();
+				for (WatchEvent<?> event : events) {
+					Object context = event.context();
+					if (context instanceof Path && context.toString().endsWith(".m3u8")) {
+						Path playlist = directory.resolve((Path) context);
+						//only the playlists that have parked requests are read
+						if (parkedRequests.containsKey(playlist)) {
+							notifyPlaylistUpdated(playlist.toFile());
+						}
+					}
+				}
+				if (!key.reset()) {
+					//directory is deleted
+					watchedDirectories.remove(directory);
+					parkedRequests.keySet().removeIf(playlist -> directory.equals(playlist.getParent()));
+				}
+			}
+		}
+		catch (ClosedWatchServiceException e) {
+			logger.debug("Playlist watcher is closed");
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Answers the parked requests that are waiting for the playlist update.
+	 * Muxers may call this method directly after they write a playlist
+	 * @param playlist - playlist file that is updated
+	 */
+	public void notifyPlaylistUpdated(File playlist) {
+		Path playlistPath = playlist.toPath();
+		Queue<ParkedRequest> queue = parkedRequests.get(playlistPath);
+		if (queue == null || queue.isEmpty()) {
+			return;
+		}
+
+		PlaylistInfo info = readPlaylist(playlistPath);
+		if (info == null) {
+			return;
+		}
+
+		for (ParkedRequest parkedRequest : queue) {
+			if (parkedRequest.isReady(info)) {
+				removeParkedRequest(playlistPath, parkedRequest);
+				parkedRequest.answer();
+			}
+		}
+	}
+
+	/**
+	 * Reads the playlist
+	 * @return playlist info or null if playlist cannot be read
+	 */
+	public static PlaylistInfo readPlaylist(Path playlist) {
+		try {
+			return parsePlaylist(new String(Files.readAllBytes(playlist), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public static PlaylistInfo parsePlaylist(String content) {
+		long firstMediaSequence = 0;
+		int segmentCount = 0;
+		boolean endList = false;
+		List<String> segmentUris = new ArrayList<>();
+
+		for (String line : content.split("\n")) {
+			line = line.trim();
+			if (!line.isEmpty() && line.charAt(0) != '#') {
+				int queryIndex = line.indexOf('?');
+				segmentUris.add(queryIndex >= 0 ? line.substring(0, queryIndex) : line);
+			}
+			else if (line.startsWith(MEDIA_SEQUENCE_TAG)) {
+				try {
+					firstMediaSequence = Long.parseLong(line.substring(MEDIA_SEQUENCE_TAG.length()).trim());
+				}
+				catch (NumberFormatException e) {
+					logger.warn("Media sequence cannot be parsed: {}", line);
+				}
+			}
+			else if (line.startsWith(SEGMENT_TAG)) {
+				segmentCount++;
+			}
+			else if (line.startsWith(END_LIST_TAG)) {
+				endList = true;
+			}
+		}
+		return new PlaylistInfo(firstMediaSequence + segmentCount - 1, endList, segmentUris);
+	}
+
+	public long getBlockingTimeoutMS() {
+		return blockingTimeoutMS;
+	}
+
+	public void setBlockingTimeoutMS(long blockingTimeoutMS) {
+		this.blockingTimeoutMS = blockingTimeoutMS;
+	}
+
+	/**
+	 * @return number of the playlists that have parked requests
+	 */
+	public int getParkedPlaylistCount() {
+		return parkedRequests.size();
+	}
+
+	public int getParkedRequestCount() {
+		int count = 0;
+		for (Queue<ParkedRequest> queue : parkedRequests.values()) {
+			count += queue.size();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,218 @@
+package io.antmedia.webresource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byte budgeted LRU cache for the recent HLS playlists and segments.
+ *
+ * Each entry keeps the last modified time and the length of the file that it is read from,
+ * so an entry is regarded as stale as soon as the file on disk changes. Muxers may also evict
+ * an entry explicitly when they rewrite or delete a file.
+ *
+ * Lookups do not lock, each hit only stamps the entry with an access counter. When the budget is exceeded,
+ * least recently used entries are evicted in a batch until the size drops below the low water mark.
+ */
+public class HlsResourceCache {
+
+	public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+	public static final int DEFAULT_MAX_ENTRY_SIZE = 8 * 1024 * 1024;
+
+	public static class Entry {
+		private final byte[] content;
+		private final long lastModified;
+		private volatile long lastAccess;
+
+		public Entry(byte[] content, long lastModified) {
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public boolean isValid(long lastModified, long contentLength) {
+			return this.lastModified == lastModified && content.length == contentLength;
+		}
+	}
+
+	/**
+	 * Maximum total size of the cached content in bytes
+	 */
+	private volatile long maxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * Files bigger than this value are not cached
+	 */
+	private volatile int maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+
+	private final AtomicLong size = new AtomicLong();
+
+	private final AtomicLong accessCounter = new AtomicLong();
+
+	private final LongAdder hitCount = new LongAdder();
+
+	private final LongAdder lookupCount = new LongAdder();
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>(256);
+
+	private final Object evictionLock = new Object();
+
+	/**
+	 * Returns cached content if it is still valid for the file with provided attributes
+	 * @param path - web app path of the resource
+	 * @param lastModified - last modified time of the file on disk
+	 * @param contentLength - length of the file on disk
+	 * @return cached entry or null if there is no valid entry
+	 */
+	public Entry get(String path, long lastModified, long contentLength) {
+		lookupCount.increment();
+		Entry entry = entries.get(path);
+		if (entry != null) {
+			if (entry.isValid(lastModified, contentLength)) {
+				entry.lastAccess = accessCounter.incrementAndGet();
+				hitCount.increment();
+				return entry;
+			}
+			remove(path, entry);
+		}
+		return null;
+	}
+
+	/**
+	 * Puts the content to the cache and evicts least recently used entries
+	 * if total size exceeds the limit
+	 * @return true if content is cached
+	 */
+	public boolean put(String path, byte[] content, long lastModified) {
+		if (content == null || content.length > maxEntrySize || content.length > maxSize) {
+			return false;
+		}
+		Entry entry = new Entry(content, lastModified);
+		entry.lastAccess = accessCounter.incrementAndGet();
+		Entry oldEntry = entries.put(path, entry);
+		size.addAndGet(content.length - (oldEntry != null ? oldEntry.getContent().length : 0));
+
+		if (size.get() > maxSize) {
+			evict();
+		}
+		return true;
+	}
+
+	/**
+	 * Evicts least recently used entries until the size is 10% below the limit,
+	 * so that eviction does not run for each put when cache is full
+	 */
+	private void evict() {
+		synchronized (evictionLock) {
+			long limit = maxSize;
+			if (size.get() <= limit) {
+				return;
+			}
+			long lowWaterMark = limit - limit / 10;
+			List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+			candidates.sort(Comparator.comparingLong(candidate -> candidate.getValue().lastAccess));
+			for (Map.Entry<String, Entry> candidate : candidates) {
+				if (size.get() <= lowWaterMark) {
+					break;
+				}
+				remove(candidate.getKey(), candidate.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes the entry of the path. It's called when a file is rewritten or deleted
+	 */
+	public void remove(String path) {
+		Entry entry = entries.remove(path);
+		if (entry != null) {
+			size.addAndGet(-entry.getContent().length);
+		}
+	}
+
+	private void remove(String path, Entry entry) {
+		if (entries.remove(path, entry)) {
+			size.addAndGet(-entry.getContent().length);
+		}
+	}
+
+	/**
+	 * Removes all entries whose path starts with the prefix, e.g. all files of a stream
+	 */
+	public void removeAll(String pathPrefix) {
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (entry.getKey().startsWith(pathPrefix)) {
+				remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes the playlists and segments of the stream in the directory. File names of a stream start
+	 * with the stream id and it's followed by an extension, a resolution suffix or a segment number
+	 * @param directory - web app path of the directory with a trailing slash, e.g. /streams/
+	 */
+	public void removeStream(String directory, String streamId) {
+		String prefix = directory + streamId;
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			String path = entry.getKey();
+			if (path.startsWith(prefix) && path.length() > prefix.length()) {
+				char next = path.charAt(prefix.length());
+				if (next == '.' || next == '_' || Character.isDigit(next)) {
+					remove(path, entry.getValue());
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public long getSize() {
+		return size.get();
+	}
+
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getLookupCount() {
+		return lookupCount.sum();
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public int getMaxEntrySize() {
+		return maxEntrySize;
+	}
+
+	public void setMaxEntrySize(int maxEntrySize) {
+		this.maxEntrySize = maxEntrySize;
+	}
+
+}
@@ -1,19 +1,202 @@
 package io.antmedia.webresource;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.LifecycleException;
 import org.apache.catalina.WebResource;
 import org.apache.catalina.webresources.StandardRoot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class StreamWebRoot extends StandardRoot {
 
-	
+	public static final String STREAMS_PATH = "/streams/";
+
+	private static final Logger logger = LoggerFactory.getLogger(StreamWebRoot.class);
+
+	/**
+	 * Web roots of the started applications. Key is the application name
+	 */
+	private static final Map<String, StreamWebRoot> instances = new ConcurrentHashMap<>();
+
+	/**
+	 * Keeps the recent playlists and segments in memory because lots of viewers request
+	 * the same files. Tomcat's resource cache is bypassed for these files because they change frequently
+	 */
+	private final HlsResourceCache hlsCache = new HlsResourceCache();
+
+	private boolean hlsCacheEnabled = true;
+
+	private WatchService watchService;
+
+	private String appName;
+
+	 @Override
+	 protected void startInternal() throws LifecycleException {
+		 super.startInternal();
+		 appName = getContext().getName();
+		 if (appName.startsWith("/")) {
+			 appName = appName.substring(1);
+		 }
+		 instances.put(appName, this);
+		 if (hlsCacheEnabled) {
+			 startWatching(new File(getContext().getDocBase(), STREAMS_PATH));
+		 }
+	 }
+
+	 @Override
+	 protected void stopInternal() throws LifecycleException {
+		 if (appName != null) {
+			 instances.remove(appName, this);
+		 }
+		 stopWatching();
+		 hlsCache.clear();
+		 super.stopInternal();
+	 }
+
+	 /**
+	  * Muxers rewrite playlists and delete old segments in the streams directory. Cached entries are
+	  * evicted as soon as the file is changed instead of waiting for the next request of the file
+	  */
+	 private void startWatching(File streamsDir) {
+		 if (!streamsDir.isDirectory() && !streamsDir.mkdirs()) {
+			 logger.warn("Streams directory {} cannot be watched", streamsDir);
+			 return;
+		 }
+		 try {
+			 watchService = FileSystems.getDefault().newWatchService();
+			 streamsDir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		 } catch (IOException e) {
+			 logger.error("Streams directory {} cannot be watched: {}", streamsDir, e.getMessage());
+			 stopWatching();
+			 return;
+		 }
+		 Thread watcher = new Thread(this::watch, "hls-cache-watcher-" + appName);
+		 watcher.setDaemon(true);
+		 watcher.start();
+	 }
+
+	 private void watch() {
+		 WatchService service = watchService;
+		 try {
+			 while (true) {
+				 WatchKey key = service.take();
+				 for (WatchEvent<?> event : key.pollEvents()) {
+					 if (event.context() instanceof Path) {
+						 hlsCache.remove(STREAMS_PATH + event.context());
+					 }
+					 else if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						 hlsCache.removeAll(STREAMS_PATH);
+					 }
+				 }
+				 if (!key.reset()) {
+					 break;
+				 }
+			 }
+		 } catch (InterruptedException e) {
+			 Thread.currentThread().interrupt();
+		 } catch (ClosedWatchServiceException e) {
+			 //web root is stopped
+		 }
+	 }
+
+	 private void stopWatching() {
+		 if (watchService != null) {
+			 try {
+				 watchService.close();
+			 } catch (IOException e) {
+				 logger.error(e.getMessage());
+			 }
+			 watchService = null;
+		 }
+	 }
+
+	 /**
+	  * Evicts the playlists and segments of the stream from the cache of the application.
+	  * It's called when the stream is finished
+	  */
+	 public static void evictStream(String appName, String streamId) {
+		 StreamWebRoot webRoot = instances.get(appName);
+		 if (webRoot != null) {
+			 webRoot.hlsCache.removeStream(STREAMS_PATH, streamId);
+		 }
+	 }
+
 	 @Override
 	 public WebResource getResource(String path) {
 		 if (path.endsWith(".m3u8") || path.endsWith(".ts")) {
-			 return getResourceInternal(path, true);
+			 WebResource resource = getResourceInternal(path, true);
+			 if (hlsCacheEnabled) {
+				 resource = getCachedResource(path, resource);
+			 }
+			 return resource;
 		 }
 		 else {
 			 return super.getResource(path);
 		 }
 		 
 	 }
+
+	 private WebResource getCachedResource(String path, WebResource resource) {
+		 if (!resource.isFile()) {
+			 //file is deleted or never created
+			 hlsCache.remove(path);
+			 return resource;
+		 }
+
+		 long lastModified = resource.getLastModified();
+		 HlsResourceCache.Entry entry = hlsCache.get(path, lastModified, resource.getContentLength());
+		 if (entry != null) {
+			 return new CachedWebResource(resource, entry.getContent());
+		 }
+
+		 if (resource.getContentLength() > hlsCache.getMaxEntrySize()) {
+			 //do not read big files to memory, tomcat streams them
+			 return resource;
+		 }
+
+		 byte[] content = resource.getContent();
+		 if (content != null && hlsCache.put(path, content, lastModified)) {
+			 return new CachedWebResource(resource, content);
+		 }
+		 return resource;
+	 }
+
+	 /**
+	  * Muxers may call this method when they rewrite or delete a file
+	  * @param path - web app path of the file
+	  */
+	 public void evict(String path) {
+		 hlsCache.remove(path);
+	 }
+
+	 public HlsResourceCache getHlsCache() {
+		 return hlsCache;
+	 }
+
+	 public boolean isHlsCacheEnabled() {
+		 return hlsCacheEnabled;
+	 }
+
+	 public void setHlsCacheEnabled(boolean hlsCacheEnabled) {
+		 this.hlsCacheEnabled = hlsCacheEnabled;
+	 }
+
+	 public void setHlsCacheMaxSize(long hlsCacheMaxSize) {
+		 hlsCache.setMaxSize(hlsCacheMaxSize);
+	 }
+
+	 public void setHlsCacheMaxEntrySize(int hlsCacheMaxEntrySize) {
+		 hlsCache.setMaxEntrySize(hlsCacheMaxEntrySize);
+	 }
 }
@@ -0,0 +1,501 @@
+package io.antmedia.webrtc.adaptor;
+
+import static org.bytedeco.javacpp.avcodec.AV_CODEC_FLAG_GLOBAL_HEADER;
+import static org.bytedeco.javacpp.avcodec.AV_CODEC_ID_AAC;
+import static org.bytedeco.javacpp.avcodec.AV_CODEC_ID_H264;
+import static org.bytedeco.javacpp.avcodec.FF_COMPLIANCE_EXPERIMENTAL;
+import static org.bytedeco.javacpp.avcodec.av_packet_unref;
+import static org.bytedeco.javacpp.avcodec.avcodec_alloc_context3;
+import static org.bytedeco.javacpp.avcodec.avcodec_find_encoder;
+import static org.bytedeco.javacpp.avcodec.avcodec_free_context;
+import static org.bytedeco.javacpp.avcodec.avcodec_open2;
+import static org.bytedeco.javacpp.avcodec.avcodec_parameters_from_context;
+import static org.bytedeco.javacpp.avcodec.avcodec_receive_packet;
+import static org.bytedeco.javacpp.avcodec.avcodec_send_frame;
+import static org.bytedeco.javacpp.avformat.avformat_alloc_context;
+import static org.bytedeco.javacpp.avformat.avformat_free_context;
+import static org.bytedeco.javacpp.avformat.avformat_new_stream;
+import static org.bytedeco.javacpp.avutil.AVERROR_EAGAIN;
+import static org.bytedeco.javacpp.avutil.AVERROR_EOF;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.javacpp.avutil.AV_ROUND_UP;
+import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_FLTP;
+import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_S16;
+import static org.bytedeco.javacpp.avutil.av_audio_fifo_alloc;
+import static org.bytedeco.javacpp.avutil.av_audio_fifo_free;
+import static org.bytedeco.javacpp.avutil.av_audio_fifo_read;
+import static org.bytedeco.javacpp.avutil.av_audio_fifo_size;
+import static org.bytedeco.javacpp.avutil.av_audio_fifo_write;
+import static org.bytedeco.javacpp.avutil.av_dict_free;
+import static org.bytedeco.javacpp.avutil.av_dict_set;
+import static org.bytedeco.javacpp.avutil.av_frame_alloc;
+import static org.bytedeco.javacpp.avutil.av_frame_free;
+import static org.bytedeco.javacpp.avutil.av_frame_get_buffer;
+import static org.bytedeco.javacpp.avutil.av_frame_make_writable;
+import static org.bytedeco.javacpp.avutil.av_freep;
+import static org.bytedeco.javacpp.avutil.av_get_default_channel_layout;
+import static org.bytedeco.javacpp.avutil.av_image_fill_arrays;
+import static org.bytedeco.javacpp.avutil.av_rescale_rnd;
+import static org.bytedeco.javacpp.avutil.av_samples_alloc;
+import static org.bytedeco.javacpp.swresample.swr_alloc_set_opts;
+import static org.bytedeco.javacpp.swresample.swr_convert;
+import static org.bytedeco.javacpp.swresample.swr_free;
+import static org.bytedeco.javacpp.swresample.swr_get_delay;
+import static org.bytedeco.javacpp.swresample.swr_init;
+import static org.bytedeco.javacpp.swscale.SWS_BILINEAR;
+import static org.bytedeco.javacpp.swscale.sws_freeContext;
+import static org.bytedeco.javacpp.swscale.sws_getCachedContext;
+import static org.bytedeco.javacpp.swscale.sws_scale;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.bytedeco.javacpp.avcodec.AVCodec;
+import org.bytedeco.javacpp.avcodec.AVCodecContext;
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avformat.AVStream;
+import org.bytedeco.javacpp.avutil.AVAudioFifo;
+import org.bytedeco.javacpp.avutil.AVDictionary;
+import org.bytedeco.javacpp.avutil.AVFrame;
+import org.bytedeco.javacpp.avutil.AVRational;
+import org.bytedeco.javacpp.swresample.SwrContext;
+import org.bytedeco.javacpp.swscale.SwsContext;
+import org.red5.server.api.scope.IScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.muxer.MuxAdaptor;
+
+/**
+ * Encodes the frames of a WebRTC publisher and writes the packets to a {@link MuxAdaptor} in the scope.
+ *
+ * It replaces publishing the encoded stream to the local RTMP server, so there is no RTMP handshake,
+ * no FLV muxing and no demuxing of the same stream again for each WebRTC publisher. Encoder settings are
+ * same with the recorder of {@link io.antmedia.websocket.WebSocketCommunityHandler#initRecorder(String)}.
+ * Video and audio are encoded in their own threads and packets are written to the mux adaptor one at a time.
+ *
+ * It's used only if {@link AntMediaApplicationAdapter#isWebRTCDirectIngestEnabled()} is true because the stream
+ * has no red5 broadcast stream, so it cannot be played with RTMP or RTSP.
+ */
+public class MuxAdaptorRecorder {
+
+	private static Logger logger = LoggerFactory.getLogger(MuxAdaptorRecorder.class);
+
+	private final IScope scope;
+
+	private final String streamId;
+
+	private int width = 640;
+
+	private int height = 480;
+
+	private int frameRate = 20;
+
+	private int gopSize = 40;
+
+	private int videoQuality = 29;
+
+	private int sampleRate = 44100;
+
+	private int audioChannels = 2;
+
+	private int audioBitrate = 64000;
+
+	private AVFormatContext streamsContext;
+
+	private AVStream videoStream;
+
+	private AVStream audioStream;
+
+	private AVCodecContext videoCodecContext;
+
+	private AVCodecContext audioCodecContext;
+
+	private MuxAdaptor muxAdaptor;
+
+	/**
+	 * Frame of the encoder size that input images are scaled to. Guarded by the video lock
+	 */
+	private AVFrame videoFrame;
+
+	private AVFrame inputImage;
+
+	private SwsContext swsContext;
+
+	private AVPacket videoPacket;
+
+	private long frameNumber;
+
+	private final Object videoLock = new Object();
+
+	/**
+	 * Frame of the encoder frame size that is filled from the audio fifo. Guarded by the audio lock
+	 */
+	private AVFrame audioFrame;
+
+	private AVAudioFifo audioFifo;
+
+	private SwrContext swrContext;
+
+	private int swrInputSampleRate;
+
+	private int swrInputChannels;
+
+	private ShortPointer inputSamples;
+
+	private short[] inputSampleArray;
+
+	private final PointerPointer inputData = new PointerPointer(1);
+
+	private PointerPointer convertedData;
+
+	private int convertedCapacity;
+
+	private AVPacket audioPacket;
+
+	private long audioSampleCount;
+
+	private final Object audioLock = new Object();
+
+	private volatile boolean started = false;
+
+	/**
+	 * Stream is published when the first packet is encoded. Guarded by this
+	 */
+	private boolean published = false;
+
+	public MuxAdaptorRecorder(IScope scope, String streamId) {
+		this.scope = scope;
+		this.streamId = streamId;
+	}
+
+	/**
+	 * Opens the encoders and prepares the mux adaptor of the stream. Stream is published with the first encoded packet
+	 * @return false if encoders or mux adaptor cannot be prepared
+	 */
+	public boolean start() {
+		if (!openVideoEncoder() || !openAudioEncoder()) {
+			release();
+			return false;
+		}
+
+		streamsContext = avformat_alloc_context();
+		videoStream = avformat_new_stream(streamsContext, null);
+		avcodec_parameters_from_context(videoStream.codecpar(), videoCodecContext);
+		videoStream.time_base(videoCodecContext.time_base());
+		audioStream = avformat_new_stream(streamsContext, null);
+		avcodec_parameters_from_context(audioStream.codecpar(), audioCodecContext);
+		audioStream.time_base(audioCodecContext.time_base());
+
+		muxAdaptor = MuxAdaptor.initializeMuxAdaptor(null, true, scope);
+		muxAdaptor.setFirstKeyFrameReceivedChecked(false);
+		muxAdaptor.init(scope, streamId, false);
+		if (!muxAdaptor.prepareInternal(streamsContext)) {
+			logger.warn("Mux adaptor cannot be prepared for WebRTC stream {}", streamId);
+			muxAdaptor = null;
+			release();
+			return false;
+		}
+		muxAdaptor.setStartTime(System.currentTimeMillis());
+		started = true;
+		return true;
+	}
+
+	private boolean openVideoEncoder() {
+		AVCodec codec = avcodec_find_encoder(AV_CODEC_ID_H264);
+		if (codec == null) {
+			logger.warn("H264 encoder is not found for WebRTC stream {}", streamId);
+			return false;
+		}
+		videoCodecContext = avcodec_alloc_context3(codec);
+		videoCodecContext.width(width);
+		videoCodecContext.height(height);
+		videoCodecContext.pix_fmt(AV_PIX_FMT_YUV420P);
+		videoCodecContext.time_base(new AVRational().num(1).den(frameRate));
+		videoCodecContext.gop_size(gopSize);
+		//parameter sets are given to the mux adaptor in extradata
+		videoCodecContext.flags(videoCodecContext.flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
+
+		AVDictionary options = new AVDictionary(null);
+		av_dict_set(options, "crf", String.valueOf(videoQuality), 0);
+		av_dict_set(options, "preset", "veryfast", 0);
+		av_dict_set(options, "tune", "zerolatency", 0);
+		int ret = avcodec_open2(videoCodecContext, codec, options);
+		av_dict_free(options);
+		if (ret < 0) {
+			logger.warn("Cannot open video encoder for WebRTC stream {} error: {}", streamId, ret);
+			return false;
+		}
+
+		videoFrame = av_frame_alloc();
+		videoFrame.format(AV_PIX_FMT_YUV420P);
+		videoFrame.width(width);
+		videoFrame.height(height);
+		av_frame_get_buffer(videoFrame, 32);
+		inputImage = av_frame_alloc();
+		videoPacket = new AVPacket();
+		return true;
+	}
+
+	private boolean openAudioEncoder() {
+		AVCodec codec = avcodec_find_encoder(AV_CODEC_ID_AAC);
+		if (codec == null) {
+			logger.warn("AAC encoder is not found for WebRTC stream {}", streamId);
+			return false;
+		}
+		audioCodecContext = avcodec_alloc_context3(codec);
+		audioCodecContext.sample_rate(sampleRate);
+		audioCodecContext.channels(audioChannels);
+		audioCodecContext.channel_layout(av_get_default_channel_layout(audioChannels));
+		audioCodecContext.sample_fmt(AV_SAMPLE_FMT_FLTP);
+		audioCodecContext.bit_rate(audioBitrate);
+		audioCodecContext.time_base(new AVRational().num(1).den(sampleRate));
+		audioCodecContext.strict_std_compliance(FF_COMPLIANCE_EXPERIMENTAL);
+		audioCodecContext.flags(audioCodecContext.flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
+		int ret = avcodec_open2(audioCodecContext, codec, (AVDictionary) null);
+		if (ret < 0) {
+			logger.warn("Cannot open audio encoder for WebRTC stream {} error: {}", streamId, ret);
+			return false;
+		}
+
+		int frameSize = audioCodecContext.frame_size();
+		audioFrame = av_frame_alloc();
+		audioFrame.nb_samples(frameSize);
+		audioFrame.format(AV_SAMPLE_FMT_FLTP);
+		audioFrame.channels(audioChannels);
+		audioFrame.channel_layout(audioCodecContext.channel_layout());
+		audioFrame.sample_rate(sampleRate);
+		av_frame_get_buffer(audioFrame, 0);
+		audioFifo = av_audio_fifo_alloc(AV_SAMPLE_FMT_FLTP, audioChannels, frameSize);
+		audioPacket = new AVPacket();
+		return true;
+	}
+
+	/**
+	 * Sets the number of the next video frame. It's the timestamp of the frame in the frame rate
+	 */
+	public void setFrameNumber(long frameNumber) {
+		this.frameNumber = frameNumber;
+	}
+
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * Encodes the I420 image whose planes are packed in the buffer
+	 * @return false if image cannot be encoded
+	 */
+	public boolean recordImage(int imageWidth, int imageHeight, ByteBuffer image) {
+		synchronized (videoLock) {
+			if (!started) {
+				return false;
+			}
+			BytePointer data = new BytePointer((ByteBuffer) image.position(0));
+			av_image_fill_arrays(inputImage.data(), inputImage.linesize(), data, AV_PIX_FMT_YUV420P, imageWidth, imageHeight, 1);
+
+			swsContext = sws_getCachedContext(swsContext, imageWidth, imageHeight, AV_PIX_FMT_YUV420P,
+					width, height, AV_PIX_FMT_YUV420P, SWS_BILINEAR, null, null, (DoublePointer) null);
+			if (swsContext == null) {
+				logger.warn("Cannot scale {}x{} image for WebRTC stream {}", imageWidth, imageHeight, streamId);
+				return false;
+			}
+			av_frame_make_writable(videoFrame);
+			sws_scale(swsContext, inputImage.data(), inputImage.linesize(), 0, imageHeight, videoFrame.data(), videoFrame.linesize());
+			videoFrame.pts(frameNumber);
+
+			return encode(videoCodecContext, videoFrame, videoPacket, videoStream);
+		}
+	}
+
+	/**
+	 * Converts the interleaved 16 bit samples to the encoder format and encodes them when a frame of samples is ready
+	 * @return false if samples cannot be encoded
+	 */
+	public boolean recordSamples(int inputSampleRate, int inputChannels, ShortBuffer samples) {
+		synchronized (audioLock) {
+			if (!started) {
+				return false;
+			}
+			if (swrContext == null || swrInputSampleRate != inputSampleRate || swrInputChannels != inputChannels) {
+				if (swrContext != null) {
+					swr_free(swrContext);
+				}
+				swrContext = swr_alloc_set_opts(null, av_get_default_channel_layout(audioChannels), AV_SAMPLE_FMT_FLTP, sampleRate,
+						av_get_default_channel_layout(inputChannels), AV_SAMPLE_FMT_S16, inputSampleRate, 0, null);
+				if (swrContext == null || swr_init(swrContext) < 0) {
+					logger.warn("Cannot resample audio of WebRTC stream {}", streamId);
+					if (swrContext != null) {
+						swr_free(swrContext);
+						swrContext = null;
+					}
+					return false;
+				}
+				swrInputSampleRate = inputSampleRate;
+				swrInputChannels = inputChannels;
+			}
+
+			//samples are copied so that heap buffers are also supported
+			int length = samples.remaining();
+			if (inputSamples == null || inputSampleArray.length < length) {
+				inputSamples = new ShortPointer(length);
+				inputSampleArray = new short[length];
+				inputData.put(0, inputSamples);
+			}
+			samples.get(inputSampleArray, 0, length);
+			inputSamples.position(0).put(inputSampleArray, 0, length);
+			int inputSampleCount = length / inputChannels;
+
+			int maxOutputSampleCount = (int) av_rescale_rnd(swr_get_delay(swrContext, inputSampleRate) + inputSampleCount,
+					sampleRate, inputSampleRate, AV_ROUND_UP);
+			if (convertedData == null || convertedCapacity < maxOutputSampleCount) {
+				if (convertedData != null) {
+					av_freep(convertedData);
+				}
+				convertedData = new PointerPointer(audioChannels);
+				av_samples_alloc(convertedData, (IntPointer) null, audioChannels, maxOutputSampleCount, AV_SAMPLE_FMT_FLTP, 0);
+				convertedCapacity = maxOutputSampleCount;
+			}
+			int convertedSampleCount = swr_convert(swrContext, convertedData, maxOutputSampleCount, inputData, inputSampleCount);
+			if (convertedSampleCount < 0) {
+				return false;
+			}
+			av_audio_fifo_write(audioFifo, convertedData, convertedSampleCount);
+
+			int frameSize = audioFrame.nb_samples();
+			boolean result = true;
+			while (av_audio_fifo_size(audioFifo) >= frameSize) {
+				av_frame_make_writable(audioFrame);
+				av_audio_fifo_read(audioFifo, audioFrame.data(), frameSize);
+				audioFrame.pts(audioSampleCount);
+				audioSampleCount += frameSize;
+				result &= encode(audioCodecContext, audioFrame, audioPacket, audioStream);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Sends the frame to the encoder and writes the packets that are ready. Encoder is flushed if frame is null
+	 */
+	private boolean encode(AVCodecContext codecContext, AVFrame frame, AVPacket pkt, AVStream stream) {
+		int ret = avcodec_send_frame(codecContext, frame);
+		if (ret < 0 && ret != AVERROR_EOF()) {
+			logger.warn("Cannot encode frame of WebRTC stream {} error: {}", streamId, ret);
+			return false;
+		}
+		while ((ret = avcodec_receive_packet(codecContext, pkt)) >= 0) {
+			pkt.stream_index(stream.index());
+			writePacket(stream, pkt);
+			av_packet_unref(pkt);
+		}
+		return ret == AVERROR_EAGAIN() || ret == AVERROR_EOF();
+	}
+
+	private synchronized void writePacket(AVStream stream, AVPacket pkt) {
+		if (muxAdaptor != null) {
+			if (!published) {
+				published = true;
+				getApplicationAdapter().startPublish(streamId);
+			}
+			muxAdaptor.writePacket(stream, pkt);
+		}
+	}
+
+	/**
+	 * Flushes the encoders, finishes the stream and frees the resources
+	 */
+	public void stop() {
+		synchronized (videoLock) {
+			synchronized (audioLock) {
+				if (!started) {
+					return;
+				}
+				started = false;
+				encode(videoCodecContext, null, videoPacket, videoStream);
+				encode(audioCodecContext, null, audioPacket, audioStream);
+			}
+		}
+		boolean wasPublished;
+		synchronized (this) {
+			logger.info("Writing trailer of WebRTC stream {}", streamId);
+			muxAdaptor.writeTrailer(streamsContext);
+			muxAdaptor = null;
+			wasPublished = published;
+		}
+		if (wasPublished) {
+			getApplicationAdapter().closeBroadcast(streamId);
+		}
+		release();
+	}
+
+	private void release() {
+		synchronized (videoLock) {
+			if (videoCodecContext != null) {
+				avcodec_free_context(videoCodecContext);
+				videoCodecContext = null;
+			}
+			if (videoFrame != null) {
+				av_frame_free(videoFrame);
+				videoFrame = null;
+			}
+			if (inputImage != null) {
+				av_frame_free(inputImage);
+				inputImage = null;
+			}
+			if (swsContext != null) {
+				sws_freeContext(swsContext);
+				swsContext = null;
+			}
+		}
+		synchronized (audioLock) {
+			if (audioCodecContext != null) {
+				avcodec_free_context(audioCodecContext);
+				audioCodecContext = null;
+			}
+			if (audioFrame != null) {
+				av_frame_free(audioFrame);
+				audioFrame = null;
+			}
+			if (audioFifo != null) {
+				av_audio_fifo_free(audioFifo);
+				audioFifo = null;
+			}
+			if (swrContext != null) {
+				swr_free(swrContext);
+				swrContext = null;
+			}
+			if (convertedData != null) {
+				av_freep(convertedData);
+				convertedData = null;
+			}
+		}
+		if (streamsContext != null) {
+			avformat_free_context(streamsContext);
+			streamsContext = null;
+		}
+	}
+
+	private AntMediaApplicationAdapter getApplicationAdapter() {
+		return (AntMediaApplicationAdapter) scope.getContext().getApplicationContext().getBean(AntMediaApplicationAdapter.BEAN_NAME);
+	}
+
+	public boolean isStarted() {
+		return started;
+	}
+
+	public synchronized boolean isPublished() {
+		return published;
+	}
+
+	public String getStreamId() {
+		return streamId;
+	}
+}
@@ -47,6 +47,12 @@ public class RTMPAdaptor extends Adaptor {
 	public static final String AUDIO_NOISE_SUPPRESSION_CONSTRAINT = "googNoiseSuppression";
 
 	FFmpegFrameRecorder recorder;
+
+	/**
+	 * Encodes the frames to the mux adaptor of the stream. If it's set, recorder is not used
+	 */
+	private MuxAdaptorRecorder muxAdaptorRecorder;
+
 	private long startTime;
 
 	private static Logger logger = LoggerFactory.getLogger(RTMPAdaptor.class);
@@ -188,11 +194,15 @@ public class RTMPAdaptor extends Adaptor {
 			try {
 				if (peerConnection != null) {
 					peerConnection.close();
-					recorder.stop();
+					stopRecorder();
 					peerConnection.dispose();
 					peerConnectionFactory.dispose();
 					peerConnection = null;
 				}
+				else if (muxAdaptorRecorder != null) {
+					//encoders and mux adaptor are prepared when the adaptor is created so they are released even if peer connection is not created
+					muxAdaptorRecorder.stop();
+				}
 			} catch (FrameRecorder.Exception e) {
 				logger.error(ExceptionUtils.getStackTrace(e));
 			}
@@ -201,6 +211,15 @@ public class RTMPAdaptor extends Adaptor {
 		signallingExecutor.shutdown();
 	}
 
+	private void stopRecorder() throws FrameRecorder.Exception {
+		if (muxAdaptorRecorder != null) {
+			muxAdaptorRecorder.stop();
+		}
+		else {
+			recorder.stop();
+		}
+	}
+
 	public ExecutorService getSignallingExecutor() {
 		return signallingExecutor;
 	}
@@ -222,6 +241,12 @@ public class RTMPAdaptor extends Adaptor {
 			audioEncoderExecutor.execute(() -> {
 
 				ShortBuffer audioBuffer = playoutData.asShortBuffer();
+				if (muxAdaptorRecorder != null) {
+					if (!muxAdaptorRecorder.recordSamples(webRtcAudioTrack.getSampleRate(), webRtcAudioTrack.getChannels(), audioBuffer)) {
+						logger.info("could not audio sample for stream Id {}", getStreamId());
+					}
+					return;
+				}
 				try {
 					boolean result = recorder.recordSamples(webRtcAudioTrack.getSampleRate(), webRtcAudioTrack.getChannels(), audioBuffer);
 					if (!result) {
@@ -291,11 +316,10 @@ public class RTMPAdaptor extends Adaptor {
 								pts = (System.currentTimeMillis() - startTime);
 							}
 
-							frameNumber = (int)(pts * recorder.getFrameRate() / 1000f);
+							frameNumber = (int)(pts * getFrameRate() / 1000f);
 
 							if (frameNumber > lastFrameNumber) {
 
-								recorder.setFrameNumber(frameNumber);
 								lastFrameNumber = frameNumber;
 
 								Frame frameCV = new Frame(frame.getRotatedWidth(), frame.getRotatedHeight(), Frame.DEPTH_UBYTE, 2);
@@ -308,12 +332,19 @@ public class RTMPAdaptor extends Adaptor {
 									((ByteBuffer)(frameCV.image[0])).put(wrappedBuffer.getDataV());
 								}
 
-								try {
-									recorder.recordImage(frameCV.imageWidth, frameCV.imageHeight, frameCV.imageDepth,
-											frameCV.imageChannels, frameCV.imageStride, AV_PIX_FMT_YUV420P, frameCV.image);
-
-								} catch (FrameRecorder.Exception e) {
-									logger.error(ExceptionUtils.getStackTrace(e));
+								if (muxAdaptorRecorder != null) {
+									muxAdaptorRecorder.setFrameNumber(frameNumber);
+									muxAdaptorRecorder.recordImage(frameCV.imageWidth, frameCV.imageHeight, (ByteBuffer) frameCV.image[0]);
+								}
+								else {
+									try {
+										recorder.setFrameNumber(frameNumber);
+										recorder.recordImage(frameCV.imageWidth, frameCV.imageHeight, frameCV.imageDepth,
+												frameCV.imageChannels, frameCV.imageStride, AV_PIX_FMT_YUV420P, frameCV.image);
+
+									} catch (FrameRecorder.Exception e) {
+										logger.error(ExceptionUtils.getStackTrace(e));
+									}
 								}
 							}
 							else {
@@ -333,6 +364,10 @@ public class RTMPAdaptor extends Adaptor {
 
 	}
 
+	private double getFrameRate() {
+		return muxAdaptorRecorder != null ? muxAdaptorRecorder.getFrameRate() : recorder.getFrameRate();
+	}
+
 	@Override
 	public void onSetSuccess() {
 		peerConnection.createAnswer(this, getSdpMediaConstraints());
@@ -372,4 +407,12 @@ public class RTMPAdaptor extends Adaptor {
 		return startTime;
 	}
 
+	public MuxAdaptorRecorder getMuxAdaptorRecorder() {
+		return muxAdaptorRecorder;
+	}
+
+	public void setMuxAdaptorRecorder(MuxAdaptorRecorder muxAdaptorRecorder) {
+		this.muxAdaptorRecorder = muxAdaptorRecorder;
+	}
+
 }
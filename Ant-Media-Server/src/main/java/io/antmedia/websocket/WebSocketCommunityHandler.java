@@ -15,6 +15,7 @@ import org.bytedeco.javacpp.avcodec;
 import org.bytedeco.javacpp.avutil;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
+import org.red5.server.api.scope.IScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
@@ -22,8 +23,10 @@ import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 import org.webrtc.SessionDescription.Type;
 
+import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.recorder.FFmpegFrameRecorder;
 import io.antmedia.recorder.FrameRecorder;
+import io.antmedia.webrtc.adaptor.MuxAdaptorRecorder;
 import io.antmedia.webrtc.adaptor.RTMPAdaptor;
 
 public abstract class WebSocketCommunityHandler {
@@ -83,6 +86,10 @@ public abstract class WebSocketCommunityHandler {
 				//get scope and use its name
 				startRTMPAdaptor(session, streamId);
 			}
+			else if (cmd.equals(WebSocketConstants.PLAY_COMMAND)) 
+			{
+				viewerRequested(streamId);
+			}
 			else if (cmd.equals(WebSocketConstants.TAKE_CONFIGURATION_COMMAND))  
 			{
 
@@ -123,10 +130,17 @@ public abstract class WebSocketCommunityHandler {
 
 	private void startRTMPAdaptor(Session session, final String streamId) {
 
-		//get scope and use its name
-		String outputURL = "rtmp://127.0.0.1/WebRTCApp/" + streamId;
+		RTMPAdaptor connectionContext = null;
+		IScope scope = getDirectIngestScope();
+		if (scope != null) {
+			//packets are written to the mux adaptor of the stream in the scope without the local rtmp connection
+			connectionContext = getNewRTMPAdaptor(scope, streamId);
+		}
 
-		RTMPAdaptor connectionContext = getNewRTMPAdaptor(outputURL);
+		if (connectionContext == null) {
+			String outputURL = "rtmp://127.0.0.1/WebRTCApp/" + streamId;
+			connectionContext = getNewRTMPAdaptor(outputURL);
+		}
 
 		session.getUserProperties().put(session.getId(), connectionContext);
 
@@ -140,6 +154,50 @@ public abstract class WebSocketCommunityHandler {
 		return new RTMPAdaptor(getNewRecorder(outputURL), this);
 	}
 
+	/**
+	 * Creates an adaptor that writes the stream to a mux adaptor in the scope
+	 * @return adaptor or null if encoders or mux adaptor cannot be prepared
+	 */
+	public RTMPAdaptor getNewRTMPAdaptor(IScope scope, String streamId) {
+		MuxAdaptorRecorder muxAdaptorRecorder = new MuxAdaptorRecorder(scope, streamId);
+		if (!muxAdaptorRecorder.start()) {
+			logger.warn("Direct ingest cannot be started for stream {}, it's published over rtmp", streamId);
+			return null;
+		}
+		RTMPAdaptor adaptor = new RTMPAdaptor(null, this);
+		adaptor.setMuxAdaptorRecorder(muxAdaptorRecorder);
+		return adaptor;
+	}
+
+	/**
+	 * @return scope of the application if direct ingest is enabled in the application or null if it's not enabled
+	 * or application context is not available
+	 */
+	public IScope getDirectIngestScope() {
+		ApplicationContext appContext = getAppContext();
+		if (appContext != null && appContext.containsBean(AntMediaApplicationAdapter.BEAN_NAME)) {
+			AntMediaApplicationAdapter appAdaptor = (AntMediaApplicationAdapter) appContext.getBean(AntMediaApplicationAdapter.BEAN_NAME);
+			if (appAdaptor.isWebRTCDirectIngestEnabled()) {
+				return appAdaptor.getScope();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Starts the pull on demand source of the stream if it's idle. Handlers that serve WebRTC play 
+	 * should call it before joining the viewer to the stream
+	 */
+	public void viewerRequested(String streamId) {
+		ApplicationContext appContext = getAppContext();
+		if (appContext != null && appContext.containsBean(AntMediaApplicationAdapter.BEAN_NAME)) {
+			AntMediaApplicationAdapter application = (AntMediaApplicationAdapter) appContext.getBean(AntMediaApplicationAdapter.BEAN_NAME);
+			if (application.getStreamFetcherManager() != null) {
+				application.getStreamFetcherManager().viewerRequested(streamId);
+			}
+		}
+	}
+
 	public void addICECandidate(final String streamId, RTMPAdaptor connectionContext, String sdpMid, String sdp,
 			long sdpMLineIndex) {
 		if (connectionContext != null) {
@@ -0,0 +1,137 @@
+package io.antmedia.test;
+
+import static org.bytedeco.javacpp.avcodec.av_new_packet;
+import static org.bytedeco.javacpp.avcodec.av_packet_alloc;
+import static org.bytedeco.javacpp.avcodec.av_packet_free;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.junit.Test;
+
+import io.antmedia.streamsource.AVPacketPool;
+
+public class AVPacketPoolUnitTest {
+
+	@Test
+	public void testReusePacketsInSameThread() {
+		AVPacketPool packetPool = new AVPacketPool(4, 2);
+		packetPool.setTrackingSampleRate(1);
+
+		AVPacket packet = packetPool.acquire();
+		assertNotNull(packet);
+		assertEquals(1, packetPool.getAllocatedPacketCount());
+		assertEquals(1, packetPool.getOutstandingPacketCount());
+
+		packetPool.release(packet);
+		assertEquals(0, packetPool.getOutstandingPacketCount());
+		assertEquals(1, packetPool.getPooledPacketCount());
+
+		assertSame(packet, packetPool.acquire());
+		assertEquals(1, packetPool.getAllocatedPacketCount());
+		assertEquals(0, packetPool.getPooledPacketCount());
+		packetPool.release(packet);
+
+		//releasing twice is ignored
+		packetPool.release(packet);
+		assertEquals(1, packetPool.getPooledPacketCount());
+	}
+
+	@Test
+	public void testPoolIsBounded() {
+		AVPacketPool packetPool = new AVPacketPool(3, 2);
+
+		List<AVPacket> packets = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			packets.add(packetPool.acquire());
+		}
+		assertEquals(10, packetPool.getAllocatedPacketCount());
+		assertEquals(10, packetPool.getOutstandingPacketCount());
+
+		for (AVPacket packet : packets) {
+			packetPool.release(packet);
+		}
+
+		//2 packets in thread cache and 3 packets in shared pool
+		assertEquals(5, packetPool.getPooledPacketCount());
+		assertEquals(5, packetPool.getFreedPacketCount());
+		assertEquals(0, packetPool.getOutstandingPacketCount());
+	}
+
+	@Test
+	public void testOutstandingPacketAccounting() throws InterruptedException {
+		AVPacketPool packetPool = new AVPacketPool(4, 2);
+		packetPool.setTrackingSampleRate(1);
+
+		AVPacket packet = packetPool.acquire();
+		assertEquals(0, av_new_packet(packet, 1000));
+		AVPacket packet2 = packetPool.acquire();
+		assertEquals(0, av_new_packet(packet2, 500));
+
+		assertEquals(1500, packetPool.getEstimatedOutstandingBytes());
+
+		Thread.sleep(50);
+		assertTrue(packetPool.getOldestOutstandingAgeMs() >= 50);
+		assertEquals(2, packetPool.getOutstandingPacketCount(40));
+		assertEquals(0, packetPool.getOutstandingPacketCount(10000));
+
+		packetPool.release(packet);
+		assertEquals(500, packetPool.getEstimatedOutstandingBytes());
+
+		//data of the released packet is unreferenced
+		assertEquals(0, packet.size());
+
+		packetPool.release(packet2);
+		assertEquals(0, packetPool.getEstimatedOutstandingBytes());
+		assertEquals(0, packetPool.getOldestOutstandingAgeMs());
+	}
+
+	@Test
+	public void testUntrackedPacketIsUnreferenced() {
+		AVPacketPool packetPool = new AVPacketPool(4, 2);
+		packetPool.setTrackingSampleRate(1);
+
+		AVPacket packet = av_packet_alloc();
+		assertEquals(0, av_new_packet(packet, 1000));
+		packetPool.release(packet);
+
+		//packet is not pooled but its data is not leaked
+		assertEquals(0, packet.size());
+		assertEquals(0, packetPool.getPooledPacketCount());
+		av_packet_free(packet);
+	}
+
+	@Test
+	public void testSampledTracking() {
+		AVPacketPool packetPool = new AVPacketPool(4, 2);
+		packetPool.setTrackingSampleRate(0);
+
+		AVPacket packet = packetPool.acquire();
+		assertEquals(1, packetPool.getOutstandingPacketCount());
+		assertEquals(0, packetPool.getOldestOutstandingAgeMs());
+
+		packetPool.release(packet);
+		assertEquals(0, packetPool.getOutstandingPacketCount());
+		assertEquals(1, packetPool.getPooledPacketCount());
+	}
+
+	@Test
+	public void testReclaimDeadThreadCaches() throws InterruptedException {
+		AVPacketPool packetPool = new AVPacketPool(4, 2);
+
+		Thread thread = new Thread(() -> packetPool.release(packetPool.acquire()));
+		thread.start();
+		thread.join();
+		assertEquals(1, packetPool.getPooledPacketCount());
+
+		assertEquals(1, packetPool.reclaimDeadThreadCaches());
+		assertEquals(0, packetPool.getPooledPacketCount());
+		assertEquals(1, packetPool.getFreedPacketCount());
+	}
+
+}
@@ -0,0 +1,112 @@
+package io.antmedia.test;
+
+import static org.bytedeco.javacpp.avformat.avio_flush;
+import static org.bytedeco.javacpp.avformat.avio_write;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.bytedeco.javacpp.avformat.AVIOContext;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.antstreaming.rtsp.InterleavedRtpWriter;
+import com.antstreaming.rtsp.protocol.RTSPTransport;
+import com.antstreaming.rtsp.protocol.RTSPTransport.LowerTransport;
+
+public class InterleavedRtpWriterUnitTest {
+
+	private static byte[] createPacket(int payloadType, int size) {
+		byte[] packet = new byte[size];
+		packet[0] = (byte) 0x80;
+		packet[1] = (byte) payloadType;
+		for (int i = 2; i < size; i++) {
+			packet[i] = (byte) i;
+		}
+		return packet;
+	}
+
+	@Test
+	public void testBatchPackets() {
+		IoSession session = mock(IoSession.class);
+		when(session.isConnected()).thenReturn(true);
+
+		InterleavedRtpWriter writer = new InterleavedRtpWriter(session, 1000);
+		AVIOContext ioContext = writer.createIOContext(2);
+		assertNotNull(ioContext);
+
+		byte[] rtpPacket = createPacket(96, 300);
+		byte[] rtcpPacket = createPacket(200, 28);
+
+		//each flush of io context is a single packet
+		avio_write(ioContext, rtpPacket, rtpPacket.length);
+		avio_flush(ioContext);
+		avio_write(ioContext, rtcpPacket, rtcpPacket.length);
+		avio_flush(ioContext);
+		avio_write(ioContext, rtpPacket, rtpPacket.length);
+		avio_flush(ioContext);
+
+		writer.flush();
+		//nothing to flush
+		writer.flush();
+
+		ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+		verify(session, times(1)).write(captor.capture());
+		assertEquals(1, writer.getWrittenBatchCount());
+
+		IoBuffer batch = (IoBuffer) captor.getValue();
+		assertEquals(3 * 4 + 2 * rtpPacket.length + rtcpPacket.length, batch.remaining());
+
+		int[] expectedChannels = {2, 3, 2};
+		byte[][] expectedPackets = {rtpPacket, rtcpPacket, rtpPacket};
+		for (int i = 0; i < 3; i++) {
+			assertEquals('$', batch.get());
+			assertEquals(expectedChannels[i], batch.get());
+			int length = batch.getUnsignedShort();
+			byte[] data = new byte[length];
+			batch.get(data);
+			assertArrayEquals(expectedPackets[i], data);
+		}
+
+		assertTrue(writer.releaseIOContext(ioContext));
+		assertFalse(writer.releaseIOContext(ioContext));
+	}
+
+	@Test
+	public void testBackpressure() {
+		IoSession session = mock(IoSession.class);
+		InterleavedRtpWriter writer = new InterleavedRtpWriter(session, 1000);
+
+		when(session.getScheduledWriteBytes()).thenReturn(999L);
+		assertTrue(writer.isWritable());
+
+		when(session.getScheduledWriteBytes()).thenReturn(1000L);
+		assertFalse(writer.isWritable());
+	}
+
+	@Test
+	public void testInterleavedTransport() {
+		RTSPTransport transport = new RTSPTransport("RTP/AVP/TCP;unicast;interleaved=2-3");
+		assertEquals(LowerTransport.TCP, transport.getLowerTransport());
+		assertArrayEquals(new int[] {2, 3}, transport.getInterleavedChannels());
+
+		transport.setInterleavedChannels(4);
+		assertEquals("4-5", transport.getInterleaved());
+		assertEquals("RTP/AVP/TCP;UNICAST;interleaved=4-5", transport.toString());
+
+		assertArrayEquals(new int[] {6, 7}, new RTSPTransport("RTP/AVP/TCP;interleaved=6").getInterleavedChannels());
+		assertNull(new RTSPTransport("RTP/AVP/TCP;interleaved=a-b").getInterleavedChannels());
+		assertNull(new RTSPTransport("RTP/AVP/TCP;interleaved=0-300").getInterleavedChannels());
+		assertNull(new RTSPTransport("RTP/AVP;unicast;client_port=5000-5001").getInterleavedChannels());
+	}
+
+}
@@ -0,0 +1,232 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.awaitility.Awaitility;
+import org.bytedeco.javacpp.avformat;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.red5.codec.IAudioStreamCodec;
+import org.red5.codec.StreamCodecInfo;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.stream.IClientBroadcastStream;
+import org.red5.server.net.rtmp.event.AudioData;
+
+import com.antstreaming.rtsp.InterleavedRtpWriter;
+import com.antstreaming.rtsp.LiveRtpSink;
+import com.antstreaming.rtsp.LiveStreamPacketizer;
+
+public class LiveStreamPacketizerUnitTest {
+
+	private static class TestSink implements LiveStreamPacketizer.RtpSink {
+		private List<byte[]> packets = new CopyOnWriteArrayList<>();
+		private volatile int flushCount = 0;
+
+		@Override
+		public void sendRtpPacket(int streamIndex, byte[] data, int size, boolean keyFrameStart) {
+			byte[] packet = new byte[size];
+			System.arraycopy(data, 0, packet, 0, size);
+			packets.add(packet);
+		}
+
+		@Override
+		public void flush() {
+			flushCount++;
+		}
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		avformat.av_register_all();
+	}
+
+	private static IScope createScope(String streamName, IClientBroadcastStream broadcastStream) {
+		IScope scope = mock(IScope.class);
+		when(scope.getName()).thenReturn("junit");
+		IBroadcastScope broadcastScope = mock(IBroadcastScope.class);
+		when(broadcastScope.getClientBroadcastStream()).thenReturn(broadcastStream);
+		when(scope.getBroadcastScope(streamName)).thenReturn(broadcastScope);
+		return scope;
+	}
+
+	private static IClientBroadcastStream createAudioStream() {
+		//aac lc, 44100 Hz, 2 channels
+		IAudioStreamCodec audioCodec = mock(IAudioStreamCodec.class);
+		when(audioCodec.getDecoderConfiguration()).thenReturn(IoBuffer.wrap(new byte[] {(byte) 0xAF, 0x00, 0x12, 0x10}));
+		StreamCodecInfo codecInfo = new StreamCodecInfo();
+		codecInfo.setAudioCodec(audioCodec);
+		IClientBroadcastStream broadcastStream = mock(IClientBroadcastStream.class);
+		when(broadcastStream.getCodecInfo()).thenReturn(codecInfo);
+		return broadcastStream;
+	}
+
+	private static AudioData createAudioFrame() {
+		byte[] frame = new byte[200];
+		frame[0] = (byte) 0xAF;
+		frame[1] = 0x01;
+		return new AudioData(IoBuffer.wrap(frame));
+	}
+
+	@Test
+	public void testPacketizeAudio() {
+		IClientBroadcastStream broadcastStream = createAudioStream();
+
+		IScope scope = createScope("stream1", broadcastStream);
+		LiveStreamPacketizer packetizer = LiveStreamPacketizer.acquire(scope, "stream1");
+		assertNotNull(packetizer);
+		verify(broadcastStream).addStreamListener(packetizer);
+		assertEquals(1, packetizer.getStreamCount());
+		assertTrue(packetizer.getSdpDescription().contains("MPEG4-GENERIC/44100/2"));
+
+		//players share the packetizer
+		assertSame(packetizer, LiveStreamPacketizer.acquire(scope, "stream1"));
+		packetizer.release();
+
+		TestSink sink = new TestSink();
+		packetizer.addSink(sink);
+
+		byte[] frame = new byte[200];
+		frame[0] = (byte) 0xAF;
+		frame[1] = 0x01;
+		AudioData audioData = new AudioData(IoBuffer.wrap(frame));
+		packetizer.packetReceived(broadcastStream, audioData);
+
+		//packets are packetized by the pacer
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> sink.flushCount == 1);
+		assertEquals(1, packetizer.getPacketCount());
+		assertTrue(sink.packets.size() > 0);
+		byte[] rtpPacket = sink.packets.get(sink.packets.size() - 1);
+		//version 2
+		assertEquals(0x80, rtpPacket[0] & 0xC0);
+		//au headers and the raw frame without flv audio header
+		assertEquals(12 + 4 + frame.length - 2, rtpPacket.length);
+
+		//audio specific config is not sent
+		packetizer.packetReceived(broadcastStream, new AudioData(IoBuffer.wrap(new byte[] {(byte) 0xAF, 0x00, 0x12, 0x10})));
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> packetizer.getQueueSize() == 0);
+		assertEquals(1, packetizer.getPacketCount());
+
+		packetizer.removeSink(sink);
+		assertEquals(0, packetizer.getSinkCount());
+		packetizer.release();
+		verify(broadcastStream).removeStreamListener(packetizer);
+	}
+
+	@Test
+	public void testPacketizerIsClosedWithStream() {
+		IClientBroadcastStream broadcastStream = createAudioStream();
+		IScope scope = createScope("stream3", broadcastStream);
+		LiveStreamPacketizer packetizer = LiveStreamPacketizer.acquire(scope, "stream3");
+		assertNotNull(packetizer);
+
+		//stream is published again before the player leaves
+		IClientBroadcastStream newBroadcastStream = createAudioStream();
+		IBroadcastScope broadcastScope = scope.getBroadcastScope("stream3");
+		when(broadcastScope.getClientBroadcastStream()).thenReturn(newBroadcastStream);
+		LiveStreamPacketizer newPacketizer = LiveStreamPacketizer.acquire(scope, "stream3");
+		assertNotNull(newPacketizer);
+		assertTrue(packetizer != newPacketizer);
+		assertTrue(packetizer.isClosed());
+		verify(broadcastStream).removeStreamListener(packetizer);
+		verify(newBroadcastStream).addStreamListener(newPacketizer);
+
+		//player of the previous stream leaves
+		packetizer.release();
+		assertSame(newPacketizer, LiveStreamPacketizer.acquire(scope, "stream3"));
+		newPacketizer.release();
+
+		LiveStreamPacketizer.streamClosed(scope, "stream3");
+		assertTrue(newPacketizer.isClosed());
+		verify(newBroadcastStream).removeStreamListener(newPacketizer);
+
+		//closed packetizer does not get packets
+		TestSink sink = new TestSink();
+		newPacketizer.addSink(sink);
+		newPacketizer.packetReceived(newBroadcastStream, createAudioFrame());
+		assertEquals(0, newPacketizer.getQueueSize());
+		newPacketizer.release();
+		verify(newBroadcastStream, times(1)).removeStreamListener(newPacketizer);
+	}
+
+	@Test
+	public void testQueueDropsPacketsUntilKeyFrame() {
+		IClientBroadcastStream broadcastStream = createAudioStream();
+		IScope scope = createScope("stream4", broadcastStream);
+		LiveStreamPacketizer packetizer = LiveStreamPacketizer.acquire(scope, "stream4");
+		assertNotNull(packetizer);
+
+		//packets are not queued if there is no player
+		packetizer.packetReceived(broadcastStream, createAudioFrame());
+		assertEquals(0, packetizer.getQueueSize());
+
+		TestSink sink = new TestSink();
+		packetizer.addSink(sink);
+		for (int i = 0; i < LiveStreamPacketizer.MAX_QUEUED_PACKETS * 4; i++) {
+			packetizer.packetReceived(broadcastStream, createAudioFrame());
+		}
+		assertTrue(packetizer.getQueueSize() <= LiveStreamPacketizer.MAX_QUEUED_PACKETS);
+
+		Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> packetizer.getQueueSize() == 0);
+		assertEquals(LiveStreamPacketizer.MAX_QUEUED_PACKETS * 4, packetizer.getPacketCount() + packetizer.getDroppedPacketCount());
+		packetizer.release();
+	}
+
+	@Test
+	public void testInterleavedSinkDropsUntilKeyFrame() {
+		IoSession session = mock(IoSession.class);
+		LiveRtpSink sink = new LiveRtpSink(1);
+		sink.setInterleavedTransport(0, session, 0);
+		byte[] rtpPacket = new byte[] {(byte) 0x80, 96, 0, 1};
+
+		sink.sendRtpPacket(0, rtpPacket, rtpPacket.length, true);
+		assertEquals(1, sink.getSentPacketCount());
+
+		//connection is not writable
+		when(session.getScheduledWriteBytes()).thenReturn((long) InterleavedRtpWriter.DEFAULT_MAX_SCHEDULED_WRITE_BYTES);
+		sink.sendRtpPacket(0, rtpPacket, rtpPacket.length, false);
+		assertEquals(1, sink.getDroppedPacketCount());
+
+		//rest of the frame is dropped after the connection is writable again
+		when(session.getScheduledWriteBytes()).thenReturn(0L);
+		sink.sendRtpPacket(0, rtpPacket, rtpPacket.length, false);
+		assertEquals(2, sink.getDroppedPacketCount());
+		assertEquals(1, sink.getSentPacketCount());
+
+		sink.sendRtpPacket(0, rtpPacket, rtpPacket.length, true);
+		sink.sendRtpPacket(0, rtpPacket, rtpPacket.length, false);
+		assertEquals(3, sink.getSentPacketCount());
+		assertEquals(2, sink.getDroppedPacketCount());
+	}
+
+	@Test
+	public void testUnsupportedStream() {
+		IClientBroadcastStream broadcastStream = mock(IClientBroadcastStream.class);
+		when(broadcastStream.getCodecInfo()).thenReturn(new StreamCodecInfo());
+		assertNull(LiveStreamPacketizer.acquire(createScope("stream2", broadcastStream), "stream2"));
+
+		IScope scope = mock(IScope.class);
+		when(scope.getName()).thenReturn("junit");
+		assertNull(LiveStreamPacketizer.acquire(scope, "not_published"));
+	}
+
+	@Test
+	public void testRtcpPacketType() {
+		assertTrue(InterleavedRtpWriter.isRtcpPacket(new byte[] {(byte) 0x80, (byte) 200}, 2));
+		assertTrue(!InterleavedRtpWriter.isRtcpPacket(new byte[] {(byte) 0x80, 96}, 2));
+	}
+}
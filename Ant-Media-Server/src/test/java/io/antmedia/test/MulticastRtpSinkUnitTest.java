@@ -0,0 +1,77 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.antstreaming.rtsp.LiveStreamPacketizer;
+import com.antstreaming.rtsp.MulticastRtpSink;
+import com.antstreaming.rtsp.UdpPortAllocator;
+import com.antstreaming.rtsp.protocol.RTSPTransport;
+import com.antstreaming.rtsp.protocol.RTSPTransport.DeliveryType;
+
+public class MulticastRtpSinkUnitTest {
+
+	@Test
+	public void testSharedSink() {
+		LiveStreamPacketizer packetizer = mock(LiveStreamPacketizer.class);
+		when(packetizer.getStreamCount()).thenReturn(2);
+
+		MulticastRtpSink sink = MulticastRtpSink.create(packetizer, "239.255.42.42", 4);
+		assertNotNull(sink);
+		assertEquals("239.255.42.42", sink.getGroupAddress());
+		assertEquals(4, sink.getTTL());
+
+		int[] videoPort = sink.getPort(0);
+		int[] audioPort = sink.getPort(1);
+		assertEquals(videoPort[0] + 1, videoPort[1]);
+		assertTrue(videoPort[0] != audioPort[0]);
+		assertTrue(UdpPortAllocator.getInstance().isAllocated(videoPort[0]));
+
+		//sink is added to the packetizer once for all players
+		sink.join();
+		sink.join();
+		assertEquals(2, sink.getViewerCount());
+		verify(packetizer, times(1)).addSink(sink);
+
+		sink.leave();
+		verify(packetizer, times(0)).removeSink(sink);
+		sink.leave();
+		sink.leave();
+		assertEquals(0, sink.getViewerCount());
+		verify(packetizer, times(1)).removeSink(sink);
+
+		sink.join();
+		sink.sendRtpPacket(0, new byte[] {(byte) 0x80, 96, 0, 1}, 4, false);
+
+		sink.close();
+		assertFalse(UdpPortAllocator.getInstance().isAllocated(videoPort[0]));
+		assertFalse(UdpPortAllocator.getInstance().isAllocated(audioPort[0]));
+	}
+
+	@Test
+	public void testInvalidGroup() {
+		LiveStreamPacketizer packetizer = mock(LiveStreamPacketizer.class);
+		when(packetizer.getStreamCount()).thenReturn(1);
+		assertNull(MulticastRtpSink.create(packetizer, "10.0.0.1", 4));
+	}
+
+	@Test
+	public void testMulticastTransport() {
+		RTSPTransport transport = new RTSPTransport("RTP/AVP;multicast;ttl=127;mode=\"PLAY\"");
+		assertEquals(DeliveryType.MULTICAST, transport.getDeliveryType());
+
+		transport.setDestination("239.255.42.42");
+		transport.setPort(new int[] {5000, 5001});
+		transport.setTTL(16);
+		assertEquals("RTP/AVP;MULTICAST;destination=239.255.42.42;ttl=16;port=5000-5001;mode=\"PLAY\"", transport.toString());
+	}
+}
@@ -0,0 +1,102 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.mina.core.session.IoSession;
+import org.junit.Test;
+
+import com.antstreaming.rtsp.RtspConnection;
+import com.antstreaming.rtsp.RtspConnectionManager;
+import com.antstreaming.rtsp.RtspConnectionStats;
+
+public class RtspConnectionManagerUnitTest {
+
+	private RtspConnection mockConnection(String sessionId, long lastActivityTime) {
+		RtspConnection conn = mock(RtspConnection.class);
+		when(conn.getSessionId()).thenReturn(sessionId);
+		when(conn.getLastActivityTime()).thenReturn(lastActivityTime);
+		when(conn.getStats()).thenReturn(new RtspConnectionStats(sessionId, "127.0.0.1", "stream1"));
+		return conn;
+	}
+
+	@Test
+	public void testReapIdleConnections() {
+		RtspConnectionManager manager = new RtspConnectionManager();
+		long timeout = manager.getSessionTimeoutMs();
+		long now = System.currentTimeMillis();
+
+		RtspConnection idleConn = mockConnection("idle", now);
+		IoSession session = mock(IoSession.class);
+		when(idleConn.getSession()).thenReturn(session);
+		manager.addConnection(idleConn);
+
+		RtspConnection activeConn = mockConnection("active", now);
+		manager.addConnection(activeConn);
+		assertEquals(2, manager.getConnectionCount());
+		assertEquals(2, manager.getConnectionStats().size());
+
+		manager.reapIdleConnections(now);
+		manager.reapIdleConnections(now + timeout / 2);
+		assertEquals(2, manager.getConnectionCount());
+
+		//active connection keeps sending requests
+		when(activeConn.getLastActivityTime()).thenReturn(now + timeout / 2);
+		manager.reapIdleConnections(now + timeout + RtspConnectionManager.REAPER_TICK_MS);
+
+		assertNull(manager.getConnectionBySessionId("idle"));
+		assertSame(activeConn, manager.getConnectionBySessionId("active"));
+		verify(session, times(1)).closeNow();
+		verify(idleConn, times(1)).close();
+		verify(activeConn, never()).close();
+		assertEquals(1, manager.getReapedConnectionCount());
+
+		//active connection is checked again by its new timeout
+		manager.reapIdleConnections(now + timeout + timeout / 2 + RtspConnectionManager.REAPER_TICK_MS);
+		assertNull(manager.getConnectionBySessionId("active"));
+		verify(activeConn, times(1)).close();
+		assertEquals(2, manager.getReapedConnectionCount());
+		assertEquals(0, manager.getConnectionCount());
+	}
+
+	@Test
+	public void testRemovedConnectionIsNotReaped() {
+		RtspConnectionManager manager = new RtspConnectionManager();
+		long now = System.currentTimeMillis();
+
+		RtspConnection conn = mockConnection("closed", now);
+		manager.addConnection(conn);
+		manager.reapIdleConnections(now);
+		assertSame(conn, manager.removeConnection("closed"));
+
+		manager.reapIdleConnections(now + manager.getSessionTimeoutMs() + RtspConnectionManager.REAPER_TICK_MS);
+		verify(conn, never()).close();
+		assertEquals(0, manager.getReapedConnectionCount());
+	}
+
+	@Test
+	public void testLongTimeout() {
+		RtspConnectionManager manager = new RtspConnectionManager();
+		//timeout is longer than a turn of the wheel
+		long timeout = (RtspConnectionManager.REAPER_WHEEL_SIZE + 10) * RtspConnectionManager.REAPER_TICK_MS;
+		manager.setSessionTimeoutMs(timeout);
+		long now = System.currentTimeMillis();
+
+		RtspConnection conn = mockConnection("long", now);
+		manager.addConnection(conn);
+		manager.reapIdleConnections(now);
+
+		manager.reapIdleConnections(now + RtspConnectionManager.REAPER_WHEEL_SIZE * RtspConnectionManager.REAPER_TICK_MS);
+		verify(conn, never()).close();
+
+		manager.reapIdleConnections(now + timeout + RtspConnectionManager.REAPER_TICK_MS);
+		verify(conn, times(1)).close();
+		assertEquals(1, manager.getReapedConnectionCount());
+	}
+}
@@ -0,0 +1,276 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.service.DefaultTransportMetadata;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.session.IoSessionConfig;
+import org.apache.mina.filter.codec.AbstractProtocolDecoderOutput;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.antstreaming.rtsp.protocol.RtspCode;
+import com.antstreaming.rtsp.protocol.RtspDecoder;
+import com.antstreaming.rtsp.protocol.RtspHeaderCode;
+import com.antstreaming.rtsp.protocol.RtspMessage;
+import com.antstreaming.rtsp.protocol.RtspRequest;
+import com.antstreaming.rtsp.protocol.RtspResponse;
+
+public class RtspDecoderUnitTest {
+
+	private static final String SDP = "v=0\r\no=- 0 0 IN IP4 127.0.0.1\r\ns=test\r\nm=video 0 RTP/AVP 96\r\na=rtpmap:96 H264/90000\r\n";
+
+	private static final String ANNOUNCE = "ANNOUNCE rtsp://127.0.0.1:5554/LiveApp/stream1 RTSP/1.0\r\n"
+			+ "CSeq: 2\r\n"
+			+ "content-type: application/sdp\r\n"
+			+ "X-Custom_Header: value with spaces\r\n"
+			+ "Content-Length: " + SDP.length() + "\r\n"
+			+ "\r\n"
+			+ SDP;
+
+	private static final String OPTIONS = "OPTIONS * RTSP/1.0\r\nCSeq: 3\r\n\r\n";
+
+	private static final String RESPONSE = "RTSP/1.0 454 Session Not Found\r\nCSeq: 4\r\n\r\n";
+
+	private RtspDecoder decoder;
+	private IoSession session;
+	private List<Object> messages;
+	private AbstractProtocolDecoderOutput output;
+
+	@Before
+	public void before() {
+		decoder = new RtspDecoder();
+		DummySession dummySession = new DummySession();
+		dummySession.setTransportMetadata(new DefaultTransportMetadata("mina", "dummy", false, true,
+				SocketAddress.class, IoSessionConfig.class, Object.class));
+		session = dummySession;
+		messages = new ArrayList<>();
+		output = new AbstractProtocolDecoderOutput() {
+			@Override
+			public void flush(NextFilter nextFilter, IoSession session) {
+				//no need to flush
+			}
+		};
+	}
+
+	private void decode(byte[] data, int offset, int length) throws Exception {
+		IoBuffer buffer = IoBuffer.allocate(length);
+		buffer.put(data, offset, length);
+		buffer.flip();
+		decoder.decode(session, buffer, output);
+		while (!output.getMessageQueue().isEmpty()) {
+			messages.add(output.getMessageQueue().poll());
+		}
+	}
+
+	private void decode(String data) throws Exception {
+		byte[] bytes = data.getBytes(StandardCharsets.ISO_8859_1);
+		decode(bytes, 0, bytes.length);
+	}
+
+	private void checkAnnounce(Object message) {
+		RtspRequest request = (RtspRequest) message;
+		assertEquals(RtspRequest.Verb.ANNOUNCE, request.getVerb());
+		assertEquals("rtsp://127.0.0.1:5554/LiveApp/stream1", request.getUrl());
+		assertEquals("2", request.getHeader(RtspHeaderCode.CSEQ));
+		assertEquals("application/sdp", request.getHeader(RtspHeaderCode.CONTENT_TYPE));
+		assertEquals("value with spaces", request.getHeader("X-Custom_Header"));
+		assertEquals(SDP.length(), request.getBody().remaining());
+		assertEquals(SDP, request.getBuffer().toString());
+	}
+
+	@Test
+	public void testDecodeMessages() throws Exception {
+		//pipelined messages in a single buffer
+		decode(ANNOUNCE + OPTIONS + RESPONSE);
+		assertEquals(3, messages.size());
+		checkAnnounce(messages.get(0));
+
+		RtspRequest options = (RtspRequest) messages.get(1);
+		assertEquals(RtspRequest.Verb.OPTIONS, options.getVerb());
+		assertNull(options.getUrl());
+		assertNull(options.getBody());
+		assertEquals("3", options.getHeader(RtspHeaderCode.CSEQ));
+
+		RtspResponse response = (RtspResponse) messages.get(2);
+		assertEquals(RtspCode.SessionNotFound, response.getCode());
+		assertEquals("4", response.getHeader(RtspHeaderCode.CSEQ));
+	}
+
+	@Test
+	public void testDecodeByteByByte() throws Exception {
+		byte[] data = (ANNOUNCE + OPTIONS).getBytes(StandardCharsets.ISO_8859_1);
+		for (int i = 0; i < data.length; i++) {
+			decode(data, i, 1);
+		}
+		assertEquals(2, messages.size());
+		checkAnnounce(messages.get(0));
+		assertEquals(RtspRequest.Verb.OPTIONS, ((RtspRequest) messages.get(1)).getVerb());
+	}
+
+	@Test
+	public void testHeaderValuesAreReused() throws Exception {
+		String play = "PLAY rtsp://127.0.0.1:5554/LiveApp/stream1 RTSP/1.0\r\nCSeq: %d\r\nSession: 12345678\r\n\r\n";
+		decode(String.format(play, 5) + String.format(play, 6));
+		assertEquals(2, messages.size());
+
+		RtspMessage first = (RtspMessage) messages.get(0);
+		RtspMessage second = (RtspMessage) messages.get(1);
+		assertEquals("12345678", second.getHeader(RtspHeaderCode.SESSION));
+		assertSame(first.getHeaders().getProperty(RtspHeaderCode.SESSION.value()), 
+				second.getHeaders().getProperty(RtspHeaderCode.SESSION.value()));
+		assertEquals("5", first.getHeader(RtspHeaderCode.CSEQ));
+		assertEquals("6", second.getHeader(RtspHeaderCode.CSEQ));
+	}
+
+	@Test
+	public void testSkipInterleavedPackets() throws Exception {
+		byte[] message = OPTIONS.getBytes(StandardCharsets.ISO_8859_1);
+		byte[] data = new byte[4 + 300 + message.length];
+		data[0] = '$';
+		data[1] = 1;
+		data[2] = 1;
+		data[3] = 44;
+		//payload contains bytes that look like a message
+		System.arraycopy(message, 0, data, 4, message.length);
+		System.arraycopy(message, 0, data, 304, message.length);
+
+		//split inside the header of the packet
+		decode(data, 0, 3);
+		decode(data, 3, data.length - 3);
+		assertEquals(1, messages.size());
+		assertEquals(RtspRequest.Verb.OPTIONS, ((RtspRequest) messages.get(0)).getVerb());
+	}
+
+	@Test
+	public void testMalformedMessages() throws Exception {
+		String[] malformedMessages = {
+				"HELLO rtsp://127.0.0.1/app/stream RTSP/1.0\r\n",
+				"OPTIONS RTSP/1.0\r\n",
+				"OPTIONS * HTTP/1.1\r\n",
+				"RTSP/1.0 2x0 OK\r\n",
+				"OPTIONS * RTSP/1.0\r\nCSeq 1\r\n",
+				"ANNOUNCE * RTSP/1.0\r\nContent-Length: -1\r\n",
+				"ANNOUNCE * RTSP/1.0\r\nContent-Length: 99999999999\r\n",
+		};
+
+		for (String malformedMessage : malformedMessages) {
+			try {
+				decode(malformedMessage);
+				fail("Decoder should not accept " + malformedMessage);
+			}
+			catch (ProtocolDecoderException e) {
+				//expected
+			}
+
+			//decoder recovers for the next message
+			decode(OPTIONS);
+			assertEquals(1, messages.size());
+			messages.clear();
+		}
+
+		StringBuilder longLine = new StringBuilder("OPTIONS ");
+		while (longLine.length() <= RtspDecoder.MAX_LINE_LENGTH) {
+			longLine.append("aaaaaaaa");
+		}
+		try {
+			decode(longLine.toString());
+			fail("Decoder should not accept long lines");
+		}
+		catch (ProtocolDecoderException e) {
+			assertEquals(RtspDecoder.ReadState.Command, decoder.getState());
+		}
+	}
+
+	@Test
+	public void testLongCompleteLine() throws Exception {
+		StringBuilder longValue = new StringBuilder();
+		while (longValue.length() <= RtspDecoder.MAX_LINE_LENGTH) {
+			longValue.append("aaaaaaaa");
+		}
+		try {
+			decode("OPTIONS * RTSP/1.0\r\nCSeq: 3\r\nUser-Agent: " + longValue + "\r\n\r\n");
+			fail("Decoder should not accept long lines");
+		}
+		catch (ProtocolDecoderException e) {
+			assertEquals(RtspDecoder.ReadState.Command, decoder.getState());
+		}
+
+		//decoder recovers for the next message
+		decode(OPTIONS);
+		assertEquals(1, messages.size());
+		assertEquals(RtspRequest.Verb.OPTIONS, ((RtspRequest) messages.get(0)).getVerb());
+	}
+
+	@Test
+	public void testFuzzSplitPoints() throws Exception {
+		Random random = new Random(3);
+		byte[] data = (ANNOUNCE + OPTIONS + RESPONSE + ANNOUNCE).getBytes(StandardCharsets.ISO_8859_1);
+
+		for (int i = 0; i < 500; i++) {
+			before();
+			int offset = 0;
+			while (offset < data.length) {
+				int length = Math.min(1 + random.nextInt(64), data.length - offset);
+				decode(data, offset, length);
+				offset += length;
+			}
+			assertEquals(4, messages.size());
+			checkAnnounce(messages.get(0));
+			checkAnnounce(messages.get(3));
+		}
+	}
+
+	@Test
+	public void testFuzzRandomInput() throws Exception {
+		Random random = new Random(5);
+		byte[] valid = (ANNOUNCE + OPTIONS).getBytes(StandardCharsets.ISO_8859_1);
+
+		for (int i = 0; i < 2000; i++) {
+			before();
+			//mutate a valid message or create random bytes
+			byte[] data;
+			if (random.nextBoolean()) {
+				data = valid.clone();
+				for (int j = 0; j < 1 + random.nextInt(8); j++) {
+					data[random.nextInt(data.length)] = (byte) random.nextInt(256);
+				}
+			}
+			else {
+				data = new byte[random.nextInt(512)];
+				random.nextBytes(data);
+			}
+
+			int offset = 0;
+			while (offset < data.length) {
+				int length = Math.min(1 + random.nextInt(128), data.length - offset);
+				try {
+					decode(data, offset, length);
+				}
+				catch (ProtocolDecoderException e) {
+					//only protocol errors are expected
+				}
+				offset += length;
+			}
+
+			for (Object message : messages) {
+				assertTrue(message instanceof RtspMessage);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.antstreaming.rtsp.RtspPacer;
+
+public class RtspPacerUnitTest {
+
+	/**
+	 * Runs the tasks in the thread that advances the wheel
+	 */
+	private static class DirectExecutorService extends AbstractExecutorService {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return null;
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+
+	private static class TestTask implements RtspPacer.PacedTask {
+		private int runCount = 0;
+		private long delay;
+		private int maxRunCount;
+
+		TestTask(long delay, int maxRunCount) {
+			this.delay = delay;
+			this.maxRunCount = maxRunCount;
+		}
+
+		@Override
+		public long sendDuePackets(long now) {
+			runCount++;
+			return runCount < maxRunCount ? now + delay : -1;
+		}
+	}
+
+	@Test
+	public void testRunByDueTime() {
+		RtspPacer pacer = new RtspPacer(new DirectExecutorService(), 1);
+		TestTask task = new TestTask(10 * RtspPacer.TICK_MS, 3);
+
+		pacer.schedule(task);
+		assertTrue(pacer.isScheduled(task));
+		assertEquals(1, pacer.getScheduledTaskCount());
+
+		long now = System.currentTimeMillis();
+		pacer.advance(now);
+		assertEquals(1, task.runCount);
+
+		//task is not due yet
+		pacer.advance(now + 2 * RtspPacer.TICK_MS);
+		assertEquals(1, task.runCount);
+
+		pacer.advance(System.currentTimeMillis() + 11 * RtspPacer.TICK_MS);
+		assertEquals(2, task.runCount);
+
+		//task is removed when it returns negative due time
+		pacer.advance(System.currentTimeMillis() + 22 * RtspPacer.TICK_MS);
+		assertEquals(3, task.runCount);
+		assertFalse(pacer.isScheduled(task));
+
+		pacer.advance(System.currentTimeMillis() + 50 * RtspPacer.TICK_MS);
+		assertEquals(3, task.runCount);
+		assertEquals(3, pacer.getRunCount());
+	}
+
+	@Test
+	public void testCancelAndLongDelay() {
+		RtspPacer pacer = new RtspPacer(new DirectExecutorService(), 1);
+
+		//delay is longer than a turn of the wheel
+		TestTask longTask = new TestTask((RtspPacer.WHEEL_SIZE + 10) * RtspPacer.TICK_MS, 2);
+		TestTask cancelledTask = new TestTask(RtspPacer.TICK_MS, 100);
+		pacer.schedule(longTask);
+		pacer.schedule(cancelledTask);
+
+		long now = System.currentTimeMillis();
+		pacer.advance(now);
+		assertEquals(1, longTask.runCount);
+		assertEquals(1, cancelledTask.runCount);
+
+		pacer.cancel(cancelledTask);
+		assertEquals(1, pacer.getScheduledTaskCount());
+
+		//a turn of the wheel does not run the long task
+		pacer.advance(now + RtspPacer.WHEEL_SIZE * RtspPacer.TICK_MS);
+		assertEquals(1, longTask.runCount);
+		assertEquals(1, cancelledTask.runCount);
+
+		pacer.advance(System.currentTimeMillis() + (RtspPacer.WHEEL_SIZE + 20) * RtspPacer.TICK_MS);
+		assertEquals(2, longTask.runCount);
+		assertEquals(0, pacer.getScheduledTaskCount());
+	}
+}
@@ -0,0 +1,172 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avformat;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.antstreaming.rtsp.SharedStreamReader;
+
+import io.antmedia.streamsource.AVPacketPool;
+
+public class SharedStreamReaderUnitTest {
+
+	private static final String FILE = new File("src/test/resources/test_short.flv").getAbsolutePath();
+
+	private static final String MP4_FILE = new File("src/test/resources/sample_MP4_480.mp4").getAbsolutePath();
+
+	@BeforeClass
+	public static void beforeClass() {
+		avformat.av_register_all();
+		avformat.avformat_network_init();
+	}
+
+	@Test
+	public void testShareReader() {
+		int readerCount = SharedStreamReader.getReaderCount();
+
+		SharedStreamReader reader = SharedStreamReader.acquire(FILE, 0);
+		assertNotNull(reader);
+		assertNotNull(reader.getSdpDescription());
+		assertTrue(reader.getStreamCount() > 0);
+
+		//players of the same position share the reader
+		SharedStreamReader reader2 = SharedStreamReader.acquire(FILE, 0);
+		assertSame(reader, reader2);
+		assertEquals(readerCount + 1, SharedStreamReader.getReaderCount());
+
+		//player that seeks gets another reader
+		SharedStreamReader seekReader = SharedStreamReader.acquire(FILE, 1000000);
+		assertNotNull(seekReader);
+		assertNotSame(reader, seekReader);
+		assertEquals(readerCount + 2, SharedStreamReader.getReaderCount());
+
+		SharedStreamReader.Subscriber subscriber = reader.subscribe();
+		SharedStreamReader.Subscriber subscriber2 = reader2.subscribe();
+		assertEquals(2, reader.getSubscriberCount());
+
+		//packet is read once and given to both subscribers
+		assertTrue(reader.readPacket());
+		assertEquals(1, reader.getReadPacketCount());
+		AVPacket packet = subscriber.poll();
+		AVPacket packet2 = subscriber2.poll();
+		assertNotNull(packet);
+		assertNotNull(packet2);
+		assertNotSame(packet, packet2);
+		assertEquals(packet.data().address(), packet2.data().address());
+		assertEquals(packet.dts(), packet2.dts());
+		assertNull(subscriber.poll());
+		AVPacketPool.getInstance().release(packet);
+		AVPacketPool.getInstance().release(packet2);
+
+		reader.unsubscribe(subscriber2);
+		assertEquals(1, reader.getSubscriberCount());
+
+		//reader of a file that has read packets is not shared with the new players
+		SharedStreamReader lateReader = SharedStreamReader.acquire(FILE, 0);
+		assertNotNull(lateReader);
+		assertNotSame(reader, lateReader);
+		assertFalse(reader.canStartFrom(0));
+		assertTrue(lateReader.canStartFrom(0));
+		assertFalse(lateReader.canStartFrom(1000000));
+		lateReader.release();
+
+		reader.release();
+		reader2.release();
+		seekReader.release();
+	}
+
+	@Test
+	public void testSubscriberQueueLimit() {
+		SharedStreamReader reader = SharedStreamReader.acquire(MP4_FILE, 0);
+		assertNotNull(reader);
+		SharedStreamReader.Subscriber subscriber = reader.subscribe();
+
+		int count = 0;
+		while (count < SharedStreamReader.MAX_QUEUED_PACKETS && reader.readPacket()) {
+			count++;
+		}
+		assertEquals(count, subscriber.getQueueSize());
+		assertEquals(0, subscriber.getDroppedPacketCount());
+
+		//subscriber that does not consume drops its queue and continues with the next key frame
+		if (reader.readPacket()) {
+			assertTrue(subscriber.getDroppedPacketCount() >= count);
+			while (subscriber.isWaitingKeyFrame() && reader.readPacket()) {
+				assertEquals(0, subscriber.getQueueSize());
+			}
+			AVPacket packet = subscriber.poll();
+			if (packet != null) {
+				assertTrue((packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0);
+				AVPacketPool.getInstance().release(packet);
+			}
+		}
+
+		//queued packets are given back when the subscriber leaves
+		reader.unsubscribe(subscriber);
+		assertEquals(0, subscriber.getQueueSize());
+		reader.release();
+	}
+
+	@Test
+	public void testLateSubscriberStartsWithKeyFrame() {
+		SharedStreamReader reader = SharedStreamReader.acquire(FILE, 0);
+		assertNotNull(reader);
+		SharedStreamReader.Subscriber subscriber = reader.subscribe();
+		assertFalse(subscriber.isWaitingKeyFrame());
+
+		assertTrue(reader.readPacket());
+		SharedStreamReader.Subscriber lateSubscriber = reader.subscribe();
+		assertTrue(lateSubscriber.isWaitingKeyFrame());
+
+		while (lateSubscriber.getQueueSize() == 0 && reader.readPacket()) {
+			//read until the next key frame
+		}
+		AVPacket packet = lateSubscriber.poll();
+		if (packet != null) {
+			assertTrue((packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0);
+			AVPacketPool.getInstance().release(packet);
+		}
+
+		reader.unsubscribe(lateSubscriber);
+		reader.unsubscribe(subscriber);
+		reader.release();
+	}
+
+	@Test
+	public void testPacketsAreReadInBackground() {
+		SharedStreamReader reader = SharedStreamReader.acquire(FILE, 0);
+		assertNotNull(reader);
+		SharedStreamReader.Subscriber subscriber = reader.subscribe();
+
+		//reader thread reads ahead for the subscriber and the caller is not blocked
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> {
+			reader.requestPackets();
+			return subscriber.getQueueSize() >= SharedStreamReader.READ_AHEAD_PACKETS || reader.isEndOfStream();
+		});
+		assertTrue(subscriber.getQueueSize() <= SharedStreamReader.READ_AHEAD_PACKETS);
+
+		//reader is closed after the read in progress
+		reader.release();
+		Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> subscriber.getQueueSize() == 0);
+		assertFalse(reader.readPacket());
+	}
+
+	@Test
+	public void testInvalidUrl() {
+		assertNull(SharedStreamReader.acquire("src/test/resources/not_exists.flv", 0));
+	}
+}
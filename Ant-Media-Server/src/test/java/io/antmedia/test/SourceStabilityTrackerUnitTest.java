@@ -0,0 +1,61 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.antmedia.streamsource.SourceStabilityTracker;
+
+public class SourceStabilityTrackerUnitTest {
+
+	@Test
+	public void testStableSource() {
+		SourceStabilityTracker tracker = new SourceStabilityTracker(5000, 1000);
+		tracker.start(0);
+		assertFalse(tracker.isStable());
+		assertFalse(tracker.isFailed(500));
+
+		for (long time = 100; time < 5000; time += 100) {
+			tracker.packetReceived(time);
+			assertFalse(tracker.isStable());
+			assertFalse(tracker.isFailed(time));
+		}
+		tracker.packetReceived(5100);
+		assertTrue(tracker.isStable());
+	}
+
+	@Test
+	public void testGapRestartsStablePeriod() {
+		SourceStabilityTracker tracker = new SourceStabilityTracker(5000, 1000);
+		tracker.start(0);
+		for (long time = 0; time <= 4000; time += 100) {
+			tracker.packetReceived(time);
+		}
+
+		//flapping source does not deliver packets for a while
+		tracker.packetReceived(5500);
+		assertFalse(tracker.isStable());
+		tracker.packetReceived(9000);
+		assertFalse(tracker.isStable());
+
+		for (long time = 9100; time <= 10500; time += 100) {
+			tracker.packetReceived(time);
+		}
+		assertTrue(tracker.isStable());
+	}
+
+	@Test
+	public void testFailedSource() {
+		SourceStabilityTracker tracker = new SourceStabilityTracker(5000, 1000);
+		tracker.start(0);
+		//source that does not deliver any packet fails
+		assertTrue(tracker.isFailed(1001));
+
+		tracker.start(2000);
+		assertFalse(tracker.isFailed(2500));
+		tracker.packetReceived(2900);
+		assertFalse(tracker.isFailed(3800));
+		assertTrue(tracker.isFailed(4000));
+	}
+}
@@ -13,6 +13,8 @@ import io.antmedia.muxer.MuxAdaptor;
 import io.antmedia.rest.model.Result;
 import io.antmedia.streamsource.StreamFetcher;
 import io.antmedia.streamsource.StreamFetcherManager;
+import io.antmedia.streamsource.StreamFetcherWorkerPool;
+import io.antmedia.streamsource.StreamSourceCircuitBreaker;
 
 import org.awaitility.Awaitility;
 import org.bytedeco.javacpp.avformat;
@@ -38,9 +40,15 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -321,6 +329,406 @@ public class StreamFetcherUnitTest extends AbstractJUnit4SpringContextTests {
 
 	}
 
+	@Test
+	public void testRollingRestartStreamFetchers() {
+		InMemoryDataStore memoryDataStore = new InMemoryDataStore("testdb");
+		StreamFetcherManager fetcherManager = Mockito.spy(new StreamFetcherManager(scheduler, memoryDataStore, appScope));
+		fetcherManager.setRestartConcurrency(2);
+		fetcherManager.setRestartStreamFetcherPeriod(60);
+
+		StreamFetcher[] streamFetchers = new StreamFetcher[5];
+		for (int i = 0; i < streamFetchers.length; i++) {
+			Broadcast stream = new Broadcast("rollingRestart" + i);
+			try {
+				stream.setStreamId("rollingRestart" + i);
+			} catch (Exception e) {
+				e.printStackTrace();
+				fail(e.getMessage());
+			}
+			streamFetchers[i] = Mockito.mock(StreamFetcher.class);
+			when(streamFetchers[i].getStream()).thenReturn(stream);
+			when(streamFetchers[i].isStreamAlive()).thenReturn(true);
+			Mockito.doReturn(streamFetchers[i]).when(fetcherManager).make(stream, appScope, scheduler);
+
+			assertEquals(streamFetchers[i], fetcherManager.startStreaming(stream));
+			assertEquals(streamFetchers[i], fetcherManager.getStreamFetcher(stream.getStreamId()));
+		}
+		fetcherManager.stopCheckerJob();
+
+		fetcherManager.restartStreamFetchers();
+
+		for (StreamFetcher streamFetcher : streamFetchers) {
+			verify(streamFetcher, timeout(15000).times(1)).stopStream();
+			verify(streamFetcher, timeout(15000).times(2)).startStream();
+			verify(streamFetcher, times(1)).addRestartHistory(StreamFetcher.RESTART_REASON_PERIODIC);
+		}
+
+		Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> scheduler.getScheduledJobNames().size() == 1);
+
+		fetcherManager.stopStreaming(streamFetchers[0].getStream());
+		assertNull(fetcherManager.getStreamFetcher("rollingRestart0"));
+		assertEquals(4, fetcherManager.getStreamFetcherList().size());
+	}
+
+	@Test
+	public void testDeduplicateSources() throws Exception {
+		InMemoryDataStore memoryDataStore = new InMemoryDataStore("testdb");
+		StreamFetcherManager fetcherManager = Mockito.spy(new StreamFetcherManager(scheduler, memoryDataStore, appScope));
+		assertTrue(fetcherManager.isDeduplicateSources());
+
+		Broadcast[] streams = new Broadcast[3];
+		StreamFetcher[] streamFetchers = new StreamFetcher[3];
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new Broadcast("sameSource" + i);
+			streams[i].setStreamId("sameSource" + i);
+			streams[i].setStreamUrl("rtsp://127.0.0.1:6554/test.flv");
+			streamFetchers[i] = Mockito.spy(new StreamFetcher(streams[i], appScope, scheduler));
+			Mockito.doNothing().when(streamFetchers[i]).startStream();
+			Mockito.doNothing().when(streamFetchers[i]).stopStream();
+			Mockito.doReturn(streamFetchers[i]).when(fetcherManager).make(streams[i], appScope, scheduler);
+		}
+
+		//streams with the same url are fed from the first stream's fetcher
+		assertEquals(streamFetchers[0], fetcherManager.startStreaming(streams[0]));
+		assertEquals(streamFetchers[0], fetcherManager.startStreaming(streams[1]));
+		assertEquals(streamFetchers[0], fetcherManager.startStreaming(streams[2]));
+		fetcherManager.stopCheckerJob();
+		verify(fetcherManager, never()).make(streams[1], appScope, scheduler);
+		verify(streamFetchers[0], times(1)).startStream();
+		assertEquals(2, streamFetchers[0].getSubscriberStreams().size());
+
+		//unsubscribing does not stop the source
+		fetcherManager.stopStreaming(streams[1]);
+		verify(streamFetchers[0], never()).stopStream();
+		assertEquals(1, streamFetchers[0].getSubscriberStreams().size());
+		assertNull(fetcherManager.getStreamFetcher(streams[1].getStreamId()));
+
+		//stopping the source starts a fetcher for the subscriber
+		fetcherManager.stopStreaming(streams[0]);
+		verify(streamFetchers[0], times(1)).stopStream();
+		assertEquals(0, streamFetchers[0].getSubscriberStreams().size());
+		assertEquals(streamFetchers[2], fetcherManager.getStreamFetcher(streams[2].getStreamId()));
+		verify(streamFetchers[2], times(1)).startStream();
+
+		fetcherManager.stopStreaming(streams[2]);
+		assertEquals(0, fetcherManager.getStreamFetcherList().size());
+
+		//each stream has its own fetcher if it's disabled
+		fetcherManager.setDeduplicateSources(false);
+		assertEquals(streamFetchers[0], fetcherManager.startStreaming(streams[0]));
+		assertEquals(streamFetchers[1], fetcherManager.startStreaming(streams[1]));
+		fetcherManager.stopCheckerJob();
+		fetcherManager.stopStreaming(streams[0]);
+		fetcherManager.stopStreaming(streams[1]);
+	}
+
+	@Test
+	public void testBackupSources() throws Exception {
+		File backupSourcesFile = new File("target/backup_sources.json");
+		Files.deleteIfExists(backupSourcesFile.toPath());
+
+		InMemoryDataStore memoryDataStore = new InMemoryDataStore("testdb");
+		StreamFetcherManager fetcherManager = Mockito.spy(new StreamFetcherManager(scheduler, memoryDataStore, appScope));
+		fetcherManager.setBackupSourcesFile(backupSourcesFile);
+
+		Broadcast stream = new Broadcast("backupSources");
+		stream.setStreamId("backupSources");
+		stream.setStreamUrl("rtsp://127.0.0.1:6554/primary");
+
+		StreamFetcher streamFetcher = Mockito.spy(new StreamFetcher(stream, appScope, scheduler));
+		Mockito.doNothing().when(streamFetcher).startStream();
+		Mockito.doReturn(streamFetcher).when(fetcherManager).make(stream, appScope, scheduler);
+
+		assertEquals(1, streamFetcher.getSourceUrls().size());
+		assertEquals(stream.getStreamUrl(), streamFetcher.getActiveSourceUrl());
+
+		List<String> backupSourceUrls = Arrays.asList("rtsp://127.0.0.1:6554/backup1", "rtsp://127.0.0.1:6554/backup2");
+		fetcherManager.setBackupSources(stream.getStreamId(), backupSourceUrls);
+
+		//backup sources are set to the fetcher when it's started
+		fetcherManager.startStreaming(stream);
+		fetcherManager.stopCheckerJob();
+		assertEquals(Arrays.asList(stream.getStreamUrl(), "rtsp://127.0.0.1:6554/backup1", "rtsp://127.0.0.1:6554/backup2"), 
+				streamFetcher.getSourceUrls());
+		assertEquals(0, streamFetcher.getActiveSourceIndex());
+		assertEquals(stream.getStreamUrl(), streamFetcher.getActiveSourceUrl());
+
+		//backup sources are loaded from the file
+		StreamFetcherManager fetcherManager2 = new StreamFetcherManager(scheduler, memoryDataStore, appScope);
+		fetcherManager2.setBackupSourcesFile(backupSourcesFile);
+		assertEquals(backupSourceUrls, fetcherManager2.getBackupSources(stream.getStreamId()));
+
+		//removing backup sources updates the running fetcher
+		fetcherManager.setBackupSources(stream.getStreamId(), null);
+		assertNull(fetcherManager.getBackupSources(stream.getStreamId()));
+		assertEquals(1, streamFetcher.getSourceUrls().size());
+
+		fetcherManager.stopStreaming(stream);
+		Files.deleteIfExists(backupSourcesFile.toPath());
+	}
+
+	@Test
+	public void testDeduplicateSourcesWithBackupSources() throws Exception {
+		File backupSourcesFile = new File("target/backup_sources_dedup.json");
+		Files.deleteIfExists(backupSourcesFile.toPath());
+
+		InMemoryDataStore memoryDataStore = new InMemoryDataStore("testdb");
+		StreamFetcherManager fetcherManager = Mockito.spy(new StreamFetcherManager(scheduler, memoryDataStore, appScope));
+		fetcherManager.setBackupSourcesFile(backupSourcesFile);
+
+		Broadcast[] streams = new Broadcast[3];
+		StreamFetcher[] streamFetchers = new StreamFetcher[3];
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new Broadcast("backupDedup" + i);
+			streams[i].setStreamId("backupDedup" + i);
+			streams[i].setStreamUrl("rtsp://127.0.0.1:6554/test.flv");
+			streamFetchers[i] = Mockito.spy(new StreamFetcher(streams[i], appScope, scheduler));
+			Mockito.doNothing().when(streamFetchers[i]).startStream();
+			Mockito.doNothing().when(streamFetchers[i]).stopStream();
+			Mockito.doReturn(streamFetchers[i]).when(fetcherManager).make(streams[i], appScope, scheduler);
+		}
+
+		List<String> backupSourceUrls = Arrays.asList("rtsp://127.0.0.1:6554/backup1");
+		fetcherManager.setBackupSources(streams[0].getStreamId(), backupSourceUrls);
+		fetcherManager.setBackupSources(streams[1].getStreamId(), backupSourceUrls);
+		fetcherManager.setBackupSources(streams[2].getStreamId(), Arrays.asList("rtsp://127.0.0.1:6554/backup2"));
+
+		//stream with the same backup sources is fed from the source fetcher, the other one is fetched independently
+		assertEquals(streamFetchers[0], fetcherManager.startStreaming(streams[0]));
+		assertEquals(streamFetchers[0], fetcherManager.startStreaming(streams[1]));
+		assertEquals(streamFetchers[2], fetcherManager.startStreaming(streams[2]));
+		fetcherManager.stopCheckerJob();
+		assertEquals(1, streamFetchers[0].getSubscriberStreams().size());
+		assertEquals(Arrays.asList("rtsp://127.0.0.1:6554/backup2"), streamFetchers[2].getBackupSourceUrls());
+
+		//subscriber is fetched independently when its backup sources are changed
+		fetcherManager.setBackupSources(streams[1].getStreamId(), Arrays.asList("rtsp://127.0.0.1:6554/backup3"));
+		fetcherManager.stopCheckerJob();
+		assertEquals(0, streamFetchers[0].getSubscriberStreams().size());
+		assertEquals(streamFetchers[1], fetcherManager.getStreamFetcher(streams[1].getStreamId()));
+		assertEquals(Arrays.asList("rtsp://127.0.0.1:6554/backup3"), streamFetchers[1].getBackupSourceUrls());
+		verify(streamFetchers[1], times(1)).startStream();
+
+		for (Broadcast stream : streams) {
+			fetcherManager.stopStreaming(stream);
+		}
+		assertEquals(0, fetcherManager.getStreamFetcherList().size());
+		Files.deleteIfExists(backupSourcesFile.toPath());
+	}
+
+	@Test
+	public void testSourceUrlsAreCached() {
+		Broadcast stream = new Broadcast("sourceUrls");
+		stream.setStreamId("sourceUrls");
+		stream.setStreamUrl("rtsp://127.0.0.1:6554/primary");
+		StreamFetcher fetcher = new StreamFetcher(stream, appScope, scheduler);
+
+		List<String> sourceUrls = fetcher.getSourceUrls();
+		assertSame(sourceUrls, fetcher.getSourceUrls());
+
+		fetcher.setBackupSourceUrls(Arrays.asList("rtsp://127.0.0.1:6554/backup1"));
+		assertNotSame(sourceUrls, fetcher.getSourceUrls());
+		assertEquals(Arrays.asList("rtsp://127.0.0.1:6554/primary", "rtsp://127.0.0.1:6554/backup1"), fetcher.getSourceUrls());
+	}
+
+	@Test
+	public void testSwitchTimestampOffset() {
+		//first packet of the new source is written one frame after the last packet of the previous source
+		assertEquals(10040 - 500, StreamFetcher.getSwitchTimestampOffset(10000, 500));
+		assertEquals(10040 + 500, StreamFetcher.getSwitchTimestampOffset(10000, -500));
+		assertEquals(StreamFetcher.SOURCE_SWITCH_TIMESTAMP_GAP_MS, StreamFetcher.getSwitchTimestampOffset(0, 0));
+	}
+
+	@Test
+	public void testSwitchToBackupSource() {
+		Broadcast newCam = new Broadcast("switchSource", "127.0.0.1:8080", "admin", "admin", "src/test/resources/test_short.flv",
+				AntMediaApplicationAdapter.STREAM_SOURCE);
+		newCam.setStreamId("switchSource");
+		StreamFetcher fetcher = new StreamFetcher(newCam, appScope, scheduler);
+		fetcher.setRestartStream(false);
+		fetcher.setBackupSourceUrls(Arrays.asList("src/test/resources/test_video_360p.flv"));
+
+		fetcher.startStream();
+
+		//fetcher switches to the backup source when the primary source ends and keeps the mux adaptor
+		Awaitility.await().atMost(30, TimeUnit.SECONDS).pollInterval(1, TimeUnit.SECONDS)
+		.until(() -> fetcher.getActiveSourceIndex() == 1);
+		assertTrue(fetcher.getRestartHistory().stream()
+				.anyMatch(record -> StreamFetcher.RESTART_REASON_FAILOVER.equals(record.reason)));
+		assertTrue(fetcher.isThreadActive());
+
+		fetcher.stopStream();
+		Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> !fetcher.isThreadActive());
+	}
+
+	@Test
+	public void testPullOnDemand() throws Exception {
+		InMemoryDataStore memoryDataStore = new InMemoryDataStore("testdb");
+		StreamFetcherManager fetcherManager = Mockito.spy(new StreamFetcherManager(scheduler, memoryDataStore, appScope));
+
+		Broadcast stream = new Broadcast("pullOnDemand");
+		stream.setStreamId("pullOnDemand");
+
+		StreamFetcher streamFetcher = Mockito.mock(StreamFetcher.class);
+		when(streamFetcher.getStream()).thenReturn(stream);
+		Mockito.doReturn(streamFetcher).when(fetcherManager).make(stream, appScope, scheduler);
+		Mockito.doReturn(0).when(fetcherManager).getViewerCount(stream.getStreamId());
+
+		//stream that is not pulled on demand is not started by viewers
+		assertFalse(fetcherManager.viewerRequested(stream.getStreamId()));
+
+		fetcherManager.setPullOnDemand(stream, true);
+		assertTrue(fetcherManager.isPullOnDemand(stream.getStreamId()));
+
+		fetcherManager.startStreams(Arrays.asList(stream));
+		fetcherManager.stopCheckerJob();
+		verify(fetcherManager, never()).make(stream, appScope, scheduler);
+		assertNull(fetcherManager.getStreamFetcher(stream.getStreamId()));
+
+		//first viewer starts the stream without delay
+		assertTrue(fetcherManager.viewerRequested(stream.getStreamId()));
+		verify(streamFetcher, times(1)).startStream(0);
+		assertEquals(streamFetcher, fetcherManager.getStreamFetcher(stream.getStreamId()));
+
+		//other viewers do not start it again
+		assertTrue(fetcherManager.viewerRequested(stream.getStreamId()));
+		verify(streamFetcher, times(1)).startStream(0);
+
+		//stream is not stopped before idle time
+		fetcherManager.setOnDemandIdleTimeMs(60000);
+		fetcherManager.stopIdleOnDemandStreams();
+		verify(streamFetcher, never()).stopStream();
+
+		//stream is stopped when there is no viewer for idle time
+		fetcherManager.setOnDemandIdleTimeMs(0);
+		Thread.sleep(10);
+		fetcherManager.stopIdleOnDemandStreams();
+		verify(streamFetcher, times(1)).stopStream();
+		assertNull(fetcherManager.getStreamFetcher(stream.getStreamId()));
+
+		//next viewer starts it again
+		assertTrue(fetcherManager.viewerRequested(stream.getStreamId()));
+		verify(streamFetcher, times(2)).startStream(0);
+
+		//disabling pull on demand does not stop the running stream
+		fetcherManager.setPullOnDemand(stream, false);
+		assertFalse(fetcherManager.isPullOnDemand(stream.getStreamId()));
+		fetcherManager.stopIdleOnDemandStreams();
+		verify(streamFetcher, times(1)).stopStream();
+
+		fetcherManager.stopStreaming(stream);
+		fetcherManager.stopCheckerJob();
+		assertEquals(1, scheduler.getScheduledJobNames().size());
+
+		//settings of the deleted stream are removed
+		fetcherManager.setPullOnDemand(stream, true);
+		fetcherManager.setBackupSources(stream.getStreamId(), Arrays.asList("rtsp://127.0.0.1/backup"));
+		fetcherManager.streamDeleted(stream.getStreamId());
+		assertFalse(fetcherManager.isPullOnDemand(stream.getStreamId()));
+		assertNull(fetcherManager.getBackupSources(stream.getStreamId()));
+		assertFalse(fetcherManager.viewerRequested(stream.getStreamId()));
+	}
+
+	@Test
+	public void testQualityIsWrittenWhenChanged() {
+		IDataStore dataStore = Mockito.mock(IDataStore.class);
+		StreamFetcherManager fetcherManager = Mockito.spy(new StreamFetcherManager(scheduler, dataStore, appScope));
+
+		Broadcast stream = new Broadcast("qualityWrite");
+		stream.setStreamId("qualityWrite");
+
+		StreamFetcher streamFetcher = Mockito.mock(StreamFetcher.class);
+		when(streamFetcher.getStream()).thenReturn(stream);
+		when(streamFetcher.isStreamAlive()).thenReturn(false);
+		when(streamFetcher.getCircuitState()).thenReturn(StreamSourceCircuitBreaker.State.CLOSED);
+		Mockito.doReturn(streamFetcher).when(fetcherManager).make(stream, appScope, scheduler);
+		fetcherManager.startStreaming(stream);
+
+		fetcherManager.checkStreamFetchersStatus();
+		fetcherManager.checkStreamFetchersStatus();
+		verify(dataStore, times(1)).updateSourceQualityParameters(stream.getStreamId(), MuxAdaptor.QUALITY_POOR, 0, 0);
+
+		when(streamFetcher.getCircuitState()).thenReturn(StreamSourceCircuitBreaker.State.OPEN);
+		fetcherManager.checkStreamFetchersStatus();
+		verify(dataStore, times(1)).updateSourceQualityParameters(stream.getStreamId(), StreamFetcher.QUALITY_CIRCUIT_OPEN, 0, 0);
+
+		fetcherManager.stopStreaming(stream);
+		fetcherManager.stopCheckerJob();
+	}
+
+	@Test
+	public void testSourcePausesLongerThanBlockingThreshold() throws Exception {
+		byte[] flvData = Files.readAllBytes(new File("src/test/resources/test_short.flv").toPath());
+		AtomicInteger connectionCount = new AtomicInteger();
+		AtomicBoolean activeAfterPause = new AtomicBoolean(false);
+		AtomicBoolean servedAll = new AtomicBoolean(false);
+
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			StreamFetcherWorkerPool workerPool = new StreamFetcherWorkerPool(1);
+			Broadcast newCam = new Broadcast("pausingSource", "127.0.0.1:8080", "admin", "admin", 
+					"http://127.0.0.1:" + serverSocket.getLocalPort() + "/test.flv", AntMediaApplicationAdapter.STREAM_SOURCE);
+			newCam.setStreamId("pausingSource");
+			StreamFetcher fetcher = new StreamFetcher(newCam, appScope, scheduler);
+			fetcher.setRestartStream(false);
+			fetcher.setWorkerPool(workerPool);
+
+			Thread serverThread = new Thread(() -> {
+				try (Socket socket = serverSocket.accept()) {
+					connectionCount.incrementAndGet();
+					OutputStream out = socket.getOutputStream();
+					out.write(("HTTP/1.1 200 OK\r\nContent-Type: video/x-flv\r\nContent-Length: " + flvData.length 
+							+ "\r\nConnection: close\r\n\r\n").getBytes());
+					int pauseOffset = flvData.length * 2 / 3;
+					out.write(flvData, 0, pauseOffset);
+					out.flush();
+
+					//source sends no data for a while in the middle of the stream
+					Thread.sleep(1000);
+					activeAfterPause.set(fetcher.isThreadActive());
+					out.write(flvData, pauseOffset, flvData.length - pauseOffset);
+					out.flush();
+					servedAll.set(true);
+				} 
+				catch (Exception e) {
+					logger.error(e.getMessage());
+				}
+			});
+			serverThread.start();
+
+			fetcher.startStream();
+			serverThread.join(30000);
+
+			//read is not aborted during the pause and source is not reconnected
+			assertTrue(servedAll.get());
+			assertTrue(activeAfterPause.get());
+			assertEquals(1, connectionCount.get());
+
+			//dedicated worker of the blocking source is released when fetcher finishes
+			Awaitility.await().atMost(20, TimeUnit.SECONDS).until(() -> !fetcher.isThreadActive());
+			assertEquals(0, workerPool.getDedicatedWorkerCount());
+			workerPool.shutdown();
+		}
+	}
+
+	@Test
+	public void testRestartHistory() {
+		Broadcast newCam = new Broadcast("restartHistory", "127.0.0.1:8080", "admin", "admin", "rtsp://127.0.0.1:6554/test.flv",
+				AntMediaApplicationAdapter.IP_CAMERA);
+		StreamFetcher fetcher = new StreamFetcher(newCam, appScope, scheduler);
+
+		assertTrue(fetcher.getRestartHistory().isEmpty());
+
+		for (int i = 0; i < StreamFetcher.RESTART_HISTORY_SIZE + 5; i++) {
+			fetcher.addRestartHistory(i == 0 ? StreamFetcher.RESTART_REASON_MANUAL : StreamFetcher.RESTART_REASON_PERIODIC);
+		}
+
+		List<StreamFetcher.RestartRecord> restartHistory = fetcher.getRestartHistory();
+		assertEquals(StreamFetcher.RESTART_HISTORY_SIZE, restartHistory.size());
+		//oldest ones are removed
+		assertEquals(StreamFetcher.RESTART_REASON_PERIODIC, restartHistory.get(0).reason);
+		assertTrue(restartHistory.get(0).time <= restartHistory.get(restartHistory.size() - 1).time);
+	}
+
 	@Test
 	public void testThreadStopStart() {
 
@@ -553,6 +961,9 @@ public class StreamFetcherUnitTest extends AbstractJUnit4SpringContextTests {
 				e.printStackTrace();
 			}
 			assertFalse(fetcher.isThreadActive());
+			assertEquals(0, fetcher.getBufferedPacketCount());
+			assertEquals(0, fetcher.getBufferedBytes());
+			assertEquals(0, fetcher.getDroppedPacketCount());
 
 			logger.info("before test m3u8 file");
 
@@ -594,6 +1005,47 @@ public class StreamFetcherUnitTest extends AbstractJUnit4SpringContextTests {
 
 	}
 
+	@Test
+	public void testStreamFetcherBufferMaxSize() {
+
+		try {
+			assertEquals(1, scheduler.getScheduledJobNames().size());
+
+			Broadcast newCam = new Broadcast("streamSource", "127.0.0.1:8080", "admin", "admin", 
+					"src/test/resources/test_video_360p.flv",
+					AntMediaApplicationAdapter.STREAM_SOURCE);
+
+			String id = getInstance().getDataStore().save(newCam);
+
+			StreamFetcher fetcher = new StreamFetcher(newCam, appScope, scheduler);
+
+			fetcher.setBufferTime(20000);
+			fetcher.setBufferMaxSize(200 * 1024);
+			fetcher.setRestartStream(false);
+
+			fetcher.startStream();
+
+			Awaitility.await().atMost(20, TimeUnit.SECONDS).until(() -> fetcher.getDroppedPacketCount() > 0);
+
+			assertTrue(fetcher.getBufferedBytes() <= 200 * 1024);
+
+			fetcher.stopStream();
+
+			Awaitility.await().atMost(20, TimeUnit.SECONDS).until(() -> !fetcher.isThreadActive());
+
+			assertEquals(0, fetcher.getBufferedPacketCount());
+			assertEquals(0, fetcher.getBufferedBytes());
+
+			getInstance().getDataStore().delete(id);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+
+		assertEquals(1, scheduler.getScheduledJobNames().size());
+	}
+
 	@Test
 	public void testCameraStartedProperly() {
 
@@ -0,0 +1,77 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.antmedia.streamsource.StreamFetcherWorkerPool;
+
+public class StreamFetcherWorkerPoolUnitTest {
+
+	private StreamFetcherWorkerPool workerPool;
+
+	@Before
+	public void before() {
+		workerPool = new StreamFetcherWorkerPool(2);
+	}
+
+	@After
+	public void after() {
+		workerPool.shutdown();
+	}
+
+	@Test
+	public void testAssignLeastLoadedWorker() {
+		StreamFetcherWorkerPool.Worker worker1 = workerPool.assign();
+		StreamFetcherWorkerPool.Worker worker2 = workerPool.assign();
+		assertNotSame(worker1, worker2);
+
+		StreamFetcherWorkerPool.Worker worker3 = workerPool.assign();
+		assertEquals(2, worker3.getFetcherCount());
+
+		workerPool.release(worker2);
+		assertEquals(0, worker2.getFetcherCount());
+
+		assertEquals(worker2, workerPool.assign());
+	}
+
+	@Test
+	public void testWorkerLoad() throws InterruptedException {
+		StreamFetcherWorkerPool.Worker worker = workerPool.assign();
+
+		CountDownLatch latch = new CountDownLatch(1);
+		worker.execute(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		worker.execute(latch::countDown, 10);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+		List<StreamFetcherWorkerPool.WorkerLoad> workerLoads = workerPool.getWorkerLoads();
+		assertEquals(2, workerLoads.size());
+
+		StreamFetcherWorkerPool.WorkerLoad load = workerLoads.get(worker.getIndex());
+		assertEquals(1, load.fetcherCount);
+		assertTrue(load.load > 0);
+
+		//step that throws exception does not stop the worker
+		CountDownLatch latch2 = new CountDownLatch(1);
+		worker.execute(() -> {
+			throw new IllegalStateException();
+		});
+		worker.execute(latch2::countDown);
+		assertTrue(latch2.await(5, TimeUnit.SECONDS));
+	}
+
+}
@@ -0,0 +1,111 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.antmedia.streamsource.StreamInfoCache;
+
+public class StreamInfoCacheUnitTest {
+
+	private File directory;
+
+	@Before
+	public void before() {
+		directory = new File("target/stream_info_test");
+	}
+
+	@After
+	public void after() throws Exception {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	private StreamInfoCache.StreamInfo createStreamInfo(String url, int videoCodecId, int audioCodecId) {
+		StreamInfoCache.StreamInfo streamInfo = new StreamInfoCache.StreamInfo();
+		streamInfo.streamUrl = url;
+
+		StreamInfoCache.CodecInfo video = new StreamInfoCache.CodecInfo();
+		video.codecType = 0;
+		video.codecId = videoCodecId;
+		video.width = 640;
+		video.height = 360;
+		video.extradata = new byte[] {1, 2, 3};
+		streamInfo.codecs.add(video);
+
+		StreamInfoCache.CodecInfo audio = new StreamInfoCache.CodecInfo();
+		audio.codecType = 1;
+		audio.codecId = audioCodecId;
+		audio.sampleRate = 44100;
+		audio.channels = 2;
+		streamInfo.codecs.add(audio);
+		return streamInfo;
+	}
+
+	@Test
+	public void testIsCompatible() {
+		StreamInfoCache.StreamInfo cached = createStreamInfo("rtsp://127.0.0.1/stream", 27, 86018);
+
+		StreamInfoCache.StreamInfo probed = createStreamInfo("rtsp://127.0.0.1/stream", 27, 86018);
+		//missing parameters do not break compatibility
+		probed.codecs.get(0).width = 0;
+		probed.codecs.get(0).extradata = null;
+		assertTrue(cached.isCompatible(probed));
+
+		assertFalse(cached.isCompatible(createStreamInfo("rtsp://127.0.0.1/stream2", 27, 86018)));
+		assertFalse(cached.isCompatible(createStreamInfo("rtsp://127.0.0.1/stream", 173, 86018)));
+
+		//profile or resolution change breaks compatibility
+		StreamInfoCache.StreamInfo otherProfile = createStreamInfo("rtsp://127.0.0.1/stream", 27, 86018);
+		cached.codecs.get(0).profile = 100;
+		otherProfile.codecs.get(0).profile = 66;
+		assertFalse(cached.isCompatible(otherProfile));
+		otherProfile.codecs.get(0).profile = 100;
+		assertTrue(cached.isCompatible(otherProfile));
+		otherProfile.codecs.get(0).width = 1280;
+		otherProfile.codecs.get(0).height = 720;
+		assertFalse(cached.isCompatible(otherProfile));
+
+		probed.codecs.remove(1);
+		assertFalse(cached.isCompatible(probed));
+		assertFalse(cached.isCompatible(null));
+	}
+
+	@Test
+	public void testPersistence() {
+		StreamInfoCache cache = new StreamInfoCache(directory);
+		assertNull(cache.get("stream1"));
+
+		cache.put("stream1", createStreamInfo("rtsp://127.0.0.1/stream", 27, 86018));
+		assertTrue(new File(directory, "stream1.json").exists());
+
+		//new cache reads from the directory
+		StreamInfoCache cache2 = new StreamInfoCache(directory);
+		StreamInfoCache.StreamInfo streamInfo = cache2.get("stream1");
+		assertNotNull(streamInfo);
+		assertEquals("rtsp://127.0.0.1/stream", streamInfo.streamUrl);
+		assertEquals(2, streamInfo.codecs.size());
+		assertEquals(360, streamInfo.codecs.get(0).height);
+		assertArrayEquals(new byte[] {1, 2, 3}, streamInfo.codecs.get(0).extradata);
+		assertEquals(44100, streamInfo.codecs.get(1).sampleRate);
+
+		cache2.remove("stream1");
+		assertFalse(new File(directory, "stream1.json").exists());
+		assertNull(cache2.get("stream1"));
+
+		//invalid stream ids are not saved to the disk
+		cache.put("../stream", createStreamInfo("rtsp://127.0.0.1/stream", 27, 86018));
+		assertNotNull(cache.get("../stream"));
+		assertFalse(new File(directory.getParentFile(), "stream.json").exists());
+	}
+
+}
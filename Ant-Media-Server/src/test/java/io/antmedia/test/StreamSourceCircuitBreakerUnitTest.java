@@ -0,0 +1,94 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.antmedia.streamsource.StreamSourceCircuitBreaker;
+import io.antmedia.streamsource.StreamSourceCircuitBreaker.State;
+
+public class StreamSourceCircuitBreakerUnitTest {
+
+	@Test
+	public void testBackoff() {
+		StreamSourceCircuitBreaker circuitBreaker = new StreamSourceCircuitBreaker();
+		circuitBreaker.setBaseBackoffMs(1000);
+		circuitBreaker.setMaxBackoffMs(4000);
+		circuitBreaker.setFailureThreshold(10);
+
+		circuitBreaker.attemptStarted();
+		long delay = circuitBreaker.disconnected(0);
+		assertTrue(delay >= 500 && delay <= 1000);
+
+		delay = circuitBreaker.disconnected(0);
+		assertTrue(delay >= 1000 && delay <= 2000);
+
+		delay = circuitBreaker.disconnected(0);
+		assertTrue(delay >= 2000 && delay <= 4000);
+
+		//backoff is limited by max backoff
+		delay = circuitBreaker.disconnected(0);
+		assertTrue(delay >= 2000 && delay <= 4000);
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		assertEquals(4, circuitBreaker.getFailureCount());
+
+		//live source that is disconnected after a stable connection is reconnected fast
+		circuitBreaker.connected();
+		assertEquals(4, circuitBreaker.getFailureCount());
+		assertEquals(circuitBreaker.getMinReconnectDelayMs(), circuitBreaker.disconnected(circuitBreaker.getMinStableConnectionMs()));
+		assertEquals(0, circuitBreaker.getFailureCount());
+	}
+
+	@Test
+	public void testShortConnectionIsFailure() {
+		StreamSourceCircuitBreaker circuitBreaker = new StreamSourceCircuitBreaker();
+		circuitBreaker.setBaseBackoffMs(1000);
+		circuitBreaker.setFailureThreshold(3);
+
+		//source sends a few packets and drops
+		circuitBreaker.attemptStarted();
+		circuitBreaker.connected();
+		long delay = circuitBreaker.disconnected(100);
+		assertTrue(delay >= 500 && delay <= 1000);
+		assertEquals(1, circuitBreaker.getFailureCount());
+
+		circuitBreaker.connected();
+		circuitBreaker.disconnected(100);
+		circuitBreaker.connected();
+		circuitBreaker.disconnected(100);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void testCircuitStates() {
+		StreamSourceCircuitBreaker circuitBreaker = new StreamSourceCircuitBreaker();
+		circuitBreaker.setFailureThreshold(3);
+		circuitBreaker.setOpenDurationMs(60000);
+
+		circuitBreaker.disconnected(0);
+		circuitBreaker.disconnected(0);
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+
+		long delay = circuitBreaker.disconnected(0);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertTrue(delay >= 30000 && delay <= 60000);
+
+		//probe attempt
+		circuitBreaker.attemptStarted();
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+
+		//failed probe opens the circuit again
+		delay = circuitBreaker.disconnected(0);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertTrue(delay >= 30000 && delay <= 60000);
+
+		//successful probe closes the circuit
+		circuitBreaker.attemptStarted();
+		circuitBreaker.connected();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		circuitBreaker.disconnected(circuitBreaker.getMinStableConnectionMs());
+		assertEquals(0, circuitBreaker.getFailureCount());
+	}
+
+}
@@ -0,0 +1,69 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.antmedia.muxer.MuxAdaptor;
+import io.antmedia.streamsource.StreamSourceMetrics;
+
+public class StreamSourceMetricsUnitTest {
+
+	@Test
+	public void testRealtimeSource() {
+		StreamSourceMetrics metrics = new StreamSourceMetrics();
+		assertNull(metrics.getLastSnapshot());
+		metrics.sample(0);
+
+		//25 fps video with 1000 bytes frames and audio packets in 1 second
+		for (int i = 0; i <= 25; i++) {
+			metrics.packetReceived(i * 40, 1000, true, 10000 + i * 40);
+			metrics.packetReceived(i * 40, 250, false, 10000 + i * 40);
+		}
+
+		StreamSourceMetrics.Snapshot snapshot = metrics.sample(1000);
+		assertSame(snapshot, metrics.getLastSnapshot());
+		assertEquals(26 * 1250 * 8, snapshot.bitrate);
+		assertEquals(26, snapshot.fps, 0.001);
+		assertEquals(1, snapshot.speed, 0.001);
+		assertEquals(0, snapshot.jitterMs, 0.001);
+		assertEquals(StreamSourceMetrics.QUALITY_GOOD, snapshot.quality);
+
+		//next interval only covers the new packets
+		snapshot = metrics.sample(2000);
+		assertEquals(0, snapshot.bitrate);
+		assertEquals(0, snapshot.fps, 0.001);
+		assertEquals(MuxAdaptor.QUALITY_POOR, snapshot.quality);
+	}
+
+	@Test
+	public void testSlowAndJitterySource() {
+		StreamSourceMetrics metrics = new StreamSourceMetrics();
+		metrics.sample(0);
+
+		//frames of 40ms arrive in every 50ms and every other frame is late
+		for (int i = 0; i < 20; i++) {
+			metrics.packetReceived(i * 50 + (i % 2) * 30, 1000, true, i * 40);
+		}
+		StreamSourceMetrics.Snapshot snapshot = metrics.sample(1000);
+		assertEquals(0.76, snapshot.speed, 0.001);
+		assertTrue(snapshot.jitterMs > 10);
+		assertEquals(StreamSourceMetrics.QUALITY_AVERAGE, snapshot.quality);
+
+		//timestamp gap is not counted as media time after reconnection
+		metrics.connectionStarted();
+		metrics.reconnected();
+		metrics.timestampCorrected();
+		metrics.packetReceived(1000, 1000, true, 100000);
+		metrics.packetReceived(1040, 1000, true, 100040);
+		snapshot = metrics.sample(2000);
+		assertEquals(0.04, snapshot.speed, 0.001);
+		assertEquals(1, snapshot.reconnectCount);
+		assertEquals(1, snapshot.timestampCorrectionCount);
+		assertEquals(MuxAdaptor.QUALITY_POOR, snapshot.quality);
+	}
+
+}
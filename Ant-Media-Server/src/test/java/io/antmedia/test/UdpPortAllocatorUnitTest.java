@@ -0,0 +1,97 @@
+package io.antmedia.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.antstreaming.rtsp.UdpPortAllocator;
+
+public class UdpPortAllocatorUnitTest {
+
+	private static class TestPortAllocator extends UdpPortAllocator {
+
+		private Set<Integer> usedPorts = new HashSet<>();
+
+		public TestPortAllocator(int minPort, int maxPort, long quarantineMs) {
+			super(minPort, maxPort, quarantineMs);
+		}
+
+		@Override
+		protected boolean isBindable(int port) {
+			return !usedPorts.contains(port);
+		}
+	}
+
+	@Test
+	public void testAllocateAndRelease() {
+		//odd min port is rounded up
+		TestPortAllocator allocator = new TestPortAllocator(5001, 5009, 1000);
+		assertEquals(4, allocator.getPairCount());
+
+		assertArrayEquals(new int[] {5002, 5003}, allocator.allocate(0));
+		assertArrayEquals(new int[] {5004, 5005}, allocator.allocate(0));
+		assertArrayEquals(new int[] {5006, 5007}, allocator.allocate(0));
+		assertArrayEquals(new int[] {5008, 5009}, allocator.allocate(0));
+		assertEquals(1, allocator.getUtilization(), 0.001);
+
+		//pool is exhausted
+		assertNull(allocator.allocate(0));
+		assertEquals(1, allocator.getFailedAllocationCount());
+
+		allocator.release(5004, 100);
+		assertFalse(allocator.isAllocated(5004));
+		assertEquals(3, allocator.getAllocatedPairCount());
+		assertEquals(0.75, allocator.getUtilization(), 0.001);
+
+		//releasing twice or releasing a port that is not in the pool is ignored
+		allocator.release(5004, 100);
+		allocator.release(5005, 100);
+		allocator.release(7000, 100);
+		assertEquals(3, allocator.getAllocatedPairCount());
+
+		//released pair is in quarantine
+		assertNull(allocator.allocate(500));
+		assertArrayEquals(new int[] {5004, 5005}, allocator.allocate(1100));
+		assertTrue(allocator.isAllocated(5004));
+	}
+
+	@Test
+	public void testSkipPortsInUse() {
+		TestPortAllocator allocator = new TestPortAllocator(6000, 6007, 1000);
+		allocator.usedPorts.add(6001);
+		allocator.usedPorts.add(6004);
+
+		assertArrayEquals(new int[] {6002, 6003}, allocator.allocate(0));
+		assertArrayEquals(new int[] {6006, 6007}, allocator.allocate(0));
+		assertNull(allocator.allocate(0));
+
+		allocator.usedPorts.clear();
+		assertArrayEquals(new int[] {6000, 6001}, allocator.allocate(0));
+	}
+
+	@Test
+	public void testBindCheck() throws Exception {
+		try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress(0))) {
+			int port = socket.getLocalPort();
+			int minPort = port - (port % 2);
+			UdpPortAllocator allocator = new UdpPortAllocator(minPort, minPort + 3, 1000);
+
+			//pair of the bound port is skipped, next pair may be in use by another process as well
+			int[] portPair = allocator.allocate(0);
+			if (portPair != null) {
+				assertEquals(minPort + 2, portPair[0]);
+			}
+			assertFalse(allocator.isAllocated(minPort));
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+package io.antmedia.test.benchmark;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.service.DefaultTransportMetadata;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.session.IoSessionConfig;
+import org.apache.mina.filter.codec.AbstractProtocolDecoderOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.antstreaming.rtsp.protocol.RtspDecoder;
+
+/**
+ * Measures the RTSP request decoding. Messages are split into chunks of the given size to see 
+ * the cost of the partial messages. It's not run by the unit tests, run its main method to get the results
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RtspDecoderBenchmark {
+
+	private static final String SDP = "v=0\r\no=- 0 0 IN IP4 127.0.0.1\r\ns=test\r\nm=video 0 RTP/AVP 96\r\na=rtpmap:96 H264/90000\r\n"
+			+ "m=audio 0 RTP/AVP 97\r\na=rtpmap:97 MPEG4-GENERIC/44100/2\r\n";
+
+	private static final String MESSAGES = "ANNOUNCE rtsp://127.0.0.1:5554/LiveApp/stream1 RTSP/1.0\r\n"
+			+ "CSeq: 2\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "User-Agent: Lavf57.83.100\r\n"
+			+ "Content-Length: " + SDP.length() + "\r\n"
+			+ "\r\n"
+			+ SDP
+			+ "SETUP rtsp://127.0.0.1:5554/LiveApp/stream1/streamid=0 RTSP/1.0\r\n"
+			+ "Transport: RTP/AVP/TCP;unicast;interleaved=0-1;mode=record\r\n"
+			+ "CSeq: 3\r\n"
+			+ "User-Agent: Lavf57.83.100\r\n"
+			+ "\r\n"
+			+ "GET_PARAMETER rtsp://127.0.0.1:5554/LiveApp/stream1 RTSP/1.0\r\n"
+			+ "CSeq: 4\r\n"
+			+ "User-Agent: Lavf57.83.100\r\n"
+			+ "Session: 1234567890\r\n"
+			+ "\r\n";
+
+	@Param({"16", "256", "4096"})
+	public int chunkSize;
+
+	private byte[] data;
+
+	private RtspDecoder decoder;
+
+	private IoSession session;
+
+	private AbstractProtocolDecoderOutput output;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		data = MESSAGES.getBytes(StandardCharsets.ISO_8859_1);
+		decoder = new RtspDecoder();
+		DummySession dummySession = new DummySession();
+		dummySession.setTransportMetadata(new DefaultTransportMetadata("mina", "dummy", false, true,
+				SocketAddress.class, IoSessionConfig.class, Object.class));
+		session = dummySession;
+		output = new AbstractProtocolDecoderOutput() {
+			@Override
+			public void flush(NextFilter nextFilter, IoSession session) {
+				//messages are consumed by the benchmark
+			}
+		};
+	}
+
+	@Benchmark
+	public void decode(Blackhole blackhole) throws Exception {
+		for (int offset = 0; offset < data.length; offset += chunkSize) {
+			int length = Math.min(chunkSize, data.length - offset);
+			IoBuffer buffer = IoBuffer.allocate(length);
+			buffer.put(data, offset, length);
+			buffer.flip();
+			decoder.decode(session, buffer, output);
+			while (!output.getMessageQueue().isEmpty()) {
+				blackhole.consume(output.getMessageQueue().poll());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(RtspDecoderBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
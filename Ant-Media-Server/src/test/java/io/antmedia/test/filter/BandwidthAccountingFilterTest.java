@@ -0,0 +1,60 @@
+package io.antmedia.test.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import io.antmedia.AntMediaApplicationAdapter;
+import io.antmedia.filter.BandwidthAccountingFilter;
+import io.antmedia.statistic.BandwidthStats;
+
+public class BandwidthAccountingFilterTest {
+
+	@Test
+	public void testDoFilter() throws Exception {
+		BandwidthAccountingFilter filter = new BandwidthAccountingFilter();
+		AntMediaApplicationAdapter app = mock(AntMediaApplicationAdapter.class);
+		BandwidthStats bandwidthStats = new BandwidthStats();
+		when(app.getBandwidthStats()).thenReturn(bandwidthStats);
+		filter.setApplication(app);
+
+		HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+		HttpServletResponse mockResponse = mock(HttpServletResponse.class);
+		when(mockRequest.getMethod()).thenReturn("GET");
+		when(mockRequest.getRequestURI()).thenReturn("/LiveApp/streams/stream1_240p0001.ts");
+		when(mockResponse.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+
+		FilterChain chain = mock(FilterChain.class);
+		doAnswer(invocation -> {
+			ServletResponse response = (ServletResponse) invocation.getArguments()[1];
+			response.getOutputStream().write(new byte[1000], 0, 1000);
+			response.getOutputStream().write(new byte[24], 0, 24);
+			return null;
+		}).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+		filter.doFilter(mockRequest, mockResponse, chain);
+		assertEquals(1024, (long)bandwidthStats.getBytes("stream1").get("240p"));
+
+		//content is sent without output stream, e.g. sendfile
+		doAnswer(invocation -> {
+			HttpServletResponse response = (HttpServletResponse) invocation.getArguments()[1];
+			response.setContentLengthLong(2048);
+			return null;
+		}).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+		filter.doFilter(mockRequest, mockResponse, chain);
+		assertEquals(3072, (long)bandwidthStats.getBytes("stream1").get("240p"));
+	}
+
+}
@@ -737,6 +737,7 @@ public class RestServiceUnitTest {
 		}
 
 		Mockito.verify(streamCapableConnection, Mockito.times(streamCount)).close();
+		Mockito.verify(appAdaptor, Mockito.times(streamCount)).broadcastDeleted(Mockito.anyString());
 
 
 	}
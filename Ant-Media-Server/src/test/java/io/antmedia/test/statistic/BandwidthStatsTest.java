@@ -0,0 +1,73 @@
+package io.antmedia.test.statistic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.antmedia.statistic.BandwidthStats;
+
+public class BandwidthStatsTest {
+
+	@Test
+	public void testRates() {
+		BandwidthStats stats = new BandwidthStats();
+
+		stats.addBytes("stream1", "240p", 1000);
+		stats.addBytes("stream1", "240p", 1000);
+		stats.addBytes("stream1", BandwidthStats.SOURCE_RENDITION, 3000);
+		stats.addBytes("stream2", BandwidthStats.SOURCE_RENDITION, 500);
+
+		assertEquals(5500, stats.getTotalBytes());
+		assertEquals(2000, (long)stats.getBytes("stream1").get("240p"));
+
+		stats.calculateRates(1000);
+		assertEquals(2000, (long)stats.getBytesPerSecond("stream1").get("240p"));
+		assertEquals(5000, (long)stats.getStreamBytesPerSecond().get("stream1"));
+		assertEquals(5500, stats.getTotalBytesPerSecond());
+
+		stats.addBytes("stream1", "240p", 4000);
+		stats.calculateRates(2000);
+		assertEquals(2000, (long)stats.getBytesPerSecond("stream1").get("240p"));
+		assertEquals(0, (long)stats.getBytesPerSecond("stream2").get(BandwidthStats.SOURCE_RENDITION));
+		assertEquals(2000, stats.getTotalBytesPerSecond());
+
+		stats.removeStream("stream1");
+		assertTrue(stats.getBytes("stream1").isEmpty());
+	}
+
+	@Test
+	public void testIdleStreamsAreEvicted() {
+		BandwidthStats stats = new BandwidthStats();
+		stats.setIdleEvictionPeriods(2);
+
+		stats.addBytes("stream1", BandwidthStats.SOURCE_RENDITION, 1000);
+		stats.addBytes("vod.mp4", BandwidthStats.SOURCE_RENDITION, 1000);
+		stats.calculateRates(1000);
+
+		stats.addBytes("stream1", BandwidthStats.SOURCE_RENDITION, 1000);
+		stats.calculateRates(1000);
+		assertEquals(1000, (long)stats.getBytes("vod.mp4").get(BandwidthStats.SOURCE_RENDITION));
+
+		//returned rates are a copy
+		stats.getBytesPerSecond("stream1").clear();
+		assertEquals(1000, (long)stats.getBytesPerSecond("stream1").get(BandwidthStats.SOURCE_RENDITION));
+
+		stats.addBytes("stream1", BandwidthStats.SOURCE_RENDITION, 1000);
+		stats.calculateRates(1000);
+		//not requested for 2 periods
+		assertTrue(stats.getBytes("vod.mp4").isEmpty());
+		assertTrue(stats.getBytesPerSecond("vod.mp4").isEmpty());
+		assertEquals(3000, (long)stats.getBytes("stream1").get(BandwidthStats.SOURCE_RENDITION));
+	}
+
+	@Test
+	public void testGetRendition() {
+		assertEquals("240p", BandwidthStats.getRendition("/LiveApp/streams/stream1_240p.m3u8", "stream1"));
+		assertEquals("720p", BandwidthStats.getRendition("/LiveApp/streams/stream1_720p0003.ts", "stream1"));
+		assertEquals(BandwidthStats.SOURCE_RENDITION, BandwidthStats.getRendition("/LiveApp/streams/stream1.m3u8", "stream1"));
+		assertEquals(BandwidthStats.SOURCE_RENDITION, BandwidthStats.getRendition("/LiveApp/streams/stream10003.ts", "stream1"));
+		assertEquals(BandwidthStats.SOURCE_RENDITION, BandwidthStats.getRendition("/LiveApp/streams/stream1_adaptive.m3u8", "stream1"));
+	}
+
+}
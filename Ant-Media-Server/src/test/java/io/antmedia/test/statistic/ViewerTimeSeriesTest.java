@@ -0,0 +1,84 @@
+package io.antmedia.test.statistic;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import io.antmedia.statistic.ViewerTimeSeries;
+import io.antmedia.statistic.ViewerTimeSeries.Samples;
+
+public class ViewerTimeSeriesTest {
+
+	@Test
+	public void testRingBuffer() {
+		ViewerTimeSeries series = new ViewerTimeSeries(4);
+
+		assertEquals(0, series.getSamples().size());
+
+		for (int i = 0; i < 6; i++) {
+			series.add(i * 1000, i, i + 1, i + 2, 1, 0, 100);
+		}
+
+		Samples samples = series.getSamples();
+		//first two samples are overwritten
+		assertEquals(4, samples.size());
+		assertEquals(2000, samples.time[0]);
+		assertEquals(5000, samples.time[3]);
+		assertEquals(2, samples.hlsViewers[0]);
+		assertEquals(6, samples.rtmpViewers[3]);
+		assertEquals(7, samples.webRTCViewers[3]);
+	}
+
+	@Test
+	public void testDownsample() {
+		ViewerTimeSeries series = new ViewerTimeSeries(10);
+		for (int i = 0; i < 10; i++) {
+			series.add(i * 1000, i % 3, 0, 0, 2, 1, 100);
+		}
+
+		Samples samples = ViewerTimeSeries.downsample(series.getSamples(), 5);
+		assertEquals(5, samples.size());
+		assertEquals(0, samples.time[0]);
+		assertEquals(2000, samples.time[1]);
+		//peak viewer count of the merged samples
+		assertEquals(1, samples.hlsViewers[0]);
+		assertEquals(2, samples.hlsViewers[1]);
+		assertEquals(4, samples.joins[0]);
+		assertEquals(2, samples.leaves[0]);
+		assertEquals(200, samples.bytesServed[0]);
+
+		//no need to downsample
+		Samples original = series.getSamples();
+		assertEquals(original, ViewerTimeSeries.downsample(original, 10));
+	}
+
+	@Test
+	public void testMergingKeepsWholeRecording() {
+		ViewerTimeSeries series = new ViewerTimeSeries(4, true);
+
+		for (int i = 0; i < 10; i++) {
+			series.add(i * 1000, i, 0, 0, 1, 0, 100);
+		}
+
+		//4 points are merged into 2 after 4 samples and 4 points of 2 samples are merged into 2 after 8 samples
+		assertEquals(4, series.getSamplesPerPoint());
+		Samples samples = series.getSamples();
+		assertEquals(3, samples.size());
+		//first sample is not overwritten
+		assertEquals(0, samples.time[0]);
+		assertEquals(4000, samples.time[1]);
+		assertEquals(8000, samples.time[2]);
+		//peak viewer count of the merged samples
+		assertEquals(3, samples.hlsViewers[0]);
+		assertEquals(7, samples.hlsViewers[1]);
+		assertEquals(9, samples.hlsViewers[2]);
+		assertEquals(4, samples.joins[0]);
+		assertEquals(2, samples.joins[2]);
+		long bytes = 0;
+		for (int i = 0; i < samples.size(); i++) {
+			bytes += samples.bytesServed[i];
+		}
+		assertEquals(1000, bytes);
+	}
+
+}
@@ -0,0 +1,147 @@
+package io.antmedia.test.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.api.scope.IScope;
+
+import io.antmedia.datastore.db.types.Token;
+import io.antmedia.security.HMACTokenService;
+
+public class HMACTokenServiceTest {
+
+	private HMACTokenService tokenService;
+
+	@Before
+	public void before() {
+		tokenService = new HMACTokenService();
+		tokenService.setSecretKey("secret");
+	}
+
+	@After
+	public void after() {
+		tokenService = null;
+	}
+
+	private long expireDate(int seconds) {
+		return System.currentTimeMillis() / 1000 + seconds;
+	}
+
+	@Test
+	public void testCheckToken() {
+		Token token = tokenService.createToken("streamId", expireDate(100), Token.PLAY_TOKEN);
+
+		assertTrue(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN));
+
+		//stream id and type are signed
+		assertFalse(tokenService.checkToken(token.getTokenId(), "otherStream", null, Token.PLAY_TOKEN));
+		assertFalse(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PUBLISH_TOKEN));
+
+		//expire date is signed
+		String tampered = (token.getExpireDate() + 1000) + token.getTokenId().substring(token.getTokenId().indexOf('.'));
+		assertFalse(tokenService.checkToken(tampered, "streamId", null, Token.PLAY_TOKEN));
+
+		assertFalse(tokenService.checkToken("malformed", "streamId", null, Token.PLAY_TOKEN));
+		assertFalse(tokenService.checkToken(null, "streamId", null, Token.PLAY_TOKEN));
+
+		//token signed with another secret is not accepted
+		HMACTokenService otherService = new HMACTokenService();
+		otherService.setSecretKey("other secret");
+		assertFalse(otherService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN));
+	}
+
+	@Test
+	public void testExpiredToken() {
+		Token token = tokenService.createToken("streamId", expireDate(-10), Token.PLAY_TOKEN);
+		assertFalse(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN));
+	}
+
+	@Test
+	public void testIPBoundToken() {
+		Token token = tokenService.createToken("streamId", expireDate(100), Token.PLAY_TOKEN, "10.0.0.1");
+
+		assertTrue(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN, "10.0.0.1"));
+		assertFalse(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN, "10.0.0.2"));
+		assertFalse(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN));
+	}
+
+	@Test
+	public void testSessionIsAuthenticated() {
+		Token token = tokenService.createToken("streamId", expireDate(100), Token.PLAY_TOKEN);
+
+		assertTrue(tokenService.checkToken(token.getTokenId(), "streamId", "sessionId", Token.PLAY_TOKEN));
+		assertEquals("streamId", tokenService.getAuthenticatedMap().get("sessionId"));
+
+		//segment requests in the same session do not have token
+		assertTrue(tokenService.checkToken(null, "streamId", "sessionId", Token.PLAY_TOKEN));
+		assertFalse(tokenService.checkToken(null, "otherStream", "sessionId", Token.PLAY_TOKEN));
+	}
+
+	@Test
+	public void testReplayFilter() {
+		tokenService.setReplayFilterEnabled(true);
+		Token token = tokenService.createToken("streamId", expireDate(100), Token.PLAY_TOKEN);
+
+		assertTrue(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN));
+		assertFalse(tokenService.checkToken(token.getTokenId(), "streamId", null, Token.PLAY_TOKEN));
+	}
+
+	@Test
+	public void testReplayFilterIsBounded() {
+		tokenService.setReplayFilterEnabled(true);
+		tokenService.setReplayFilterSize(2);
+		Token first = tokenService.createToken("stream1", expireDate(100), Token.PLAY_TOKEN);
+		Token second = tokenService.createToken("stream2", expireDate(100), Token.PLAY_TOKEN);
+		Token third = tokenService.createToken("stream3", expireDate(100), Token.PLAY_TOKEN);
+
+		assertTrue(tokenService.checkToken(first.getTokenId(), "stream1", null, Token.PLAY_TOKEN));
+		assertTrue(tokenService.checkToken(second.getTokenId(), "stream2", null, Token.PLAY_TOKEN));
+		//oldest entry is evicted although it's not expired
+		assertTrue(tokenService.checkToken(third.getTokenId(), "stream3", null, Token.PLAY_TOKEN));
+
+		assertFalse(tokenService.checkToken(second.getTokenId(), "stream2", null, Token.PLAY_TOKEN));
+		assertFalse(tokenService.checkToken(third.getTokenId(), "stream3", null, Token.PLAY_TOKEN));
+	}
+
+	@Test
+	public void testSeparatorInStreamId() {
+		long expireDate = expireDate(100);
+		//stream id that contains the type of another token does not match it
+		Token token = tokenService.createToken("a|play", expireDate, "x");
+		assertTrue(tokenService.checkToken(token.getTokenId(), "a|play", null, "x"));
+		assertFalse(tokenService.checkToken(token.getTokenId(), "a", null, "play|x"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSecretIsRequired() {
+		new HMACTokenService().afterPropertiesSet();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptySecret() {
+		new HMACTokenService().setSecretKey("");
+	}
+
+	@Test
+	public void testIsPublishAllowed() {
+		IScope scope = mock(IScope.class);
+		Token token = tokenService.createToken("streamId", expireDate(100), Token.PUBLISH_TOKEN);
+
+		Map<String, String> queryParams = new HashMap<>();
+		queryParams.put("token", token.getTokenId());
+		assertTrue(tokenService.isPublishAllowed(scope, "streamId", "mode", queryParams));
+
+		Token playToken = tokenService.createToken("streamId", expireDate(100), Token.PLAY_TOKEN);
+		queryParams.put("token", playToken.getTokenId());
+		assertFalse(tokenService.isPublishAllowed(scope, "streamId", "mode", queryParams));
+	}
+
+}
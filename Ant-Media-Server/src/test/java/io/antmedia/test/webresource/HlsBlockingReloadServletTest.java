@@ -0,0 +1,133 @@
+package io.antmedia.test.webresource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.antmedia.webresource.HlsBlockingReloadServlet;
+import io.antmedia.webresource.HlsBlockingReloadServlet.PlaylistInfo;
+
+public class HlsBlockingReloadServletTest {
+
+	@Test
+	public void testParsePlaylist() {
+		String playlist = "#EXTM3U\n"
+				+ "#EXT-X-VERSION:3\n"
+				+ "#EXT-X-TARGETDURATION:2\n"
+				+ "#EXT-X-MEDIA-SEQUENCE:12\n"
+				+ "#EXTINF:2.000000,\n"
+				+ "stream000000012.ts\n"
+				+ "#EXTINF:2.000000,\n"
+				+ "stream000000013.ts\n"
+				+ "#EXTINF:2.000000,\n"
+				+ "stream000000014.ts\n";
+
+		PlaylistInfo info = HlsBlockingReloadServlet.parsePlaylist(playlist);
+		assertEquals(14, info.getLastMediaSequence());
+		assertFalse(info.isEndList());
+		assertTrue(info.containsSegment("stream000000014.ts"));
+		assertFalse(info.containsSegment("stream000000015.ts"));
+
+		info = HlsBlockingReloadServlet.parsePlaylist(playlist + "#EXT-X-ENDLIST\n");
+		assertTrue(info.isEndList());
+
+		//no media sequence tag means it starts from zero
+		info = HlsBlockingReloadServlet.parsePlaylist("#EXTM3U\r\n#EXTINF:2.0,\r\nstream0.ts\r\n");
+		assertEquals(0, info.getLastMediaSequence());
+	}
+
+	@Test
+	public void testContainsSegmentMatchesWholeUri() {
+		PlaylistInfo info = HlsBlockingReloadServlet.parsePlaylist("#EXTM3U\n"
+				+ "#EXTINF:2.0,\n"
+				+ "livestream1.ts\n"
+				+ "#EXTINF:2.0,\n"
+				+ "/LiveApp/streams/other2.ts?token=123\n");
+
+		assertTrue(info.containsSegment("livestream1.ts"));
+		assertFalse(info.containsSegment("stream1.ts"));
+		assertTrue(info.containsSegment("other2.ts"));
+		assertFalse(info.containsSegment("her2.ts"));
+	}
+
+	@Test
+	public void testPlaylistNameOfSegment() {
+		assertEquals("stream.m3u8", HlsBlockingReloadServlet.getPlaylistName("stream000000012.ts"));
+		assertEquals("stream_240p.m3u8", HlsBlockingReloadServlet.getPlaylistName("stream_240p000000012.ts"));
+	}
+
+	@Test
+	public void testParkedRequestQueues() throws Exception {
+		File directory = Files.createTempDirectory("hls").toFile();
+		File playlist = new File(directory, "stream.m3u8");
+		Files.write(playlist.toPath(), ("#EXTM3U\n#EXT-X-MEDIA-SEQUENCE:12\n#EXTINF:2.0,\nstream000000012.ts\n")
+				.getBytes(StandardCharsets.UTF_8));
+
+		ServletContext servletContext = mock(ServletContext.class);
+		when(servletContext.getRealPath("/stream.m3u8")).thenReturn(playlist.getAbsolutePath());
+		when(servletContext.getRealPath("/other000000001.ts")).thenReturn(new File(directory, "other000000001.ts").getAbsolutePath());
+		ServletConfig config = mock(ServletConfig.class);
+		when(config.getServletContext()).thenReturn(servletContext);
+
+		HlsBlockingReloadServlet servlet = new HlsBlockingReloadServlet();
+		servlet.init(config);
+		try {
+			//segment of a playlist that does not exist is not parked
+			HttpServletRequest request = mockRequest("/other000000001.ts");
+			when(request.getParameter(HlsBlockingReloadServlet.PRELOAD_PARAM)).thenReturn("1");
+			HttpServletResponse response = mock(HttpServletResponse.class);
+			servlet.service(request, response);
+			verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+			assertEquals(0, servlet.getParkedPlaylistCount());
+
+			//playlist request waits for the next segment
+			request = mockRequest("/stream.m3u8");
+			when(request.getParameter(HlsBlockingReloadServlet.MEDIA_SEQUENCE_PARAM)).thenReturn("13");
+			AsyncContext asyncContext = mock(AsyncContext.class);
+			when(request.startAsync()).thenReturn(asyncContext);
+			servlet.service(request, mock(HttpServletResponse.class));
+			assertEquals(1, servlet.getParkedRequestCount());
+			assertEquals(1, servlet.getParkedPlaylistCount());
+
+			//queue of the playlist is removed with its last request
+			ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+			verify(asyncContext).addListener(listener.capture());
+			listener.getValue().onComplete(null);
+			assertEquals(0, servlet.getParkedRequestCount());
+			assertEquals(0, servlet.getParkedPlaylistCount());
+		}
+		finally {
+			servlet.destroy();
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private HttpServletRequest mockRequest(String path) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn(path);
+		when(request.isAsyncSupported()).thenReturn(true);
+		return request;
+	}
+
+}
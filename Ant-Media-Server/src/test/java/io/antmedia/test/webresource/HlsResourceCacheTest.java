@@ -0,0 +1,73 @@
+package io.antmedia.test.webresource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.antmedia.webresource.HlsResourceCache;
+
+public class HlsResourceCacheTest {
+
+	@Test
+	public void testInvalidateOnModification() {
+		HlsResourceCache cache = new HlsResourceCache();
+		byte[] content = new byte[100];
+
+		assertTrue(cache.put("/streams/test.m3u8", content, 1000));
+		assertNotNull(cache.get("/streams/test.m3u8", 1000, 100));
+
+		//file is rewritten
+		assertNull(cache.get("/streams/test.m3u8", 2000, 100));
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getSize());
+
+		assertTrue(cache.put("/streams/test.m3u8", content, 2000));
+		//file size changed in the same millisecond
+		assertNull(cache.get("/streams/test.m3u8", 2000, 120));
+	}
+
+	@Test
+	public void testByteBudget() {
+		HlsResourceCache cache = new HlsResourceCache();
+		cache.setMaxSize(250);
+		cache.setMaxEntrySize(200);
+
+		assertFalse(cache.put("/streams/big.ts", new byte[201], 1000));
+
+		assertTrue(cache.put("/streams/test0.ts", new byte[100], 1000));
+		assertTrue(cache.put("/streams/test1.ts", new byte[100], 1000));
+
+		//access the first one so that the second one is the least recently used
+		assertNotNull(cache.get("/streams/test0.ts", 1000, 100));
+
+		assertTrue(cache.put("/streams/test2.ts", new byte[100], 1000));
+		assertEquals(200, cache.getSize());
+		assertNull(cache.get("/streams/test1.ts", 1000, 100));
+		assertNotNull(cache.get("/streams/test0.ts", 1000, 100));
+		assertNotNull(cache.get("/streams/test2.ts", 1000, 100));
+
+		cache.removeAll("/streams/test");
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testRemoveStream() {
+		HlsResourceCache cache = new HlsResourceCache();
+
+		assertTrue(cache.put("/streams/stream.m3u8", new byte[10], 1000));
+		assertTrue(cache.put("/streams/stream000000001.ts", new byte[10], 1000));
+		assertTrue(cache.put("/streams/stream_240p.m3u8", new byte[10], 1000));
+		assertTrue(cache.put("/streams/streamB.m3u8", new byte[10], 1000));
+
+		cache.removeStream("/streams/", "stream");
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(10, cache.getSize());
+		assertNotNull(cache.get("/streams/streamB.m3u8", 1000, 10));
+	}
+
+}
@@ -2,9 +2,11 @@ package io.antmedia.test.webrtc.adaptor;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -21,11 +23,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.red5.server.api.scope.IScope;
 import org.springframework.context.ApplicationContext;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 import org.webrtc.SessionDescription.Type;
 
+import io.antmedia.AntMediaApplicationAdapter;
 import io.antmedia.webrtc.adaptor.RTMPAdaptor;
 import io.antmedia.websocket.WebSocketCommunityHandler;
 import io.antmedia.websocket.WebSocketConstants;
@@ -114,6 +118,84 @@ public class WebSocketCommunityHandlerTest {
 
 	}
 
+	@Test
+	public void testPublishToMuxAdaptor() {
+		String sessionId = String.valueOf((int)(Math.random()*10000));
+		when(session.getId()).thenReturn(sessionId);
+
+		String streamId = "streamId" + (int)(Math.random()*1000);
+
+		IScope scope = mock(IScope.class);
+		doReturn(scope).when(wsHandler).getDirectIngestScope();
+		RTMPAdaptor rtmpAdaptor = mock(RTMPAdaptor.class);
+		doReturn(rtmpAdaptor).when(wsHandler).getNewRTMPAdaptor(scope, streamId);
+
+		JSONObject publishObject = new JSONObject();
+		publishObject.put(WebSocketConstants.COMMAND, WebSocketConstants.PUBLISH_COMMAND);
+		publishObject.put(WebSocketConstants.STREAM_ID, streamId);
+		wsHandler.onMessage(session, publishObject.toJSONString());
+
+		//stream is not published over the local rtmp connection
+		verify(wsHandler, never()).getNewRTMPAdaptor(Mockito.anyString());
+		verify(rtmpAdaptor).setStreamId(streamId);
+		verify(rtmpAdaptor).start();
+
+		wsHandler.onClose(session);
+		verify(rtmpAdaptor).stop();
+	}
+
+	@Test
+	public void testDirectIngestIsOptIn() {
+		IScope scope = mock(IScope.class);
+		AntMediaApplicationAdapter appAdaptor = mock(AntMediaApplicationAdapter.class);
+		when(appAdaptor.getScope()).thenReturn(scope);
+		ApplicationContext appContext = mock(ApplicationContext.class);
+		when(appContext.containsBean(AntMediaApplicationAdapter.BEAN_NAME)).thenReturn(true);
+		when(appContext.getBean(AntMediaApplicationAdapter.BEAN_NAME)).thenReturn(appAdaptor);
+		doReturn(appContext).when(wsHandler).getAppContext();
+
+		//streams are published over rtmp by default
+		assertNull(wsHandler.getDirectIngestScope());
+
+		when(appAdaptor.isWebRTCDirectIngestEnabled()).thenReturn(true);
+		assertEquals(scope, wsHandler.getDirectIngestScope());
+	}
+
+	@Test
+	public void testPublishOverRtmpIfMuxAdaptorFails() {
+		String sessionId = String.valueOf((int)(Math.random()*10000));
+		when(session.getId()).thenReturn(sessionId);
+
+		String streamId = "streamId" + (int)(Math.random()*1000);
+
+		IScope scope = mock(IScope.class);
+		doReturn(scope).when(wsHandler).getDirectIngestScope();
+		doReturn(null).when(wsHandler).getNewRTMPAdaptor(scope, streamId);
+		RTMPAdaptor rtmpAdaptor = mock(RTMPAdaptor.class);
+		doReturn(rtmpAdaptor).when(wsHandler).getNewRTMPAdaptor(Mockito.anyString());
+
+		JSONObject publishObject = new JSONObject();
+		publishObject.put(WebSocketConstants.COMMAND, WebSocketConstants.PUBLISH_COMMAND);
+		publishObject.put(WebSocketConstants.STREAM_ID, streamId);
+		wsHandler.onMessage(session, publishObject.toJSONString());
+
+		verify(wsHandler).getNewRTMPAdaptor("rtmp://127.0.0.1/WebRTCApp/" + streamId);
+		verify(rtmpAdaptor).start();
+	}
+
+	@Test
+	public void testPlayRequestsPullOnDemandSource() {
+		String streamId = "streamId" + (int)(Math.random()*1000);
+
+		JSONObject playObject = new JSONObject();
+		playObject.put(WebSocketConstants.COMMAND, WebSocketConstants.PLAY_COMMAND);
+		playObject.put(WebSocketConstants.STREAM_ID, streamId);
+		wsHandler.onMessage(session, playObject.toJSONString());
+
+		verify(wsHandler).viewerRequested(streamId);
+		verify(wsHandler, never()).getNewRTMPAdaptor(Mockito.anyString());
+	}
+
 	@Test
 	public void testPublishAndStopCommand() {
 